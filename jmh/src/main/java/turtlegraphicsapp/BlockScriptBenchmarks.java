@@ -0,0 +1,96 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A generated drawing written out flat, one command per line, against the same drawing written
+// as a procedure and a repeat: reading and compiling the script, and running it on a fresh
+// OffscreenCanvas. BlockInterpreterTest checks both draw the same.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockScriptBenchmarks {
+    @Param({"flat", "compact"})
+    public String form;
+
+    @Param({"20000"})
+    public int crosses;
+
+    private File script;
+    private List<Instruction> program;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        script = File.createTempFile("jmh-block", ".txt");
+        try (PrintWriter out = new PrintWriter(script, StandardCharsets.UTF_8)) {
+            out.println("reset");
+            out.println("pen 0 0 255");
+            if (form.equals("flat")) {
+                for (int i = 1; i <= crosses; i++) {
+                    int size = 10 + i % 100;
+                    for (int side = 0; side < 4; side++) {
+                        out.println("forward " + size);
+                        out.println("reverse " + size);
+                        out.println("right 90");
+                    }
+                    out.println("right 7");
+                }
+            } else {
+                out.println("to cross :size");
+                out.println("  repeat 4 [ forward :size reverse :size right 90 ]");
+                out.println("end");
+                out.println("repeat " + crosses + " [");
+                out.println("  cross 10 + repcount % 100");
+                out.println("  right 7");
+                out.println("]");
+            }
+        }
+        program = CommandManager.readScript(script);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        script.delete();
+    }
+
+    @Benchmark
+    public List<Instruction> load() throws IOException {
+        return CommandManager.readScript(script);
+    }
+
+    @Benchmark
+    public int run() {
+        OffscreenCanvas canvas = new OffscreenCanvas(800, 400);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(false);
+        int valid = 0;
+        for (Instruction instruction : program) {
+            if (handler.execute(instruction)) valid++;
+        }
+        canvas.dispose();
+        return valid;
+    }
+}
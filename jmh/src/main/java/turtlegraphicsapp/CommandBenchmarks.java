@@ -0,0 +1,76 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// CommandHandler.handleCommand throughput for each kind of command, parsing included, against
+// an OffscreenCanvas. Every command is followed by a 10 degree turn, so moving commands trace
+// a circle and stay on the canvas; the "right 10" row is that turn on its own.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmarks {
+    @Param({"right 10", "forward 10", "reverse 10", "circle 20", "square 30", "triangle 30",
+            "triangle 30 40 50", "pen 10 200 30", "penwidth 3", "green", "penup"})
+    public String command;
+
+    private OffscreenCanvas canvas;
+    private CommandHandler handler;
+    private Instruction turn;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        canvas = new OffscreenCanvas(800, 400);
+        handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(false);
+        turn = CommandCompiler.compile("right 10");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        canvas.dispose();
+    }
+
+    @Benchmark
+    public boolean handleCommand() {
+        boolean valid = handler.handleCommand(command);
+        handler.execute(turn);
+        return valid;
+    }
+
+    // The same without parsing, as a compiled script runs
+    @Benchmark
+    public boolean executeCompiled(CompiledCommand compiled) {
+        boolean valid = handler.execute(compiled.instruction);
+        handler.execute(turn);
+        return valid;
+    }
+
+    @State(Scope.Thread)
+    public static class CompiledCommand {
+        Instruction instruction;
+
+        @Setup
+        public void setUp(CommandBenchmarks benchmarks) {
+            instruction = CommandCompiler.compile(benchmarks.command);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Pipes commands through FrameScheduler from the benchmark thread, as the console does with a
+// script piped into it, against the unbounded LinkedBlockingQueue hand-off it replaced. Each
+// command runs a real turn on an OffscreenCanvas. Times are per command.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandQueueBenchmarks {
+    private static final int COMMANDS = 100_000;
+
+    private OffscreenCanvas canvas;
+    private Runnable turn;
+    private FrameScheduler scheduler;
+    private BlockingQueue<Runnable> linked;
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvas = new OffscreenCanvas(800, 400);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        Instruction right = CommandCompiler.compile("right 7");
+        turn = () -> handler.execute(right);
+
+        scheduler = new FrameScheduler(FrameScheduler.DEFAULT_FRAME_RATE, deadline -> { });
+        scheduler.start();
+
+        // The previous executor loop: unbounded queue, one take() per command
+        linked = new LinkedBlockingQueue<>();
+        consumer = new Thread(() -> {
+            try {
+                while (true) {
+                    linked.take().run();
+                }
+            } catch (InterruptedException e) {
+                // Finished
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.stop();
+        consumer.interrupt();
+        canvas.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public void ringBuffer() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < COMMANDS - 1; i++) {
+            scheduler.submit(turn);
+        }
+        scheduler.submit(done::countDown);
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public void linkedBlockingQueue() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < COMMANDS - 1; i++) {
+            linked.add(turn);
+        }
+        linked.add(done::countDown);
+        done.await();
+    }
+}
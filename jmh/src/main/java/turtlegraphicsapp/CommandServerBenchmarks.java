@@ -0,0 +1,138 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Streams commands to a CommandServer from several clients at once, over loopback TCP or a
+// Unix-domain socket, and waits for every reply. Clients write without waiting for replies, as
+// tooling driving the canvas would. The commands run on an OffscreenCanvas through the same
+// executor thread the window uses. Scores are commands per second over all clients.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandServerBenchmarks {
+    private static final int CLIENTS = 4;
+    private static final int COMMANDS = 50_000;// Per client
+    private static final String[] SAMPLE = {"forward 3", "left 7", "penwidth 2", "right 11", "reverse 2", "green",
+            "forward -5"};
+
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    private OffscreenCanvas canvas;
+    private FrameScheduler scheduler;
+    private CommandServer server;
+    private Path directory;
+    private byte[] script;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        canvas = new OffscreenCanvas(800, 400);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        scheduler = new FrameScheduler(FrameScheduler.DEFAULT_FRAME_RATE, deadline -> { });
+        scheduler.start();
+        CommandServer.Runner runner = instruction -> handler.execute(instruction) ? null : handler.getLastMessage();
+        SocketAddress address;
+        if (transport.equals("unix")) {
+            directory = Files.createTempDirectory("turtle");
+            address = UnixDomainSocketAddress.of(directory.resolve("commands.sock"));
+        } else {
+            address = CommandServer.parseAddress("0");
+        }
+        server = new CommandServer(address, scheduler, runner);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < COMMANDS; i++) {
+            text.append(SAMPLE[i % SAMPLE.length]).append('\n');
+        }
+        script = text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        scheduler.stop();
+        canvas.dispose();
+        if (directory != null) {
+            Files.deleteIfExists(directory.resolve("commands.sock"));
+            Files.delete(directory);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTS * COMMANDS)
+    public void pipelinedClients() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            SocketAddress address = server.getAddress();
+            SocketChannel channel = address instanceof UnixDomainSocketAddress
+                    ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+            channel.connect(address);
+            // The channel itself, not Channels streams: those lock the channel for reads and
+            // writes alike, and the reader would block the writer
+            Thread writer = new Thread(() -> {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(script);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Thread reader = new Thread(() -> {
+                try (channel) {
+                    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                    int replies = 0;
+                    while (replies < COMMANDS && channel.read(buffer) >= 0) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            if (buffer.get() == '\n') replies++;
+                        }
+                        buffer.clear();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.start();
+            reader.start();
+            threads.add(writer);
+            threads.add(reader);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
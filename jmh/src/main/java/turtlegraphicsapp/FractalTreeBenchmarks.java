@@ -0,0 +1,65 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The "fractal tree N" command at several depths: the batched FractalTreeEngine, and the
+// recursive turtle drawing that "fractal tree N animate" uses (with no frame pauses offscreen).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FractalTreeBenchmarks {
+    @Param({"6", "10", "14", "18"})
+    public int depth;
+
+    private OffscreenCanvas canvas;
+    private CommandHandler handler;
+    private Instruction tree;
+    private Instruction animated;
+    private Instruction reset;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvas = new OffscreenCanvas(800, 400);
+        handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(false);
+        tree = CommandCompiler.compile("fractal tree " + depth);
+        animated = CommandCompiler.compile("fractal tree " + depth + " animate");
+        reset = CommandCompiler.compile("reset");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        canvas.dispose();
+    }
+
+    @Benchmark
+    public boolean engine() {
+        handler.execute(reset);
+        return handler.execute(tree);
+    }
+
+    @Benchmark
+    public boolean recursive() {
+        handler.execute(reset);
+        return handler.execute(animated);
+    }
+}
@@ -0,0 +1,78 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// ImageManager's save path (atomic write through PngWriter, or ImageIO for JPG) and its load
+// path (ImageIO.read), on a drawing typical of the program.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmarks {
+    @Param({"800x400", "2400x1200"})
+    public String size;
+
+    @Param({"png", "jpg"})
+    public String format;
+
+    private BufferedImage image;
+    private File file;
+    private final PngWriter pngWriter = new PngWriter();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        OffscreenCanvas canvas = new OffscreenCanvas(width, height);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.handleCommand("fractal tree 12");
+        handler.handleCommand("penwidth 3");
+        for (int i = 0; i < 36; i++) {
+            handler.handleCommand(i % 2 == 0 ? "cyan" : "pink");
+            handler.handleCommand("circle " + (20 + 5 * i));
+            handler.handleCommand("right 10");
+        }
+        image = canvas.getBufferedImage();
+        file = File.createTempFile("jmh-image", "." + format);
+        ImageManager.writeImage(image, file, pngWriter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        ImageManager.writeImageAtomically(image, file, pngWriter);
+        return file;
+    }
+
+    @Benchmark
+    public BufferedImage load() throws IOException {
+        return ImageIO.read(file);
+    }
+}
@@ -0,0 +1,58 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// What CommandJournal.append costs the thread running commands, with the writer thread doing
+// group commit and checkpoints in the background. An undo now and then, as in a real session.
+// CommandJournalTest checks what the journal recovers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmarks {
+    private static final String[] SAMPLE = {"forward 50", "left 90", "pen 120 30 255", "circle 40", "penwidth 3",
+            "right 45", "reverse 20"};
+
+    private File directory;
+    private CommandJournal journal;
+    private int count;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jmh-journal").toFile();
+        journal = CommandJournal.open(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        journal.discard();
+        directory.delete();
+    }
+
+    @Benchmark
+    public void append() {
+        if (++count % 50 == 0) {
+            journal.removeLast();
+        } else {
+            journal.append(SAMPLE[count % SAMPLE.length]);
+        }
+    }
+}
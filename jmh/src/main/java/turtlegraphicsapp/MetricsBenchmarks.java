@@ -0,0 +1,71 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// What the command instrumentation costs per command: with no CommandMetrics attached, attached
+// but turned off, and turned on. Off should cost next to nothing over none. Add
+// -jvmArgsAppend -XX:StartFlightRecording to see the cost of the JFR events as well. The
+// commands don't draw, so undo checkpoints and rasterization don't drown out the few nanoseconds
+// being measured.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmarks {
+    private static final String[] SAMPLE = {"left 7", "penwidth 2", "right 11", "green", "pen 10 20 30"};
+    private static final int BATCH = 1000;
+
+    @Param({"none", "off", "on"})
+    public String metrics;
+
+    private final Instruction[] program = new Instruction[BATCH];
+    private OffscreenCanvas canvas;
+    private CommandHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < BATCH; i++) {
+            program[i] = CommandCompiler.compile(SAMPLE[i % SAMPLE.length]);
+        }
+        canvas = new OffscreenCanvas(400, 400);
+        handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        if (!metrics.equals("none")) {
+            CommandMetrics commandMetrics = new CommandMetrics();
+            commandMetrics.setEnabled(metrics.equals("on"));
+            handler.setMetrics(commandMetrics);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        canvas.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int execute() {
+        int valid = 0;
+        for (Instruction instruction : program) {
+            if (handler.execute(instruction)) valid++;
+        }
+        return valid;
+    }
+}
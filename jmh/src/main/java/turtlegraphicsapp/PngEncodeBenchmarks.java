@@ -0,0 +1,94 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Encodes drawings made by our own commands as PNG in memory, with ImageIO's writer and with
+// PngWriter at a few levels and filters, at canvas size and scaled up 4x. PngWriterTest checks
+// PngWriter's output decodes to the same pixels.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngEncodeBenchmarks {
+    @Param({"tree", "koch", "walk"})
+    public String drawing;
+
+    @Param({"1", "4"})
+    public int scale;
+
+    @Param({"imageio", "1-none", "6-none", "6-up", "9-none"})
+    public String encoder;// ImageIO, or PngWriter's level and filter
+
+    private BufferedImage image;
+    private PngWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> script = switch (drawing) {
+            case "tree" -> List.of("fractal tree 14");
+            case "koch" -> List.of("penup", "reverse 300", "pendown", "lsystem 5 90 2 F F=F+F-F-F+F");
+            default -> randomWalk(20_000);
+        };
+        OffscreenCanvas canvas = new OffscreenCanvas(800, 400);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(scale != 1);
+        for (String line : script) {
+            handler.handleCommand(line);
+        }
+        image = scale == 1 ? canvas.getBufferedImage()
+                : handler.getDisplayList().renderImage(800, 400, scale, Color.BLACK);
+        if (!encoder.equals("imageio")) {
+            String[] settings = encoder.split("-");
+            writer = new PngWriter(Integer.parseInt(settings[0]), PngWriter.Filter.parse(settings[1]));
+        }
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (writer == null) {
+            ImageIO.write(image, "png", out);
+        } else {
+            writer.write(PngWriter.rowsOf(image), out);
+        }
+        return out.size();
+    }
+
+    private static List<String> randomWalk(int steps) {
+        Random random = new Random(42);
+        String[] colours = {"red", "green", "orange", "pink", "cyan", "white"};
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < steps; i++) {
+            if (i % 500 == 0) lines.add(colours[random.nextInt(colours.length)]);
+            lines.add((random.nextBoolean() ? "left " : "right ") + random.nextInt(120));
+            lines.add("forward " + (1 + random.nextInt(8)));
+            if (i % 200 == 0) lines.add("reset");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,118 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Loading a command file without and with a RenderCache hit: running every command, against
+// hashing the file and restoring the finished canvas from disk. History and geometry are
+// recorded as in the app. RenderCacheTest checks a hit restores what the run drew.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderCacheBenchmarks {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 400;
+
+    @Param({"5000"})
+    public int crosses;
+
+    private File script;
+    private File directory;
+    private List<Instruction> program;
+    private RenderCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        script = File.createTempFile("jmh-render-cache", ".txt");
+        try (PrintWriter out = new PrintWriter(script, StandardCharsets.UTF_8)) {
+            out.println("pen 0 0 255");
+            for (int i = 1; i <= crosses; i++) {
+                int size = 10 + i % 100;
+                for (int side = 0; side < 4; side++) {
+                    out.println("forward " + size);
+                    out.println("reverse " + size);
+                    out.println("right 90");
+                }
+                out.println("right 7");
+            }
+        }
+        program = CommandManager.readScript(script);
+        directory = Files.createTempDirectory("jmh-render-cache").toFile();
+        cache = new RenderCache(directory, RenderCache.DEFAULT_MAX_BYTES);
+
+        OffscreenCanvas canvas = new OffscreenCanvas(WIDTH, HEIGHT);
+        CommandHandler handler = handler(canvas);
+        String key = RenderCache.key(script, handler, false);
+        for (Instruction instruction : program) {
+            handler.execute(instruction);
+        }
+        cache.put(key, handler.captureRender(new int[0]));
+        cache.flush();
+        canvas.dispose();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        script.delete();
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int replay() {
+        OffscreenCanvas canvas = new OffscreenCanvas(WIDTH, HEIGHT);
+        CommandHandler handler = handler(canvas);
+        int valid = 0;
+        for (Instruction instruction : program) {
+            if (handler.execute(instruction)) valid++;
+        }
+        canvas.dispose();
+        return valid;
+    }
+
+    // What loading does on a hit: hash the file, read the entry, put it back
+    @Benchmark
+    public int cacheHit() throws IOException {
+        OffscreenCanvas canvas = new OffscreenCanvas(WIDTH, HEIGHT);
+        CommandHandler handler = handler(canvas);
+        RenderCache.Entry entry = cache.get(RenderCache.key(script, handler, false));
+        if (entry == null) {
+            throw new IllegalStateException("Expected a cache hit");
+        }
+        handler.restoreRender(entry, program);
+        canvas.dispose();
+        return entry.width;
+    }
+
+    private static CommandHandler handler(OffscreenCanvas canvas) {
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        return handler;
+    }
+}
@@ -0,0 +1,91 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Renders a batch of the same generated script through RenderService with different numbers of
+// threads. Sessions share no state, so the time per script should fall with the thread count
+// until the cores run out.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderServiceBenchmarks {
+    private static final int SCRIPTS = 16;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"30000"})
+    public int commands;
+
+    private File directory;
+    private File script;
+    private RenderService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jmh-render").toFile();
+        script = new File(directory, "walk.txt");
+        Random random = new Random(7);
+        try (PrintWriter out = new PrintWriter(script)) {
+            // Spokes out and back from the centre, so the turtle never leaves the canvas
+            out.println("pendown");
+            for (int i = 1; i < commands; i += 3) {
+                int length = 1 + random.nextInt(150);
+                out.println("right " + random.nextInt(360));
+                out.println("forward " + length);
+                out.println("reverse " + length);
+            }
+        }
+        service = new RenderService(new BatchRenderer(800, 400, 1), threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCRIPTS)
+    public long renderBatch() throws InterruptedException, ExecutionException {
+        List<Future<BatchRenderer.Result>> results = new ArrayList<>();
+        for (int i = 0; i < SCRIPTS; i++) {
+            results.add(service.submit(script, new File(directory, "out" + i + ".png")));
+        }
+        long segments = 0;
+        for (Future<BatchRenderer.Result> result : results) {
+            segments += result.get().segments;
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,89 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// What CommandManager.loadAndExecuteFile does with a large script, minus the Swing updates:
+// read (text or binary), clear the canvas and draw history, then run every command with undo
+// history recorded, as the window does.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScriptLoadBenchmarks {
+    @Param({"10000", "100000"})
+    public int commands;
+
+    @Param({".txt", ".tgb"})
+    public String format;
+
+    private File script;
+    private OffscreenCanvas canvas;
+    private CommandHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(11);
+        String[] colours = {"red", "green", "orange", "pink", "cyan", "white"};
+        List<Instruction> program = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) {
+            program.add(CommandCompiler.compile(switch (random.nextInt(8)) {
+                case 0 -> colours[random.nextInt(colours.length)];
+                case 1 -> "penwidth " + (1 + random.nextInt(4));
+                case 2 -> "circle " + (1 + random.nextInt(60));
+                case 3, 4 -> (random.nextBoolean() ? "left " : "right ") + random.nextInt(361);
+                default -> "forward " + random.nextInt(80);
+            }));
+        }
+        script = File.createTempFile("jmh-script", format);
+        CommandManager.writeScript(program, script);
+        canvas = new OffscreenCanvas(800, 400);
+        handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        canvas.dispose();
+        script.delete();
+    }
+
+    @Benchmark
+    public int loadAndExecute() throws IOException {
+        canvas.clear();
+        canvas.reset();
+        handler.clearDrawHistory();
+        int valid = 0;
+        if (BinaryScript.isBinary(script)) {
+            BinaryScript.Reader reader = new BinaryScript.Reader(script);
+            while (reader.hasNext()) {
+                if (handler.execute(reader.next())) valid++;
+            }
+        } else {
+            for (Instruction instruction : CommandManager.readTextScript(script)) {
+                if (handler.execute(instruction)) valid++;
+            }
+        }
+        return valid;
+    }
+}
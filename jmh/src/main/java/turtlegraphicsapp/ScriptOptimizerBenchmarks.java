@@ -0,0 +1,115 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Runs a generated script like the machine-generated ones we load (runs of small turns, repeated
+// colours, zero-length and pen-up moves, moves split into steps) on a fresh OffscreenCanvas, as
+// written and through ScriptOptimizer, optimizing included. ScriptOptimizerTest checks both leave
+// the same canvas.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptOptimizerBenchmarks {
+    private static final String[] COLOURS = {"red", "green", "orange", "white", "pink", "cyan", "pen 10 200 90"};
+
+    @Param({"20000"})
+    public int commands;
+
+    @Param({"false", "true"})
+    public boolean optimize;
+
+    private List<Instruction> program;
+    private OffscreenCanvas canvas;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        program = generate(new Random(1), commands);
+    }
+
+    @Setup(Level.Invocation)
+    public void newCanvas() {
+        canvas = new OffscreenCanvas(800, 400);
+    }
+
+    @TearDown(Level.Invocation)
+    public void disposeCanvas() {
+        canvas.dispose();
+    }
+
+    @Benchmark
+    public int run() {
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(false);
+        int valid = 0;
+        for (Instruction instruction : optimize ? handler.optimize(program).program : program) {
+            if (handler.execute(instruction)) valid++;
+        }
+        return valid;
+    }
+
+    private static List<Instruction> generate(Random random, int commands) {
+        List<String> lines = new ArrayList<>();
+        lines.add("penwidth " + (random.nextBoolean() ? 1 : 3));
+        while (lines.size() < commands) {
+            switch (random.nextInt(12)) {
+                case 0, 1 -> {
+                    // A turn split into small steps, sometimes coming back round
+                    for (int i = random.nextInt(4); i >= 0; i--) {
+                        lines.add((random.nextBoolean() ? "left " : "right ") + 15 * random.nextInt(7));
+                    }
+                }
+                case 2, 3 -> {
+                    // A straight line drawn in steps
+                    String step = (random.nextInt(4) == 0 ? "reverse " : "forward ") + random.nextInt(12);
+                    for (int i = random.nextInt(5); i >= 0; i--) lines.add(step);
+                }
+                case 4 -> lines.add(COLOURS[random.nextInt(COLOURS.length)]);
+                case 5 -> {
+                    lines.add("penup");
+                    for (int i = random.nextInt(3); i >= 0; i--) lines.add("forward " + random.nextInt(30));
+                    lines.add("pendown");
+                }
+                case 6 -> lines.add(random.nextBoolean() ? "forward 0" : "left 0");
+                case 7 -> lines.add(random.nextBoolean() ? "pendown" : "penwidth " + (1 + random.nextInt(2)));
+                case 8 -> lines.add(random.nextInt(3) == 0 ? "square " + random.nextInt(40) : "circle " + random.nextInt(30));
+                case 9 -> lines.add(switch (random.nextInt(12)) {
+                    case 0 -> "clear";
+                    case 1 -> "reset";
+                    case 2 -> "dance 3";
+                    case 3 -> "triangle " + random.nextInt(50);
+                    case 4 -> "fractal tree 3";
+                    default -> "cyclecolours";
+                });
+                case 10 -> lines.add("forward " + random.nextInt(400));// Often blocked at the edge
+                default -> lines.add((random.nextBoolean() ? "left " : "right ") + random.nextInt(360));
+            }
+        }
+        List<Instruction> program = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            program.add(CommandCompiler.compile(line));
+        }
+        return program;
+    }
+}
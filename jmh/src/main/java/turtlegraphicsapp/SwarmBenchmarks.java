@@ -0,0 +1,80 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// A swarm of turtles, each drawing its own random spokes around a different point of one shared
+// canvas, run and composited with different numbers of worker threads. TurtleSwarmTest checks
+// the image is the same for every thread count.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SwarmBenchmarks {
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"64"})
+    public int turtles;
+
+    @Param({"10000"})
+    public int commands;// Per turtle
+
+    private final List<List<Instruction>> programs = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        for (int t = 0; t < turtles; t++) {
+            List<Instruction> program = new ArrayList<>();
+            program.add(CommandCompiler.compile("penup"));
+            program.add(CommandCompiler.compile("right " + random.nextInt(360)));
+            program.add(CommandCompiler.compile("forward " + random.nextInt(180)));
+            program.add(CommandCompiler.compile("pendown"));
+            program.add(CommandCompiler.compile("pen " + random.nextInt(256) + " " + random.nextInt(256) + " " + random.nextInt(256)));
+            while (program.size() < commands) {
+                int length = 1 + random.nextInt(20);
+                program.add(CommandCompiler.compile("right " + random.nextInt(360)));
+                program.add(CommandCompiler.compile("forward " + length));
+                program.add(CommandCompiler.compile("reverse " + length));
+            }
+            programs.add(program);
+        }
+    }
+
+    // Runs every turtle's program, then composites the canvas
+    @Benchmark
+    public BufferedImage runAndComposite() throws InterruptedException, ExecutionException {
+        try (TurtleSwarm swarm = new TurtleSwarm(800, 400, threads)) {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < programs.size(); t++) {
+                swarm.addTurtle("turtle" + t);
+                results.add(swarm.submit("turtle" + t, programs.get(t)));
+            }
+            for (Future<Integer> result : results) {
+                result.get();
+            }
+            return swarm.composite();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// What previews of a recent-files list cost: the thumbnail of a large PNG decoded in full
+// against with subsampling, a script thumbnail against a full-size render, and a new
+// ThumbnailCache finding every thumbnail on disk, against one that has them in memory.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThumbnailBenchmarks {
+    private static final Dimension CANVAS = new Dimension(800, 400);
+    private static final int IMAGES = 8;
+    private static final int SCRIPTS = 2;
+
+    private Path work;
+    private File cacheDirectory;
+    private final List<String> paths = new ArrayList<>();
+    private File image;
+    private File script;
+    private ThumbnailCache warm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        work = Files.createTempDirectory("jmh-thumbnail");
+        Random random = new Random(1);
+        for (int i = 0; i < IMAGES; i++) {
+            File file = work.resolve("image" + i + ".png").toFile();
+            ImageIO.write(picture(random), "png", file);
+            paths.add(file.getPath());
+        }
+        for (int i = 0; i < SCRIPTS; i++) {
+            File file = work.resolve("script" + i + ".txt").toFile();
+            try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+                out.println("pen 0 " + random.nextInt(256) + " 255");
+                out.println("repeat " + (2000 + i * 100) + " [ forward 150 reverse 150 right 7 ]");
+                for (int j = 0; j < 20_000; j++) {
+                    out.println("circle " + (5 + j % 150));
+                    out.println("right 3");
+                }
+            }
+            paths.add(file.getPath());
+        }
+        image = new File(paths.get(0));
+        script = new File(paths.get(IMAGES));
+
+        cacheDirectory = work.resolve("cache").toFile();
+        warm = new ThumbnailCache(cacheDirectory, ThumbnailCache.DEFAULT_MAX_BYTES, () -> CANVAS);
+        fill(warm);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        warm.close();
+        try (Stream<Path> files = Files.walk(work)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public BufferedImage imageFullDecode() throws IOException {
+        return ThumbnailCache.fit(ImageIO.read(image));
+    }
+
+    @Benchmark
+    public BufferedImage imageSubsampled() throws IOException {
+        return ThumbnailCache.decodeImage(image);
+    }
+
+    // The script drawn at full size, as the canvas would, then shrunk
+    @Benchmark
+    public BufferedImage scriptFullRender() throws IOException {
+        OffscreenCanvas canvas = new OffscreenCanvas(CANVAS.width, CANVAS.height);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(false);
+        for (Instruction instruction : CommandManager.readScript(script)) {
+            handler.execute(instruction);
+        }
+        BufferedImage thumbnail = ThumbnailCache.fit(canvas.getBufferedImage());
+        canvas.dispose();
+        return thumbnail;
+    }
+
+    @Benchmark
+    public BufferedImage scriptThumbnail() throws IOException {
+        return ThumbnailCache.renderScript(script, CANVAS);
+    }
+
+    @Benchmark
+    public void allFromDisk() throws InterruptedException {
+        ThumbnailCache cache = new ThumbnailCache(cacheDirectory, ThumbnailCache.DEFAULT_MAX_BYTES, () -> CANVAS);
+        fill(cache);
+        cache.close();
+    }
+
+    @Benchmark
+    public int allFromMemory() {
+        int found = 0;
+        for (String path : paths) {
+            if (warm.get(path, () -> { }) != null) found++;
+        }
+        return found;
+    }
+
+    private void fill(ThumbnailCache cache) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(paths.size());
+        for (String path : paths) {
+            cache.get(path, done::countDown);
+        }
+        if (!done.await(10, TimeUnit.MINUTES)) throw new IllegalStateException("Thumbnails not made");
+    }
+
+    private static BufferedImage picture(Random random) {
+        BufferedImage image = new BufferedImage(2400, 1800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < 400; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.setStroke(new BasicStroke(1 + random.nextInt(8)));
+            g.drawLine(random.nextInt(2400), random.nextInt(1800), random.nextInt(2400), random.nextInt(1800));
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,63 @@
+package turtlegraphicsapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// CommandHandler.undoLastDrawCommand with different amounts of drawing history. Each operation
+// undoes the last command and runs it again, so the history stays the same length.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UndoBenchmarks {
+    @Param({"100", "1000", "10000"})
+    public int history;
+
+    private OffscreenCanvas canvas;
+    private CommandHandler handler;
+    private Instruction last;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvas = new OffscreenCanvas(800, 400);
+        handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        Random random = new Random(3);
+        for (int i = 0; i < history; i++) {
+            last = CommandCompiler.compile(switch (random.nextInt(4)) {
+                case 0 -> "circle " + (5 + random.nextInt(40));
+                case 1 -> "square " + (5 + random.nextInt(40));
+                default -> "forward " + random.nextInt(60);
+            });
+            handler.execute(last);
+            handler.execute(CommandCompiler.compile("right " + random.nextInt(180)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        canvas.dispose();
+    }
+
+    @Benchmark
+    public boolean undoAndRedo() {
+        handler.undoLastDrawCommand();
+        return handler.execute(last);
+    }
+}
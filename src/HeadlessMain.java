@@ -0,0 +1,139 @@
+import turtlegraphicsapp.BatchRenderer;
+import turtlegraphicsapp.CommandManager;
+import turtlegraphicsapp.ImageManager;
+import turtlegraphicsapp.Instruction;
+import turtlegraphicsapp.PngWriter;
+import turtlegraphicsapp.RenderService;
+import turtlegraphicsapp.ScriptOptimizer;
+import turtlegraphicsapp.TurtleSwarm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// Headless entry point: renders command scripts to image files without opening a window.
+// Scripts render in parallel, one session each, on --threads workers (default: one per core).
+// With --swarm every script drives its own turtle, all drawing together into one image.
+// Usage: java HeadlessMain [--size WIDTHxHEIGHT] [--scale N] [--png-level 0-9] [--png-filter NAME] [--tiles heap|mapped] [--threads N] [--memory-limit MB] [--optimize on|off] script.txt out.png [script2.txt out2.png ...]
+//        java HeadlessMain [--size WIDTHxHEIGHT] [--png-level 0-9] [--png-filter NAME] [--threads N] --swarm out.png script.txt [script2.txt ...]
+public class HeadlessMain {
+    private static final String USAGE = "Usage: java HeadlessMain [--size WIDTHxHEIGHT] [--scale N] [--png-level 0-9] [--png-filter NAME] [--tiles heap|mapped] [--threads N] [--memory-limit MB] [--optimize on|off] script.txt out.png [script2.txt out2.png ...]\n"
+            + "       java HeadlessMain [--size WIDTHxHEIGHT] [--png-level 0-9] [--png-filter NAME] [--threads N] --swarm out.png script.txt [script2.txt ...]";
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        int width = 800;
+        int height = 400;
+        double scale = 1;
+        int pngLevel = PngWriter.DEFAULT_LEVEL;
+        PngWriter.Filter pngFilter = PngWriter.DEFAULT_FILTER;
+        BatchRenderer.Backend backend = BatchRenderer.Backend.IMAGE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryLimit = Long.MAX_VALUE;
+        boolean optimize = ScriptOptimizer.isEnabled();
+        File swarmOutput = null;
+        int first = 0;
+        while (args.length >= first + 2 && args[first].startsWith("--")) {
+            if (args[first].equals("--size")) {
+                String[] size = args[first + 1].toLowerCase().split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (args[first].equals("--scale")) {
+                scale = Double.parseDouble(args[first + 1]);
+            } else if (args[first].equals("--png-level")) {
+                pngLevel = Integer.parseInt(args[first + 1]);
+            } else if (args[first].equals("--png-filter")) {
+                pngFilter = PngWriter.Filter.parse(args[first + 1]);
+            } else if (args[first].equals("--tiles")) {
+                // Tiled canvas for very large sizes: tiles on the heap, or spilled to a mapped file
+                backend = args[first + 1].equalsIgnoreCase("mapped") ? BatchRenderer.Backend.MAPPED : BatchRenderer.Backend.TILED;
+            } else if (args[first].equals("--threads")) {
+                threads = Math.max(1, Integer.parseInt(args[first + 1]));
+            } else if (args[first].equals("--memory-limit")) {
+                memoryLimit = Long.parseLong(args[first + 1]) * 1024 * 1024;
+            } else if (args[first].equals("--optimize")) {
+                // Off runs every command exactly as written, e.g. to debug a script
+                optimize = !args[first + 1].equalsIgnoreCase("off");
+            } else if (args[first].equals("--swarm")) {
+                swarmOutput = new File(args[first + 1]);
+            } else {
+                break;
+            }
+            first += 2;
+        }
+
+        if (swarmOutput != null && args.length > first) {
+            String[] scripts = Arrays.copyOfRange(args, first, args.length);
+            System.exit(renderSwarm(scripts, swarmOutput, width, height, threads, new PngWriter(pngLevel, pngFilter)));
+        }
+        if (args.length == first || (args.length - first) % 2 != 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        BatchRenderer renderer = new BatchRenderer(width, height, scale);
+        renderer.setPngWriter(new PngWriter(pngLevel, pngFilter));
+        renderer.setBackend(backend);
+        renderer.setMemoryLimit(memoryLimit);
+        renderer.setOptimize(optimize);
+        RenderService service = new RenderService(renderer, Math.min(threads, (args.length - first) / 2));
+        List<Future<BatchRenderer.Result>> results = new ArrayList<>();
+        for (int i = first; i < args.length; i += 2) {
+            results.add(service.submit(new File(args[i]), new File(args[i + 1])));
+        }
+
+        int failures = 0;
+        for (int i = 0; i < results.size(); i++) {
+            File script = new File(args[first + 2 * i]);
+            File output = new File(args[first + 2 * i + 1]);
+            try {
+                BatchRenderer.Result result = results.get(i).get();
+                System.out.printf("%s -> %s: %d commands (%d invalid, %d skipped as redundant), %.0f commands/s, %.1f MB%n",
+                        script, output, result.commands, result.invalid, result.removed, result.commandsPerSecond(),
+                        result.peakMemory / (1024.0 * 1024.0));
+            } catch (ExecutionException e) {
+                failures++;
+                System.err.println("Failed to render " + script + ": " + e.getCause().getMessage());
+            }
+        }
+        service.close();
+        if (results.size() > 1) {
+            System.out.printf("%d scripts on %d threads: %.0f commands/s in total, %.1f workers busy on average%n",
+                    results.size(), service.getThreads(), service.getCommandsPerSecond(), service.getParallelism());
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // One turtle per script, named after it, all drawing at once into one image
+    private static int renderSwarm(String[] scripts, File output, int width, int height, int threads,
+                                   PngWriter pngWriter) throws InterruptedException {
+        try (TurtleSwarm swarm = new TurtleSwarm(width, height, threads)) {
+            List<Future<Integer>> results = new ArrayList<>();
+            long commands = 0;
+            long start = System.nanoTime();
+            for (String script : scripts) {
+                List<Instruction> program = CommandManager.readScript(new File(script));
+                commands += program.size();
+                swarm.addTurtle(script);
+                results.add(swarm.submit(script, program));
+            }
+            int invalid = 0;
+            for (Future<Integer> result : results) {
+                invalid += result.get();
+            }
+            ImageManager.writeImage(swarm.composite(), output, pngWriter);
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%d turtles on %d threads -> %s: %d commands (%d invalid), %.0f commands/s%n",
+                    scripts.length, threads, output, commands, invalid, commands * 1e9 / nanos);
+            return 0;
+        } catch (IOException | ExecutionException e) {
+            System.err.println("Failed to render swarm: " + (e instanceof ExecutionException ? e.getCause() : e).getMessage());
+            return 1;
+        }
+    }
+}
@@ -1,7 +1,12 @@
 import turtlegraphicsapp.TurtleGraphics;
+
+// Usage: java MainClass [--listen PORT | --listen unix:PATH]
 public class MainClass {
     public static void main(String[] args) {
         TurtleGraphics turtle = new TurtleGraphics();
         turtle.about();
+        if (args.length == 2 && args[0].equals("--listen")) {
+            turtle.startCommandServer(args[1]);
+        }
     }
 }
@@ -0,0 +1,97 @@
+import turtlegraphicsapp.BinaryScript;
+import turtlegraphicsapp.CommandCompiler;
+import turtlegraphicsapp.Instruction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+// Converts command scripts between the text format (.txt) and the binary format (.tgb).
+// The direction follows the file extensions. Text lines that do not compile are reported and
+// left out, since the binary format only holds valid commands. Binary to text writes each
+// command in its canonical form, e.g. "move 50" comes back as "forward 50".
+// Usage: java ScriptConverter in.txt out.tgb | in.tgb out.txt
+public class ScriptConverter {
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length != 2 || BinaryScript.isBinary(new File(args[0])) == BinaryScript.isBinary(new File(args[1]))) {
+            System.err.println("Usage: java ScriptConverter in.txt out.tgb | in.tgb out.txt");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        long start = System.nanoTime();
+        try {
+            int commands = BinaryScript.isBinary(input) ? toText(input, output) : toBinary(input, output);
+            System.out.printf("%s -> %s: %d commands, %d -> %d bytes, %.0f ms%n", input, output, commands,
+                    input.length(), output.length(), (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            System.err.println("Failed to convert " + input + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static int toBinary(File input, File output) throws IOException {
+        Set<String> procedures = definedProcedures(input);
+        int commands = 0;
+        try (BufferedReader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8);
+             BinaryScript.Writer writer = new BinaryScript.Writer(output)) {
+            CommandCompiler.LineJoiner joiner = new CommandCompiler.LineJoiner();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = joiner.add(line);
+                if (command != null && write(writer, command, procedures, input, joiner.getStartLine())) {
+                    commands++;
+                }
+            }
+            String unfinished = joiner.finish();
+            if (unfinished != null && write(writer, unfinished, procedures, input, joiner.getStartLine())) {
+                commands++;
+            }
+        }
+        return commands;
+    }
+
+    // The procedures the script defines, so a call may come before its definition
+    private static Set<String> definedProcedures(File input) throws IOException {
+        Set<String> procedures = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8)) {
+            CommandCompiler.LineJoiner joiner = new CommandCompiler.LineJoiner();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = joiner.add(line);
+                if (command != null && command.trim().toLowerCase().startsWith("to ")) {
+                    CommandCompiler.compile(command, procedures);
+                }
+            }
+        }
+        return procedures;
+    }
+
+    private static boolean write(BinaryScript.Writer writer, String command, Set<String> procedures, File input,
+                                 int lineNumber) throws IOException {
+        Instruction instruction = CommandCompiler.compile(command, procedures);
+        if (!instruction.isValid()) {
+            System.err.println(input.getName() + ":" + lineNumber + ": skipped: " + instruction.error());
+            return false;
+        }
+        writer.write(instruction);
+        return true;
+    }
+
+    private static int toText(File input, File output) throws IOException {
+        BinaryScript.Reader reader = new BinaryScript.Reader(input);
+        try (BufferedWriter writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            while (reader.hasNext()) {
+                writer.write(reader.next().source());
+                writer.newLine();
+            }
+        }
+        return reader.count();
+    }
+}
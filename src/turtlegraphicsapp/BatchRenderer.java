@@ -0,0 +1,122 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+
+// Runs saved command scripts (text, or binary .tgb) through CommandHandler against an OffscreenCanvas and writes
+// the result with ImageManager.writeImage. No Swing components are created.
+// Very large renders can draw into a TiledCanvas instead, which is streamed out as PNG.
+// Each render is its own RenderSession, so one BatchRenderer can render on several threads at once.
+public class BatchRenderer {
+    public enum Backend {
+        IMAGE,// One BufferedImage
+        TILED,// Lazily allocated tiles on the heap
+        MAPPED// Tiles spilled to a memory-mapped temp file, bounded heap
+    }
+
+    private final int width;
+    private final int height;
+    private final double scale;
+    private PngWriter pngWriter = new PngWriter();
+    private Backend backend = Backend.IMAGE;
+    private long memoryLimit = RenderSession.NO_LIMIT;// Per render
+    private boolean optimize = ScriptOptimizer.isEnabled();
+
+    public BatchRenderer(int width, int height) {
+        this(width, height, 1);
+    }
+
+    // With a scale other than 1 the script is recorded into a DisplayList and redrawn from it at that scale
+    public BatchRenderer(int width, int height, double scale) {
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+    }
+
+    public void setPngWriter(PngWriter pngWriter) {
+        this.pngWriter = pngWriter;
+    }
+
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    // Summary of one rendered script
+    public static class Result {
+        public final int commands;
+        public final int invalid;
+        public final int removed;// Skipped by ScriptOptimizer, not counted in commands
+        public final long nanos;
+        public final long segments;
+        public final long peakMemory;// Bytes the session held at most
+
+        Result(int commands, int invalid, int removed, long nanos, long segments, long peakMemory) {
+            this.commands = commands;
+            this.invalid = invalid;
+            this.removed = removed;
+            this.nanos = nanos;
+            this.segments = segments;
+            this.peakMemory = peakMemory;
+        }
+
+        public double commandsPerSecond() {
+            return nanos == 0 ? 0 : commands * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    public Result render(File script, File output) throws IOException {
+        try (RenderSession session = new RenderSession(script.getName(), width, height, backend, memoryLimit,
+                scale != 1, false)) {
+            session.setOptimize(optimize);
+            session.runScript(script);
+            OffscreenCanvas canvas = session.getCanvas();
+            DisplayList displayList = session.getHandler().getDisplayList();
+            if (canvas instanceof TiledCanvas tiled) {
+                writeTiled(tiled, displayList, output);
+            } else if (scale != 1) {
+                int scaledWidth = (int) Math.ceil(width * scale);
+                int scaledHeight = (int) Math.ceil(height * scale);
+                if ((long) scaledWidth * scaledHeight * 4 + session.memoryBytes() > memoryLimit) {
+                    throw new IOException(script.getName() + ": the scaled image does not fit the memory limit; try --tiles mapped");
+                }
+                ImageManager.writeImage(displayList.renderImage(width, height, scale, Color.BLACK), output, pngWriter);
+            } else {
+                ImageManager.writeImage(canvas.getBufferedImage(), output, pngWriter);
+            }
+            return new Result(session.getCommands(), session.getInvalid(), session.getRemoved(), session.getNanos(),
+                    session.getSegmentsDrawn(), session.getPeakMemory());
+        }
+    }
+
+    // Streams the tiles to PNG; with a scale the recorded segments are first drawn into a second,
+    // scaled-up tiled canvas, so no full-size image is ever held
+    private void writeTiled(TiledCanvas canvas, DisplayList displayList, File output) throws IOException {
+        if (output.getName().toLowerCase().endsWith(".jpg")) {
+            throw new IOException("Tiled renders can only be saved as PNG.");
+        }
+        if (scale == 1) {
+            pngWriter.write(canvas.rows(), output);
+            return;
+        }
+        int scaledWidth = (int) Math.ceil(width * scale);
+        int scaledHeight = (int) Math.ceil(height * scale);
+        TiledCanvas scaled = backend == Backend.MAPPED
+                ? TiledCanvas.mapped(scaledWidth, scaledHeight, RenderSession.residentTiles(memoryLimit))
+                : new TiledCanvas(scaledWidth, scaledHeight);
+        try {
+            scaled.draw(displayList, scale);
+            pngWriter.write(scaled.rows(), output);
+        } finally {
+            scaled.dispose();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package turtlegraphicsapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// Compact binary command scripts (.tgb), for generated scripts too large to parse as text.
+//
+// Layout, little-endian:
+//   header  "TGB" 1 | count u32 | CRC32C u32 of everything after the header
+//   table   u8 n, then n opcode names (u8 length + ASCII), so codes survive reordering of Opcode
+//   records u8 (table index << 2 | operand count), then the operands a, b, c as zigzag varints,
+//           with trailing zero operands left out. L-system, block, to and make records are followed
+//           by their command text (varint length + UTF-8), as what they compile to is not plain integers.
+//
+// Reader memory-maps the file and decodes straight from the mapping; instructions get their
+// text from CommandCompiler.decompile only when something asks for it.
+public final class BinaryScript {
+    public static final String EXTENSION = ".tgb";
+    private static final byte[] MAGIC = {'T', 'G', 'B', 1};
+    private static final int HEADER_BYTES = 12;
+
+    private BinaryScript() {
+    }
+
+    public static boolean isBinary(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    // Instructions whose operands are not plain integers and so keep their text
+    private static boolean carriesText(Opcode opcode) {
+        return opcode == Opcode.LSYSTEM || opcode == Opcode.BLOCK || opcode == Opcode.DEFINE || opcode == Opcode.MAKE;
+    }
+
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private int count = 0;
+
+        public Writer(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_BYTES);// Header is filled in by close()
+            Opcode[] opcodes = Opcode.values();
+            if (opcodes.length > 64) {
+                throw new IllegalStateException("Record headers only have room for 64 opcodes.");
+            }
+            buffer.put((byte) opcodes.length);
+            for (Opcode opcode : opcodes) {
+                byte[] name = opcode.name().getBytes(StandardCharsets.US_ASCII);
+                buffer.put((byte) name.length).put(name);
+            }
+        }
+
+        public void write(Instruction instruction) throws IOException {
+            Opcode opcode = instruction.opcode();
+            if (opcode == Opcode.INVALID) {
+                throw new IllegalArgumentException("Invalid commands cannot be written: " + instruction.source());
+            }
+            int operands = instruction.c() != 0 ? 3 : instruction.b() != 0 ? 2 : instruction.a() != 0 ? 1 : 0;
+            byte[] text = carriesText(opcode) ? instruction.source().getBytes(StandardCharsets.UTF_8) : null;
+            if (buffer.remaining() < 1 + 3 * 5 + 5 + (text != null ? text.length : 0)) {
+                flush();
+                if (text != null && text.length + 21 > buffer.capacity()) {
+                    throw new IOException("Command too long for a binary script.");
+                }
+            }
+            buffer.put((byte) (opcode.ordinal() << 2 | operands));
+            if (operands > 0) putVarint(zigzag(instruction.a()));
+            if (operands > 1) putVarint(zigzag(instruction.b()));
+            if (operands > 2) putVarint(zigzag(instruction.c()));
+            if (text != null) {
+                putVarint(text.length);
+                buffer.put(text);
+            }
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.put(MAGIC).putInt(count).putInt((int) crc.getValue()).flip();
+                channel.write(header, 0);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+    public static final class Reader {
+        private final MappedByteBuffer data;
+        private final Opcode[] table;
+        private final int count;
+        private int read = 0;
+
+        // Maps the file and checks its header and checksum before anything is decoded
+        public Reader(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Binary script is larger than 2 GB.");
+                }
+                if (channel.size() < HEADER_BYTES + 1) {
+                    throw new IOException("Not a binary command script.");
+                }
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            for (byte b : MAGIC) {
+                if (data.get() != b) throw new IOException("Not a binary command script.");
+            }
+            count = data.getInt();
+            int expectedCrc = data.getInt();
+            CRC32C crc = new CRC32C();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Binary script is damaged (checksum mismatch).");
+            }
+
+            table = new Opcode[data.get() & 0xFF];
+            for (int i = 0; i < table.length; i++) {
+                byte[] name = new byte[data.get() & 0xFF];
+                data.get(name);
+                try {
+                    table[i] = Opcode.valueOf(new String(name, StandardCharsets.US_ASCII));
+                } catch (IllegalArgumentException e) {
+                    table[i] = null;// Only an error if a record uses it
+                }
+            }
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public boolean hasNext() {
+            return read < count;
+        }
+
+        public Instruction next() throws IOException {
+            if (!data.hasRemaining()) {
+                throw new IOException("Binary script ends early.");
+            }
+            int header = data.get() & 0xFF;
+            int code = header >>> 2;
+            Opcode opcode = code < table.length ? table[code] : null;
+            if (opcode == null) {
+                throw new IOException("Binary script uses an unknown command (code " + code + ").");
+            }
+            int operands = header & 3;
+            int a = operands > 0 ? unzigzag(getVarint()) : 0;
+            int b = operands > 1 ? unzigzag(getVarint()) : 0;
+            int c = operands > 2 ? unzigzag(getVarint()) : 0;
+            read++;
+            if (carriesText(opcode)) {
+                byte[] text = new byte[getVarint()];
+                data.get(text);
+                // Calls were checked when the script was converted
+                return CommandCompiler.compileCalls(new String(text, StandardCharsets.UTF_8));
+            }
+            return Instruction.decoded(opcode, a, b, c);
+        }
+
+        private int getVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
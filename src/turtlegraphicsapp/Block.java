@@ -0,0 +1,366 @@
+package turtlegraphicsapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Compiled control flow for the command language: repeat, procedures defined with to ... end,
+// variables set with make, and commands whose operands are expressions, e.g.
+//
+//   to star :size
+//     repeat 5 [ forward :size right 144 ]
+//   end
+//   repeat 36 [ star 100 left 10 ]
+//
+// A line compiles into one Instruction carrying the tree as its payload, with the line as its
+// text, so history and saved scripts keep the compact form. BlockInterpreter runs the tree
+// directly: nothing is ever expanded into text or into a list of instructions.
+//
+// Inside brackets, commands follow each other without separators; a command's operands run up
+// to the next command name. Commands whose operands are all constant are compiled and validated
+// here, like any other line.
+public final class Block {
+    // Commands that take no operands, or operands that are words rather than numbers
+    private static final Set<String> NO_OPERANDS = Set.of("about", "penup", "pendown", "reset", "clear",
+            "orange", "green", "red", "white", "pink", "cyan", "cyclecolours");
+    private static final Set<String> WORD_OPERANDS = Set.of("playback", "save", "load", "lsystem");
+    // Commands whose operands may be expressions
+    private static final Set<String> NUMBER_OPERANDS = Set.of("forward", "move", "reverse", "left", "right", "dance",
+            "circle", "square", "penwidth", "pen", "triangle", "framerate", "fractal");
+    private static final Set<String> CONTROL = Set.of("repeat", "to", "end", "make");
+
+    final Statement[] statements;
+
+    private Block(List<Statement> statements) {
+        this.statements = statements.toArray(new Statement[0]);
+    }
+
+    sealed interface Statement permits Command, Computed, Repeat, Call, Make {
+    }
+
+    // A command with constant operands, compiled once
+    record Command(Instruction instruction) implements Statement {
+    }
+
+    // A command whose operands are evaluated each time it runs; b is fixed for opcodes with only
+    // one expression, e.g. the animate flag of fractal tree
+    record Computed(Opcode opcode, Expression[] operands, int b) implements Statement {
+    }
+
+    record Repeat(Expression count, Block body) implements Statement {
+    }
+
+    record Call(String name, Expression[] arguments) implements Statement {
+    }
+
+    // slot is the procedure parameter being set, or -1 for a variable
+    record Make(String name, int slot, Expression value) implements Statement {
+    }
+
+    // The payload of a DEFINE instruction; source is its "to ... end" line
+    public record Procedure(String name, String[] parameters, Block body, String source) {
+    }
+
+    // Compiles a whole line: a procedure definition, or statements. A line that turns out to be a
+    // single command with constant operands ("forward 10 * 2") compiles to that plain instruction.
+    static Instruction compile(String line) {
+        List<String> tokens = tokens(line);
+        String source = String.join(" ", tokens);
+        try {
+            if (!tokens.isEmpty() && tokens.get(0).equalsIgnoreCase("to")) {
+                return Instruction.withPayload(Opcode.DEFINE, parseProcedure(tokens), source);
+            }
+            Parser parser = new Parser(tokens, List.of());
+            Block block = parser.statements(null);
+            if (block.statements.length == 1 && block.statements[0] instanceof Command command
+                    && command.instruction().payload() == null) {
+                Instruction instruction = command.instruction();
+                return Instruction.of(instruction.opcode(), instruction.a(), instruction.b(), instruction.c(), source);
+            }
+            boolean onlyMake = block.statements.length > 0;
+            for (Statement statement : block.statements) {
+                onlyMake &= statement instanceof Make;
+            }
+            return Instruction.withPayload(onlyMake ? Opcode.MAKE : Opcode.BLOCK, block, source);
+        } catch (IllegalArgumentException e) {
+            return Instruction.invalid(line, e.getMessage());
+        }
+    }
+
+    // The first procedure called here, or in a repeat here, whose name is not in procedures
+    String unknownCall(Set<String> procedures) {
+        for (Statement statement : statements) {
+            if (statement instanceof Call call && !procedures.contains(call.name())) {
+                return call.name();
+            }
+            if (statement instanceof Repeat repeat) {
+                String unknown = repeat.body().unknownCall(procedures);
+                if (unknown != null) return unknown;
+            }
+        }
+        return null;
+    }
+
+    // True for commands like "forward :size" or "circle 10 * 3" that need compiling here
+    static boolean hasExpressions(String command, String[] parts) {
+        if (!NUMBER_OPERANDS.contains(command)) return false;
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.equalsIgnoreCase("repcount")) return true;
+            for (int j = 0; j < part.length(); j++) {
+                char ch = part.charAt(j);
+                if (ch == ':' || ch == '(' || ch == ')' || ch == '+' || ch == '*' || ch == '/' || ch == '%'
+                        || (ch == '-' && (j > 0 || part.length() == 1))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // A procedure or variable name: a letter, then letters, digits or _
+    static boolean isName(String word) {
+        if (word.isEmpty() || !Character.isLetter(word.charAt(0))) return false;
+        for (int i = 1; i < word.length(); i++) {
+            char ch = word.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != '_') return false;
+        }
+        return true;
+    }
+
+    private static boolean isCommandName(String word) {
+        return NO_OPERANDS.contains(word) || WORD_OPERANDS.contains(word) || NUMBER_OPERANDS.contains(word)
+                || CONTROL.contains(word);
+    }
+
+    // How many blocks the text opens and leaves open: [ and to count one, ] and end take one away.
+    // Used to join a command written over several lines.
+    static int nesting(String text) {
+        int open = 0;
+        for (String token : tokens(text)) {
+            if (token.equals("[") || token.equalsIgnoreCase("to")) {
+                open++;
+            } else if (token.equals("]") || token.equalsIgnoreCase("end")) {
+                open--;
+            }
+        }
+        return open;
+    }
+
+    // Whitespace-separated tokens, with [ and ] split off the start and end of a token. Tokens
+    // with '=' are L-system rules, whose brackets are part of the rule.
+    static List<String> tokens(String line) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : CommandCompiler.tokenize(line)) {
+            if (token.indexOf('=') >= 0) {
+                tokens.add(token);
+                continue;
+            }
+            int start = 0;
+            int end = token.length();
+            while (start < end && token.charAt(start) == '[') {
+                tokens.add("[");
+                start++;
+            }
+            int closing = 0;
+            while (end > start && token.charAt(end - 1) == ']') {
+                closing++;
+                end--;
+            }
+            if (end > start) tokens.add(token.substring(start, end));
+            for (int i = 0; i < closing; i++) tokens.add("]");
+        }
+        return tokens;
+    }
+
+    private static Procedure parseProcedure(List<String> tokens) {
+        if (tokens.size() < 2) {
+            throw new IllegalArgumentException("Usage: to <name> [:parameter ...] <commands> end");
+        }
+        String name = tokens.get(1).toLowerCase();
+        if (!isName(name) || isCommandName(name)) {
+            throw new IllegalArgumentException("Not a procedure name: " + tokens.get(1));
+        }
+        List<String> parameters = new ArrayList<>();
+        int position = 2;
+        while (position < tokens.size() && tokens.get(position).startsWith(":")) {
+            String parameter = tokens.get(position).substring(1).toLowerCase();
+            if (!isName(parameter) || parameters.contains(parameter)) {
+                throw new IllegalArgumentException("Bad parameter " + tokens.get(position) + " in " + name);
+            }
+            parameters.add(parameter);
+            position++;
+        }
+        Parser parser = new Parser(tokens, parameters);
+        parser.position = position;
+        Block body = parser.statements("end");
+        if (parser.position >= tokens.size()) {
+            throw new IllegalArgumentException("Missing end for to " + name);
+        }
+        if (parser.position != tokens.size() - 1) {
+            throw new IllegalArgumentException("Unexpected " + tokens.get(parser.position + 1) + " after end");
+        }
+        return new Procedure(name, parameters.toArray(new String[0]), body, String.join(" ", tokens));
+    }
+
+    private static final class Parser {
+        private final List<String> tokens;
+        private final List<String> locals;// Parameters of the procedure being compiled
+        private int position = 0;
+
+        Parser(List<String> tokens, List<String> locals) {
+            this.tokens = tokens;
+            this.locals = locals;
+        }
+
+        // Statements up to closer ("]" or "end", left unread) or the end of the line
+        Block statements(String closer) {
+            List<Statement> statements = new ArrayList<>();
+            while (position < tokens.size()) {
+                String word = tokens.get(position).toLowerCase();
+                if (word.equals(closer)) break;
+                statements.add(statement(word));
+            }
+            if (closer != null && position >= tokens.size() && closer.equals("]")) {
+                throw new IllegalArgumentException("Missing ]");
+            }
+            return new Block(statements);
+        }
+
+        private Statement statement(String word) {
+            String token = tokens.get(position++);
+            switch (word) {
+                case "repeat" -> {
+                    Expression count = single("repeat", operands());
+                    if (position >= tokens.size() || !tokens.get(position).equals("[")) {
+                        throw new IllegalArgumentException("Usage: repeat <count> [ <commands> ]");
+                    }
+                    position++;
+                    Block body = statements("]");
+                    position++;
+                    return new Repeat(count, body);
+                }
+                case "make" -> {
+                    if (position >= tokens.size()) {
+                        throw new IllegalArgumentException("Usage: make <name> <value>");
+                    }
+                    String name = tokens.get(position++).replaceFirst("^[\":]", "").toLowerCase();
+                    if (!isName(name) || name.equals("repcount")) {
+                        throw new IllegalArgumentException("Not a variable name: " + name);
+                    }
+                    return new Make(name, locals.indexOf(name), single("make " + name, operands()));
+                }
+                case "to" -> throw new IllegalArgumentException("Procedures are defined on their own: to <name> ... end");
+                case "end" -> throw new IllegalArgumentException("end without to");
+                case "[", "]" -> throw new IllegalArgumentException("Unexpected " + token);
+                default -> {
+                }
+            }
+            if (NO_OPERANDS.contains(word)) {
+                return new Command(CommandCompiler.compile(token));
+            }
+            if (WORD_OPERANDS.contains(word)) {
+                StringBuilder line = new StringBuilder(token);
+                while (position < tokens.size() && !isBoundary(tokens.get(position), false)) {
+                    line.append(' ').append(tokens.get(position++));
+                }
+                return constant(CommandCompiler.compile(line.toString()));
+            }
+            if (NUMBER_OPERANDS.contains(word)) {
+                return computed(word);
+            }
+            if (isName(word)) {
+                return new Call(word, Expression.parseAll(operands(), locals).toArray(new Expression[0]));
+            }
+            throw new IllegalArgumentException("Expected a command, not " + token);
+        }
+
+        // A command name, bracket or (unless words are operands) procedure name ends the operands
+        private boolean isBoundary(String token, boolean namesEnd) {
+            String word = token.toLowerCase();
+            if (word.equals("[") || word.equals("]") || isCommandName(word)) return true;
+            return namesEnd && isName(word) && !word.equals("repcount");
+        }
+
+        private List<String> operands() {
+            List<String> operands = new ArrayList<>();
+            while (position < tokens.size() && !isBoundary(tokens.get(position), true)) {
+                operands.add(tokens.get(position++));
+            }
+            return operands;
+        }
+
+        private Expression single(String command, List<String> operands) {
+            List<Expression> expressions = Expression.parseAll(operands, locals);
+            if (expressions.size() != 1) {
+                throw new IllegalArgumentException(command + " takes one value, not " + expressions.size());
+            }
+            return expressions.get(0);
+        }
+
+        private Statement computed(String word) {
+            int b = 0;
+            if (word.equals("fractal")) {
+                if (position < tokens.size() && tokens.get(position).equalsIgnoreCase("cancel")) {
+                    position++;
+                    return new Command(Instruction.of(Opcode.FRACTAL_CANCEL, "fractal cancel"));
+                }
+                if (position >= tokens.size() || !tokens.get(position).equalsIgnoreCase("tree")) {
+                    throw new IllegalArgumentException("Usage: fractal tree <depth> [animate] or fractal cancel");
+                }
+                position++;
+            }
+            List<Expression> operands = Expression.parseAll(operands(), locals);
+            if (word.equals("fractal") && position < tokens.size() && tokens.get(position).equalsIgnoreCase("animate")) {
+                position++;
+                b = 1;
+            }
+            Opcode opcode = switch (word) {
+                case "forward", "move" -> Opcode.FORWARD;
+                case "reverse" -> Opcode.REVERSE;
+                case "left" -> Opcode.LEFT;
+                case "right" -> Opcode.RIGHT;
+                case "dance" -> Opcode.DANCE;
+                case "circle" -> Opcode.CIRCLE;
+                case "square" -> Opcode.SQUARE;
+                case "penwidth" -> Opcode.PEN_WIDTH;
+                case "pen" -> Opcode.PEN_COLOUR;
+                case "triangle" -> operands.size() == 3 ? Opcode.TRIANGLE_SIDES : Opcode.TRIANGLE;
+                case "framerate" -> Opcode.FRAME_RATE;
+                default -> Opcode.FRACTAL_TREE;
+            };
+            int expected = switch (opcode) {
+                case PEN_COLOUR, TRIANGLE_SIDES -> 3;
+                default -> 1;
+            };
+            if ((opcode == Opcode.LEFT || opcode == Opcode.RIGHT) && operands.isEmpty()) {
+                return new Command(Instruction.of(opcode, 90, null));
+            }
+            if (operands.size() != expected) {
+                throw new IllegalArgumentException(word + " takes " + (expected == 1 ? "one value" : "three values")
+                        + ", not " + operands.size());
+            }
+
+            boolean constant = true;
+            for (Expression operand : operands) {
+                constant &= operand.isConstant();
+            }
+            if (!constant) {
+                return new Computed(opcode, operands.toArray(new Expression[0]), b);
+            }
+            int[] values = new int[3];
+            values[1] = b;
+            for (int i = 0; i < operands.size(); i++) {
+                values[i] = BlockInterpreter.toInt(operands.get(i).constantValue());
+            }
+            return constant(CommandCompiler.checked(opcode, values[0], values[1], values[2], null));
+        }
+
+        private Command constant(Instruction instruction) {
+            if (!instruction.isValid()) {
+                throw new IllegalArgumentException(instruction.error());
+            }
+            return new Command(instruction);
+        }
+    }
+}
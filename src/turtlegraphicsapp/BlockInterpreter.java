@@ -0,0 +1,251 @@
+package turtlegraphicsapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Runs compiled Blocks for one CommandHandler. Holds the variables set with make and the
+// procedures defined with to, and walks the tree executing each command through the handler as
+// it is reached, so "repeat 100000 [ ... ]" costs one line of text and no memory per step.
+//
+// A command rejected inside a block (a move blocked at the edge, a radius out of range) is
+// counted and the block carries on, as it would in a flat script. Errors in the block itself
+// (an unknown procedure or variable, division by zero, runaway recursion) stop it.
+final class BlockInterpreter {
+    static final int MAX_CALL_DEPTH = 1000;
+    private static final double[] NO_LOCALS = new double[0];
+
+    static final class BlockException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BlockException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // Variables and procedures as they were when a block ran, so undo can replay it the same way
+    static final class Snapshot {
+        final Map<String, Double> variables;
+        final Map<String, Block.Procedure> procedures;
+
+        Snapshot(Map<String, Double> variables, Map<String, Block.Procedure> procedures) {
+            this.variables = variables;
+            this.procedures = procedures;
+        }
+    }
+
+    private final CommandHandler handler;
+    private Map<String, Double> variables = new HashMap<>();
+    private Map<String, Block.Procedure> procedures = new HashMap<>();
+    private Snapshot snapshot;// Null once a variable or procedure changed since the last one
+    private double[] stack = new double[16];
+    private int repcount = 0;// Iteration of the innermost repeat, from 1; 0 outside any repeat
+    private int callDepth = 0;
+    private long steps = 0;
+    private int rejected = 0;
+    private String lastRejection;
+    private volatile boolean cancelled = false;// So "fractal cancel" can stop a long block
+
+    BlockInterpreter(CommandHandler handler) {
+        this.handler = handler;
+    }
+
+    // Runs block against the current variables and procedures, or against replay's when undo
+    // replays it. Returns null, or the error that stopped the block.
+    String run(Block block, Snapshot replay) {
+        Map<String, Double> liveVariables = variables;
+        Map<String, Block.Procedure> liveProcedures = procedures;
+        if (replay != null) {
+            variables = new HashMap<>(replay.variables);
+            procedures = replay.procedures;
+        }
+        cancelled = false;
+        steps = 0;
+        rejected = 0;
+        lastRejection = null;
+        repcount = 0;
+        callDepth = 0;
+        try {
+            execute(block, NO_LOCALS);
+            return null;
+        } catch (BlockException e) {
+            return e.getMessage();
+        } finally {
+            if (replay != null) {
+                variables = liveVariables;
+                procedures = liveProcedures;
+            }
+        }
+    }
+
+    void define(Block.Procedure procedure) {
+        procedures.put(procedure.name(), procedure);
+        snapshot = null;
+    }
+
+    Snapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(Map.copyOf(variables), Map.copyOf(procedures));
+        }
+        return snapshot;
+    }
+
+    // Variables and procedures, e.g. to keep with a cached render; sorted so equal state gives equal text
+    Map<String, Double> getVariables() {
+        return new TreeMap<>(variables);
+    }
+
+    List<String> getProcedureSources() {
+        List<String> sources = new ArrayList<>();
+        for (Block.Procedure procedure : procedures.values()) {
+            sources.add(procedure.source());
+        }
+        Collections.sort(sources);
+        return sources;
+    }
+
+    // Replaces the variables and procedures with ones captured earlier
+    void restore(Map<String, Double> variables, List<Block.Procedure> procedures) {
+        this.variables = new HashMap<>(variables);
+        this.procedures = new HashMap<>();
+        for (Block.Procedure procedure : procedures) {
+            this.procedures.put(procedure.name(), procedure);
+        }
+        snapshot = null;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Commands run by the last block, and how many of them were rejected
+    long getSteps() {
+        return steps;
+    }
+
+    int getRejected() {
+        return rejected;
+    }
+
+    String getLastRejection() {
+        return lastRejection;
+    }
+
+    double getVariable(String name) {
+        Double value = variables.get(name);
+        if (value == null) {
+            throw new BlockException(":" + name + " has no value; set it with make " + name + " <value>");
+        }
+        return value;
+    }
+
+    int getRepcount() {
+        if (repcount == 0) {
+            throw new BlockException("repcount is only defined inside repeat");
+        }
+        return repcount;
+    }
+
+    // Operands are rounded to whole numbers, the only kind commands take
+    static int toInt(double value) {
+        if (Double.isNaN(value) || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new IllegalArgumentException("Value out of range: " + value);
+        }
+        return (int) Math.round(value);
+    }
+
+    private void execute(Block block, double[] locals) {
+        for (Block.Statement statement : block.statements) {
+            if (cancelled) return;
+            if (statement instanceof Block.Command command) {
+                step(command.instruction());
+            } else if (statement instanceof Block.Computed computed) {
+                step(build(computed, locals));
+            } else if (statement instanceof Block.Repeat repeat) {
+                int count = operand(repeat.count(), locals);
+                if (count < 0) {
+                    throw new BlockException("repeat needs a count of 0 or more, not " + count);
+                }
+                int outer = repcount;
+                for (int i = 1; i <= count && !cancelled; i++) {
+                    repcount = i;
+                    execute(repeat.body(), locals);
+                }
+                repcount = outer;
+            } else if (statement instanceof Block.Call call) {
+                invoke(call, locals);
+            } else if (statement instanceof Block.Make make) {
+                double value = evaluate(make.value(), locals);
+                if (make.slot() >= 0) {
+                    locals[make.slot()] = value;
+                } else {
+                    variables.put(make.name(), value);
+                    snapshot = null;
+                }
+            }
+        }
+    }
+
+    private void invoke(Block.Call call, double[] locals) {
+        Block.Procedure procedure = procedures.get(call.name());
+        if (procedure == null) {
+            throw new BlockException("Unknown command or procedure: " + call.name());
+        }
+        String[] parameters = procedure.parameters();
+        if (call.arguments().length != parameters.length) {
+            throw new BlockException(procedure.name() + " takes " + parameters.length + " value(s), not "
+                    + call.arguments().length);
+        }
+        double[] frame = parameters.length == 0 ? NO_LOCALS : new double[parameters.length];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = evaluate(call.arguments()[i], locals);
+        }
+        if (callDepth == MAX_CALL_DEPTH) {
+            throw new BlockException("Procedures nested more than " + MAX_CALL_DEPTH + " deep in " + procedure.name());
+        }
+        callDepth++;
+        try {
+            execute(procedure.body(), frame);
+        } finally {
+            callDepth--;
+        }
+    }
+
+    private Instruction build(Block.Computed computed, double[] locals) {
+        Expression[] operands = computed.operands();
+        int a = operand(operands[0], locals);
+        int b = operands.length > 1 ? operand(operands[1], locals) : computed.b();
+        int c = operands.length > 2 ? operand(operands[2], locals) : 0;
+        return CommandCompiler.checked(computed.opcode(), a, b, c, null);
+    }
+
+    private void step(Instruction instruction) {
+        steps++;
+        if (!handler.executeNested(instruction)) {
+            rejected++;
+            lastRejection = instruction.isValid() ? handler.getLastMessage() : instruction.error();
+        }
+    }
+
+    private double evaluate(Expression expression, double[] locals) {
+        if (stack.length < expression.depth()) {
+            stack = new double[expression.depth()];
+        }
+        return expression.evaluate(this, locals, stack);
+    }
+
+    private int operand(Expression expression, double[] locals) {
+        try {
+            return toInt(evaluate(expression, locals));
+        } catch (IllegalArgumentException e) {
+            throw new BlockException(e.getMessage() + " from " + expression);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compressed raster snapshots taken while drawing, so undo can restore the nearest one
+// and replay only the commands after it instead of the whole draw history.
+//
+// A snapshot is taken once the commands since the last one took intervalNanos to run, and never
+// before they took COST_RATIO times what copying the canvas costs, so cheap commands do not pay
+// for copies of a large canvas: undo replays at most about intervalNanos of work, and snapshots
+// add at most about 1/COST_RATIO to the run time. Only the copy happens on the command path;
+// it is deflated on a background thread and kept raw until then.
+public class CheckpointStore {
+    public static final long DEFAULT_INTERVAL_NANOS = 100_000_000L;// 100 ms of render time
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    static final int COST_RATIO = 10;
+    private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CheckpointCompressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long intervalNanos;
+    private final long memoryBudget;
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private long usedBytes = 0;// Guarded by this, the compressor updates it
+
+    private long nanosSinceLast = 0;
+    private long copyNanos = 0;// What the last snapshot took to copy
+
+    private int checkpointHits = 0;
+    private int checkpointMisses = 0;
+    private int lastReplayLength = 0;
+    private long totalReplayed = 0;
+
+    public CheckpointStore() {
+        this(DEFAULT_INTERVAL_NANOS, DEFAULT_MEMORY_BUDGET);
+    }
+
+    public CheckpointStore(long intervalNanos, long memoryBudget) {
+        this.intervalNanos = intervalNanos;
+        this.memoryBudget = memoryBudget;
+    }
+
+    // Turtle and pen state that a snapshot of the pixels alone does not capture
+    public static class TurtleState {
+        final int x;
+        final int y;
+        final int direction;
+        final Color penColor;
+        final int penWidth;
+        final boolean penDown;
+        final boolean firstDrawingCommandDone;
+
+        TurtleState(int x, int y, int direction, Color penColor, int penWidth,
+                    boolean penDown, boolean firstDrawingCommandDone) {
+            this.x = x;
+            this.y = y;
+            this.direction = direction;
+            this.penColor = penColor;
+            this.penWidth = penWidth;
+            this.penDown = penDown;
+            this.firstDrawingCommandDone = firstDrawingCommandDone;
+        }
+    }
+
+    public static class Checkpoint {
+        final int historySize;// Number of drawHistory entries already applied
+        final TurtleState state;
+        final int width;
+        final int height;
+        private int[] raw;// ARGB ints until the compressor is done with them, then null
+        private byte[] pixels;// Deflated ARGB ints
+        private long bytes;// Counted in usedBytes
+        private boolean dropped;
+
+        Checkpoint(int historySize, TurtleState state, int width, int height, int[] raw) {
+            this.historySize = historySize;
+            this.state = state;
+            this.width = width;
+            this.height = height;
+            this.raw = raw;
+            this.bytes = raw.length * 4L;
+        }
+    }
+
+    // Called after every recorded draw command with the time it took to render
+    public boolean shouldCheckpoint(long renderNanos) {
+        nanosSinceLast += renderNanos;
+        return nanosSinceLast >= Math.max(intervalNanos, COST_RATIO * copyNanos);
+    }
+
+    public void add(int historySize, TurtleState state, BufferedImage image) {
+        long start = System.nanoTime();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        copyNanos = System.nanoTime() - start;
+        Checkpoint checkpoint = new Checkpoint(historySize, state, width, height, argb);
+
+        synchronized (this) {
+            checkpoints.add(checkpoint);
+            usedBytes += checkpoint.bytes;
+            enforceBudget();
+        }
+        nanosSinceLast = 0;
+        COMPRESSOR.execute(() -> {
+            byte[] packed = compress(argb);
+            synchronized (this) {
+                checkpoint.pixels = packed;
+                checkpoint.raw = null;
+                if (!checkpoint.dropped) {
+                    usedBytes += packed.length - checkpoint.bytes;
+                }
+                checkpoint.bytes = packed.length;
+            }
+        });
+    }
+
+    // Latest checkpoint at or before the given history size, or null to replay from scratch
+    public synchronized Checkpoint findAtOrBefore(int historySize) {
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if (checkpoint.historySize <= historySize) {
+                checkpointHits++;
+                return checkpoint;
+            }
+        }
+        checkpointMisses++;
+        return null;
+    }
+
+    // Drops checkpoints that include commands which have since been undone
+    public synchronized void truncate(int historySize) {
+        while (!checkpoints.isEmpty() && checkpoints.get(checkpoints.size() - 1).historySize > historySize) {
+            drop(checkpoints.size() - 1);
+        }
+        nanosSinceLast = 0;
+    }
+
+    public synchronized void clear() {
+        for (Checkpoint checkpoint : checkpoints) {
+            checkpoint.dropped = true;
+        }
+        checkpoints.clear();
+        usedBytes = 0;
+        nanosSinceLast = 0;
+    }
+
+    public void restore(Checkpoint checkpoint, BufferedImage image) {
+        int[] argb;
+        byte[] pixels;
+        synchronized (this) {
+            argb = checkpoint.raw;
+            pixels = checkpoint.pixels;
+        }
+        if (argb == null) {
+            argb = decompress(pixels, checkpoint.width * checkpoint.height);
+        }
+        int width = Math.min(checkpoint.width, image.getWidth());
+        int height = Math.min(checkpoint.height, image.getHeight());
+        image.setRGB(0, 0, width, height, argb, 0, checkpoint.width);
+    }
+
+    public void recordReplay(int length) {
+        lastReplayLength = length;
+        totalReplayed += length;
+    }
+
+    // Over budget: thin out every other older checkpoint, keeping the newest ones dense
+    private void enforceBudget() {
+        while (usedBytes > memoryBudget && checkpoints.size() > 1) {
+            for (int i = checkpoints.size() - 2; i >= 0 && usedBytes > memoryBudget; i -= 2) {
+                drop(i);
+            }
+        }
+    }
+
+    private void drop(int index) {
+        Checkpoint checkpoint = checkpoints.remove(index);
+        checkpoint.dropped = true;
+        usedBytes -= checkpoint.bytes;
+    }
+
+    static byte[] compress(int[] argb) {
+        ByteBuffer raw = ByteBuffer.allocate(argb.length * 4);
+        raw.asIntBuffer().put(argb);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(argb.length / 16);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    static int[] decompress(byte[] data, int pixelCount) {
+        byte[] raw = new byte[pixelCount * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        try {
+            int offset = 0;
+            while (offset < raw.length && !inflater.finished()) {
+                offset += inflater.inflate(raw, offset, raw.length - offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt checkpoint", e);
+        } finally {
+            inflater.end();
+        }
+        int[] argb = new int[pixelCount];
+        ByteBuffer.wrap(raw).asIntBuffer().get(argb);
+        return argb;
+    }
+
+    public synchronized int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getCheckpointHits() {
+        return checkpointHits;
+    }
+
+    public int getCheckpointMisses() {
+        return checkpointMisses;
+    }
+
+    public int getLastReplayLength() {
+        return lastReplayLength;
+    }
+
+    public long getTotalReplayed() {
+        return totalReplayed;
+    }
+}
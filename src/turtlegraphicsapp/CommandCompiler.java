@@ -0,0 +1,440 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Turns command lines into Instructions. All parsing and parameter validation happens here,
+// once per line, so history, undo replay and file loading never re-parse text.
+// Checks that depend on the turtle (e.g. moving out of bounds) stay in CommandHandler.
+public final class CommandCompiler {
+
+    private CommandCompiler() {
+    }
+
+    // A line that may only call procedures defined in the same line
+    public static Instruction compile(String command) {
+        return compile(command, new HashSet<>());
+    }
+
+    // procedures holds the names of the procedures defined so far, e.g. CommandHandler's; a
+    // definition compiled here adds its name, so later lines may call it before it has run
+    public static Instruction compile(String command, Set<String> procedures) {
+        Instruction instruction = compileCalls(command);
+        define(instruction, procedures);
+        return checkCalls(instruction, procedures);
+    }
+
+    // Compiles a line without checking that the procedures it calls exist. Scripts use this, then
+    // checkCalls() once all their definitions are known, so a call may come before its definition.
+    static Instruction compileCalls(String command) {
+        String line = command.trim();
+        String[] parts = tokenize(line);
+        String mainCommand = parts.length > 0 ? parts[0].toLowerCase() : "";
+        String parameter = parts.length > 1 ? parts[1] : "";
+        if (Block.hasExpressions(mainCommand, parts)) {
+            return Block.compile(line);
+        }
+
+        return switch (mainCommand) {
+            case "about" -> Instruction.of(Opcode.ABOUT, line);
+            case "penup" -> Instruction.of(Opcode.PENUP, line);
+            case "pendown" -> Instruction.of(Opcode.PENDOWN, line);
+            case "left", "right" -> compileTurn(mainCommand, parameter, line);
+            case "forward", "move" -> compileMove(Opcode.FORWARD, parameter, line);
+            case "reverse" -> compileMove(Opcode.REVERSE, parameter, line);
+            case "reset" -> Instruction.of(Opcode.RESET, line);
+            case "clear" -> Instruction.of(Opcode.CLEAR, line);
+
+            case "orange" -> colour(Color.ORANGE, line);
+            case "green" -> colour(Color.GREEN, line);
+            case "red" -> colour(Color.RED, line);
+            case "white" -> colour(Color.WHITE, line);
+            case "pink" -> colour(Color.PINK, line);
+            case "cyan" -> colour(Color.CYAN, line);
+            case "cyclecolours" -> Instruction.of(Opcode.CYCLE_COLOURS, line);
+            case "dance" -> compileDance(parameter, line);
+
+            case "circle" -> compileCircle(parameter, line);
+            case "square" -> compileSquare(parameter, line);
+            case "pen" -> compilePenRGB(parts, line);
+            case "penwidth" -> compilePenWidth(parameter, line);
+            case "triangle" -> compileTriangle(parts, line);
+            case "fractal" -> compileFractal(parts, line);
+            case "lsystem" -> compileLSystem(parts, line);
+            case "playback" -> compilePlayback(parts, line);
+            case "framerate" -> compileFrameRate(parameter, line);
+
+            case "save" -> compileSave(parts, line);
+            case "load" -> compileLoad(parameter, line);
+
+            case "repeat", "make", "to" -> Block.compile(line);
+            // Anything else that looks like a name calls a procedure; checkCalls() rejects unknown ones
+            default -> Block.isName(mainCommand) ? Block.compile(line) : Instruction.invalid(line, "Unknown command: " + line);
+        };
+    }
+
+    // Adds the name of the procedure instruction defines, if it is a definition
+    static void define(Instruction instruction, Set<String> procedures) {
+        if (instruction.opcode() == Opcode.DEFINE) {
+            procedures.add(((Block.Procedure) instruction.payload()).name());
+        }
+    }
+
+    // Rejects a line that calls a procedure not in procedures, e.g. a misspelt "forwrd 50".
+    // Calls inside procedure bodies are left to run time: they may name procedures defined later.
+    static Instruction checkCalls(Instruction instruction, Set<String> procedures) {
+        if (!(instruction.payload() instanceof Block block)) {
+            return instruction;
+        }
+        String unknown = block.unknownCall(procedures);
+        if (unknown == null) {
+            return instruction;
+        }
+        String line = instruction.source();
+        String first = line.split("\\s+", 2)[0];
+        return Instruction.invalid(line, first.equalsIgnoreCase(unknown)
+                ? "Unknown command: " + line
+                : "Unknown command or procedure: " + unknown);
+    }
+
+    // The canonical command line for an instruction, e.g. "forward 50" for both "move 50" and
+    // "forward 50". Used for instructions decoded from binary scripts, which carry no text.
+    public static String decompile(Instruction instruction) {
+        int a = instruction.a();
+        int b = instruction.b();
+        return switch (instruction.opcode()) {
+            case ABOUT -> "about";
+            case PENUP -> "penup";
+            case PENDOWN -> "pendown";
+            case LEFT -> "left " + a;
+            case RIGHT -> "right " + a;
+            case FORWARD -> "forward " + a;
+            case REVERSE -> "reverse " + a;
+            case RESET -> "reset";
+            case CLEAR -> "clear";
+            case PEN_COLOUR -> colourName(a);
+            case CYCLE_COLOURS -> "cyclecolours";
+            case DANCE -> "dance " + a;
+            case CIRCLE -> "circle " + a;
+            case SQUARE -> "square " + a;
+            case PEN_WIDTH -> "penwidth " + a;
+            case TRIANGLE -> "triangle " + a;
+            case TRIANGLE_SIDES -> "triangle " + a + " " + b + " " + instruction.c();
+            case FRACTAL_TREE -> "fractal tree " + a + (b == 1 ? " animate" : "");
+            case FRACTAL_CANCEL -> "fractal cancel";
+            case PLAYBACK -> a == 1 ? "playback animated " + b : "playback instant";
+            case FRAME_RATE -> "framerate " + a;
+            case SAVE_IMAGE -> "save image" + (a >= 0 ? " level " + a : "")
+                    + (b >= 0 ? " filter " + PngWriter.Filter.values()[b].name().toLowerCase() : "");
+            case SAVE_COMMANDS -> "save commands";
+            case LOAD_IMAGE -> "load image";
+            case LOAD_COMMANDS -> "load commands";
+            // These always keep their text
+            case LSYSTEM, BLOCK, DEFINE, MAKE, INVALID -> throw new IllegalArgumentException("No text for " + instruction.opcode());
+        };
+    }
+
+    private static String colourName(int rgb) {
+        Color[] named = {Color.ORANGE, Color.GREEN, Color.RED, Color.WHITE, Color.PINK, Color.CYAN};
+        String[] names = {"orange", "green", "red", "white", "pink", "cyan"};
+        for (int i = 0; i < named.length; i++) {
+            if ((named[i].getRGB() & 0xFFFFFF) == rgb) return names[i];
+        }
+        return "pen " + (rgb >> 16 & 0xFF) + " " + (rgb >> 8 & 0xFF) + " " + (rgb & 0xFF);
+    }
+
+    // Joins a command written over several lines, a "to ... end" procedure or a repeat whose
+    // brackets close further down, back into one line. Feed it every line of a script in order.
+    public static final class LineJoiner {
+        private final StringBuilder pending = new StringBuilder();
+        private int open = 0;// Blocks opened and not yet closed in pending
+        private int lineNumber = 0;
+        private int startLine = 0;
+
+        // The complete command once this line finishes one, otherwise null
+        public String add(String line) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) return null;
+            if (pending.length() == 0) {
+                startLine = lineNumber;
+                // Most lines are single commands; only look closer at ones that may open a block
+                if (trimmed.indexOf('[') < 0 && !startsWithTo(trimmed)) return trimmed;
+                open = Block.nesting(trimmed);
+                if (open <= 0) return trimmed;
+                pending.append(trimmed);
+                return null;
+            }
+            pending.append(' ').append(trimmed);
+            open += Block.nesting(trimmed);
+            if (open > 0) return null;
+            return finish();
+        }
+
+        // A command still open at the end of the script, or null. Compiling it reports what is missing.
+        public String finish() {
+            if (pending.length() == 0) return null;
+            String command = pending.toString();
+            pending.setLength(0);
+            open = 0;
+            return command;
+        }
+
+        // The line the last command returned started on, counting from 1
+        public int getStartLine() {
+            return startLine;
+        }
+
+        private static boolean startsWithTo(String line) {
+            return line.regionMatches(true, 0, "to", 0, 2) && (line.length() == 2 || Character.isWhitespace(line.charAt(2)));
+        }
+    }
+
+    // Splits on whitespace without going through the regex engine
+    static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<>(4);
+        int i = 0;
+        int n = line.length();
+        while (i < n) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) i++;
+            int start = i;
+            while (i < n && !Character.isWhitespace(line.charAt(i))) i++;
+            if (i > start) tokens.add(line.substring(start, i));
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    // Range checks for commands with number operands, shared by the text commands and by commands
+    // in blocks whose operands are only known when they run (line is null for those). For
+    // PEN_COLOUR, a, b and c are red, green and blue.
+    static Instruction checked(Opcode opcode, int a, int b, int c, String line) {
+        String error = switch (opcode) {
+            case LEFT, RIGHT -> a < 0 || a > 360 ? "Turn between 0 and 360 degree." : null;
+            case FORWARD, REVERSE -> a < 0 ? "Error: Distance must be a positive value." : null;
+            case DANCE -> a < 1 || a > 100 ? "Dance moves must be between 1 and 100." : null;
+            case CIRCLE -> a < 1 || a > 500 ? "Radius must be between 1 and 500." : null;
+            case SQUARE -> a <= 0 ? "Error: Length must be positive." : null;
+            case PEN_WIDTH -> a < 1 || a > 50 ? "Pen width must be between 1 and 50." : null;
+            case PEN_COLOUR -> a < 0 || a > 255 || b < 0 || b > 255 || c < 0 || c > 255
+                    ? "Invalid RGB values. Use numbers 0–255." : null;
+            case FRACTAL_TREE -> a < 0 || a > FractalTreeEngine.MAX_DEPTH
+                    ? "Fractal depth must be between 0 and " + FractalTreeEngine.MAX_DEPTH + "." : null;
+            case FRAME_RATE -> a < 1 || a > 240 ? "Frame rate must be between 1 and 240." : null;
+            default -> null;
+        };
+        if (error != null) {
+            return Instruction.invalid(line, error);
+        }
+        if (opcode == Opcode.PEN_COLOUR) {
+            return Instruction.of(opcode, (a << 16) | (b << 8) | c, line);
+        }
+        return Instruction.of(opcode, a, b, c, line);
+    }
+
+    private static Instruction colour(Color color, String line) {
+        return Instruction.of(Opcode.PEN_COLOUR, color.getRGB() & 0xFFFFFF, line);
+    }
+
+    private static Instruction compileTurn(String direction, String parameter, String line) {
+        try {
+            int degrees = parameter.isEmpty() ? 90 : Integer.parseInt(parameter);
+            return checked(direction.equals("left") ? Opcode.LEFT : Opcode.RIGHT, degrees, 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Error: Degree must be a number");
+        }
+    }
+
+    private static Instruction compileMove(Opcode opcode, String parameter, String line) {
+        if (parameter.isEmpty()) {
+            return Instruction.invalid(line, "Error: 'move or reverse' command requires a distance parameter.");
+        }
+        try {
+            return checked(opcode, Integer.parseInt(parameter), 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Distance must be a number");
+        }
+    }
+
+    private static Instruction compileDance(String parameter, String line) {
+        try {
+            return checked(Opcode.DANCE, Integer.parseInt(parameter), 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Invalid dance parameter.");
+        }
+    }
+
+    private static Instruction compileCircle(String parameter, String line) {
+        try {
+            return checked(Opcode.CIRCLE, Integer.parseInt(parameter), 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Invalid circle radius.");
+        }
+    }
+
+    private static Instruction compileSquare(String parameter, String line) {
+        if (parameter.isEmpty()) {
+            return Instruction.invalid(line, "Error: 'square' command requires a length parameter.");
+        }
+        try {
+            return checked(Opcode.SQUARE, Integer.parseInt(parameter), 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Error: Invalid length parameter.");
+        }
+    }
+
+    private static Instruction compilePenRGB(String[] parts, String line) {
+        if (parts.length != 4) {
+            return Instruction.invalid(line, "Invalid pen command. Usage: pen <0> <0> <0>");
+        }
+        try {
+            return checked(Opcode.PEN_COLOUR, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]), line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Invalid RGB values. Use numbers 0–255.");
+        }
+    }
+
+    private static Instruction compilePenWidth(String parameter, String line) {
+        try {
+            return checked(Opcode.PEN_WIDTH, Integer.parseInt(parameter), 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Invalid pen width.");
+        }
+    }
+
+    private static Instruction compileTriangle(String[] parts, String line) {
+        if (parts.length == 2) {
+            // Single size -> Equilateral triangle
+            try {
+                return Instruction.of(Opcode.TRIANGLE, Integer.parseInt(parts[1]), line);
+            } catch (NumberFormatException e) {
+                return Instruction.invalid(line, "Invalid number format for triangle size.");
+            }
+        } else if (parts.length == 4) {
+            // for three sides parameter
+            try {
+                int a = Integer.parseInt(parts[1]);
+                int b = Integer.parseInt(parts[2]);
+                int c = Integer.parseInt(parts[3]);
+                return Instruction.of(Opcode.TRIANGLE_SIDES, a, b, c, line);
+            } catch (NumberFormatException e) {
+                return Instruction.invalid(line, "Invalid number format in triangle sides.");
+            }
+        }
+        return Instruction.invalid(line, "Invalid triangle command. Usage: triangle <size> or triangle <a> <b> <c>");
+    }
+
+    private static Instruction compileFractal(String[] parts, String line) {
+        if (parts.length == 2 && parts[1].equalsIgnoreCase("cancel")) {
+            return Instruction.of(Opcode.FRACTAL_CANCEL, line);
+        }
+        if (parts.length < 3) {
+            return Instruction.invalid(line, "Usage: fractal tree <depth> [animate] or fractal cancel");
+        }
+        int depth;
+        try {
+            depth = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Fractal depth must be a number.");
+        }
+        if (!parts[1].equalsIgnoreCase("tree")) {
+            return Instruction.invalid(line, "Unknown fractal type. Use: tree");
+        }
+        boolean animate = parts.length > 3 && parts[3].equalsIgnoreCase("animate");
+        if (parts.length > 3 && !animate && depth >= 0 && depth <= FractalTreeEngine.MAX_DEPTH) {
+            return Instruction.invalid(line, "Usage: fractal tree <depth> [animate]");
+        }
+        return checked(Opcode.FRACTAL_TREE, depth, animate ? 1 : 0, 0, line);
+    }
+
+    private static Instruction compileLSystem(String[] parts, String line) {
+        try {
+            return Instruction.withPayload(Opcode.LSYSTEM, LSystem.parse(parts), line);
+        } catch (IllegalArgumentException e) {
+            return Instruction.invalid(line, e.getMessage());
+        }
+    }
+
+    private static Instruction compilePlayback(String[] parts, String line) {
+        if (parts.length == 2 && parts[1].equalsIgnoreCase("instant")) {
+            return Instruction.of(Opcode.PLAYBACK, 0, 0, 0, line);
+        }
+        if ((parts.length == 2 || parts.length == 3) && parts[1].equalsIgnoreCase("animated")) {
+            try {
+                int steps = parts.length == 3 ? Integer.parseInt(parts[2]) : FrameScheduler.DEFAULT_STEPS_PER_FRAME;
+                if (steps < 1 || steps > 10000) {
+                    return Instruction.invalid(line, "Steps per frame must be between 1 and 10000.");
+                }
+                return Instruction.of(Opcode.PLAYBACK, 1, steps, 0, line);
+            } catch (NumberFormatException e) {
+                return Instruction.invalid(line, "Steps per frame must be a number.");
+            }
+        }
+        return Instruction.invalid(line, "Usage: playback instant or playback animated [steps per frame]");
+    }
+
+    private static Instruction compileFrameRate(String parameter, String line) {
+        try {
+            return checked(Opcode.FRAME_RATE, Integer.parseInt(parameter), 0, 0, line);
+        } catch (NumberFormatException e) {
+            return Instruction.invalid(line, "Invalid frame rate.");
+        }
+    }
+
+    private static Instruction compileSave(String[] parts, String line) {
+        if (parts.length < 2) {
+            return Instruction.invalid(line, "Error: Save what? Usage: save image or save commands");
+        }
+        return switch (parts[1].toLowerCase()) {
+            case "image" -> compileSaveImage(parts, line);
+            case "commands" -> Instruction.of(Opcode.SAVE_COMMANDS, line);
+            default -> Instruction.invalid(line, "Unknown save option. Use: save image OR save commands");
+        };
+    }
+
+    // save image [level 0-9] [filter none|sub|up|average|paeth|adaptive]
+    // Operands are the PNG level and filter ordinal, -1 where the current setting is kept
+    private static Instruction compileSaveImage(String[] parts, String line) {
+        int level = -1;
+        int filter = -1;
+        for (int i = 2; i < parts.length; i += 2) {
+            if (i + 1 >= parts.length) {
+                return Instruction.invalid(line, "Usage: save image [level 0-9] [filter none|sub|up|average|paeth|adaptive]");
+            }
+            String option = parts[i].toLowerCase();
+            if (option.equals("level")) {
+                try {
+                    level = Integer.parseInt(parts[i + 1]);
+                } catch (NumberFormatException e) {
+                    return Instruction.invalid(line, "PNG level must be a number.");
+                }
+                if (level < 0 || level > 9) {
+                    return Instruction.invalid(line, "PNG level must be between 0 and 9.");
+                }
+            } else if (option.equals("filter")) {
+                try {
+                    filter = PngWriter.Filter.parse(parts[i + 1]).ordinal();
+                } catch (IllegalArgumentException e) {
+                    return Instruction.invalid(line, "Unknown PNG filter. Use: none, sub, up, average, paeth or adaptive");
+                }
+            } else {
+                return Instruction.invalid(line, "Usage: save image [level 0-9] [filter none|sub|up|average|paeth|adaptive]");
+            }
+        }
+        return Instruction.of(Opcode.SAVE_IMAGE, level, filter, 0, line);
+    }
+
+    private static Instruction compileLoad(String parameter, String line) {
+        if (parameter.isEmpty()) {
+            return Instruction.invalid(line, "Error: Load what? Usage: load image or load commands");
+        }
+        return switch (parameter.toLowerCase()) {
+            case "image" -> Instruction.of(Opcode.LOAD_IMAGE, line);
+            case "commands" -> Instruction.of(Opcode.LOAD_COMMANDS, line);
+            default -> Instruction.invalid(line, "Unknown load option. Use: load image OR load commands");
+        };
+    }
+}
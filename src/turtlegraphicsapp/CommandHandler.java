@@ -2,154 +2,204 @@ package turtlegraphicsapp;
 
 import uk.ac.leedsbeckett.oop.LBUGraphics;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CommandHandler {
     // Dependencies needed to manipulate turtle graphics and manage state
-    private final LBUGraphics turtle;
+    private final TurtleCanvas turtle;
+    private final RecordingCanvas recorder;// Feeds displayList with every segment drawn through turtle
+    private final DisplayList displayList = new DisplayList();
     private final CommandManager commandManager;
     private final ImageManager imageManager;
     private final List<CommandState> drawHistory = new ArrayList<>();// Keeps track of drawing-related command history
+    private final CheckpointStore checkpoints = new CheckpointStore();// Raster snapshots so undo replays only a tail
     private boolean firstDrawingCommandDone = false;
+    private boolean penDown = true;// LBUGraphics has no getters for these, so track them here
+    private int penWidth = 1;
+    private boolean replaying = false;
+    private boolean announceCommands = true;
+    private boolean recordHistory = true;
+    private boolean standingIn = false;// See beginStandIn
+    private Color cachedColour = Color.RED;// Reused while consecutive commands ask for the same RGB
+    private final FractalTreeEngine fractalEngine = new FractalTreeEngine();
+    private volatile LSystem runningLSystem;// So "fractal cancel" can reach it from another thread
+    private final BlockInterpreter blocks = new BlockInterpreter(this);// Variables, procedures, running blocks
+    // Procedures compiled or defined for this handler, so lines calling them compile on any thread
+    private final Set<String> procedureNames = ConcurrentHashMap.newKeySet();
+    private int nested = 0;// Inside a block: its commands are not kept in drawHistory on their own
+    private BlockInterpreter.Snapshot replayBlocks;// Variables and procedures for the block undo is replaying
+    private volatile boolean externalEffects = false;// See hasExternalEffects()
+    private List<Instruction> restoredProgram;// Commands behind a render restored from RenderCache, not yet in drawHistory
+    private CheckpointStore.TurtleState restoredStart;// Turtle, variables and procedures before that program
+    private BlockInterpreter.Snapshot restoredBlocks;
+    private FrameScheduler frameScheduler;// Paces animation steps; null when running headless
+    private CommandMetrics metrics;// Null unless command timing is wanted
 
 
 
     // Constructor to initialize core components
     public CommandHandler(LBUGraphics turtle,CommandManager commandManager, ImageManager imageManager) {
-        this.turtle = turtle;
+        this(new LBUGraphicsCanvas(turtle), commandManager, imageManager);
+    }
+
+    // commandManager and imageManager may be null when running headless (no save/load, no history)
+    public CommandHandler(TurtleCanvas turtle, CommandManager commandManager, ImageManager imageManager) {
+        this.recorder = new RecordingCanvas(turtle, displayList);
+        this.turtle = recorder;
         this.commandManager = commandManager;
         this.imageManager = imageManager;
+        this.recordHistory = hasImage();
     }
 
     private static class CommandState {
-        String command;
-        Color penColor;
-
-        CommandState(String command, Color penColor) {
-            this.command = command;
-            this.penColor = penColor;
+        Instruction instruction;
+        CheckpointStore.TurtleState before;// Turtle and pen state just before the command ran
+        int segmentsBefore;// Display list size and visible start before the command ran
+        int visibleFromBefore;
+        BlockInterpreter.Snapshot blocks;// Only for blocks: the variables and procedures they ran with
+
+        CommandState(Instruction instruction, CheckpointStore.TurtleState before, int segmentsBefore, int visibleFromBefore,
+                     BlockInterpreter.Snapshot blocks) {
+            this.instruction = instruction;
+            this.before = before;
+            this.segmentsBefore = segmentsBefore;
+            this.visibleFromBefore = visibleFromBefore;
+            this.blocks = blocks;
         }
     }
 
 
     // executes a user command
     public boolean handleCommand(String command) {
-        String[] parts = command.trim().split("\\s+");
-        String mainCommand = parts[0].toLowerCase();
-        String parameter = parts.length > 1 ? parts[1] : "";
+        return execute(CommandCompiler.compile(command, procedureNames));
+    }
+
+    // Executes an already compiled command. No parsing happens here.
+    public boolean execute(Instruction instruction) {
+        Opcode opcode = instruction.opcode();
         boolean isValid = true;
         boolean isDrawingCommand = false;
 
-        Color currentPenColor = turtle.getPenColour();
+        // Both are free when switched off: the JFR event is a no-op unless a recording enables it
+        JfrEvents.Command event = new JfrEvents.Command();
+        event.begin();
+        boolean timed = metrics != null && metrics.isEnabled();
+        long timedStart = timed ? System.nanoTime() : 0;
+        long segmentsStart = recorder.getSegmentsDrawn();
+
+        CheckpointStore.TurtleState before = null;
+        long startNanos = 0;
+        int segmentsBefore = 0;
+        int visibleFromBefore = 0;
+        BlockInterpreter.Snapshot blocksBefore = null;
+        if (opcode.recordsHistory() && recordHistory && !replaying && nested == 0) {
+            before = captureState();
+            if (opcode == Opcode.BLOCK) blocksBefore = blocks.snapshot();
+            segmentsBefore = displayList.size();
+            visibleFromBefore = displayList.getVisibleFrom();
+            startNanos = System.nanoTime();
+        }
 
-        switch (mainCommand) {
-            case "about" -> {
+        switch (opcode) {
+            case ABOUT -> {
                 turtle.about();
                 turtle.displayMessage("Nalini Karna");
             }
-            case "penup" -> turtle.drawOff();
-            case "pendown" -> turtle.drawOn();
-            case "left", "right" -> {
-                isValid = handleTurn(mainCommand, parameter);
-                isDrawingCommand = isValid;
+            case PENUP -> { turtle.drawOff(); penDown = false; }
+            case PENDOWN -> { turtle.drawOn(); penDown = true; }
+            case LEFT -> {
+                turtle.right(instruction.a());
+                isDrawingCommand = true;
             }
-            case "forward", "move" -> {
-                isValid = handleMove(parameter, false);
-                if (isValid) {
-                    drawHistory.add(new CommandState(command, currentPenColor));
-                }
-                isDrawingCommand = isValid;
+            case RIGHT -> {
+                turtle.left(instruction.a());
+                isDrawingCommand = true;
             }
-            case "reverse" -> {
-                isValid = handleMove(parameter, true);
-                if (isValid) {
-                    drawHistory.add(new CommandState(command, currentPenColor));
-                }
+            case FORWARD, REVERSE -> {
+                isValid = handleMove(instruction.a(), opcode == Opcode.REVERSE);
                 isDrawingCommand = isValid;
-
             }
-            case "reset" -> { turtle.reset(); turtle.drawOn(); isDrawingCommand = isValid; }
-            case "clear" -> clearAndMoveToLeft();
+            case RESET -> { turtle.reset(); turtle.drawOn(); penDown = true; isDrawingCommand = true; }
+            case CLEAR -> clearAndMoveToLeft();
 
-            case "orange" -> {
-                turtle.setPenColour(Color.ORANGE);
-                isDrawingCommand = isValid;
+            case PEN_COLOUR -> {
+                turtle.setPenColour(colourFor(instruction.a()));
+                isDrawingCommand = true;
             }
-            case "green" -> {
-                turtle.setPenColour(Color.GREEN);
-                isDrawingCommand = isValid;
+            case CYCLE_COLOURS -> turtle.cycleColours();
+            case DANCE -> {
+                turtle.dance(instruction.a());
+                isDrawingCommand = true;
             }
-            case "red" -> {
-                turtle.setPenColour(Color.RED);
-                isDrawingCommand = isValid;
+
+            case CIRCLE -> {
+                turtle.circle(instruction.a());
+                isDrawingCommand = true;
             }
-            case "white" -> {
-                turtle.setPenColour(Color.WHITE);
-                isDrawingCommand = isValid;
+            case SQUARE -> {
+                handleSquare(instruction.a());
+                isDrawingCommand = true;
             }
-            case "pink" -> {
-                turtle.setPenColour(Color.PINK);
-                isDrawingCommand = isValid;
+            case PEN_WIDTH -> {
+                turtle.setStroke(instruction.a());
+                penWidth = instruction.a();
             }
-            case "cyan" -> {
-                turtle.setPenColour(Color.CYAN);
-                isDrawingCommand = isValid;
+            case TRIANGLE -> {
+                handleTriangle(instruction.a());
+                isDrawingCommand = true;
             }
-            case "cyclecolours" -> turtle.cycleColours();
-            case "dance" -> {
-                isValid = handleDance(parameter);
-                isDrawingCommand = isValid;
+            case TRIANGLE_SIDES -> {
+                handleTriangle(instruction.a(), instruction.b(), instruction.c());
+                isDrawingCommand = true;
             }
 
-            case "circle" -> {
-                isValid = handleCircle(parameter);
-                if (isValid) {
-                    drawHistory.add(new CommandState(command, currentPenColor));
-                }
-                isDrawingCommand = isValid;
+            case FRACTAL_TREE -> {
+                handleFractalTree(instruction.a(), instruction.b() == 1);
+                isDrawingCommand = true;
             }
-            case "square" -> {
-                isValid = handleSquare(parameter);
-                if (isValid) {
-                    drawHistory.add(new CommandState(command, currentPenColor));
-                }
-                isDrawingCommand = isValid;
+            case FRACTAL_CANCEL -> {
+                externalEffects = true;
+                cancelRunning();
             }
-            case "pen" -> {
-                isValid = handlePenRGB(parts);
+            case LSYSTEM -> {
+                isValid = handleLSystem((LSystem) instruction.payload());
                 isDrawingCommand = isValid;
             }
-            case "penwidth" -> isValid = handlePenWidth(parameter);
-            case "triangle" -> {
-                isValid = handleTriangle(parts);
-                if (isValid) {
-                    drawHistory.add(new CommandState(command, currentPenColor));
-                }
-                isDrawingCommand = isValid;
+            case BLOCK, MAKE -> isValid = handleBlock((Block) instruction.payload());
+            case DEFINE -> {
+                blocks.define((Block.Procedure) instruction.payload());
+                CommandCompiler.define(instruction, procedureNames);
             }
 
-            case "fractal" -> {
-                isValid = handleFractal(parts);
-                if (isValid) {
-                    drawHistory.add(new CommandState(command, currentPenColor));
-                }
-                isDrawingCommand = isValid;
+            case PLAYBACK, FRAME_RATE -> {
+                externalEffects = true;
+                isValid = handleScheduling(instruction);
             }
 
-            case "save" -> isValid = handleSave(parameter);
-            case "load" -> isValid = handleLoad(parameter);
+            case SAVE_IMAGE, SAVE_COMMANDS -> {
+                externalEffects = true;
+                isValid = handleSave(instruction);
+            }
+            case LOAD_IMAGE, LOAD_COMMANDS -> {
+                externalEffects = true;
+                isValid = handleLoad(opcode);
+            }
 
-            default -> {
+            case INVALID -> {
                 isValid = false;
-                turtle.displayMessage("Unknown command: " + command);
+                turtle.displayMessage(instruction.error());
             }
-
         }
 
-        if (isValid) {
-            if (!mainCommand.equals("about")) {
-                turtle.displayMessage("Last command: " + command);
+        if (isValid && announceCommands && !replaying && nested == 0) {
+            boolean blockReported = opcode == Opcode.BLOCK && (blocks.getRejected() > 0 || blocks.isCancelled());
+            if (opcode != Opcode.ABOUT && opcode != Opcode.LSYSTEM && !blockReported) {
+                turtle.displayMessage("Last command: " + instruction.source());
             }
         }
 
@@ -158,285 +208,416 @@ public class CommandHandler {
             if (!firstDrawingCommandDone) {
                 turtle.setPenColour(Color.RED);
                 turtle.setStroke(1);
+                penWidth = 1;
                 firstDrawingCommandDone = true;
             }
 
-            if (turtle instanceof TurtleGraphics tg) {
-                tg.getImageManager().markImageAsUnsaved();
+            if (imageManager != null) {
+                imageManager.markImageAsUnsaved();
             }
         }
+
+        if (isValid && before != null) {
+            drawHistory.add(new CommandState(instruction, before, segmentsBefore, visibleFromBefore, blocksBefore));
+            if (checkpoints.shouldCheckpoint(System.nanoTime() - startNanos)) {
+                checkpoints.add(drawHistory.size(), captureState(), turtle.getBufferedImage());
+            }
+        } else if (opcode == Opcode.BLOCK && before != null) {
+            rollBack(new CommandState(instruction, before, segmentsBefore, visibleFromBefore, blocksBefore));
+        }
+
+        if (timed) {
+            metrics.record(opcode, System.nanoTime() - timedStart, recorder.getSegmentsDrawn() - segmentsStart);
+        }
+        if (event.shouldCommit()) {
+            event.opcode = opcode.name();
+            event.a = instruction.a();
+            event.b = instruction.b();
+            event.c = instruction.c();
+            event.valid = isValid;
+            event.replay = replaying;
+            event.segments = recorder.getSegmentsDrawn() - segmentsStart;
+            event.commit();
+        }
         return isValid;
     }
 
-    // Clears canvas and repositions turtle to the left-center
-    private void clearAndMoveToLeft() {
-        turtle.clear();
-        turtle.setxPos(30);
-        turtle.setyPos(turtle.getHeight() / 2);
-        turtle.pointTurtle(180);
-        turtle.drawOn();}
-
-    // Handles left/right turning
-    private boolean handleTurn(String direction, String parameter) {
+    // Runs one command of a block. Animated playback shows it as its own step.
+    boolean executeNested(Instruction instruction) {
+        nested++;
+        boolean valid;
         try {
-            int degrees = parameter.isEmpty() ? 90 : Integer.parseInt(parameter);
-            if (degrees < 0 || degrees > 360) {
-                turtle.displayMessage("Turn between 0 and 360 degree.");
-                return false;
-            }
+            valid = execute(instruction);
+        } finally {
+            nested--;
+        }
+        if (!replaying && frameScheduler != null && frameScheduler.getMode() == FrameScheduler.Mode.ANIMATED) {
+            frameScheduler.step();
+        }
+        return valid;
+    }
 
-            if (direction.equals("left")) {
-                turtle.right(degrees);
-            } else {
-                turtle.left(degrees);
-            }
+    public void setMetrics(CommandMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-            return true;
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Error: Degree must be a number");
-            return false;
-        }
+    public CommandMetrics getMetrics() {
+        return metrics;
     }
 
-    // Handles forward/reverse movement
-    private boolean handleMove(String parameter, boolean reverse) {
-        if (parameter.isEmpty()) {
-            turtle.displayMessage("Error: 'move or reverse' command requires a distance parameter.");
-            return false;
-        }
+    // Rewrites a script to run from where this turtle is now, see ScriptOptimizer. Call it on the
+    // thread that runs the commands, right before running them.
+    public ScriptOptimizer.Result optimize(List<Instruction> program) {
+        return ScriptOptimizer.optimize(program, captureState(), turtle.getWidth(), turtle.getHeight());
+    }
 
-        try {
-            int distance = Integer.parseInt(parameter);
-            if (distance < 0) {
-                turtle.displayMessage("Error: Distance must be a positive value.");
-                return false;
-            }
+    // True if a command since the last clearExternalEffects() did more than draw: saved or loaded
+    // a file, changed playback settings, or cancelled a drawing. Such a run can't be replaced by
+    // its finished picture, see RenderCache.
+    public boolean hasExternalEffects() {
+        return externalEffects;
+    }
 
-            // Calculate intended movement
-            double radians = Math.toRadians(turtle.getDirection());
-            int dx = (int) Math.round(Math.cos(radians) * distance);
-            int dy = (int) Math.round(Math.sin(radians) * distance);
+    public void clearExternalEffects() {
+        externalEffects = false;
+    }
 
-            int newX = turtle.getxPos() + (reverse ? -dx : dx);
-            int newY = turtle.getyPos() + (reverse ? -dy : dy);
+    CheckpointStore.TurtleState getTurtleState() {
+        return captureState();
+    }
 
-            int panelWidth = turtle.getWidth();
-            int panelHeight = turtle.getHeight();
+    int getCanvasWidth() {
+        return turtle.getWidth();
+    }
 
-            // Prevent going out of bounds
-            if (newX < 0 || newY < 0 || newX > panelWidth || newY > panelHeight) {
-                turtle.displayMessage("Move blocked: out of bounds.");
-                return false;
-            }
-            turtle.forward(reverse ? -distance : distance);
-            return true;
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Distance must be a number");
-            return false;
-        }
+    int getCanvasHeight() {
+        return turtle.getHeight();
     }
 
-    // Makes the turtle dance a specified number of times
-    private boolean handleDance(String parameter) {
-        try {
-            int moves = Integer.parseInt(parameter);
-            if (moves < 1 || moves > 100) {
-                turtle.displayMessage("Dance moves must be between 1 and 100.");
-                return false;
+    BlockInterpreter getBlocks() {
+        return blocks;
+    }
+
+    // The canvas, turtle, variables, procedures and visible geometry as they are now, for RenderCache
+    RenderCache.Entry captureRender(int[] rejected) {
+        BufferedImage image = turtle.getBufferedImage();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] pixels = CheckpointStore.compress(image.getRGB(0, 0, width, height, null, 0, width));
+
+        float[] segments = null;
+        int[] runStart = null;
+        int[] runColour = null;
+        float[] runWidth = null;
+        if (recorder.isRecording()) {
+            DisplayList.Snapshot recorded = displayList.snapshot();
+            int from = recorded.getVisibleFrom();
+            int count = recorded.size() - from;
+            segments = new float[count * 4];
+            List<Integer> starts = new ArrayList<>();
+            int run = -1;
+            for (int i = 0; i < count; i++) {
+                int segment = from + i;
+                segments[i * 4] = recorded.getX0(segment);
+                segments[i * 4 + 1] = recorded.getY0(segment);
+                segments[i * 4 + 2] = recorded.getX1(segment);
+                segments[i * 4 + 3] = recorded.getY1(segment);
+                if (recorded.runOf(segment) != run) {
+                    run = recorded.runOf(segment);
+                    starts.add(i);
+                }
+            }
+            runStart = new int[starts.size()];
+            runColour = new int[starts.size()];
+            runWidth = new float[starts.size()];
+            for (int r = 0; r < runStart.length; r++) {
+                runStart[r] = starts.get(r);
+                runColour[r] = recorded.getColour(from + runStart[r]);
+                runWidth[r] = recorded.getWidth(from + runStart[r]);
             }
-            turtle.dance(moves);
-            return true;
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Invalid dance parameter.");
-            return false;
         }
+        return new RenderCache.Entry(width, height, captureState(), pixels, rejected,
+                blocks.getVariables(), blocks.getProcedureSources(), segments, runStart, runColour, runWidth);
     }
 
-    private boolean handleCircle(String parameter) {
-        try {
-            int radius = Integer.parseInt(parameter);
-            if (radius < 1 || radius > 500) {
-                turtle.displayMessage("Radius must be between 1 and 500.");
-                return false;
+    // Puts back what captureRender() saw, in place of running program, the commands that were
+    // accepted, again. They reach drawHistory only if undo needs them, see rebuildRestoredHistory().
+    void restoreRender(RenderCache.Entry entry, List<Instruction> program) {
+        restoredProgram = program;
+        restoredStart = captureState();
+        restoredBlocks = blocks.snapshot();
+
+        BufferedImage image = turtle.getBufferedImage();
+        int[] argb = CheckpointStore.decompress(entry.pixels, entry.width * entry.height);
+        image.setRGB(0, 0, Math.min(entry.width, image.getWidth()), Math.min(entry.height, image.getHeight()),
+                argb, 0, entry.width);
+        restoreState(entry.state);
+
+        List<Block.Procedure> procedures = new ArrayList<>();
+        for (String source : entry.procedures) {
+            Instruction definition = CommandCompiler.compile(source, procedureNames);
+            if (definition.opcode() == Opcode.DEFINE) {
+                procedures.add((Block.Procedure) definition.payload());
             }
-            turtle.circle(radius);
-            return true;
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Invalid circle radius.");
-            return false;
         }
+        blocks.restore(entry.variables, procedures);
+
+        if (entry.segments != null && recorder.isRecording()) {
+            for (int r = 0; r < entry.runStart.length; r++) {
+                int end = r + 1 < entry.runStart.length ? entry.runStart[r + 1] : entry.segments.length / 4;
+                for (int i = entry.runStart[r]; i < end; i++) {
+                    displayList.add(entry.segments[i * 4], entry.segments[i * 4 + 1], entry.segments[i * 4 + 2],
+                            entry.segments[i * 4 + 3], entry.runColour[r], entry.runWidth[r]);
+                }
+            }
+        }
+        if (imageManager != null) {
+            imageManager.markImageAsUnsaved();
+        }
+        turtle.repaint();
     }
 
-    private boolean handleSquare(String parameter) {
-        if (parameter.isEmpty()) {
-            turtle.displayMessage("Error: 'square' command requires a length parameter.");
-            return false;
-        }
+    public long getSegmentsDrawn() {
+        return recorder.getSegmentsDrawn();
+    }
 
-        try {
-            int length = Integer.parseInt(parameter);
-            if (length <= 0) {
-                turtle.displayMessage("Error: Length must be positive.");
-                return false;
-            }
+    public int getDrawHistorySize() {
+        return drawHistory.size();
+    }
 
-            int startX = turtle.getxPos();
-            int startY = turtle.getyPos();
-            int startDirection = turtle.getDirection();
+    // The last message shown to the user, e.g. why the last command was rejected
+    public String getLastMessage() {
+        return recorder.getLastMessage();
+    }
 
-            // Draw the square by moving forward and turning 90 degrees
-            for (int i = 0; i < 4; i++) {
-                turtle.forward(length);
-                turtle.left(90);
-            }
+    // Turns the "Last command: ..." status message off for bulk runs (headless rendering)
+    public void setAnnounceCommands(boolean announceCommands) {
+        this.announceCommands = announceCommands;
+    }
 
-            // Return to the original position and direction
-            turtle.setxPos(startX);
-            turtle.setyPos(startY);
-            turtle.pointTurtle(startDirection);// Reset to starting direction
-            turtle.pointTurtle(180);
-            return true;
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Error: Invalid length parameter.");
-            return false;
+    // Turns off drawHistory and undo checkpoints when nothing will ever be undone (headless rendering).
+    // Undo restores checkpoints of the canvas image, so a canvas without one never records history.
+    public void setRecordHistory(boolean recordHistory) {
+        this.recordHistory = recordHistory && hasImage();
+    }
+
+    // Whether the canvas is one BufferedImage, which checkpoints and captureRender() copy
+    boolean hasImage() {
+        return turtle.getBufferedImage() != null;
+    }
+
+    public void setFrameScheduler(FrameScheduler frameScheduler) {
+        this.frameScheduler = frameScheduler;
+    }
+
+    // Turns off recording segments into the display list when only the pixels are wanted
+    public void setRecordGeometry(boolean recordGeometry) {
+        recorder.setRecording(recordGeometry);
+    }
+
+    // Every segment drawn so far; can redraw the canvas at any scale without re-running commands
+    public DisplayList getDisplayList() {
+        return displayList;
+    }
+
+    private Color colourFor(int rgb) {
+        if ((cachedColour.getRGB() & 0xFFFFFF) != rgb) {
+            cachedColour = new Color(rgb);
         }
+        return cachedColour;
     }
 
+    private CheckpointStore.TurtleState captureState() {
+        return new CheckpointStore.TurtleState(turtle.getxPos(), turtle.getyPos(), turtle.getDirection(),
+                turtle.getPenColour(), penWidth, penDown, firstDrawingCommandDone);
+    }
 
-    private boolean handlePenRGB(String [] parts) {
-        if (parts.length != 4) {
-            turtle.displayMessage("Invalid pen command. Usage: pen <0> <0> <0>");
-            return false;
+    private void restoreState(CheckpointStore.TurtleState state) {
+        turtle.setxPos(state.x);
+        turtle.setyPos(state.y);
+        turtle.pointTurtle(state.direction);
+        turtle.setPenColour(state.penColor);
+        turtle.setStroke(state.penWidth);
+        if (state.penDown) {
+            turtle.drawOn();
+        } else {
+            turtle.drawOff();
         }
+        penWidth = state.penWidth;
+        penDown = state.penDown;
+        firstDrawingCommandDone = state.firstDrawingCommandDone;
+    }
 
-        try {
-            int r = Integer.parseInt(parts[1].trim());
-            int g = Integer.parseInt(parts[2].trim());
-            int b = Integer.parseInt(parts[3].trim());
+    // Clears canvas and repositions turtle to the left-center
+    private void clearAndMoveToLeft() {
+        turtle.clear();
+        turtle.setxPos(30);
+        turtle.setyPos(turtle.getHeight() / 2);
+        turtle.pointTurtle(180);
+        turtle.drawOn();
+        penDown = true;
+    }
 
-            if (r < 0 || r > 255 || g < 0 || g > 255 || b < 0 || b > 255) {
-                throw new IllegalArgumentException();
-            }
+    // Handles forward/reverse movement; the distance was validated at compile time
+    private boolean handleMove(int distance, boolean reverse) {
+        // Calculate intended movement
+        double radians = Math.toRadians(turtle.getDirection());
+        int dx = (int) Math.round(Math.cos(radians) * distance);
+        int dy = (int) Math.round(Math.sin(radians) * distance);
 
-            turtle.setPenColour(new Color(r, g, b));
-            return true;
-        } catch (Exception e) {
-            turtle.displayMessage("Invalid RGB values. Use numbers 0–255.");
+        int newX = turtle.getxPos() + (reverse ? -dx : dx);
+        int newY = turtle.getyPos() + (reverse ? -dy : dy);
+
+        int panelWidth = turtle.getWidth();
+        int panelHeight = turtle.getHeight();
+
+        // Prevent going out of bounds
+        if (newX < 0 || newY < 0 || newX > panelWidth || newY > panelHeight) {
+            turtle.displayMessage("Move blocked: out of bounds.");
             return false;
         }
+        turtle.forward(reverse ? -distance : distance);
+        return true;
     }
 
-    private boolean handlePenWidth(String parameter) {
-        try {
-            int width = Integer.parseInt(parameter.trim());
-            if (width < 1 || width > 50) {
-                turtle.displayMessage("Pen width must be between 1 and 50.");
-                return false;
-            }
-            turtle.setStroke(width);
-            return true;
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Invalid pen width.");
-            return false;
+    private void handleSquare(int length) {
+        int startX = turtle.getxPos();
+        int startY = turtle.getyPos();
+        int startDirection = turtle.getDirection();
+
+        // Draw the square by moving forward and turning 90 degrees
+        for (int i = 0; i < 4; i++) {
+            turtle.forward(length);
+            turtle.left(90);
         }
-    }
 
-    private boolean handleTriangle(String[] parts) {
-        if (parts.length == 2) {
-            // Single size -> Equilateral triangle
-            try {
-                int size = Integer.parseInt(parts[1].trim());
+        // Return to the original position and direction
+        turtle.setxPos(startX);
+        turtle.setyPos(startY);
+        turtle.pointTurtle(startDirection);// Reset to starting direction
+        turtle.pointTurtle(180);
+    }
 
-                for (int i = 0; i < 3; i++) {
-                    turtle.forward(size);
-                    turtle.left(120);
-                }
-                return true;
-            } catch (NumberFormatException e) {
-                turtle.displayMessage("Invalid number format for triangle size.");
-                return false;
-            }
-        } else if (parts.length == 4) {
-            // for three sides parameter
-            try {
-                int a = Integer.parseInt(parts[1].trim());
-                int b = Integer.parseInt(parts[2].trim());
-                int c = Integer.parseInt(parts[3].trim());
-
-                double angleA = Math.acos((b * b + c * c - a * a) / (2.0 * b * c));
-                double angleB = Math.acos((a * a + c * c - b * b) / (2.0 * a * c));
-                double angleC = Math.PI - angleA - angleB;
-
-                int degA = (int) Math.round(Math.toDegrees(angleA));
-                int degB = (int) Math.round(Math.toDegrees(angleB));
-                int degC = (int) Math.round(Math.toDegrees(angleC));
-
-                turtle.forward(a);
-                turtle.left(180 - degC);
-                turtle.forward(b);
-                turtle.left(180 - degA);
-                turtle.forward(c);
-                turtle.left(180-degB);
-
-                return true;
-            } catch (NumberFormatException e) {
-                turtle.displayMessage("Invalid number format in triangle sides.");
-                return false;
-            } catch (Exception e) {
-                turtle.displayMessage("Error in triangle parameters.");
-                return false;
-            }
-        } else {
-            turtle.displayMessage("Invalid triangle command. Usage: triangle <size> or triangle <a> <b> <c>");
-            return false;
+    // Single size -> Equilateral triangle
+    private void handleTriangle(int size) {
+        for (int i = 0; i < 3; i++) {
+            turtle.forward(size);
+            turtle.left(120);
         }
     }
 
-    private Color getGradientColor(int index) {
-        float hue = (float) index / 10;
-        return Color.getHSBColor(hue, 1.0f, 1.0f);
+    // for three sides parameter
+    private void handleTriangle(int a, int b, int c) {
+        double angleA = Math.acos((b * b + c * c - a * a) / (2.0 * b * c));
+        double angleB = Math.acos((a * a + c * c - b * b) / (2.0 * a * c));
+        double angleC = Math.PI - angleA - angleB;
+
+        int degA = (int) Math.round(Math.toDegrees(angleA));
+        int degB = (int) Math.round(Math.toDegrees(angleB));
+        int degC = (int) Math.round(Math.toDegrees(angleC));
+
+        turtle.forward(a);
+        turtle.left(180 - degC);
+        turtle.forward(b);
+        turtle.left(180 - degA);
+        turtle.forward(c);
+        turtle.left(180-degB);
     }
 
+    // One animation step: the frame scheduler decides how many steps are shown per frame.
+    // Headless there is nothing to watch, so steps run without waiting.
     private void pause() {
-        try {
-            Thread.sleep(5); // Adjust delay to control animation speed
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        if (frameScheduler != null) {
+            frameScheduler.step();
         }
     }
 
-    private boolean handleFractal(String[] parts) {
-        if (parts.length < 3) {
-            turtle.displayMessage("Usage: fractal tree <depth>");
-            return false;
+    // Stops a running fractal, L-system or block. Only sets volatile flags, so it is safe from any
+    // thread; each drawing clears its flag when it starts.
+    public void cancelRunning() {
+        fractalEngine.cancel();
+        LSystem lsystem = runningLSystem;
+        if (lsystem != null) {
+            lsystem.cancel();
         }
+        blocks.cancel();
+    }
 
-        String type = parts[1].toLowerCase();
-        int depth;
-        try {
-            depth = Integer.parseInt(parts[2]);
-        } catch (NumberFormatException e) {
-            turtle.displayMessage("Fractal depth must be a number.");
-            return false;
+    // Instant by default: the engine draws the whole tree in batches. "animate" keeps the
+    // original step-by-step turtle drawing.
+    private void handleFractalTree(int depth, boolean animate) {
+        if (animate) {
+            fractalEngine.startRun();
+            turtle.setTurtleSpeed(10);
+            drawFractalTree(depth, 60);
+            turtle.setTurtleSpeed(5);
+        } else {
+            fractalEngine.draw(turtle, turtle.getxPos(), turtle.getyPos(), turtle.getDirection(), depth, 60, penWidth);
+            if (depth > 0) {
+                turtle.setPenColour(FractalTreeEngine.gradientColour(1));// Where the recursive version leaves it
+            }
+        }
+        if (fractalEngine.isCancelled()) {
+            turtle.displayMessage("Fractal cancelled.");
         }
+    }
 
-        turtle.setTurtleSpeed(10);
 
-        if (type.equals("tree")) {
-            drawFractalTree(depth, 60);
-        } else {
-            turtle.displayMessage("Unknown fractal type. Use: tree");
-            return false;
+    // Streams the expansion into the canvas and leaves the turtle at the end of the drawing
+    // Like a move, refused if it would take the turtle off the canvas; the path is measured first
+    // so nothing is drawn then
+    private boolean handleLSystem(LSystem lsystem) {
+        runningLSystem = lsystem;
+        LSystem.Result result;
+        try {
+            double[] bounds = lsystem.measure(turtle.getDirection());
+            if (bounds == null) {
+                turtle.displayMessage("L-system cancelled.");
+                return false;
+            }
+            double fits = largestStepThatFits(bounds);
+            if (lsystem.getStep() > fits) {
+                turtle.displayMessage(fits >= 1
+                        ? String.format("L-system blocked: out of bounds. A step of at most %d fits from here.", (int) fits)
+                        : "L-system blocked: out of bounds.");
+                return false;
+            }
+            result = lsystem.draw(turtle, turtle.getxPos(), turtle.getyPos(), turtle.getDirection(),
+                    penDown, turtle.getPenColour().getRGB() & 0xFFFFFF, penWidth);
+        } finally {
+            runningLSystem = null;
+        }
+        turtle.setxPos((int) Math.round(result.x));
+        turtle.setyPos((int) Math.round(result.y));
+        turtle.pointTurtle((int) Math.round(result.heading));
+
+        if (lsystem.isCancelled()) {
+            turtle.displayMessage("L-system cancelled after " + result.segments + " segments.");
+        } else if (announceCommands && !replaying) {
+            turtle.displayMessage(String.format("L-system: %d segments in %d ms (%.0f segments/s)",
+                    result.segments, result.nanos / 1_000_000, result.segmentsPerSecond()));
         }
-        turtle.setTurtleSpeed(5);
         return true;
     }
 
+    // The largest step at which a path with these unit-step bounds stays on the canvas
+    private double largestStepThatFits(double[] bounds) {
+        double x = turtle.getxPos();
+        double y = turtle.getyPos();
+        double fits = Double.MAX_VALUE;
+        final double slack = 1e-9;// Rounding in the walk must not refuse a path that just touches an edge
+        if (bounds[0] < -slack) fits = Math.min(fits, x / -bounds[0]);
+        if (bounds[1] < -slack) fits = Math.min(fits, y / -bounds[1]);
+        if (bounds[2] > slack) fits = Math.min(fits, (turtle.getWidth() - x) / bounds[2]);
+        if (bounds[3] > slack) fits = Math.min(fits, (turtle.getHeight() - y) / bounds[3]);
+        return fits * (1 + slack);
+    }
+
 
     private void drawFractalTree(int depth, double length) {
-        if (depth == 0) return;
+        if (depth == 0 || fractalEngine.isCancelled()) return;
 
-        Color color = getGradientColor(depth);
+        Color color = FractalTreeEngine.gradientColour(depth);
         turtle.setPenColour(color);
 
         turtle.forward((int) length);
@@ -454,81 +635,227 @@ public class CommandHandler {
         pause();
     }
 
-    private boolean handleSave(String parameter) {
-        if (parameter.isEmpty()) {
-            turtle.displayMessage("Error: Save what? Usage: save image or save commands");
+    // Undo replays a block with the variables and procedures it first ran with
+    private boolean handleBlock(Block block) {
+        String error = blocks.run(block, replaying ? replayBlocks : null);
+        if (error != null) {
+            turtle.displayMessage(error);
             return false;
         }
+        if (blocks.isCancelled()) {
+            turtle.displayMessage("Stopped after " + blocks.getSteps() + " steps.");
+        } else if (blocks.getRejected() > 0) {
+            turtle.displayMessage(blocks.getRejected() + " of " + blocks.getSteps() + " steps rejected, the last: "
+                    + blocks.getLastRejection());
+        }
+        return true;
+    }
 
-        switch (parameter.toLowerCase()) {
-            case "image" -> {
-                imageManager.saveImage();
-                return true;
-            }
-            case "commands" -> {
-                commandManager.saveCommands();
-                return true;
-            }
-            default -> {
-                turtle.displayMessage("Unknown save option. Use: save image OR save commands");
-                return false;
-            }
+    private boolean handleScheduling(Instruction instruction) {
+        if (frameScheduler == null) {
+            turtle.displayMessage("Playback settings are not available in headless mode.");
+            return false;
+        }
+        if (instruction.opcode() == Opcode.FRAME_RATE) {
+            frameScheduler.setFrameRate(instruction.a());
+        } else if (instruction.a() == 1) {
+            frameScheduler.setMode(FrameScheduler.Mode.ANIMATED);
+            frameScheduler.setStepsPerFrame(instruction.b());
+        } else {
+            frameScheduler.setMode(FrameScheduler.Mode.INSTANT);
         }
+        return true;
     }
 
-    private boolean handleLoad(String parameter) {
-        if (parameter.isEmpty()) {
-            turtle.displayMessage("Error: Load what? Usage: load image or load commands");
+    private boolean handleSave(Instruction instruction) {
+        if (imageManager == null || commandManager == null) {
+            turtle.displayMessage("Save is not available in headless mode.");
             return false;
         }
+        if (instruction.opcode() == Opcode.SAVE_IMAGE) {
+            // PNG options given with the command stay in effect for later saves
+            if (instruction.a() >= 0 || instruction.b() >= 0) {
+                PngWriter current = imageManager.getPngWriter();
+                int level = instruction.a() >= 0 ? instruction.a() : current.getLevel();
+                PngWriter.Filter filter = instruction.b() >= 0 ? PngWriter.Filter.values()[instruction.b()] : current.getFilter();
+                imageManager.setPngWriter(new PngWriter(level, filter));
+            }
+            imageManager.saveImage();
+        } else {
+            commandManager.saveCommands();
+        }
+        return true;
+    }
 
-        switch (parameter.toLowerCase()) {
-            case "image" -> {
-                imageManager.loadImageWithPrompt();
-                return true;
-            }
-            case "commands" -> {
-                commandManager.loadCommands();
-                return true;
-            }
-            default -> {
-                turtle.displayMessage("Unknown load option. Use: load image OR load commands");
-                return false;
-            }
+    private boolean handleLoad(Opcode opcode) {
+        if (imageManager == null || commandManager == null) {
+            turtle.displayMessage("Load is not available in headless mode.");
+            return false;
+        }
+        if (opcode == Opcode.LOAD_IMAGE) {
+            imageManager.loadImageWithPrompt();
+        } else {
+            commandManager.loadCommands();
         }
+        return true;
     }
 
+    // Restores the nearest checkpoint before the undone command and replays only the commands
+    // after it, each from its recorded starting state.
     public void undoLastDrawCommand() {
+        if (restoredProgram != null) {
+            rebuildRestoredHistory();
+        }
         if (drawHistory.isEmpty()) return;
 
-        drawHistory.remove(drawHistory.size() - 1);
+        JfrEvents.UndoReplay event = new JfrEvents.UndoReplay();
+        event.begin();
+        CommandState undone = drawHistory.remove(drawHistory.size() - 1);
+        int target = drawHistory.size();
+        checkpoints.truncate(target);
+
+        // The display list already holds the replayed segments; just drop the undone ones
+        boolean recordGeometry = recorder.isRecording();
+        recorder.setRecording(false);
+        displayList.truncate(undone.segmentsBefore, undone.visibleFromBefore);
+
+        CheckpointStore.Checkpoint checkpoint = checkpoints.findAtOrBefore(target);
+        int from = 0;
+        if (checkpoint != null) {
+            checkpoints.restore(checkpoint, turtle.getBufferedImage());
+            from = checkpoint.historySize;
+        } else {
+            turtle.clear();
+            turtle.reset();
+            turtle.drawOn();
+        }
+
+        replaying = true;
+        try {
+            for (int i = from; i < target; i++) {
+                CommandState commandState = drawHistory.get(i);
+                restoreState(commandState.before);
+                replayBlocks = commandState.blocks;
+                execute(commandState.instruction);
+            }
+        } finally {
+            replaying = false;
+            replayBlocks = null;
+            recorder.setRecording(recordGeometry);
+        }
+        checkpoints.recordReplay(target - from);
+        if (event.shouldCommit()) {
+            event.replayed = target - from;
+            event.fromCheckpoint = checkpoint != null;
+            event.commit();
+        }
+
+        // Leave the turtle where it was before the undone command
+        restoreState(undone.before);
+        turtle.repaint();
+    }
+
+    // A block that stopped on an error is rejected like any other command, but may have drawn part
+    // of itself first. Nothing in the history accounts for that, so it is undone here rather than
+    // by whichever later undo happens to replay over it. The error message stays.
+    private void rollBack(CommandState failed) {
+        drawHistory.add(failed);
+        undoLastDrawCommand();
+        blocks.restore(failed.blocks.variables, new ArrayList<>(failed.blocks.procedures.values()));
+    }
+
+    // Between these two, commands run in place of others, e.g. a script rewritten by
+    // ScriptOptimizer, and stay out of drawHistory. endStandIn() is given the commands that count
+    // as having run, and the first undo rebuilds their history as after restoreRender().
+    void beginStandIn() {
+        if (!recordHistory) return;
+        restoredStart = captureState();
+        restoredBlocks = blocks.snapshot();
+        recordHistory = false;
+        standingIn = true;
+    }
+
+    void endStandIn(List<Instruction> program) {
+        if (!standingIn) return;
+        standingIn = false;
+        recordHistory = true;
+        restoredProgram = program;
+    }
+
+    // A render restored from RenderCache has no history behind it. Before the first undo, runs its
+    // commands again from the start to record one, then replays whatever ran since on top, which
+    // costs what undo would have cost had the script been run. The canvas ends up as it was.
+    private void rebuildRestoredHistory() {
+        List<Instruction> program = restoredProgram;
+        CheckpointStore.TurtleState start = restoredStart;
+        BlockInterpreter.Snapshot startBlocks = restoredBlocks;
+        List<CommandState> since = new ArrayList<>(drawHistory);
+        CheckpointStore.TurtleState now = captureState();
+        Map<String, Double> variables = blocks.getVariables();
+        List<Block.Procedure> procedures = new ArrayList<>(blocks.snapshot().procedures.values());
+        clearDrawHistory();
+
         turtle.clear();
         turtle.reset();
         turtle.drawOn();
+        restoreState(start);
+        blocks.restore(startBlocks.variables, new ArrayList<>(startBlocks.procedures.values()));
+        boolean announce = announceCommands;
+        FrameScheduler scheduler = frameScheduler;
+        announceCommands = false;
+        frameScheduler = null;// Not shown as animation
+        try {
+            for (Instruction instruction : program) {
+                execute(instruction);
+            }
+            replaying = true;
+            for (CommandState commandState : since) {
+                commandState.segmentsBefore = displayList.size();
+                commandState.visibleFromBefore = displayList.getVisibleFrom();
+                drawHistory.add(commandState);
+                restoreState(commandState.before);
+                replayBlocks = commandState.blocks;
+                execute(commandState.instruction);
+            }
+        } finally {
+            replaying = false;
+            replayBlocks = null;
+            announceCommands = announce;
+            frameScheduler = scheduler;
+        }
+        restoreState(now);
+        blocks.restore(variables, procedures);
+    }
 
-        firstDrawingCommandDone = false;
+    // Forgets all drawing history, e.g. after Clear All or loading a new command file
+    public void clearDrawHistory() {
+        restoredProgram = null;
+        restoredStart = null;
+        restoredBlocks = null;
+        drawHistory.clear();
+        checkpoints.clear();
+        displayList.reset();
+    }
 
-        // Reapply the last valid pen color after clearing the canvas
-        if (!drawHistory.isEmpty()) {
-            CommandState lastCommandState = drawHistory.get(drawHistory.size() - 1);
-            turtle.setPenColour(lastCommandState.penColor);
-        }
-        List<String> drawHistoryCopy = new ArrayList<>();
-        for (CommandState commandState : drawHistory) {
-            drawHistoryCopy.add(commandState.command); // Add only the command part
-        }
+    // Names of the procedures lines sent to this handler may call; pass to CommandCompiler.compile
+    public Set<String> getProcedureNames() {
+        return procedureNames;
+    }
 
-        // Execute each command again from the history
-        for (String cmd : drawHistoryCopy) {
-            executeCommand(cmd, false);
-        }
+    // Checkpoint hit/miss counters and the length of the last undo replay
+    public CheckpointStore getCheckpoints() {
+        return checkpoints;
     }
 
     public boolean executeCommand(String command, boolean com) {
-        boolean valid = handleCommand(command);
-        if (valid && com && turtle instanceof TurtleGraphics tg) {
-            tg.getCommandManager().addCommand(command);
+        return executeInstruction(CommandCompiler.compile(command, procedureNames), com);
+    }
+
+    public boolean executeInstruction(Instruction instruction, boolean com) {
+        boolean valid = execute(instruction);
+        if (valid && com && commandManager != null) {
+            commandManager.addCommand(instruction);
         }
         return valid;
     }
-}
\ No newline at end of file
+}
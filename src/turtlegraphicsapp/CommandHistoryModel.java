@@ -0,0 +1,108 @@
+package turtlegraphicsapp;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// List model behind the Command History panel. CommandManager reports each change from the
+// executor thread; the changes gather here and are applied on the EDT in one batch, which fires
+// a single intervalAdded for all the rows appended since the last batch. Loading a big script
+// therefore costs the EDT one event per batch, and the JList only renders the rows on screen.
+public class CommandHistoryModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    private final List<Instruction> rows = new ArrayList<>();// EDT only
+
+    // Changes not yet applied to rows, guarded by this. A removal cancels a pending append
+    // first, so the pending state is always: clear?, then drop some rows, then append some.
+    private boolean pendingClear = false;
+    private int pendingRemovals = 0;
+    private List<Instruction> pendingAppends = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private Runnable afterFlush;
+
+    public void append(Instruction instruction) {
+        synchronized (this) {
+            pendingAppends.add(instruction);
+        }
+        scheduleFlush();
+    }
+
+    public void removeLast() {
+        synchronized (this) {
+            if (!pendingAppends.isEmpty()) {
+                pendingAppends.remove(pendingAppends.size() - 1);
+            } else {
+                pendingRemovals++;
+            }
+        }
+        scheduleFlush();
+    }
+
+    public void clear() {
+        synchronized (this) {
+            pendingClear = true;
+            pendingRemovals = 0;
+            pendingAppends.clear();
+        }
+        scheduleFlush();
+    }
+
+    // Runs on the EDT after each batch, e.g. to scroll to the newest row
+    public void setAfterFlush(Runnable afterFlush) {
+        this.afterFlush = afterFlush;
+    }
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return rows.get(index).source();
+    }
+
+    private void scheduleFlush() {
+        synchronized (this) {
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        boolean clear;
+        int removals;
+        List<Instruction> appends;
+        synchronized (this) {
+            clear = pendingClear;
+            removals = pendingRemovals;
+            appends = pendingAppends;
+            pendingClear = false;
+            pendingRemovals = 0;
+            pendingAppends = new ArrayList<>();
+            flushScheduled = false;
+        }
+
+        if (clear && !rows.isEmpty()) {
+            int last = rows.size() - 1;
+            rows.clear();
+            fireIntervalRemoved(this, 0, last);
+        }
+        removals = Math.min(removals, rows.size());
+        if (removals > 0) {
+            int first = rows.size() - removals;
+            int last = rows.size() - 1;
+            rows.subList(first, rows.size()).clear();
+            fireIntervalRemoved(this, first, last);
+        }
+        if (!appends.isEmpty()) {
+            int first = rows.size();
+            rows.addAll(appends);
+            fireIntervalAdded(this, first, rows.size() - 1);
+        }
+        if (afterFlush != null) {
+            afterFlush.run();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package turtlegraphicsapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Append-only log of the command history, so a crashed session can be restored on the next start.
+// Each change to the history is one text line: "+command" adds a command, "-" removes the last
+// one (undo) and "0" clears the history. A line cut short by a crash is ignored.
+//
+// append() only copies the line into a buffer. A writer thread writes out whatever has gathered
+// and fsyncs it in one go (group commit), so while one fsync runs the next batch builds up.
+//
+// The writer replays what it writes into its own copy of the history. Once the journal has grown
+// past the size of the last checkpoint, that copy is written to a checkpoint file and the journal
+// starts again, so replay stays short and the checkpoints cost no more than the journal did. Both
+// files start with a generation number; a journal older than the checkpoint was already folded
+// into it and is ignored.
+public class CommandJournal {
+    static final int MIN_CHECKPOINT_BYTES = 64 * 1024;
+    private static final long RETRY_MILLIS = 1000;
+    private static final String JOURNAL = "journal.log";
+    private static final String CHECKPOINT = "checkpoint.txt";
+
+    private final File directory;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final List<String> recovered;
+    private final Thread writer;
+
+    // Only used by the writer thread
+    private final List<String> history;// The history as the journal describes it
+    private long generation;
+    private long journalBytes;// Written since the last checkpoint
+    private long checkpointBytes;// Size of the last checkpoint
+
+    // Guarded by this
+    private byte[] pending = new byte[8192];
+    private byte[] spare = new byte[8192];
+    private int pendingLength = 0;
+    private boolean closed = false;
+
+    private CommandJournal(File directory, FileChannel channel, FileLock lock, long generation, List<String> recovered,
+                           long journalBytes, long checkpointBytes) {
+        this.directory = directory;
+        this.channel = channel;
+        this.lock = lock;
+        this.generation = generation;
+        this.recovered = List.copyOf(recovered);
+        this.history = new ArrayList<>(recovered);
+        this.journalBytes = journalBytes;
+        this.checkpointBytes = checkpointBytes;
+        this.writer = new Thread(this::writeLoop, "JournalWriterThread");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Opens the journal in directory and reads back the history it holds.
+    // Returns null if another instance of the program is using the same journal.
+    public static CommandJournal open(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        FileChannel channel = FileChannel.open(new File(directory, JOURNAL).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = channel.tryLock();
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+
+        List<String> history = new ArrayList<>();
+        long generation = 0;
+        long checkpointBytes = 0;
+        File checkpoint = new File(directory, CHECKPOINT);
+        if (checkpoint.exists()) {
+            byte[] bytes = Files.readAllBytes(checkpoint.toPath());
+            checkpointBytes = bytes.length;
+            List<String> lines = completeLines(bytes, bytes.length);
+            if (!lines.isEmpty() && lines.get(0).startsWith("#")) {
+                generation = Long.parseLong(lines.get(0).substring(1));
+                history.addAll(lines.subList(1, lines.size()));
+            }
+        }
+
+        ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+        while (contents.hasRemaining() && channel.read(contents) >= 0) {
+            // Read the whole journal
+        }
+        List<String> records = completeLines(contents.array(), contents.capacity());
+        if (!records.isEmpty() && records.get(0).equals("#" + generation)) {
+            for (String record : records.subList(1, records.size())) {
+                replay(history, record);
+            }
+            // Drop a line cut short by a crash, so the next record does not run on from it
+            int end = contents.capacity();
+            while (end > 0 && contents.get(end - 1) != '\n') end--;
+            channel.truncate(end);
+            channel.position(end);
+        } else {
+            // Missing, or already folded into the checkpoint
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(("#" + generation + "\n").getBytes(StandardCharsets.UTF_8)), 0);
+            channel.force(true);
+            channel.position(channel.size());
+        }
+        return new CommandJournal(directory, channel, lock, generation, history, channel.size(), checkpointBytes);
+    }
+
+    // The command history found when the journal was opened
+    public List<String> getRecovered() {
+        return recovered;
+    }
+
+    public void append(String command) {
+        byte[] record = ("+" + command + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            put(record);
+        }
+    }
+
+    // Replay ignores a removal from an empty history, so this need not know the history's size
+    public synchronized void removeLast() {
+        put(new byte[]{'-', '\n'});
+    }
+
+    public synchronized void clear() {
+        put(new byte[]{'0', '\n'});
+    }
+
+    // Writes out everything appended so far and stops the writer thread
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    // Closes the journal and deletes it, for when there is nothing left worth restoring
+    public void discard() {
+        close();
+        try {
+            Files.deleteIfExists(new File(directory, JOURNAL).toPath());
+            Files.deleteIfExists(new File(directory, CHECKPOINT).toPath());
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private void put(byte[] record) {
+        if (closed) return;
+        if (pendingLength + record.length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + record.length));
+        }
+        System.arraycopy(record, 0, pending, pendingLength, record.length);
+        if (pendingLength == 0) {
+            notifyAll();// The writer only waits while there is nothing pending
+        }
+        pendingLength += record.length;
+    }
+
+    private void writeLoop() {
+        // Set when a write failed, which may have left records out of the journal or a partial line
+        // at its end. Only a checkpoint, which rewrites the whole history, repairs that.
+        boolean failed = false;
+        while (true) {
+            byte[] batch;
+            int length;
+            boolean closing;
+            synchronized (this) {
+                try {
+                    while (pendingLength == 0 && !closed && !failed) {
+                        wait();
+                    }
+                    if (failed && pendingLength == 0 && !closed) {
+                        wait(RETRY_MILLIS);// Give the disk a moment before trying again
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pendingLength == 0 && closed && !failed) return;// Fully written
+
+                batch = pending;
+                length = pendingLength;
+                pending = spare;
+                spare = batch;
+                pendingLength = 0;
+                closing = closed;
+            }
+
+            for (String record : completeLines(batch, length)) {
+                replay(history, record);
+            }
+            journalBytes += length;
+            try {
+                if (failed || journalBytes > Math.max(checkpointBytes, MIN_CHECKPOINT_BYTES)) {
+                    // The checkpoint holds this batch too, so it is not written to the journal
+                    checkpointBytes = writeCheckpoint(history, ++generation);
+                    journalBytes = 0;
+                    failed = false;
+                } else {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch, 0, length);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                // Keep the program running; the next pass writes a checkpoint instead
+                e.printStackTrace(System.err);
+                failed = true;
+                if (closing) return;// Nothing more is coming; recovery finds the last good checkpoint
+            }
+        }
+    }
+
+    // Writes the checkpoint next to the journal and renames it into place, then starts a new
+    // journal. A crash in between leaves an older journal, which open() then ignores. Returns the
+    // size of the checkpoint.
+    private long writeCheckpoint(List<String> history, long checkpointGeneration) throws IOException {
+        StringBuilder text = new StringBuilder("#").append(checkpointGeneration).append('\n');
+        for (String command : history) {
+            text.append(command).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        File target = new File(directory, CHECKPOINT);
+        File temp = new File(directory, CHECKPOINT + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(("#" + checkpointGeneration + "\n").getBytes(StandardCharsets.UTF_8)), 0);
+        channel.force(true);
+        channel.position(channel.size());
+        return bytes.length;
+    }
+
+    private static void replay(List<String> history, String record) {
+        if (record.startsWith("+")) {
+            history.add(record.substring(1));
+        } else if (record.equals("-")) {
+            if (!history.isEmpty()) history.remove(history.size() - 1);
+        } else if (record.equals("0")) {
+            history.clear();
+        }
+    }
+
+    // Lines ended by '\n'; a last line without one was cut short and is dropped
+    private static List<String> completeLines(byte[] bytes, int length) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return lines;
+    }
+}
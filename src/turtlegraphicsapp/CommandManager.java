@@ -5,30 +5,129 @@ import java.io.IOException;
 import javax.swing.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class CommandManager {
     private final TurtleGraphics turtleGraphics;
-    private final List<String> commandHistory = new ArrayList<>();
-    private final List<String> recentCommandFiles = new ArrayList<>();
-    private boolean unsavedCommands = false;
+    private final List<Instruction> commandHistory = new ArrayList<>();
+    private final CommandHistoryModel historyModel = new CommandHistoryModel();// What the history panel shows
+    private final List<String> recentCommandFiles = new ArrayList<>();// Executor thread only, see showRecentCommands
+    private volatile List<String> shownRecentCommands = List.of();// The copy last shown, for the dialogs on the EDT
+    private volatile boolean unsavedCommands = false;
+    private CommandJournal journal;// Null if the journal could not be opened
+    private boolean restoring = false;// Replaying commands that are already in the journal
+    private boolean standingIn = false;// Running an optimized script whose original commands are recorded instead
+    private long acceptedCount = 0;// Commands addCommand() has been given, recorded or not
+    private RenderCache renderCache;// Null if not started or it could not be opened
 
     public CommandManager(TurtleGraphics turtleGraphics) {
         this.turtleGraphics = turtleGraphics;
     }
 
-    public void addCommand(String command) {
-        String lower = command.toLowerCase().trim();
-        if (!(lower.equals("save image") || lower.equals("save command") ||
-                lower.equals("load image") || lower.equals("load command"))) {
+    // Opens the session journal in directory and, if the last session left commands behind,
+    // offers to restore them
+    public void startJournal(File directory) {
+        try {
+            journal = CommandJournal.open(directory);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(System.err);
+            turtleGraphics.displayMessage("Session journal unavailable: " + e.getMessage());
+            return;
+        }
+        if (journal == null) {
+            turtleGraphics.displayMessage("Another window is using the session journal; this session is not journaled.");
+            return;
+        }
+
+        List<String> recovered = journal.getRecovered();
+        if (recovered.isEmpty()) return;
+        int choice = JOptionPane.showConfirmDialog(turtleGraphics.getMainFrame(),
+                "The last session ended with " + recovered.size() + " commands that were not saved.\n" +
+                        "Do you want to restore them?",
+                "Restore Session",
+                JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            turtleGraphics.getScheduler().submit(() -> restoreSession(recovered));
+        } else {
+            journal.clear();
+        }
+    }
+
+    // Keeps finished renders of command files in directory, so loading one that has not changed
+    // restores the canvas instead of running it. maxBytes of 0 leaves the cache off.
+    public void startRenderCache(File directory, long maxBytes) {
+        if (maxBytes <= 0) return;
+        try {
+            renderCache = new RenderCache(directory, maxBytes);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(System.err);
+            turtleGraphics.displayMessage("Render cache unavailable: " + e.getMessage());
+        }
+    }
+
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    // Runs the recovered commands again; they are in the journal already, so they are not appended
+    private void restoreSession(List<String> commands) {
+        restoring = true;
+        try {
+            for (String command : commands) {
+                turtleGraphics.processInstruction(CommandCompiler.compile(command,
+                        turtleGraphics.getCommandHandler().getProcedureNames()));
+            }
+        } finally {
+            restoring = false;
+        }
+        unsavedCommands = true;
+        turtleGraphics.displayMessage("Restored " + commands.size() + " commands from the last session.");
+    }
+
+    // Flushes the journal on exit. It is kept only if there are commands the user did not save.
+    public void closeJournal() {
+        if (journal == null) return;
+        if (unsavedCommands) {
+            journal.close();
+        } else {
+            journal.discard();
+        }
+    }
+
+    public void addCommand(Instruction command) {
+        acceptedCount++;
+        if (standingIn) return;// See runOptimized
+        record(command);
+    }
+
+    private void record(Instruction command) {
+        if (!command.opcode().isFileCommand()) {
             commandHistory.add(command);
+            historyModel.append(command);
             unsavedCommands = true;// Mark that there are unsaved command changes
+            if (journal != null && !restoring) {
+                journal.append(command.source());
+            }
         }
-
-        turtleGraphics.updateCommandTextArea(commandHistory);// Update the JTextArea in the GUI to reflect the updated command list
     }
 
+    // Dialogs run on the EDT and the file operation on the executor thread, which owns the
+    // history; this may be called from either
     public void saveCommands() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(this::saveCommands);
+            return;
+        }
+        File file = chooseSaveFile();
+        if (file != null) {
+            turtleGraphics.getScheduler().submit(() -> saveCommandsTo(file));
+        }
+    }
+
+    // Asks where to save, on the EDT; null if the user cancelled
+    public File chooseSaveFile() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setCurrentDirectory(new File(System.getProperty("user.dir")));
         fileChooser.setDialogTitle("Save Commands to File");
@@ -37,17 +136,17 @@ public class CommandManager {
             int userSelection = fileChooser.showSaveDialog(turtleGraphics.getMainFrame());
 
             if (userSelection != JFileChooser.APPROVE_OPTION) {
-                return; // User cancelled the dialog
+                return null; // User cancelled the dialog
             }
 
             File fileToSave = fileChooser.getSelectedFile();
 
-            // Ensure the file ends with .txt
-            if (!fileToSave.getName().toLowerCase().endsWith(".txt")) {
+            // Ensure the file ends with .txt, or .tgb for the binary format
+            if (!fileToSave.getName().toLowerCase().endsWith(".txt") && !BinaryScript.isBinary(fileToSave)) {
                 fileToSave = new File(fileToSave.getAbsolutePath() + ".txt");
             }
 
-            if (fileToSave.exists() && !recentCommandFiles.contains(fileToSave.getAbsolutePath())) {
+            if (fileToSave.exists() && !shownRecentCommands.contains(fileToSave.getAbsolutePath())) {
                 int choice = JOptionPane.showConfirmDialog(turtleGraphics.getMainFrame(),
                         "This file already exists and was not loaded.\n" +
                                 "Do you want to overwrite it?",
@@ -58,38 +157,47 @@ public class CommandManager {
                     continue; // Let user choose a different file
                 }
             }
-
-            // Save the commands to the file
-            try (PrintWriter out = new PrintWriter(fileToSave)) {
-                for (String cmd : commandHistory) {
-                    out.println(cmd);
-                }
-                addToRecentFiles(fileToSave.getAbsolutePath());
-                markCommandsAsSaved();
-                turtleGraphics.getToolbar().updateRecentCommands(recentCommandFiles);
-                turtleGraphics.displayMessage("Commands saved.");
-            } catch (IOException e) {
-                turtleGraphics.displayMessage("Failed to save commands.");
-                e.printStackTrace(System.err);
-            }
-
-            break;
+            return fileToSave;
         }
     }
 
+    // Runs on the executor thread
+    public void saveCommandsTo(File fileToSave) {
+        try {
+            writeScript(commandHistory, fileToSave);
+            addToRecentFiles(fileToSave.getAbsolutePath());
+            markCommandsAsSaved();
+            showRecentCommands();
+            turtleGraphics.displayMessage("Commands saved.");
+        } catch (IOException e) {
+            turtleGraphics.displayMessage("Failed to save commands.");
+            e.printStackTrace(System.err);
+        }
+    }
 
+    // Asks on the EDT, then loads on the executor thread; may be called from either
     public void loadCommands() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(this::loadCommands);
+            return;
+        }
+        FrameScheduler scheduler = turtleGraphics.getScheduler();
         if (unsavedCommands) {
             int result = JOptionPane.showConfirmDialog(null,
                     "You have unsaved commands. Save before loading new file?",
                     "Unsaved Commands", JOptionPane.YES_NO_CANCEL_OPTION);
 
             if (result == JOptionPane.CANCEL_OPTION) return;
-            if (result == JOptionPane.YES_OPTION) saveCommands();
+            if (result == JOptionPane.YES_OPTION) {
+                // Queued before the load, so it saves the history as it is now
+                File target = chooseSaveFile();
+                if (target != null) scheduler.submit(() -> saveCommandsTo(target));
+            }
         }
 
-        if (!recentCommandFiles.isEmpty()) {
-            String recentPath = recentCommandFiles.get(recentCommandFiles.size() - 1);
+        List<String> recent = shownRecentCommands;
+        if (!recent.isEmpty()) {
+            String recentPath = recent.get(recent.size() - 1);
             File recentFile = new File(recentPath);
             if (recentFile.exists()) {
                 int choice = JOptionPane.showConfirmDialog(turtleGraphics.getMainFrame(),
@@ -98,7 +206,7 @@ public class CommandManager {
                         JOptionPane.YES_NO_OPTION);
 
                 if (choice == JOptionPane.YES_OPTION) {
-                    loadAndExecuteFile(recentFile);
+                    scheduler.submit(() -> loadAndExecuteFile(recentFile));
                     return;
                 }
             }
@@ -111,7 +219,7 @@ public class CommandManager {
 
         if (userSelection == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
-            loadAndExecuteFile(selectedFile);
+            scheduler.submit(() -> loadAndExecuteFile(selectedFile));
         }
     }
 
@@ -121,26 +229,74 @@ public class CommandManager {
             return;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String command;
+        JfrEvents.ScriptLoad event = new JfrEvents.ScriptLoad();
+        event.begin();
+        try {
+            // Binary scripts are decoded as they run, so they skip the optimizer, which needs the
+            // whole script; text is compiled up front so that every line is parsed and validated
+            // exactly once
+            CommandHandler handler = turtleGraphics.getCommandHandler();
+            BinaryScript.Reader binary = BinaryScript.isBinary(file) ? new BinaryScript.Reader(file) : null;
+            List<Instruction> program = binary == null ? readScript(file, handler.getProcedureNames()) : List.of();
+            // A script that loads another replaces its own history part way, so it runs as written
+            boolean optimize = ScriptOptimizer.isEnabled() && binary == null
+                    && program.stream().noneMatch(instruction -> instruction.opcode() == Opcode.LOAD_COMMANDS);
+
             // Clear canvas and command history
             turtleGraphics.clear();
+            handler.clearDrawHistory();
             commandHistory.clear();
+            historyModel.clear();
+            if (journal != null) journal.clear();
             unsavedCommands = false;
-            turtleGraphics.updateCommandTextArea(commandHistory); // Clear the JTextArea
 
-            while ((command = reader.readLine()) != null) {
-                command = command.trim();
-                if (!command.isEmpty()) {
-                    turtleGraphics.processCommand(command); // This updates both the list and JTextArea
-                    System.out.println("Executed: " + command);
+            // The cache needs to see which commands were rejected, so only when they run right here
+            boolean cached = renderCache != null && turtleGraphics.getScheduler().isExecutorThread()
+                    && handler.hasImage();
+            String key = cached ? RenderCache.key(file, handler, optimize) : null;
+            RenderCache.Entry entry = cached ? renderCache.get(key) : null;
+            if (entry != null && binary != null) {
+                program = readScript(file, handler.getProcedureNames());
+                binary = null;
+            }
+
+            List<Integer> rejected = new ArrayList<>();
+            int index = 0;
+            handler.clearExternalEffects();
+            if (binary != null) {
+                while (binary.hasNext()) {
+                    if (!runCounted(binary.next())) rejected.add(index);
+                    index++;
+                }
+            }
+            int removed = 0;
+            if (entry != null) {
+                restoreFromCache(entry, program);
+            } else {
+                if (optimize) {
+                    removed = runOptimized(program, rejected);
+                } else {
+                    for (Instruction instruction : program) {
+                        if (!runCounted(instruction)) rejected.add(index);
+                        index++;
+                    }
+                }
+                if (cached && !handler.hasExternalEffects()) {
+                    renderCache.put(key, handler.captureRender(rejected.stream().mapToInt(Integer::intValue).toArray()));
                 }
             }
-            turtleGraphics.updateCommandTextArea(commandHistory);
             markCommandsAsSaved();
             addToRecentFiles(file.getAbsolutePath());
-            turtleGraphics.getToolbar().updateRecentCommands(recentCommandFiles);
-            turtleGraphics.displayMessage("Commands loaded from file.");
+            showRecentCommands();
+            String loaded = entry != null ? "Commands loaded from file (drawing restored from cache)" : "Commands loaded from file";
+            turtleGraphics.displayMessage(removed == 0 ? loaded + "."
+                    : loaded + " (" + removed + " redundant steps skipped).");
+            if (event.shouldCommit()) {
+                event.path = file.getAbsolutePath();
+                event.binary = BinaryScript.isBinary(file);
+                event.commands = binary != null ? binary.count() : program.size();
+                event.commit();
+            }
         } catch (IOException e) {
             turtleGraphics.displayMessage("Failed to load commands.");
             e.printStackTrace(System.err);
@@ -148,6 +304,147 @@ public class CommandManager {
     }
 
 
+    // Runs one command of a file; false if it was rejected. Accepted commands reach the history.
+    private boolean runCounted(Instruction instruction) {
+        long before = acceptedCount;
+        turtleGraphics.processInstruction(instruction); // This updates both the list and the history panel
+        return acceptedCount != before || instruction.opcode().isFileCommand();
+    }
+
+    // Runs the script as ScriptOptimizer rewrote it, from where the turtle is now (this is the
+    // executor thread), but the history, journal and "Save Commands" get the commands as written,
+    // less those whose rewritten step was rejected. Undo rebuilds drawHistory from them on first
+    // use, as after a cache hit. Adds the rejected indices in program to rejected and returns how
+    // many steps the pass removed.
+    private int runOptimized(List<Instruction> program, List<Integer> rejected) {
+        CommandHandler handler = turtleGraphics.getCommandHandler();
+        ScriptOptimizer.Result optimized = handler.optimize(program);
+        boolean[] failed = new boolean[program.size()];
+        List<Instruction> replay = new ArrayList<>(program.size());
+        int recorded = 0;
+        handler.beginStandIn();
+        standingIn = true;
+        try {
+            for (int i = 0; i < optimized.program.size(); i++) {
+                Instruction instruction = optimized.program.get(i);
+                if (instruction.opcode().isFileCommand()) {
+                    // Everything before it has run, so e.g. "save commands" sees it in the history
+                    recorded = recordOriginals(program, failed, recorded, optimized.origins[i], replay);
+                }
+                if (!runCounted(instruction)) failed[optimized.origins[i]] = true;
+            }
+            recordOriginals(program, failed, recorded, program.size(), replay);
+        } finally {
+            standingIn = false;
+            handler.endStandIn(replay);
+        }
+        for (int i = 0; i < failed.length; i++) {
+            if (failed[i]) rejected.add(i);
+        }
+        return optimized.removed;
+    }
+
+    // Records program[from, to) except the failed ones, and adds those that draw to replay for undo
+    private int recordOriginals(List<Instruction> program, boolean[] failed, int from, int to, List<Instruction> replay) {
+        for (int i = from; i < to; i++) {
+            if (failed[i]) continue;
+            Instruction instruction = program.get(i);
+            record(instruction);
+            Opcode opcode = instruction.opcode();
+            if (!opcode.isFileCommand() && opcode != Opcode.PLAYBACK && opcode != Opcode.FRAME_RATE
+                    && opcode != Opcode.FRACTAL_CANCEL) {
+                replay.add(instruction);
+            }
+        }
+        return Math.max(from, to);
+    }
+
+    // A cache hit: the drawing comes back as it was, and the commands that were accepted go into
+    // the history as if they had run
+    private void restoreFromCache(RenderCache.Entry entry, List<Instruction> program) {
+        List<Instruction> accepted = new ArrayList<>(program.size());
+        int next = 0;
+        for (int i = 0; i < program.size(); i++) {
+            if (next < entry.rejected.length && entry.rejected[next] == i) {
+                next++;
+            } else {
+                accepted.add(program.get(i));
+            }
+        }
+        turtleGraphics.getCommandHandler().restoreRender(entry, accepted);
+        for (Instruction instruction : accepted) {
+            addCommand(instruction);
+        }
+    }
+
+    static List<Instruction> readTextScript(File file) throws IOException {
+        return readTextScript(file, new HashSet<>());
+    }
+
+    // Calls may name procedures in procedures, or ones the script defines anywhere in it
+    static List<Instruction> readTextScript(File file, Set<String> procedures) throws IOException {
+        List<Instruction> program = new ArrayList<>();
+        CommandCompiler.LineJoiner joiner = new CommandCompiler.LineJoiner();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = joiner.add(line);
+                if (command != null) {
+                    program.add(CommandCompiler.compileCalls(command));
+                }
+            }
+        }
+        String unfinished = joiner.finish();
+        if (unfinished != null) {
+            program.add(CommandCompiler.compileCalls(unfinished));
+        }
+        checkCalls(program, procedures);
+        return program;
+    }
+
+    // Rejects the calls in program to procedures that neither procedures nor program defines
+    static void checkCalls(List<Instruction> program, Set<String> procedures) {
+        for (Instruction instruction : program) {
+            CommandCompiler.define(instruction, procedures);
+        }
+        program.replaceAll(instruction -> CommandCompiler.checkCalls(instruction, procedures));
+    }
+
+    // Reads a whole script, text or binary, without running it
+    public static List<Instruction> readScript(File file) throws IOException {
+        return readScript(file, new HashSet<>());
+    }
+
+    // As readScript(File), for a script that may call the procedures in procedures
+    public static List<Instruction> readScript(File file, Set<String> procedures) throws IOException {
+        if (!BinaryScript.isBinary(file)) {
+            return readTextScript(file, procedures);
+        }
+        BinaryScript.Reader reader = new BinaryScript.Reader(file);
+        List<Instruction> program = new ArrayList<>(reader.count());
+        while (reader.hasNext()) {
+            program.add(reader.next());
+        }
+        return program;
+    }
+
+    // Writes commands as text, one per line, or in the binary format for .tgb files
+    public static void writeScript(List<Instruction> commands, File file) throws IOException {
+        if (BinaryScript.isBinary(file)) {
+            try (BinaryScript.Writer out = new BinaryScript.Writer(file)) {
+                for (Instruction command : commands) {
+                    out.write(command);
+                }
+            }
+        } else {
+            try (PrintWriter out = new PrintWriter(file)) {
+                for (Instruction command : commands) {
+                    out.println(command.source());
+                }
+            }
+        }
+    }
+
     private void addToRecentFiles(String path) {
         path = path.trim();
         if (!recentCommandFiles.contains(path)) {
@@ -157,14 +454,25 @@ public class CommandManager {
 
     //return List of recent command file names.
     public List<String> getRecentCommandFiles() {
-        return recentCommandFiles;
+        return new ArrayList<>(recentCommandFiles);
+    }
+
+    // Hands the toolbar a copy, so the list itself never leaves the executor thread
+    public void showRecentCommands() {
+        List<String> recent = getRecentCommandFiles();
+        shownRecentCommands = List.copyOf(recent);
+        SwingUtilities.invokeLater(() -> turtleGraphics.getToolbar().updateRecentCommands(recent));
     }
 
     //return List of executed commands.
-    public List<String> getCommandHistory() {
+    public List<Instruction> getCommandHistory() {
         return commandHistory;
     }
 
+    public CommandHistoryModel getHistoryModel() {
+        return historyModel;
+    }
+
     //Marks the command history as saved, indicating no unsaved changes.
     public void markCommandsAsSaved() {
         unsavedCommands = false;
@@ -179,12 +487,16 @@ public class CommandManager {
     public void removeLastCommand() {
         if (!commandHistory.isEmpty()) {
             commandHistory.remove(commandHistory.size() - 1);
+            historyModel.removeLast();
+            if (journal != null) journal.removeLast();
         }
 
     }
 
     public void clearAllCommands() {
         commandHistory.clear();
+        historyModel.clear();
+        if (journal != null) journal.clear();
         unsavedCommands=true;
     }
 
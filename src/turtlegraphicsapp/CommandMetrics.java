@@ -0,0 +1,160 @@
+package turtlegraphicsapp;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-command latency histograms, command rate and segment count, readable from JConsole or
+// VisualVM under turtlegraphicsapp:type=CommandMetrics. Off by default: CommandHandler then
+// skips the clock reads entirely. Turn on with -Dturtlegraphics.metrics=true or the Enabled
+// attribute.
+public class CommandMetrics implements CommandMetricsMXBean {
+    public static final String OBJECT_NAME = "turtlegraphicsapp:type=CommandMetrics";
+    private static final int RATE_WINDOW_SECONDS = 10;
+
+    private volatile boolean enabled = Boolean.getBoolean("turtlegraphics.metrics");
+    private final Map<Opcode, LatencyHistogram> latency = new EnumMap<>(Opcode.class);
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    // Commands per wall-clock second for the last RATE_WINDOW_SECONDS, guarded by this
+    private final long[] perSecond = new long[RATE_WINDOW_SECONDS];
+    private final long[] secondOf = new long[RATE_WINDOW_SECONDS];
+
+    public CommandMetrics() {
+        for (Opcode opcode : Opcode.values()) {
+            latency.put(opcode, new LatencyHistogram());
+        }
+    }
+
+    // Registers with the platform MBean server; a failure only costs the JMX view
+    public CommandMetrics register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace(System.err);
+        }
+        return this;
+    }
+
+    // Called by CommandHandler after each command while enabled
+    public void record(Opcode opcode, long nanos, long segmentsDrawn) {
+        latency.get(opcode).record(nanos);
+        commands.incrementAndGet();
+        segments.addAndGet(segmentsDrawn);
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        synchronized (this) {
+            if (secondOf[slot] != second) {
+                secondOf[slot] = second;
+                perSecond[slot] = 0;
+            }
+            perSecond[slot]++;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    // Average over the last full RATE_WINDOW_SECONDS seconds, not counting the current one
+    @Override
+    public synchronized double getCommandsPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+            if (secondOf[i] < now && secondOf[i] >= now - RATE_WINDOW_SECONDS) {
+                total += perSecond[i];
+            }
+        }
+        return total / (double) RATE_WINDOW_SECONDS;
+    }
+
+    @Override
+    public long getSegmentsDrawn() {
+        return segments.get();
+    }
+
+    // Only commands that have run at least once, by name
+    @Override
+    public Map<String, LatencySummary> getLatencyByCommand() {
+        Map<String, LatencySummary> summaries = new TreeMap<>();
+        for (Map.Entry<Opcode, LatencyHistogram> entry : latency.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() > 0) {
+                summaries.put(entry.getKey().name(), new LatencySummary(histogram.getCount(),
+                        histogram.percentile(0.5) / 1000.0, histogram.percentile(0.99) / 1000.0, histogram.getMax() / 1000.0));
+            }
+        }
+        return summaries;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : latency.values()) {
+            histogram.reset();
+        }
+        commands.set(0);
+        segments.set(0);
+        Arrays.fill(perSecond, 0);
+        Arrays.fill(secondOf, 0);
+    }
+
+    // One row of getLatencyByCommand; JMX shows it as composite data
+    public static class LatencySummary {
+        private final long count;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+
+        @ConstructorProperties({"count", "p50Micros", "p99Micros", "maxMicros"})
+        public LatencySummary(long count, double p50Micros, double p99Micros, double maxMicros) {
+            this.count = count;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d p50=%.1fus p99=%.1fus max=%.1fus", count, p50Micros, p99Micros, maxMicros);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package turtlegraphicsapp;
+
+import java.util.Map;
+
+// Command timing exposed over JMX as turtlegraphicsapp:type=CommandMetrics (see CommandMetrics)
+public interface CommandMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getCommandCount();
+
+    double getCommandsPerSecond();
+
+    long getSegmentsDrawn();
+
+    Map<String, CommandMetrics.LatencySummary> getLatencyByCommand();
+
+    void reset();
+}
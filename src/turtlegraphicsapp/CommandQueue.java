@@ -0,0 +1,89 @@
+package turtlegraphicsapp;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded FIFO between the threads that send commands and the one executor thread that runs
+// them, in the order they were put. A producer that finds it full waits for room (backpressure),
+// so a script piped into the console at full speed can't queue up without limit. The consumer
+// takes everything that has gathered in one batch, paying for the lock once per batch rather
+// than once per command. A waiting producer is only woken once the queue is half empty, so it
+// then fills half of it without waiting again instead of trading a context switch for every batch.
+//
+// The EDT must never wait here: the executor may itself be waiting for the EDT to present a
+// frame. Its commands join the same queue without waiting even when it is full, so it can
+// overrun the capacity by the few clicks the user makes while a script is queued.
+public class CommandQueue {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final ArrayDeque<Runnable> queue;// Guarded by lock
+    private int waitingProducers = 0;// Guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Capacity is rounded up to a power of two
+    public CommandQueue(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        queue = new ArrayDeque<>(this.capacity);
+    }
+
+    // Waits while the queue is full, unless the caller must not wait (the EDT)
+    public void put(Runnable command, boolean mayWait) {
+        lock.lock();
+        try {
+            while (mayWait && queue.size() >= capacity) {
+                waitingProducers++;
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    // Keep the command rather than lose it; the caller sees the interrupt
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    waitingProducers--;
+                }
+            }
+            queue.add(command);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits for at least one command, then moves up to batch.length of them into batch, oldest
+    // first, and returns how many
+    public int takeBatch(Runnable[] batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            int count = 0;
+            while (count < batch.length && !queue.isEmpty()) {
+                batch[count++] = queue.poll();
+            }
+            if (waitingProducers > 0 && queue.size() <= capacity / 2) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,239 @@
+package turtlegraphicsapp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+// Accepts command streams from other local processes, over loopback TCP or a Unix-domain socket.
+// Clients send one command per line and get one reply line per command, in order: "ok", or
+// "error " and the reason. Blank lines are skipped and get no reply. "fractal cancel" stops the
+// running drawing as soon as it is read, as it does from the console, then takes its place in the
+// chunk like any other command so it is recorded in order on the executor thread.
+//
+// Each connection has its own thread, virtual where the JVM has them. It reads whatever lines
+// have arrived (up to CHUNK), compiles them, and hands the whole chunk to the executor thread as
+// one task, so commands from one client run in the order sent and chunks from different clients
+// never interleave. Clients that send without waiting for replies get large chunks, and the
+// per-task cost is spread over many commands.
+public class CommandServer implements Closeable {
+    private static final int CHUNK = 4096;
+    private static final int BUFFER_CHARS = 1 << 16;
+
+    // Runs one command on the executor thread; returns null if it succeeded, else the reason
+    public interface Runner {
+        String run(Instruction instruction);
+    }
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final FrameScheduler scheduler;// Null to run chunks on the connection threads, one at a time
+    private final Runner runner;
+    private final Runnable canceller;// Only sets cancel flags; called on connection threads
+    private final Set<String> procedures;// Procedures lines may call, see CommandCompiler.compile
+    private final ThreadFactory connectionThreads = connectionThreadFactory();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final Object runLock = new Object();// Used when there is no scheduler
+    private volatile boolean closed = false;
+
+    public CommandServer(SocketAddress address, FrameScheduler scheduler, Runner runner) throws IOException {
+        this(address, scheduler, runner, () -> { }, ConcurrentHashMap.newKeySet());
+    }
+
+    public CommandServer(SocketAddress address, FrameScheduler scheduler, Runner runner, Runnable canceller,
+                         Set<String> procedures) throws IOException {
+        this.scheduler = scheduler;
+        this.runner = runner;
+        this.canceller = canceller;
+        this.procedures = procedures;
+        if (address instanceof UnixDomainSocketAddress unix) {
+            removeStaleSocket(unix);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        this.address = server.getLocalAddress();
+        Thread acceptor = new Thread(this::acceptLoop, "CommandServerThread");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // A socket file left behind by a run that did not close cleanly would make bind fail. Only
+    // that is removed: the path must be a socket (not a link to one) that nothing answers on.
+    private static void removeStaleSocket(UnixDomainSocketAddress address) throws IOException {
+        Path path = address.getPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (!attributes.isOther() || !isSocket(path)) {
+            throw new IOException(path + " exists and is not a socket");
+        }
+        SocketChannel probe;
+        try {
+            probe = SocketChannel.open(address);
+        } catch (ConnectException e) {
+            Files.delete(path);// Refused: nobody is listening, so it is stale
+            return;
+        }
+        probe.close();
+        throw new IOException("Another process is already listening on " + path);
+    }
+
+    // Where the file type bits are available (Unix), checks for a socket rather than a FIFO or device
+    private static boolean isSocket(Path path) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & 0170000) == 0140000;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    // "5555" listens on loopback port 5555, "unix:/tmp/turtle.sock" on a Unix-domain socket
+    public static SocketAddress parseAddress(String text) {
+        if (text.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(Path.of(text.substring(5)));
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(text));
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+        if (address instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath());
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel connection = server.accept();
+                connections.add(connection);
+                connectionThreads.newThread(() -> serve(connection)).start();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection) {
+        Instruction[] chunk = new Instruction[CHUNK];
+        String[] results = new String[CHUNK];
+        StringBuilder replies = new StringBuilder();
+        try (connection;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(connection),
+                     StandardCharsets.UTF_8), BUFFER_CHARS);
+             OutputStream out = Channels.newOutputStream(connection)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // Take the lines already buffered as well, without waiting for more
+                int count = 0;
+                do {
+                    if (line.isBlank()) continue;
+                    Instruction instruction = CommandCompiler.compile(line.trim(), procedures);
+                    if (instruction.opcode() == Opcode.FRACTAL_CANCEL) {
+                        canceller.run();
+                    }
+                    chunk[count++] = instruction;
+                } while (count < CHUNK && in.ready() && (line = in.readLine()) != null);
+                if (count == 0) continue;
+
+                run(chunk, results, count);
+                replies.setLength(0);
+                for (int i = 0; i < count; i++) {
+                    replies.append(results[i] == null ? "ok" : "error " + results[i]).append('\n');
+                    chunk[i] = null;
+                }
+                out.write(replies.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private void run(Instruction[] chunk, String[] results, int count) throws InterruptedException {
+        Runnable task = () -> {
+            for (int i = 0; i < count; i++) {
+                if (chunk[i] == null) continue;
+                try {
+                    results[i] = runner.run(chunk[i]);
+                } catch (RuntimeException e) {
+                    results[i] = e.toString();
+                }
+            }
+        };
+        if (scheduler == null) {
+            synchronized (runLock) {
+                task.run();
+            }
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    // One virtual thread per connection on Java 21 and later, found by reflection as the
+    // project targets 17; a daemon platform thread per connection otherwise
+    private static ThreadFactory connectionThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "CommandConnection-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return runnable -> {
+                Thread thread = new Thread(runnable, "CommandConnection");
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects the screen areas touched by drawing commands between frames. Nearby or overlapping
+// areas are merged, and the list is kept short by merging the pair that wastes least area, so
+// a frame repaints a handful of rectangles instead of the whole panel.
+//
+// Commands add from whichever thread runs them; the panel drains once per frame on the EDT.
+public class DirtyRegionTracker {
+    private static final int MAX_REGIONS = 8;
+    private static final int MERGE_GAP = 16;// Regions this close are merged outright
+
+    private final List<Rectangle> regions = new ArrayList<>();
+    private boolean everything = false;
+    private volatile Thread holdingBack;// Thread inside a tracked primitive, see holdBack()
+
+    // While a tracked primitive runs, the panel drops the full-panel repaints LBUGraphics makes
+    // on that thread; the primitive reports its own area instead. Other threads are unaffected.
+    public void holdBack() {
+        holdingBack = Thread.currentThread();
+    }
+
+    public void release() {
+        holdingBack = null;
+    }
+
+    public boolean isHeldBack() {
+        return holdingBack == Thread.currentThread();
+    }
+
+    // Marks the box around (x0, y0)-(x1, y1), widened by margin on every side
+    public synchronized void add(int x0, int y0, int x1, int y1, int margin) {
+        if (everything) return;
+        Rectangle area = new Rectangle(Math.min(x0, x1) - margin, Math.min(y0, y1) - margin,
+                Math.abs(x1 - x0) + 2 * margin + 1, Math.abs(y1 - y0) + 2 * margin + 1);
+
+        // Absorb every region this one touches, then keep growing until nothing else touches
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size(); i++) {
+                Rectangle region = regions.get(i);
+                if (touches(region, area)) {
+                    area = area.union(region);
+                    regions.remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        regions.add(area);
+
+        while (regions.size() > MAX_REGIONS) {
+            mergeCheapestPair();
+        }
+    }
+
+    public synchronized void addAll() {
+        everything = true;
+        regions.clear();
+    }
+
+    // Returns the regions marked since the last call, clipped to the panel, and starts afresh.
+    // A single full-panel rectangle is returned after addAll().
+    public synchronized List<Rectangle> drain(int width, int height) {
+        List<Rectangle> drained = new ArrayList<>();
+        Rectangle panel = new Rectangle(0, 0, width, height);
+        if (everything) {
+            drained.add(panel);
+        } else {
+            for (Rectangle region : regions) {
+                Rectangle clipped = region.intersection(panel);
+                if (!clipped.isEmpty()) drained.add(clipped);
+            }
+        }
+        regions.clear();
+        everything = false;
+        return drained;
+    }
+
+    private static boolean touches(Rectangle a, Rectangle b) {
+        return a.x - MERGE_GAP <= b.x + b.width && b.x - MERGE_GAP <= a.x + a.width
+                && a.y - MERGE_GAP <= b.y + b.height && b.y - MERGE_GAP <= a.y + a.height;
+    }
+
+    private void mergeCheapestPair() {
+        int bestI = 0;
+        int bestJ = 1;
+        long bestWaste = Long.MAX_VALUE;
+        for (int i = 0; i < regions.size(); i++) {
+            for (int j = i + 1; j < regions.size(); j++) {
+                Rectangle a = regions.get(i);
+                Rectangle b = regions.get(j);
+                Rectangle union = a.union(b);
+                long waste = (long) union.width * union.height - (long) a.width * a.height - (long) b.width * b.height;
+                if (waste < bestWaste) {
+                    bestWaste = waste;
+                    bestI = i;
+                    bestJ = j;
+                }
+            }
+        }
+        Rectangle union = regions.get(bestI).union(regions.get(bestJ));
+        regions.remove(bestJ);
+        regions.set(bestI, union);
+    }
+}
@@ -0,0 +1,281 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Every segment the turtle has drawn, kept so the canvas can be redrawn at any scale without
+// re-running commands. Endpoints live in chunked float arrays (16 bytes per segment); colour
+// and stroke width are stored once per run of segments that share them, so 10M segments
+// take about 160 MB.
+//
+// "clear" does not delete anything: it only moves visibleFrom past the existing segments,
+// which lets undo bring them back by truncating to an earlier size.
+public class DisplayList {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;// Segments per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Only the drawing thread writes; other threads (the EDT painting the zoomed view) read through
+    // snapshot(). Data is written before the volatile counts that cover it, and nothing below
+    // size is ever written again in the same Storage: truncate and reset start a new Storage that
+    // copies what it keeps, so a snapshot of the old one stays intact.
+    private static final class Storage {
+        final int generation;
+        float[][] chunks = new float[4][];// x0, y0, x1, y1 per segment
+        // Style runs: segments from runStart[i] up to the next run's start share a colour and width
+        int[] runStart = new int[16];
+        int[] runColour = new int[16];
+        float[] runWidth = new float[16];
+        volatile int runCount = 0;
+        volatile int size = 0;
+        volatile int visibleFrom = 0;
+
+        Storage(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private volatile Storage storage = new Storage(0);
+
+    public void add(float x0, float y0, float x1, float y1, int rgb, float width) {
+        Storage s = storage;
+        int size = s.size;
+        int chunk = size >>> CHUNK_SHIFT;
+        if (chunk == s.chunks.length) {
+            s.chunks = Arrays.copyOf(s.chunks, s.chunks.length * 2);
+        }
+        if (s.chunks[chunk] == null) {
+            s.chunks[chunk] = new float[CHUNK_SIZE * 4];
+        }
+        int offset = (size & CHUNK_MASK) * 4;
+        float[] data = s.chunks[chunk];
+        data[offset] = x0;
+        data[offset + 1] = y0;
+        data[offset + 2] = x1;
+        data[offset + 3] = y1;
+
+        int runCount = s.runCount;
+        if (runCount == 0 || s.runColour[runCount - 1] != rgb || s.runWidth[runCount - 1] != width) {
+            startRun(s, size, rgb, width);
+        }
+        s.size = size + 1;
+    }
+
+    private static void startRun(Storage s, int start, int rgb, float width) {
+        int runCount = s.runCount;
+        if (runCount == s.runStart.length) {
+            s.runStart = Arrays.copyOf(s.runStart, runCount * 2);
+            s.runColour = Arrays.copyOf(s.runColour, runCount * 2);
+            s.runWidth = Arrays.copyOf(s.runWidth, runCount * 2);
+        }
+        s.runStart[runCount] = start;
+        s.runColour[runCount] = rgb;
+        s.runWidth[runCount] = width;
+        s.runCount = runCount + 1;
+    }
+
+    public int size() {
+        return storage.size;
+    }
+
+    public int getVisibleFrom() {
+        return storage.visibleFrom;
+    }
+
+    // A consistent view of the segments drawn so far, safe to read from any thread
+    public Snapshot snapshot() {
+        return new Snapshot(storage);
+    }
+
+    // Hides everything drawn so far, as the canvas "clear" command does
+    public void clearVisible() {
+        Storage s = storage;
+        s.visibleFrom = s.size;
+    }
+
+    // Rolls back to an earlier size, e.g. when a command is undone
+    public void truncate(int newSize, int newVisibleFrom) {
+        Storage old = storage;
+        if (newSize < old.size) {
+            Storage s = new Storage(old.generation + 1);
+            int usedChunks = (newSize + CHUNK_MASK) >>> CHUNK_SHIFT;
+            s.chunks = Arrays.copyOf(old.chunks, Math.max(4, old.chunks.length));
+            Arrays.fill(s.chunks, usedChunks, s.chunks.length, null);
+            if ((newSize & CHUNK_MASK) != 0) {
+                // The last chunk is written again from newSize on; copy it so old snapshots keep theirs
+                int last = newSize >>> CHUNK_SHIFT;
+                s.chunks[last] = old.chunks[last].clone();
+            }
+            int runCount = old.runCount;
+            while (runCount > 0 && old.runStart[runCount - 1] >= newSize) {
+                runCount--;
+            }
+            int runCapacity = Math.max(16, runCount);
+            s.runStart = Arrays.copyOf(old.runStart, runCapacity);
+            s.runColour = Arrays.copyOf(old.runColour, runCapacity);
+            s.runWidth = Arrays.copyOf(old.runWidth, runCapacity);
+            s.runCount = runCount;
+            s.visibleFrom = Math.min(newVisibleFrom, newSize);
+            s.size = newSize;
+            storage = s;
+        } else {
+            old.visibleFrom = Math.min(newVisibleFrom, old.size);
+        }
+    }
+
+    public void reset() {
+        storage = new Storage(storage.generation + 1);
+    }
+
+    public long memoryBytes() {
+        Storage s = storage;
+        long bytes = 0;
+        for (float[] chunk : s.chunks) {
+            if (chunk != null) bytes += chunk.length * 4L;
+        }
+        return bytes + s.runStart.length * 12L;
+    }
+
+    // Redraws the visible segments with canvas coordinates mapped as screen = canvas * scale + offset
+    public void render(Graphics2D g, double scale, double offsetX, double offsetY) {
+        snapshot().render(g, scale, offsetX, offsetY);
+    }
+
+    // Renders the visible drawing into a new image, canvasWidth x canvasHeight scaled by scale
+    public BufferedImage renderImage(int canvasWidth, int canvasHeight, double scale, Color background) {
+        int width = (int) Math.ceil(canvasWidth * scale);
+        int height = (int) Math.ceil(canvasHeight * scale);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(background);
+            g.fillRect(0, 0, width, height);
+            render(g, scale, 0, 0);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    // The segments as they were when snapshot() was called. Later adds are not seen; a later
+    // truncate or reset leaves it unchanged, and shows up as a new generation.
+    public static final class Snapshot {
+        private final int generation;
+        private final float[][] chunks;
+        private final int[] runStart;
+        private final int[] runColour;
+        private final float[] runWidth;
+        private final int runCount;
+        private final int size;
+        private final int visibleFrom;
+
+        private Snapshot(Storage s) {
+            // Counts first: the arrays read after them hold at least what they cover
+            size = s.size;
+            runCount = s.runCount;
+            visibleFrom = Math.min(s.visibleFrom, size);
+            generation = s.generation;
+            chunks = s.chunks;
+            runStart = s.runStart;
+            runColour = s.runColour;
+            runWidth = s.runWidth;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getVisibleFrom() {
+            return visibleFrom;
+        }
+
+        // Changes whenever segments were taken away, so anything indexed by segment must start over
+        public int getGeneration() {
+            return generation;
+        }
+
+        public float getX0(int i) {
+            return chunks[i >>> CHUNK_SHIFT][(i & CHUNK_MASK) * 4];
+        }
+
+        public float getY0(int i) {
+            return chunks[i >>> CHUNK_SHIFT][(i & CHUNK_MASK) * 4 + 1];
+        }
+
+        public float getX1(int i) {
+            return chunks[i >>> CHUNK_SHIFT][(i & CHUNK_MASK) * 4 + 2];
+        }
+
+        public float getY1(int i) {
+            return chunks[i >>> CHUNK_SHIFT][(i & CHUNK_MASK) * 4 + 3];
+        }
+
+        // Index of the style run containing segment i
+        public int runOf(int i) {
+            int run = Arrays.binarySearch(runStart, 0, runCount, i);
+            return run >= 0 ? run : -run - 2;
+        }
+
+        public int getColour(int i) {
+            return runColour[runOf(i)];
+        }
+
+        public float getWidth(int i) {
+            return runWidth[runOf(i)];
+        }
+
+        public void render(Graphics2D g, double scale, double offsetX, double offsetY) {
+            render(g, scale, offsetX, offsetY, visibleFrom, size);
+        }
+
+        public void render(Graphics2D g, double scale, double offsetX, double offsetY, int from, int to) {
+            if (from >= to) return;
+            int run = runOf(from);
+            int nextRunStart = run + 1 < runCount ? runStart[run + 1] : Integer.MAX_VALUE;
+            applyRun(g, run, scale);
+
+            for (int i = from; i < to; i++) {
+                if (i == nextRunStart) {
+                    run++;
+                    nextRunStart = run + 1 < runCount ? runStart[run + 1] : Integer.MAX_VALUE;
+                    applyRun(g, run, scale);
+                }
+                float[] data = chunks[i >>> CHUNK_SHIFT];
+                int offset = (i & CHUNK_MASK) * 4;
+                g.drawLine((int) Math.round(data[offset] * scale + offsetX),
+                        (int) Math.round(data[offset + 1] * scale + offsetY),
+                        (int) Math.round(data[offset + 2] * scale + offsetX),
+                        (int) Math.round(data[offset + 3] * scale + offsetY));
+            }
+        }
+
+        // Redraws only the listed segments; indices must be in ascending order
+        public void render(Graphics2D g, double scale, double offsetX, double offsetY, int[] indices, int count) {
+            if (count == 0) return;
+            int run = runOf(indices[0]);
+            int nextRunStart = run + 1 < runCount ? runStart[run + 1] : Integer.MAX_VALUE;
+            applyRun(g, run, scale);
+
+            for (int n = 0; n < count; n++) {
+                int i = indices[n];
+                if (i >= nextRunStart) {
+                    run = runOf(i);
+                    nextRunStart = run + 1 < runCount ? runStart[run + 1] : Integer.MAX_VALUE;
+                    applyRun(g, run, scale);
+                }
+                float[] data = chunks[i >>> CHUNK_SHIFT];
+                int offset = (i & CHUNK_MASK) * 4;
+                g.drawLine((int) Math.round(data[offset] * scale + offsetX),
+                        (int) Math.round(data[offset + 1] * scale + offsetY),
+                        (int) Math.round(data[offset + 2] * scale + offsetX),
+                        (int) Math.round(data[offset + 3] * scale + offsetY));
+            }
+        }
+
+        private void applyRun(Graphics2D g, int run, double scale) {
+            g.setColor(new Color(runColour[run]));
+            g.setStroke(new BasicStroke((float) Math.max(1, runWidth[run] * scale)));
+        }
+    }
+}
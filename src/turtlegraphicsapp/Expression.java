@@ -0,0 +1,295 @@
+package turtlegraphicsapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A compiled arithmetic expression such as ":size * 2 + 10", used for the operands of commands
+// inside blocks. Numbers, :variables, repcount, + - * / % and parentheses. Kept in postfix form
+// and evaluated on the interpreter's stack, so evaluating one allocates nothing.
+public final class Expression {
+    private static final int CONSTANT = 0;
+    private static final int LOCAL = 1;// Procedure parameter, by slot
+    private static final int GLOBAL = 2;// Variable set with make, by name
+    private static final int REPCOUNT = 3;
+    private static final int ADD = 4;
+    private static final int SUBTRACT = 5;
+    private static final int MULTIPLY = 6;
+    private static final int DIVIDE = 7;
+    private static final int REMAINDER = 8;
+    private static final int NEGATE = 9;
+
+    private final int[] code;// Operation, followed by an operand index for CONSTANT, LOCAL and GLOBAL
+    private final double[] constants;
+    private final String[] names;
+    private final int depth;// Stack slots needed to evaluate
+    private final String text;
+
+    private Expression(int[] code, double[] constants, String[] names, int depth, String text) {
+        this.code = code;
+        this.constants = constants;
+        this.names = names;
+        this.depth = depth;
+        this.text = text;
+    }
+
+    // True when the value is known without running anything, e.g. "10 * 2"
+    public boolean isConstant() {
+        return code.length == 2 && code[0] == CONSTANT;
+    }
+
+    public double constantValue() {
+        return constants[0];
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    // stack must have at least depth() slots
+    double evaluate(BlockInterpreter interpreter, double[] locals, double[] stack) {
+        int top = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CONSTANT -> stack[top++] = constants[code[++pc]];
+                case LOCAL -> stack[top++] = locals[code[++pc]];
+                case GLOBAL -> stack[top++] = interpreter.getVariable(names[code[++pc]]);
+                case REPCOUNT -> stack[top++] = interpreter.getRepcount();
+                case ADD -> { top--; stack[top - 1] += stack[top]; }
+                case SUBTRACT -> { top--; stack[top - 1] -= stack[top]; }
+                case MULTIPLY -> { top--; stack[top - 1] *= stack[top]; }
+                case DIVIDE, REMAINDER -> {
+                    top--;
+                    if (stack[top] == 0) {
+                        throw new BlockInterpreter.BlockException("Division by zero in " + text);
+                    }
+                    stack[top - 1] = code[pc] == DIVIDE ? stack[top - 1] / stack[top] : stack[top - 1] % stack[top];
+                }
+                case NEGATE -> stack[top - 1] = -stack[top - 1];
+                default -> throw new IllegalStateException("Bad expression code " + code[pc]);
+            }
+        }
+        return stack[0];
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    // Splits tokens into expressions. A new expression starts wherever an operand follows a complete
+    // one: "pen :r 0 255" is three, ":a - 1" is one, ":a -1" is two (a leading minus signs a number).
+    // locals names the parameters of the procedure being compiled, or is empty.
+    static List<Expression> parseAll(List<String> tokens, List<String> locals) {
+        Parser parser = new Parser(lex(tokens), locals);
+        List<Expression> expressions = new ArrayList<>();
+        while (!parser.atEnd()) {
+            expressions.add(parser.parse());
+        }
+        return expressions;
+    }
+
+    // One lexeme: a number, :name, repcount, an operator or a parenthesis
+    private record Lexeme(char kind, double number, String name, boolean startsToken, boolean endsToken) {
+    }
+
+    private static List<Lexeme> lex(List<String> tokens) {
+        List<Lexeme> lexemes = new ArrayList<>();
+        for (String token : tokens) {
+            int n = token.length();
+            int i = 0;
+            while (i < n) {
+                char ch = token.charAt(i);
+                int start = i;
+                if (Character.isDigit(ch) || ch == '.') {
+                    while (i < n && (Character.isDigit(token.charAt(i)) || token.charAt(i) == '.')) i++;
+                    double number;
+                    try {
+                        number = Double.parseDouble(token.substring(start, i));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Not a number: " + token.substring(start, i));
+                    }
+                    lexemes.add(new Lexeme('n', number, null, start == 0, i == n));
+                } else if (ch == ':' || Character.isLetter(ch)) {
+                    i++;
+                    while (i < n && (Character.isLetterOrDigit(token.charAt(i)) || token.charAt(i) == '_')) i++;
+                    String name = token.substring(ch == ':' ? start + 1 : start, i).toLowerCase();
+                    if (ch != ':' && !name.equals("repcount")) {
+                        throw new IllegalArgumentException("Expected a number or :variable, not " + token);
+                    }
+                    if (name.isEmpty()) {
+                        throw new IllegalArgumentException("Missing variable name after ':'");
+                    }
+                    lexemes.add(new Lexeme(ch == ':' ? 'v' : 'r', 0, name, start == 0, i == n));
+                } else if ("+-*/%()".indexOf(ch) >= 0) {
+                    i++;
+                    lexemes.add(new Lexeme(ch, 0, null, start == 0, i == n));
+                } else {
+                    throw new IllegalArgumentException("Unexpected '" + ch + "' in " + token);
+                }
+            }
+        }
+        return lexemes;
+    }
+
+    // Recursive descent, emitting postfix code
+    private static final class Parser {
+        private final List<Lexeme> lexemes;
+        private final List<String> locals;
+        private int position = 0;
+        private int parentheses = 0;
+        private final StringBuilder text = new StringBuilder();
+        private int[] code;
+        private int length;
+        private int stack;
+        private int depth;
+        private List<Double> constants;
+        private List<String> names;
+
+        Parser(List<Lexeme> lexemes, List<String> locals) {
+            this.lexemes = lexemes;
+            this.locals = locals;
+        }
+
+        boolean atEnd() {
+            return position >= lexemes.size();
+        }
+
+        Expression parse() {
+            code = new int[8];
+            length = 0;
+            stack = 0;
+            depth = 0;
+            constants = new ArrayList<>();
+            names = new ArrayList<>();
+            text.setLength(0);
+            additive();
+
+            double[] values = new double[constants.size()];
+            for (int i = 0; i < values.length; i++) values[i] = constants.get(i);
+            int[] trimmed = Arrays.copyOf(code, length);
+            Expression expression = new Expression(trimmed, values, names.toArray(new String[0]), depth, text.toString());
+            if (hasNoVariables(trimmed)) {
+                // Fold, e.g. "360 / 7" into one constant
+                double value;
+                try {
+                    value = expression.evaluate(null, null, new double[depth]);
+                } catch (BlockInterpreter.BlockException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+                return new Expression(new int[]{CONSTANT, 0}, new double[]{value}, new String[0], 1, text.toString());
+            }
+            return expression;
+        }
+
+        private static boolean hasNoVariables(int[] code) {
+            for (int pc = 0; pc < code.length; pc++) {
+                int op = code[pc];
+                if (op == LOCAL || op == GLOBAL || op == REPCOUNT) return false;
+                if (op == CONSTANT) pc++;
+            }
+            return true;
+        }
+
+        private void additive() {
+            multiplicative();
+            while (!atEnd()) {
+                Lexeme next = lexemes.get(position);
+                if (next.kind() != '+' && next.kind() != '-') return;
+                // Outside parentheses "-5" after an operand starts the next expression
+                if (parentheses == 0 && next.kind() == '-' && next.startsToken() && !next.endsToken()) return;
+                position++;
+                text.append(' ').append(next.kind()).append(' ');
+                multiplicative();
+                emit(next.kind() == '+' ? ADD : SUBTRACT);
+            }
+        }
+
+        private void multiplicative() {
+            unary();
+            while (!atEnd()) {
+                char kind = lexemes.get(position).kind();
+                if (kind != '*' && kind != '/' && kind != '%') return;
+                position++;
+                text.append(' ').append(kind).append(' ');
+                unary();
+                emit(kind == '*' ? MULTIPLY : kind == '/' ? DIVIDE : REMAINDER);
+            }
+        }
+
+        private void unary() {
+            if (!atEnd() && lexemes.get(position).kind() == '-') {
+                position++;
+                text.append('-');
+                unary();
+                emit(NEGATE);
+                return;
+            }
+            primary();
+        }
+
+        private void primary() {
+            if (atEnd()) {
+                throw new IllegalArgumentException("Expression ends too early: " + text.toString().trim());
+            }
+            Lexeme lexeme = lexemes.get(position++);
+            switch (lexeme.kind()) {
+                case 'n' -> {
+                    constants.add(lexeme.number());
+                    emit(CONSTANT, constants.size() - 1);
+                    text.append(format(lexeme.number()));
+                }
+                case 'v' -> {
+                    int slot = locals.indexOf(lexeme.name());
+                    if (slot >= 0) {
+                        emit(LOCAL, slot);
+                    } else {
+                        names.add(lexeme.name());
+                        emit(GLOBAL, names.size() - 1);
+                    }
+                    text.append(':').append(lexeme.name());
+                }
+                case 'r' -> {
+                    emit(REPCOUNT);
+                    text.append("repcount");
+                }
+                case '(' -> {
+                    text.append('(');
+                    parentheses++;
+                    additive();
+                    parentheses--;
+                    if (atEnd() || lexemes.get(position).kind() != ')') {
+                        throw new IllegalArgumentException("Missing ) in " + text);
+                    }
+                    position++;
+                    text.append(')');
+                }
+                default -> throw new IllegalArgumentException("Unexpected '" + lexeme.kind() + "' in expression");
+            }
+        }
+
+        private void emit(int op) {
+            grow(1);
+            code[length++] = op;
+            // Binary operators take two values and leave one; the others leave one more
+            stack += op == NEGATE ? 0 : op >= ADD ? -1 : 1;
+            depth = Math.max(depth, stack);
+        }
+
+        private void emit(int op, int operand) {
+            emit(op);
+            grow(1);
+            code[length++] = operand;
+        }
+
+        private void grow(int extra) {
+            if (length + extra > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+
+// Generates the same branching tree as the recursive drawFractalTree, but iteratively with an
+// explicit stack (memory proportional to depth), in double precision, and hands the segments
+// to the canvas in batches. A running tree can be stopped from another thread with cancel().
+public class FractalTreeEngine {
+    public static final int MAX_DEPTH = 24;
+    private static final double BRANCH_ANGLE = 30;
+    private static final double SHRINK = 0.7;
+
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Clears a previous cancel; draw() does this itself, the animated tree calls it directly
+    public void startRun() {
+        cancelled = false;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Draws the tree from (x, y) heading in degrees; returns the number of branches drawn.
+    // The turtle itself does not move, as the recursive version always returned to its start.
+    public long draw(TurtleCanvas canvas, double x, double y, double heading, int depth, double length, int strokeWidth) {
+        startRun();
+        if (depth <= 0) return 0;
+
+        int[] colours = new int[depth + 1];
+        for (int d = 1; d <= depth; d++) {
+            colours[d] = gradientColour(d).getRGB() & 0xFFFFFF;
+        }
+
+        // Like the recursive version, each branch is drawn out and then back again; by the time the
+        // turtle walks back the pen holds the deepest level's colour, so return strokes use that.
+        int returnColour = colours[1];
+
+        // Depth-first, left branch before right, so overlapping strokes paint in the original order.
+        // A frame with returning set is the walk back down a branch whose subtree is finished.
+        int capacity = 2 * depth + 2;
+        double[] stackX = new double[capacity];
+        double[] stackY = new double[capacity];
+        double[] stackHeading = new double[capacity];
+        double[] stackLength = new double[capacity];
+        int[] stackDepth = new int[capacity];
+        boolean[] returning = new boolean[capacity];
+        int top = 0;
+        stackX[0] = x;
+        stackY[0] = y;
+        stackHeading[0] = heading;
+        stackLength[0] = length;
+        stackDepth[0] = depth;
+        top++;
+
+        SegmentBatch batch = new SegmentBatch();
+        batch.setStrokeWidth(strokeWidth);
+        long drawn = 0;
+
+        while (top > 0 && !cancelled) {
+            top--;
+            double fromX = stackX[top];
+            double fromY = stackY[top];
+            double branchHeading = stackHeading[top];
+            double branchLength = stackLength[top];
+            int branchDepth = stackDepth[top];
+
+            double radians = Math.toRadians(branchHeading);
+            double toX = fromX + Math.cos(radians) * branchLength;
+            double toY = fromY + Math.sin(radians) * branchLength;
+
+            if (returning[top]) {
+                returning[top] = false;
+                batch.add(toX, toY, fromX, fromY, returnColour);
+            } else {
+                batch.add(fromX, fromY, toX, toY, colours[branchDepth]);
+                drawn++;
+
+                // Walk back after both subtrees are done
+                returning[top] = true;
+                top++;
+
+                if (branchDepth > 1) {
+                    // Push right first so the left branch is popped (drawn) first
+                    push(stackX, stackY, stackHeading, stackLength, stackDepth, top++,
+                            toX, toY, branchHeading + BRANCH_ANGLE, branchLength * SHRINK, branchDepth - 1);
+                    push(stackX, stackY, stackHeading, stackLength, stackDepth, top++,
+                            toX, toY, branchHeading - BRANCH_ANGLE, branchLength * SHRINK, branchDepth - 1);
+                }
+            }
+
+            if (batch.isFull()) {
+                canvas.drawSegments(batch);
+                batch.clear();
+            }
+        }
+
+        if (batch.size() > 0) {
+            canvas.drawSegments(batch);
+        }
+        return drawn;
+    }
+
+    private static void push(double[] stackX, double[] stackY, double[] stackHeading, double[] stackLength,
+                             int[] stackDepth, int index, double x, double y, double heading, double length, int depth) {
+        stackX[index] = x;
+        stackY[index] = y;
+        stackHeading[index] = heading;
+        stackLength[index] = length;
+        stackDepth[index] = depth;
+    }
+
+    // Same hue ramp the animated tree uses, one colour per depth level
+    static Color gradientColour(int index) {
+        float hue = (float) index / 10;
+        return Color.getHSBColor(hue, 1.0f, 1.0f);
+    }
+}
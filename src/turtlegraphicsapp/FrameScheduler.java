@@ -0,0 +1,155 @@
+package turtlegraphicsapp;
+
+import javax.swing.*;
+
+// Separates running commands from showing them. Commands from the console, the buttons and the
+// file loader all go through submit() and run one after another on a single executor thread,
+// while a Swing timer presents the canvas at a fixed frame rate with a time budget per frame.
+// Being the only thread that touches the canvas and the histories, the executor needs no locks.
+//
+// In INSTANT playback commands run back to back as fast as the model allows. In ANIMATED
+// playback the caller counts each command as a step(), and only stepsPerFrame steps run per
+// frame. step() also paces explicitly animated drawing (fractal tree ... animate) in either mode.
+public class FrameScheduler {
+    public enum Mode { INSTANT, ANIMATED }
+
+    public static final int DEFAULT_FRAME_RATE = 60;
+    public static final int DEFAULT_STEPS_PER_FRAME = 4;
+    private static final int BATCH = 256;
+    // A thread is the EDT for all of its life or never; asking Swing each time costs ~90 ns
+    private static final ThreadLocal<Boolean> ON_EDT = ThreadLocal.withInitial(SwingUtilities::isEventDispatchThread);
+
+    // Paints whatever changed, stopping once System.nanoTime() passes deadlineNanos
+    public interface Presenter {
+        void present(long deadlineNanos);
+    }
+
+    private final Presenter presenter;
+    private final CommandQueue queue = new CommandQueue(CommandQueue.DEFAULT_CAPACITY);
+    private final Timer timer;
+    private final Object frameLock = new Object();
+    private long frame = 0;// Frames presented so far, guarded by frameLock
+    private long stepFrame = -1;// Frame the executor's steps are currently being counted in
+    private int stepsThisFrame = 0;
+    private volatile Mode mode = Mode.INSTANT;
+    private volatile int stepsPerFrame = DEFAULT_STEPS_PER_FRAME;
+    private volatile int frameRate;
+    private volatile Thread executor;
+
+    public FrameScheduler(int frameRate, Presenter presenter) {
+        this.presenter = presenter;
+        this.frameRate = frameRate;
+        this.timer = new Timer(1000 / frameRate, e -> presentFrame());
+        this.timer.setCoalesce(true);
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::runCommands, "CommandExecutorThread");
+        thread.setDaemon(true);
+        executor = thread;
+        thread.start();
+        timer.start();
+    }
+
+    // Stops presenting frames and ends the executor thread; commands still queued never run
+    public void stop() {
+        timer.stop();
+        Thread thread = executor;
+        if (thread != null) thread.interrupt();
+    }
+
+    // Queues work for the executor thread; runs it directly if already on that thread. Other
+    // threads wait while the queue is full; the EDT never does.
+    public void submit(Runnable command) {
+        if (Thread.currentThread() == executor) {
+            command.run();
+        } else {
+            queue.put(command, !ON_EDT.get());
+        }
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public boolean isExecutorThread() {
+        return Thread.currentThread() == executor;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setStepsPerFrame(int stepsPerFrame) {
+        this.stepsPerFrame = Math.max(1, stepsPerFrame);
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+        SwingUtilities.invokeLater(() -> timer.setDelay(1000 / frameRate));
+    }
+
+    // Called between animation steps on the executor thread: returns at once while this frame
+    // still has steps left, otherwise waits for the next frame to be presented
+    public void step() {
+        if (!isExecutorThread()) return;
+        synchronized (frameLock) {
+            if (stepFrame != frame) {
+                stepFrame = frame;
+                stepsThisFrame = 0;
+            }
+            while (stepsThisFrame >= stepsPerFrame) {
+                try {
+                    frameLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (stepFrame != frame) {
+                    stepFrame = frame;
+                    stepsThisFrame = 0;
+                }
+            }
+            stepsThisFrame++;
+        }
+    }
+
+    private void runCommands() {
+        Runnable[] batch = new Runnable[BATCH];
+        while (true) {
+            int count;
+            try {
+                count = queue.takeBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                try {
+                    batch[i].run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(System.err);
+                }
+                batch[i] = null;
+            }
+        }
+    }
+
+    // Runs on the EDT once per tick. Presenting gets half the frame interval so the EDT keeps
+    // time for input, and a frame that falls behind simply picks up the rest next tick.
+    private void presentFrame() {
+        long budgetNanos = 500_000_000L / frameRate;
+        presenter.present(System.nanoTime() + budgetNanos);
+        synchronized (frameLock) {
+            frame++;
+            frameLock.notifyAll();
+        }
+    }
+}
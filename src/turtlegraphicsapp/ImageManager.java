@@ -4,28 +4,79 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ImageManager {
     private final TurtleGraphics turtleGraphics;
-    private final List<String> recentImages = new ArrayList<>();
-    private boolean unsavedChanges = false;
-    private File currentImageFile = null;
+    private final List<String> recentImages = new ArrayList<>();// Executor thread only, see showRecentImages
+    private volatile long changeCount = 0;// Bumped by every drawing command
+    private volatile long savedChangeCount = 0;// changeCount when the last completed save was snapshotted
+    private volatile File currentImageFile = null;// Set on the executor thread, read by the dialogs on the EDT
+    private volatile PngWriter pngWriter = new PngWriter();
+
+    // Saves are encoded one at a time on a background thread, so drawing carries on meanwhile.
+    // pendingSaves holds the newest snapshot per file that is waiting to be written: a save
+    // requested while another for the same file is still queued replaces its snapshot.
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ImageSaveThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Snapshot> pendingSaves = new ConcurrentHashMap<>();
+
+    private record Snapshot(BufferedImage image, long changeCount, PngWriter pngWriter) {
+    }
 
     public ImageManager(TurtleGraphics turtleGraphics) {
         this.turtleGraphics = turtleGraphics;
     }
 
+    public PngWriter getPngWriter() {
+        return pngWriter;
+    }
+
+    // Compression settings for later PNG saves, see "save image level N filter F"
+    public void setPngWriter(PngWriter pngWriter) {
+        this.pngWriter = pngWriter;
+    }
+
+    // Dialogs run on the EDT and the save itself on the executor thread, which owns the canvas;
+    // this may be called from either
     public void saveImage() {
-        if (currentImageFile != null) {
-            writeImageToFile(currentImageFile);
+        File file = currentImageFile;
+        if (file != null) {
+            turtleGraphics.getScheduler().submit(() -> saveImageTo(file));
         } else {
             saveImageAs(); // If no previous file, prompt for location
         }
     }
 
     public void saveImageAs() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(this::saveImageAs);
+            return;
+        }
+        File file = chooseSaveFile(false);
+        if (file != null) {
+            turtleGraphics.getScheduler().submit(() -> saveImageTo(file));
+        }
+    }
+
+    // Asks where to save, on the EDT. Returns the current file without asking if there is one and
+    // reuseCurrent is set, or null if the user cancelled.
+    public File chooseSaveFile(boolean reuseCurrent) {
+        File current = currentImageFile;
+        if (reuseCurrent && current != null) return current;
+
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setCurrentDirectory(new File(System.getProperty("user.dir")));
         fileChooser.setDialogTitle("Save Image As");
@@ -33,7 +84,7 @@ public class ImageManager {
         while (true) {
             int userSelection = fileChooser.showSaveDialog(turtleGraphics.getMainFrame());
 
-            if (userSelection != JFileChooser.APPROVE_OPTION) return;
+            if (userSelection != JFileChooser.APPROVE_OPTION) return null;
 
             File selectedFile = fileChooser.getSelectedFile();
             String path = selectedFile.getAbsolutePath();
@@ -42,8 +93,8 @@ public class ImageManager {
                 selectedFile = new File(path + ".png");
             }
 
-            boolean isSameAsCurrent = currentImageFile != null &&
-                    selectedFile.getAbsolutePath().equals(currentImageFile.getAbsolutePath());
+            boolean isSameAsCurrent = current != null &&
+                    selectedFile.getAbsolutePath().equals(current.getAbsolutePath());
 
             if (selectedFile.exists() && !isSameAsCurrent) {
                 int choice = JOptionPane.showConfirmDialog(
@@ -58,30 +109,117 @@ public class ImageManager {
                     continue;
                 }
             }
-
-            currentImageFile = selectedFile;
-            writeImageToFile(currentImageFile);
-            break;
+            return selectedFile;
         }
     }
 
+    // Runs on the executor thread
+    public void saveImageTo(File file) {
+        currentImageFile = file;
+        writeImageToFile(file);
+    }
 
+    // Copies the canvas now and leaves encoding and writing to the save thread
     private void writeImageToFile(File file) {
+        Snapshot snapshot = new Snapshot(copyOf(turtleGraphics.getBufferedImage()), changeCount, pngWriter);
+        String path = file.getAbsolutePath();
+        if (pendingSaves.put(path, snapshot) != null) {
+            return;// A save of this file is already queued and will now write this snapshot
+        }
+        turtleGraphics.displayMessage("Saving image...");
+        saveExecutor.execute(() -> runSave(file));
+    }
+
+    private void runSave(File file) {
+        Snapshot snapshot = pendingSaves.remove(file.getAbsolutePath());
+        if (snapshot == null) return;
+        long start = System.nanoTime();
+        JfrEvents.ImageSave event = new JfrEvents.ImageSave();
+        event.begin();
         try {
-            BufferedImage image = turtleGraphics.getBufferedImage();
-            String format = file.getName().toLowerCase().endsWith(".jpg") ? "jpg" : "png";
-            ImageIO.write(image, format, file);
-            markImageAsSaved();
-            addToRecentImages(file.getAbsolutePath());
-            turtleGraphics.displayMessage("Image saved successfully.");
-            turtleGraphics.getToolbar().updateRecentImages(getRecentImages());
+            writeImageAtomically(snapshot.image(), file, snapshot.pngWriter());
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (event.shouldCommit()) {
+                event.path = file.getAbsolutePath();
+                event.width = snapshot.image().getWidth();
+                event.height = snapshot.image().getHeight();
+                event.bytes = file.length();
+                event.commit();
+            }
+            turtleGraphics.getScheduler().submit(() -> {
+                savedChangeCount = Math.max(savedChangeCount, snapshot.changeCount());
+                addToRecentImages(file.getAbsolutePath());
+                showRecentImages();
+                turtleGraphics.displayMessage("Image saved to " + file.getName() + " (" + millis + " ms).");
+            });
         } catch (IOException e) {
             e.printStackTrace(System.err);
-            turtleGraphics.displayMessage("Failed to save image.");
+            SwingUtilities.invokeLater(() -> turtleGraphics.displayMessage("Failed to save image: " + e.getMessage()));
+        }
+    }
+
+    // Waits for queued saves to finish, e.g. before the application exits
+    public void awaitPendingSaves(long timeoutSeconds) {
+        saveExecutor.shutdown();
+        try {
+            if (!saveExecutor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                System.err.println("Image save still running after " + timeoutSeconds + " s.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    // A private copy of the raster, so the canvas can keep changing while the copy is encoded
+    private static BufferedImage copyOf(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    // Encodes an image by file extension: .jpg as JPEG, anything else as PNG with the default
+    // PngWriter settings. Shared with the headless BatchRenderer so both produce identical files.
+    public static void writeImage(BufferedImage image, File file) throws IOException {
+        writeImage(image, file, new PngWriter());
+    }
+
+    public static void writeImage(BufferedImage image, File file, PngWriter pngWriter) throws IOException {
+        writeImage(image, formatOf(file), file, pngWriter);
+    }
+
+    // Writes to a temporary file next to the target and renames it into place, so the target
+    // is never left half written
+    public static void writeImageAtomically(BufferedImage image, File file, PngWriter pngWriter) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            writeImage(image, formatOf(file), temp, pngWriter);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static String formatOf(File file) {
+        return file.getName().toLowerCase().endsWith(".jpg") ? "jpg" : "png";
+    }
+
+    private static void writeImage(BufferedImage image, String format, File file, PngWriter pngWriter) throws IOException {
+        if (format.equals("png")) {
+            pngWriter.write(image, file);
+        } else if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No image writer for format: " + format);
+        }
+    }
+
+    // Asks on the EDT, then loads on the executor thread; may be called from either
     public void loadImageWithPrompt() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(this::loadImageWithPrompt);
+            return;
+        }
         if (hasUnsavedChanges()) {
             int result = JOptionPane.showConfirmDialog(
                     turtleGraphics.getMainFrame(),
@@ -91,10 +229,15 @@ public class ImageManager {
             );
 
             if (result == JOptionPane.CANCEL_OPTION) return;
-            if (result == JOptionPane.YES_OPTION) saveImage();
+            if (result == JOptionPane.YES_OPTION) {
+                // Queued before the load, so it saves the canvas as it is now
+                File target = chooseSaveFile(true);
+                if (target != null) turtleGraphics.getScheduler().submit(() -> saveImageTo(target));
+            }
         }
 
-        String[] options = (currentImageFile != null)
+        File current = currentImageFile;
+        String[] options = (current != null)
                 ? new String[]{"Choose File...", "Load recent File"}
                 : new String[]{"Choose File..."};
 
@@ -109,6 +252,7 @@ public class ImageManager {
                 options[0]
         );
 
+        File selectedFile = null;
         if (choice == 0) {
             JFileChooser fileChooser = new JFileChooser();
             fileChooser.setDialogTitle("Load Image");
@@ -116,25 +260,41 @@ public class ImageManager {
 
             int userSelection = fileChooser.showOpenDialog(turtleGraphics.getMainFrame());
             if (userSelection == JFileChooser.APPROVE_OPTION) {
-                File selectedFile = fileChooser.getSelectedFile();
-                currentImageFile = selectedFile;
-                loadImageFromFile(selectedFile);
+                selectedFile = fileChooser.getSelectedFile();
             }
-        } else if (choice == 1 && currentImageFile != null) {
-            loadImageFromFile(currentImageFile);
+        } else if (choice == 1 && current != null) {
+            selectedFile = current;
+        }
+        if (selectedFile != null) {
+            File file = selectedFile;
+            turtleGraphics.getScheduler().submit(() -> {
+                currentImageFile = file;
+                loadImageFromFile(file);
+            });
         }
-
     }
 
     public void loadImageFromFile(File file) {
+        JfrEvents.ImageLoad event = new JfrEvents.ImageLoad();
+        event.begin();
         try {
             BufferedImage loadedImage = ImageIO.read(file);
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = file.getAbsolutePath();
+                event.success = loadedImage != null;
+                event.commit();
+            }
             if (loadedImage != null) {
-                turtleGraphics.setBufferedImage(loadedImage);
-                markImageAsSaved();
-                addToRecentImages(file.getAbsolutePath());
-                turtleGraphics.repaint();
-                turtleGraphics.displayMessage("Image loaded successfully.");
+                // The canvas belongs to the executor thread; this may be called from the EDT
+                turtleGraphics.getScheduler().submit(() -> {
+                    turtleGraphics.setBufferedImage(loadedImage);
+                    markImageAsSaved();
+                    addToRecentImages(file.getAbsolutePath());
+                    showRecentImages();
+                    turtleGraphics.repaint();
+                    turtleGraphics.displayMessage("Image loaded successfully.");
+                });
             } else {
                 turtleGraphics.displayMessage("Invalid image file.");
             }
@@ -154,15 +314,22 @@ public class ImageManager {
         return new ArrayList<>(recentImages);
     }
 
+    // Hands the toolbar a copy, so the list itself never leaves the executor thread
+    private void showRecentImages() {
+        List<String> recent = getRecentImages();
+        SwingUtilities.invokeLater(() -> turtleGraphics.getToolbar().updateRecentImages(recent));
+    }
+
     public void markImageAsUnsaved() {
-        unsavedChanges = true;
+        changeCount++;
     }
 
     public void markImageAsSaved() {
-        unsavedChanges = false;
+        savedChangeCount = changeCount;
     }
 
+    // True if something was drawn after the snapshot of the last completed save
     public boolean hasUnsavedChanges() {
-        return unsavedChanges;
+        return savedChangeCount != changeCount;
     }
 }
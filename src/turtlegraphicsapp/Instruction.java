@@ -0,0 +1,89 @@
+package turtlegraphicsapp;
+
+// A command line compiled once into an opcode and up to three integer operands.
+// Immutable; the original text is kept for the history panel and for saving. Instructions
+// decoded from a binary script have no text until source() first asks for it.
+public final class Instruction {
+    private final Opcode opcode;
+    private final int a;
+    private final int b;
+    private final int c;
+    private String source;// Null until needed for decoded instructions, see decoded()
+    private final String error;// Only set for INVALID
+    private final Object payload;// Operands that are not ints, e.g. a compiled LSystem
+
+    private Instruction(Opcode opcode, int a, int b, int c, String source, String error, Object payload) {
+        this.opcode = opcode;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.source = source;
+        this.error = error;
+        this.payload = payload;
+    }
+
+    public static Instruction of(Opcode opcode, String source) {
+        return new Instruction(opcode, 0, 0, 0, source, null, null);
+    }
+
+    public static Instruction of(Opcode opcode, int a, String source) {
+        return new Instruction(opcode, a, 0, 0, source, null, null);
+    }
+
+    public static Instruction of(Opcode opcode, int a, int b, int c, String source) {
+        return new Instruction(opcode, a, b, c, source, null, null);
+    }
+
+    // An instruction read from a binary script; its text is only rebuilt if something shows or saves it
+    public static Instruction decoded(Opcode opcode, int a, int b, int c) {
+        return new Instruction(opcode, a, b, c, null, null, null);
+    }
+
+    public static Instruction withPayload(Opcode opcode, Object payload, String source) {
+        return new Instruction(opcode, 0, 0, 0, source, null, payload);
+    }
+
+    public static Instruction invalid(String source, String error) {
+        return new Instruction(Opcode.INVALID, 0, 0, 0, source, error, null);
+    }
+
+    public Opcode opcode() {
+        return opcode;
+    }
+
+    public int a() {
+        return a;
+    }
+
+    public int b() {
+        return b;
+    }
+
+    public int c() {
+        return c;
+    }
+
+    public String source() {
+        if (source == null) {
+            source = CommandCompiler.decompile(this);
+        }
+        return source;
+    }
+
+    public String error() {
+        return error;
+    }
+
+    public Object payload() {
+        return payload;
+    }
+
+    public boolean isValid() {
+        return opcode != Opcode.INVALID;
+    }
+
+    @Override
+    public String toString() {
+        return source();
+    }
+}
@@ -0,0 +1,87 @@
+package turtlegraphicsapp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder events for the places where the program spends its time. They cost nothing
+// until a recording enables them, e.g. java -XX:StartFlightRecording=filename=turtle.jfr ...
+// and then show up under "Turtle Graphics" in JDK Mission Control.
+public final class JfrEvents {
+    private JfrEvents() {
+    }
+
+    @Name("turtlegraphics.Command")
+    @Label("Command")
+    @Category("Turtle Graphics")
+    @Description("One command executed by CommandHandler")
+    @StackTrace(false)// Millions of these in a long script; the stack is always the same
+    public static class Command extends Event {
+        @Label("Opcode")
+        public String opcode;
+        @Label("Operand A")
+        public int a;
+        @Label("Operand B")
+        public int b;
+        @Label("Operand C")
+        public int c;
+        @Label("Valid")
+        public boolean valid;
+        @Label("Replay")
+        @Description("Re-run as part of an undo")
+        public boolean replay;
+        @Label("Segments Drawn")
+        public long segments;
+    }
+
+    @Name("turtlegraphics.UndoReplay")
+    @Label("Undo Replay")
+    @Category("Turtle Graphics")
+    public static class UndoReplay extends Event {
+        @Label("Replayed Commands")
+        public int replayed;
+        @Label("From Checkpoint")
+        public boolean fromCheckpoint;
+    }
+
+    @Name("turtlegraphics.ImageSave")
+    @Label("Image Save")
+    @Category("Turtle Graphics")
+    public static class ImageSave extends Event {
+        @Label("Path")
+        public String path;
+        @Label("Width")
+        public int width;
+        @Label("Height")
+        public int height;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("turtlegraphics.ImageLoad")
+    @Label("Image Load")
+    @Category("Turtle Graphics")
+    public static class ImageLoad extends Event {
+        @Label("Path")
+        public String path;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("turtlegraphics.ScriptLoad")
+    @Label("Command File Load")
+    @Category("Turtle Graphics")
+    public static class ScriptLoad extends Event {
+        @Label("Path")
+        public String path;
+        @Label("Binary")
+        public boolean binary;
+        @Label("Commands")
+        public int commands;
+    }
+}
@@ -0,0 +1,148 @@
+package turtlegraphicsapp;
+
+import uk.ac.leedsbeckett.oop.LBUGraphics;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// Adapts the on-screen LBUGraphics turtle to TurtleCanvas by plain delegation.
+// Given a DirtyRegionTracker, the drawing primitives report the box they touched (widened by
+// the pen width and the turtle sprite) instead of letting LBUGraphics repaint the whole panel.
+public class LBUGraphicsCanvas implements TurtleCanvas {
+    private static final int SPRITE_RADIUS = 40;// Half the largest turtle image, with some slack
+
+    private final LBUGraphics turtle;
+    private final DirtyRegionTracker dirtyRegions;// null repaints the whole panel every time
+    private int strokeWidth = 1;
+
+    public LBUGraphicsCanvas(LBUGraphics turtle) {
+        this(turtle, null);
+    }
+
+    public LBUGraphicsCanvas(LBUGraphics turtle, DirtyRegionTracker dirtyRegions) {
+        this.turtle = turtle;
+        this.dirtyRegions = dirtyRegions;
+    }
+
+    public LBUGraphics getTurtle() {
+        return turtle;
+    }
+
+    @Override public void about() { turtle.about(); }
+    @Override public void displayMessage(String message) { turtle.displayMessage(message); }
+
+    @Override public void drawOn() { aroundTurtle(turtle::drawOn); }
+    @Override public void drawOff() { aroundTurtle(turtle::drawOff); }
+    @Override public void left(int degrees) { aroundTurtle(() -> turtle.left(degrees)); }
+    @Override public void right(int degrees) { aroundTurtle(() -> turtle.right(degrees)); }
+    @Override public void reset() { turtle.reset(); }
+    @Override public void clear() { turtle.clear(); }
+
+    @Override public Color getPenColour() { return turtle.getPenColour(); }
+    @Override public void setPenColour(Color color) { aroundTurtle(() -> turtle.setPenColour(color)); }
+
+    @Override public int getxPos() { return turtle.getxPos(); }
+    @Override public int getyPos() { return turtle.getyPos(); }
+    @Override public void setxPos(int x) { aroundTurtle(() -> turtle.setxPos(x)); }
+    @Override public void setyPos(int y) { aroundTurtle(() -> turtle.setyPos(y)); }
+    @Override public int getDirection() { return turtle.getDirection(); }
+    @Override public void pointTurtle(int degrees) { aroundTurtle(() -> turtle.pointTurtle(degrees)); }
+
+    @Override public void dance(int moves) { turtle.dance(moves); }
+    @Override public void cycleColours() { turtle.cycleColours(); }
+    @Override public void setTurtleSpeed(int speed) { turtle.setTurtleSpeed(speed); }
+
+    @Override public int getWidth() { return turtle.getWidth(); }
+    @Override public int getHeight() { return turtle.getHeight(); }
+    @Override public BufferedImage getBufferedImage() { return turtle.getBufferedImage(); }
+    @Override public void repaint() { turtle.repaint(); }
+
+    @Override
+    public void setStroke(int width) {
+        strokeWidth = width;
+        turtle.setStroke(width);
+    }
+
+    @Override
+    public void forward(int distance) {
+        if (dirtyRegions == null) {
+            turtle.forward(distance);
+            return;
+        }
+        int fromX = turtle.getxPos();
+        int fromY = turtle.getyPos();
+        // Mark the expected line first so an animated move shows up as it is drawn
+        double radians = Math.toRadians(turtle.getDirection());
+        int margin = Math.max(SPRITE_RADIUS, strokeWidth / 2 + 1);
+        dirtyRegions.add(fromX, fromY, fromX + (int) Math.round(Math.cos(radians) * distance),
+                fromY + (int) Math.round(Math.sin(radians) * distance), margin);
+        dirtyRegions.holdBack();
+        try {
+            turtle.forward(distance);
+        } finally {
+            dirtyRegions.release();
+        }
+        dirtyRegions.add(fromX, fromY, turtle.getxPos(), turtle.getyPos(), margin);
+    }
+
+    @Override
+    public void circle(int radius) {
+        if (dirtyRegions == null) {
+            turtle.circle(radius);
+            return;
+        }
+        int x = turtle.getxPos();
+        int y = turtle.getyPos();
+        dirtyRegions.add(x - radius, y - radius, x + radius, y + radius, Math.max(SPRITE_RADIUS, strokeWidth / 2 + 1));
+        dirtyRegions.holdBack();
+        try {
+            turtle.circle(radius);
+        } finally {
+            dirtyRegions.release();
+        }
+    }
+
+    @Override
+    public void drawSegments(SegmentBatch batch) {
+        Graphics2D g = turtle.getBufferedImage().createGraphics();
+        try {
+            batch.drawTo(g);
+        } finally {
+            g.dispose();
+        }
+        if (dirtyRegions == null || batch.size() == 0) {
+            turtle.repaint();
+            return;
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < batch.size(); i++) {
+            minX = Math.min(minX, Math.min(batch.x0[i], batch.x1[i]));
+            minY = Math.min(minY, Math.min(batch.y0[i], batch.y1[i]));
+            maxX = Math.max(maxX, Math.max(batch.x0[i], batch.x1[i]));
+            maxY = Math.max(maxY, Math.max(batch.y0[i], batch.y1[i]));
+        }
+        // Clamp before converting so far off-canvas segments cannot overflow int
+        int limit = 1 << 20;
+        dirtyRegions.add((int) Math.floor(Math.max(minX, -limit)), (int) Math.floor(Math.max(minY, -limit)),
+                (int) Math.ceil(Math.min(maxX, limit)), (int) Math.ceil(Math.min(maxY, limit)),
+                batch.getStrokeWidth() / 2 + 1);
+    }
+
+    // Runs a call that only changes the turtle sprite, marking the sprite before and after
+    private void aroundTurtle(Runnable call) {
+        if (dirtyRegions == null) {
+            call.run();
+            return;
+        }
+        int x = turtle.getxPos();
+        int y = turtle.getyPos();
+        dirtyRegions.holdBack();
+        try {
+            call.run();
+        } finally {
+            dirtyRegions.release();
+        }
+        dirtyRegions.add(x, y, x, y, SPRITE_RADIUS);
+        dirtyRegions.add(turtle.getxPos(), turtle.getyPos(), turtle.getxPos(), turtle.getyPos(), SPRITE_RADIUS);
+    }
+}
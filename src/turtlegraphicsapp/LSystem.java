@@ -0,0 +1,227 @@
+package turtlegraphicsapp;
+
+import java.util.Arrays;
+
+// A compiled L-system (axiom, rewrite rules, turn angle, step length, iterations).
+// draw() expands it lazily and depth-first: symbols are rewritten on the fly and streamed
+// straight into line segments, so memory grows with the iteration count and bracket
+// nesting, never with the length of the expanded string.
+//
+// Symbols: F and G draw a step, f moves a step without drawing, + turns left, - turns right,
+// [ and ] save and restore the turtle. Anything else only takes part in rewriting.
+public final class LSystem {
+    public static final int MAX_ITERATIONS = 32;
+
+    private final String axiom;
+    private final String[] rules = new String[128];// Indexed by symbol; null means the symbol is constant
+    private final double angle;
+    private final double step;
+    private final int iterations;
+
+    private volatile boolean cancelled = false;
+
+    LSystem(String axiom, String[] rules, double angle, double step, int iterations) {
+        this.axiom = axiom;
+        System.arraycopy(rules, 0, this.rules, 0, this.rules.length);
+        this.angle = angle;
+        this.step = step;
+        this.iterations = iterations;
+    }
+
+    // Result of one draw: where the turtle ended up and how much was drawn
+    public static class Result {
+        public final double x;
+        public final double y;
+        public final double heading;
+        public final long symbols;
+        public final long segments;
+        public final long nanos;
+
+        Result(double x, double y, double heading, long symbols, long segments, long nanos) {
+            this.x = x;
+            this.y = y;
+            this.heading = heading;
+            this.symbols = symbols;
+            this.segments = segments;
+            this.nanos = nanos;
+        }
+
+        public double segmentsPerSecond() {
+            return nanos == 0 ? 0 : segments * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public Result draw(TurtleCanvas canvas, double x, double y, double heading, boolean penDown, int colour, int strokeWidth) {
+        cancelled = false;
+        return walk(canvas, x, y, heading, step, penDown, colour, strokeWidth, null);
+    }
+
+    // Where the path goes, without drawing: {minX, minY, maxX, maxY} relative to the start, as if
+    // step were 1. Positions scale with the step, so this says which steps fit on a canvas.
+    // Null if cancelled first.
+    public double[] measure(double heading) {
+        cancelled = false;
+        double[] bounds = new double[4];
+        walk(null, 0, 0, heading, 1, false, 0, 1, bounds);
+        return cancelled ? null : bounds;
+    }
+
+    public double getStep() {
+        return step;
+    }
+
+    // Expands and follows the path; draws on canvas unless it is null, and widens bounds if given
+    private Result walk(TurtleCanvas canvas, double x, double y, double heading, double step, boolean penDown,
+                        int colour, int strokeWidth, double[] bounds) {
+        long start = System.nanoTime();
+
+        // One frame per rewriting level: the text being read and the position in it
+        String[] frameText = new String[iterations + 1];
+        int[] frameIndex = new int[iterations + 1];
+        int top = 0;
+        frameText[0] = axiom;
+
+        // Saved turtle states for [ and ]
+        double[] saved = new double[3 * 16];
+        int savedCount = 0;
+
+        SegmentBatch batch = new SegmentBatch();
+        batch.setStrokeWidth(strokeWidth);
+        long symbols = 0;
+        long segments = 0;
+
+        while (top >= 0) {
+            String text = frameText[top];
+            int index = frameIndex[top];
+            if (index == text.length()) {
+                frameText[top] = null;
+                top--;
+                continue;
+            }
+            frameIndex[top] = index + 1;
+            char symbol = text.charAt(index);
+
+            String replacement = symbol < rules.length ? rules[symbol] : null;
+            if (replacement != null && top < iterations) {
+                top++;
+                frameText[top] = replacement;
+                frameIndex[top] = 0;
+                continue;
+            }
+
+            if ((++symbols & 0xFFFF) == 0 && cancelled) {
+                break;
+            }
+            switch (symbol) {
+                case 'F', 'G', 'f' -> {
+                    double radians = Math.toRadians(heading);
+                    double newX = x + Math.cos(radians) * step;
+                    double newY = y + Math.sin(radians) * step;
+                    if (bounds != null) {
+                        bounds[0] = Math.min(bounds[0], newX);
+                        bounds[1] = Math.min(bounds[1], newY);
+                        bounds[2] = Math.max(bounds[2], newX);
+                        bounds[3] = Math.max(bounds[3], newY);
+                    }
+                    if (symbol != 'f' && penDown) {
+                        batch.add(x, y, newX, newY, colour);
+                        segments++;
+                        if (batch.isFull()) {
+                            canvas.drawSegments(batch);
+                            batch.clear();
+                        }
+                    }
+                    x = newX;
+                    y = newY;
+                }
+                case '+' -> heading -= angle;
+                case '-' -> heading += angle;
+                case '[' -> {
+                    if (savedCount + 3 > saved.length) {
+                        saved = Arrays.copyOf(saved, saved.length * 2);
+                    }
+                    saved[savedCount++] = x;
+                    saved[savedCount++] = y;
+                    saved[savedCount++] = heading;
+                }
+                case ']' -> {
+                    heading = saved[--savedCount];
+                    y = saved[--savedCount];
+                    x = saved[--savedCount];
+                }
+                default -> {
+                    // Constants such as X only steer the rewriting
+                }
+            }
+        }
+
+        if (batch.size() > 0) {
+            canvas.drawSegments(batch);
+        }
+        return new Result(x, y, heading, symbols, segments, System.nanoTime() - start);
+    }
+
+    // Parses "<iterations> <angle> <step> <axiom> <symbol>=<replacement> ..." (parts[0] is "lsystem").
+    // Throws IllegalArgumentException with a user-facing message.
+    public static LSystem parse(String[] parts) {
+        if (parts.length < 5) {
+            throw new IllegalArgumentException("Usage: lsystem <iterations> <angle> <step> <axiom> <symbol>=<replacement> ...");
+        }
+        int iterations;
+        double angle;
+        double step;
+        try {
+            iterations = Integer.parseInt(parts[1]);
+            angle = Double.parseDouble(parts[2]);
+            step = Double.parseDouble(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("L-system iterations, angle and step must be numbers.");
+        }
+        if (iterations < 0 || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("L-system iterations must be between 0 and " + MAX_ITERATIONS + ".");
+        }
+        if (!(step > 0) || Double.isInfinite(step) || Double.isNaN(angle) || Double.isInfinite(angle)) {
+            throw new IllegalArgumentException("L-system step must be positive and angle a finite number.");
+        }
+
+        String axiom = parts[4];
+        checkSymbols(axiom);
+
+        String[] rules = new String[128];
+        for (int i = 5; i < parts.length; i++) {
+            String rule = parts[i];
+            if (rule.length() < 2 || rule.charAt(1) != '=') {
+                throw new IllegalArgumentException("L-system rules look like F=F+F-F, got: " + rule);
+            }
+            String replacement = rule.substring(2);
+            checkSymbols(rule.substring(0, 1));
+            checkSymbols(replacement);
+            rules[rule.charAt(0)] = replacement;
+        }
+        return new LSystem(axiom, rules, angle, step, iterations);
+    }
+
+    // ASCII symbols only, and every [ closed in the same string, so any expansion stays balanced
+    private static void checkSymbols(String text) {
+        int open = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char symbol = text.charAt(i);
+            if (symbol >= 128) {
+                throw new IllegalArgumentException("L-system symbols must be ASCII: " + text);
+            }
+            if (symbol == '[') open++;
+            if (symbol == ']' && --open < 0) break;
+        }
+        if (open != 0) {
+            throw new IllegalArgumentException("Unbalanced brackets in L-system: " + text);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// A turtle that draws straight into an in-memory BufferedImage, with no JFrame, no animation
+// and no repaints. Used for headless rendering; behaves like LBUGraphics for the commands
+// CommandHandler issues (direction in degrees, x += cos, y += sin, as handleMove assumes;
+// positions are whole pixels).
+//
+// Subclasses that keep their pixels elsewhere (TiledCanvas) pass no image and override the
+// protected draw methods; the turtle itself is shared.
+public class OffscreenCanvas implements TurtleCanvas {
+    protected static final Color BACKGROUND = Color.BLACK;
+    private static final Color[] CYCLE_COLOURS = {
+            Color.RED, Color.GREEN, Color.ORANGE, Color.PINK, Color.CYAN, Color.WHITE
+    };
+
+    private final int width;
+    private final int height;
+    private final BufferedImage image;// Null for subclasses that store pixels themselves
+    private final Graphics2D g;
+    private final Random danceRandom = new Random(0);// Fixed seed so batch renders are repeatable
+
+    private int x;// Whole pixels, like LBUGraphics, so a saved pose restores exactly
+    private int y;
+    private int direction;
+    private boolean penDown = true;
+    private Color penColour = Color.RED;
+    private int stroke = 1;
+    private int cycleIndex = 0;
+    private String lastMessage = "";
+
+    public OffscreenCanvas(int width, int height) {
+        this(width, height, new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+
+    protected OffscreenCanvas(int width, int height, BufferedImage image) {
+        this.width = width;
+        this.height = height;
+        this.image = image;
+        this.g = image != null ? image.createGraphics() : null;
+        if (g != null) {
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, width, height);
+        }
+        setPenColour(Color.RED);
+        setStroke(1);
+        reset();
+        drawOn();
+    }
+
+    @Override
+    public void about() {
+        // Nothing to show without a window
+    }
+
+    @Override
+    public void displayMessage(String message) {
+        lastMessage = message;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    @Override
+    public void drawOn() {
+        penDown = true;
+    }
+
+    @Override
+    public void drawOff() {
+        penDown = false;
+    }
+
+    public boolean isPenDown() {
+        return penDown;
+    }
+
+    @Override
+    public void forward(int distance) {
+        double radians = Math.toRadians(direction);
+        int newX = x + (int) Math.round(Math.cos(radians) * distance);
+        int newY = y + (int) Math.round(Math.sin(radians) * distance);
+        if (penDown) {
+            drawLine(x, y, newX, newY);
+        }
+        x = newX;
+        y = newY;
+    }
+
+    @Override
+    public void left(int degrees) {
+        direction = Math.floorMod(direction - degrees, 360);
+    }
+
+    @Override
+    public void right(int degrees) {
+        direction = Math.floorMod(direction + degrees, 360);
+    }
+
+    // Centre of the canvas, pointing the same way as a freshly reset LBUGraphics turtle
+    @Override
+    public void reset() {
+        x = width / 2;
+        y = height / 2;
+        direction = 180;
+    }
+
+    @Override
+    public void clear() {
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        g.setColor(penColour);
+    }
+
+    // Draws with the current pen colour and stroke
+    protected void drawLine(int x0, int y0, int x1, int y1) {
+        g.drawLine(x0, y0, x1, y1);
+    }
+
+    protected void drawOval(int x, int y, int width, int height) {
+        g.drawOval(x, y, width, height);
+    }
+
+    @Override
+    public Color getPenColour() {
+        return penColour;
+    }
+
+    @Override
+    public void setPenColour(Color color) {
+        penColour = color;
+        if (g != null) g.setColor(color);
+    }
+
+    @Override
+    public void setStroke(int width) {
+        stroke = width;
+        if (g != null) g.setStroke(new BasicStroke(width));
+    }
+
+    public int getStroke() {
+        return stroke;
+    }
+
+    @Override
+    public int getxPos() {
+        return x;
+    }
+
+    @Override
+    public int getyPos() {
+        return y;
+    }
+
+    @Override
+    public void setxPos(int x) {
+        this.x = x;
+    }
+
+    @Override
+    public void setyPos(int y) {
+        this.y = y;
+    }
+
+    @Override
+    public int getDirection() {
+        return direction;
+    }
+
+    @Override
+    public void pointTurtle(int degrees) {
+        direction = Math.floorMod(degrees, 360);
+    }
+
+    // Random turns and short hops that stay on the canvas
+    @Override
+    public void dance(int moves) {
+        for (int i = 0; i < moves; i++) {
+            right(danceRandom.nextInt(360));
+            int distance = 10 + danceRandom.nextInt(40);
+            double radians = Math.toRadians(direction);
+            long newX = x + Math.round(Math.cos(radians) * distance);
+            long newY = y + Math.round(Math.sin(radians) * distance);
+            if (newX >= 0 && newY >= 0 && newX <= width && newY <= height) {
+                forward(distance);
+            }
+        }
+    }
+
+    // Circle centred on the turtle; the turtle does not move
+    @Override
+    public void circle(int radius) {
+        if (penDown) {
+            drawOval(x - radius, y - radius, radius * 2, radius * 2);
+        }
+    }
+
+    @Override
+    public void cycleColours() {
+        setPenColour(CYCLE_COLOURS[cycleIndex]);
+        cycleIndex = (cycleIndex + 1) % CYCLE_COLOURS.length;
+    }
+
+    @Override
+    public void setTurtleSpeed(int speed) {
+        // Offscreen drawing is always instant
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public BufferedImage getBufferedImage() {
+        return image;
+    }
+
+    @Override
+    public void drawSegments(SegmentBatch batch) {
+        batch.drawTo(g);
+        g.setColor(penColour);
+        g.setStroke(new BasicStroke(stroke));
+    }
+
+    @Override
+    public void repaint() {
+        // Nothing on screen to refresh
+    }
+
+    // Releases the Graphics2D once rendering is finished
+    public void dispose() {
+        if (g != null) g.dispose();
+    }
+}
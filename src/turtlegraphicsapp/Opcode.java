@@ -0,0 +1,51 @@
+package turtlegraphicsapp;
+
+// Operation codes for compiled commands. recordsHistory marks the ones CommandHandler
+// keeps in drawHistory so undo can replay them.
+public enum Opcode {
+    ABOUT(false),
+    PENUP(false),
+    PENDOWN(false),
+    LEFT(false),
+    RIGHT(false),
+    FORWARD(true),
+    REVERSE(true),
+    RESET(false),
+    CLEAR(true),
+    PEN_COLOUR(false),// a = packed RGB, used for both named colours and "pen r g b"
+    CYCLE_COLOURS(false),
+    DANCE(false),
+    CIRCLE(true),
+    SQUARE(true),
+    PEN_WIDTH(false),
+    TRIANGLE(true),// a = size
+    TRIANGLE_SIDES(true),// a, b, c = side lengths
+    FRACTAL_TREE(true),// a = depth, b = 1 for the animated turtle version
+    FRACTAL_CANCEL(false),// Also stops a running L-system
+    LSYSTEM(true),// payload = LSystem
+    BLOCK(true),// payload = Block: repeat, procedure calls, commands with expressions
+    DEFINE(false),// payload = Block.Procedure
+    MAKE(false),// payload = Block that only sets variables
+    PLAYBACK(false),// a = 1 for animated, 0 for instant; b = steps per frame when animated
+    FRAME_RATE(false),// a = frames per second
+    SAVE_IMAGE(false),
+    SAVE_COMMANDS(false),
+    LOAD_IMAGE(false),
+    LOAD_COMMANDS(false),
+    INVALID(false);
+
+    private final boolean recordsHistory;
+
+    Opcode(boolean recordsHistory) {
+        this.recordsHistory = recordsHistory;
+    }
+
+    public boolean recordsHistory() {
+        return recordsHistory;
+    }
+
+    // Save and load are actions on files, not part of the drawing, so they are not kept in command history
+    public boolean isFileCommand() {
+        return this == SAVE_IMAGE || this == SAVE_COMMANDS || this == LOAD_IMAGE || this == LOAD_COMMANDS;
+    }
+}
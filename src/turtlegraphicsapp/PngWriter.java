@@ -0,0 +1,472 @@
+package turtlegraphicsapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG encoder that filters and deflates horizontal stripes of the image in parallel.
+// Each stripe is compressed on its own and ended with a sync flush, so the raw deflate
+// streams simply concatenate into one zlib stream; the zlib checksum is stitched together
+// from the stripes' Adler-32 values. Compression level and row filter are configurable.
+//
+// Turtle drawings rarely use more than a handful of colours, so an opaque image with at most
+// 256 colours is written as 8-bit indexed colour: a third of the bytes to filter and deflate,
+// and a smaller file. Anything else is written as 24- or 32-bit truecolour.
+//
+// Rows come from a RowSource, so images that are not one BufferedImage (e.g. tiled) can be
+// streamed: only a few stripes are held in memory at a time.
+public final class PngWriter {
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        ADAPTIVE;// Per row, whichever of the others gives the smallest sum of absolute values
+
+        public static Filter parse(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public static final int DEFAULT_LEVEL = 6;
+    public static final Filter DEFAULT_FILTER = Filter.NONE;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int STRIPE_BYTES = 256 * 1024;// Unfiltered bytes per stripe, roughly
+
+    private final int level;
+    private final Filter filter;
+    private final ForkJoinPool pool;
+
+    public PngWriter() {
+        this(DEFAULT_LEVEL, DEFAULT_FILTER);
+    }
+
+    public PngWriter(int level, Filter filter) {
+        this(level, filter, ForkJoinPool.commonPool());
+    }
+
+    public PngWriter(int level, Filter filter, ForkJoinPool pool) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("PNG compression level must be between 0 and 9.");
+        }
+        this.level = level;
+        this.filter = filter;
+        this.pool = pool;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    // Source of pixel rows. getRow may be called from several threads at once for different rows.
+    public interface RowSource {
+        int width();
+
+        int height();
+
+        boolean hasAlpha();
+
+        // Fills argb with row y as 0xAARRGGBB
+        void getRow(int y, int[] argb);
+    }
+
+    public static RowSource rowsOf(BufferedImage image) {
+        boolean alpha = image.getColorModel().hasAlpha();
+        // Read TYPE_INT_RGB / TYPE_INT_ARGB rasters directly; anything else through getRGB
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer
+                && image.getSampleModel() instanceof SinglePixelPackedSampleModel model
+                && image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0) {
+            int[] data = buffer.getData();
+            int stride = model.getScanlineStride();
+            int offset = buffer.getOffset();
+            return new RowSource() {
+                public int width() { return image.getWidth(); }
+                public int height() { return image.getHeight(); }
+                public boolean hasAlpha() { return alpha; }
+                public void getRow(int y, int[] argb) {
+                    System.arraycopy(data, offset + y * stride, argb, 0, image.getWidth());
+                }
+            };
+        }
+        return new RowSource() {
+            public int width() { return image.getWidth(); }
+            public int height() { return image.getHeight(); }
+            public boolean hasAlpha() { return alpha; }
+            public void getRow(int y, int[] argb) {
+                image.getRGB(0, y, image.getWidth(), 1, argb, 0, image.getWidth());
+            }
+        };
+    }
+
+    public void write(BufferedImage image, File file) throws IOException {
+        write(rowsOf(image), file);
+    }
+
+    public void write(RowSource rows, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(rows, out);
+        }
+    }
+
+    public void write(RowSource rows, OutputStream output) throws IOException {
+        int width = rows.width();
+        int height = rows.height();
+        Palette palette = Palette.of(rows);
+        int bytesPerPixel = palette != null ? 1 : rows.hasAlpha() ? 4 : 3;
+        long rowBytes = (long) width * bytesPerPixel + 1;
+        if (width <= 0 || height <= 0 || rowBytes > Integer.MAX_VALUE / 2) {
+            throw new IOException("Cannot encode a " + width + "x" + height + " image as PNG.");
+        }
+        int stripeRows = (int) Math.max(1, Math.min(height, STRIPE_BYTES / rowBytes));
+        int stripes = (height + stripeRows - 1) / stripeRows;
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8);// Bit depth
+        ihdr.writeByte(palette != null ? 3 : rows.hasAlpha() ? 6 : 2);// Indexed, or truecolour with or without alpha
+        ihdr.writeByte(0);// Deflate
+        ihdr.writeByte(0);// Adaptive filtering (per-row filter bytes)
+        ihdr.writeByte(0);// Not interlaced
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+        if (palette != null) {
+            byte[] plte = palette.toPLTE();
+            writeChunk(out, "PLTE", plte, plte.length);
+        }
+
+        // Keep a bounded window of stripes in flight and write them out in order
+        int window = Math.max(2, pool.getParallelism() * 2);
+        Deque<Future<Stripe>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        long adler = 1;
+        boolean first = true;
+        try {
+            while (next < stripes || !inFlight.isEmpty()) {
+                while (next < stripes && inFlight.size() < window) {
+                    int y0 = next * stripeRows;
+                    int y1 = Math.min(height, y0 + stripeRows);
+                    boolean last = next == stripes - 1;
+                    inFlight.add(pool.submit(() -> compressStripe(rows, y0, y1, bytesPerPixel, palette, last)));
+                    next++;
+                }
+                Stripe stripe = inFlight.removeFirst().get();
+                adler = combineAdler32(adler, stripe.adler32, stripe.rawLength);
+
+                byte[] data = stripe.deflated;
+                int length = stripe.deflatedLength;
+                if (first) {
+                    data = prepend(zlibHeader(), data, length);
+                    length += 2;
+                    first = false;
+                }
+                if (inFlight.isEmpty() && next == stripes) {
+                    data = appendInt(data, length, (int) adler);
+                    length += 4;
+                }
+                writeChunk(out, "IDAT", data, length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("PNG encoding failed", e.getCause());
+        } finally {
+            for (Future<Stripe> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private record Stripe(byte[] deflated, int deflatedLength, long adler32, long rawLength) {
+    }
+
+    private Stripe compressStripe(RowSource rows, int y0, int y1, int bytesPerPixel, Palette palette, boolean last) {
+        int width = rows.width();
+        int rowBytes = width * bytesPerPixel;
+        int[] argb = new int[width];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[] raw = new byte[(rowBytes + 1) * (y1 - y0)];
+        byte[][] candidates = filter == Filter.ADAPTIVE ? new byte[5][rowBytes] : null;
+
+        if (y0 > 0 && filter != Filter.NONE) {
+            rows.getRow(y0 - 1, argb);
+            toBytes(argb, previous, 0, bytesPerPixel, palette);
+        }
+        int position = 0;
+        for (int y = y0; y < y1; y++) {
+            rows.getRow(y, argb);
+            if (filter == Filter.NONE) {
+                // Nothing to compare against: convert straight into the stripe
+                raw[position] = 0;
+                toBytes(argb, raw, position + 1, bytesPerPixel, palette);
+                position += rowBytes + 1;
+                continue;
+            }
+            toBytes(argb, current, 0, bytesPerPixel, palette);
+            position = filterRow(current, previous, bytesPerPixel, raw, position, candidates);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 checksum = new Adler32();
+        checksum.update(raw, 0, raw.length);
+
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            deflater.setInput(raw);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Stripe(compressed.toByteArray(), compressed.size(), checksum.getValue(), raw.length);
+    }
+
+    private static void toBytes(int[] argb, byte[] bytes, int offset, int bytesPerPixel, Palette palette) {
+        int j = offset;
+        if (palette != null) {
+            int last = ~argb[0];
+            byte index = 0;
+            for (int pixel : argb) {
+                if (pixel != last) {// Runs of one colour are the common case
+                    index = palette.indexOf(pixel);
+                    last = pixel;
+                }
+                bytes[j++] = index;
+            }
+        } else if (bytesPerPixel == 3) {
+            for (int pixel : argb) {
+                bytes[j++] = (byte) (pixel >>> 16);
+                bytes[j++] = (byte) (pixel >>> 8);
+                bytes[j++] = (byte) pixel;
+            }
+        } else {
+            for (int pixel : argb) {
+                bytes[j++] = (byte) (pixel >>> 16);
+                bytes[j++] = (byte) (pixel >>> 8);
+                bytes[j++] = (byte) pixel;
+                bytes[j++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    // Writes the filter type byte and the filtered row into out at position; returns the new position
+    private int filterRow(byte[] row, byte[] up, int bpp, byte[] out, int position, byte[][] candidates) {
+        if (filter != Filter.ADAPTIVE) {
+            out[position] = (byte) filter.ordinal();
+            applyFilter(filter.ordinal(), row, up, bpp, out, position + 1);
+            return position + 1 + row.length;
+        }
+        int best = 0;
+        long bestScore = Long.MAX_VALUE;
+        for (int type = 0; type < 5; type++) {
+            byte[] candidate = candidates[type];
+            applyFilter(type, row, up, bpp, candidate, 0);
+            long score = 0;
+            for (byte value : candidate) {
+                score += Math.abs((int) value);
+            }
+            if (score < bestScore) {
+                bestScore = score;
+                best = type;
+            }
+        }
+        out[position] = (byte) best;
+        System.arraycopy(candidates[best], 0, out, position + 1, row.length);
+        return position + 1 + row.length;
+    }
+
+    private static void applyFilter(int type, byte[] row, byte[] up, int bpp, byte[] out, int offset) {
+        int n = row.length;
+        switch (type) {
+            case 0 -> System.arraycopy(row, 0, out, offset, n);
+            case 1 -> {
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] : 0;
+                    out[offset + i] = (byte) (row[i] - left);
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < n; i++) {
+                    out[offset + i] = (byte) (row[i] - up[i]);
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    out[offset + i] = (byte) (row[i] - ((left + (up[i] & 0xFF)) >>> 1));
+                }
+            }
+            default -> {
+                for (int i = 0; i < n; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = up[i] & 0xFF;
+                    int c = i >= bpp ? up[i - bpp] & 0xFF : 0;
+                    out[offset + i] = (byte) (row[i] - paeth(a, b, c));
+                }
+            }
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    // Colours of an image with at most 256 of them, with a small open-addressing table from
+    // RGB to palette index. Read-only once built, so stripes can share it.
+    private static final class Palette {
+        private static final int MAX_COLOURS = 256;
+        private static final int TABLE_SIZE = 1024;// Power of two, at most a quarter full
+
+        private final int[] keys = new int[TABLE_SIZE];// RGB | 0x1000000, 0 for an empty slot
+        private final byte[] indices = new byte[TABLE_SIZE];
+        private final int[] colours = new int[MAX_COLOURS];
+        private int count = 0;
+
+        // Scans every row once; null when the image has transparency or too many colours
+        static Palette of(RowSource rows) {
+            Palette palette = new Palette();
+            int[] argb = new int[rows.width()];
+            int last = 0;
+            boolean any = false;
+            for (int y = 0; y < rows.height(); y++) {
+                rows.getRow(y, argb);
+                for (int pixel : argb) {
+                    if (any && pixel == last) continue;
+                    if (rows.hasAlpha() && (pixel >>> 24) != 0xFF) return null;
+                    if (!palette.add(pixel & 0xFFFFFF)) return null;
+                    last = pixel;
+                    any = true;
+                }
+            }
+            return palette;
+        }
+
+        private static int slot(int key) {
+            return (key * 0x9E3779B1) >>> 22;// Top 10 bits: TABLE_SIZE slots
+        }
+
+        private boolean add(int rgb) {
+            int key = rgb | 0x1000000;
+            int slot = slot(key);
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) return true;
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            if (count == MAX_COLOURS) return false;
+            keys[slot] = key;
+            indices[slot] = (byte) count;
+            colours[count++] = rgb;
+            return true;
+        }
+
+        byte indexOf(int pixel) {
+            int key = (pixel & 0xFFFFFF) | 0x1000000;
+            int slot = slot(key);
+            while (keys[slot] != key) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            return indices[slot];
+        }
+
+        byte[] toPLTE() {
+            byte[] plte = new byte[count * 3];
+            for (int i = 0; i < count; i++) {
+                plte[i * 3] = (byte) (colours[i] >>> 16);
+                plte[i * 3 + 1] = (byte) (colours[i] >>> 8);
+                plte[i * 3 + 2] = (byte) colours[i];
+            }
+            return plte;
+        }
+    }
+
+    // zlib CMF/FLG bytes; FLEVEL only advertises the level, the check bits keep it a multiple of 31
+    private byte[] zlibHeader() {
+        int flags = level <= 1 ? 0x01 : level <= 5 ? 0x5E : level == 6 ? 0x9C : 0xDA;
+        return new byte[]{0x78, (byte) flags};
+    }
+
+    // Adler-32 of two concatenated blocks, given each block's checksum and the second's length
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static byte[] prepend(byte[] prefix, byte[] data, int length) {
+        byte[] joined = new byte[prefix.length + length];
+        System.arraycopy(prefix, 0, joined, 0, prefix.length);
+        System.arraycopy(data, 0, joined, prefix.length, length);
+        return joined;
+    }
+
+    private static byte[] appendInt(byte[] data, int length, int value) {
+        byte[] joined = new byte[length + 4];
+        System.arraycopy(data, 0, joined, 0, length);
+        joined[length] = (byte) (value >>> 24);
+        joined[length + 1] = (byte) (value >>> 16);
+        joined[length + 2] = (byte) (value >>> 8);
+        joined[length + 3] = (byte) value;
+        return joined;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
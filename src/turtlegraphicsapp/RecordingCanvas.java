@@ -0,0 +1,140 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// Wraps a TurtleCanvas and records every segment drawn through it into a DisplayList:
+// pen-down forward moves, circles (as polygons) and segment batches from fractals and
+// L-systems. Everything else is passed straight through.
+public class RecordingCanvas implements TurtleCanvas {
+    private final TurtleCanvas canvas;
+    private final DisplayList displayList;
+    private boolean recording = true;
+    private boolean penDown = true;
+    private int strokeWidth = 1;
+    private long segmentsDrawn = 0;// Lines, circles and batch segments drawn, recorded or not
+    private String lastMessage = "";
+
+    public RecordingCanvas(TurtleCanvas canvas, DisplayList displayList) {
+        this.canvas = canvas;
+        this.displayList = displayList;
+    }
+
+    public DisplayList getDisplayList() {
+        return displayList;
+    }
+
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public long getSegmentsDrawn() {
+        return segmentsDrawn;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    @Override
+    public void forward(int distance) {
+        if (penDown) segmentsDrawn++;
+        if (!recording || !penDown) {
+            canvas.forward(distance);
+            return;
+        }
+        int fromX = canvas.getxPos();
+        int fromY = canvas.getyPos();
+        canvas.forward(distance);
+        displayList.add(fromX, fromY, canvas.getxPos(), canvas.getyPos(), currentColour(), strokeWidth);
+    }
+
+    @Override
+    public void circle(int radius) {
+        canvas.circle(radius);
+        if (penDown) segmentsDrawn++;
+        if (!recording || !penDown) return;
+
+        // Enough sides that the polygon stays within about half a pixel of the circle
+        int sides = Math.max(16, Math.min(720, (int) Math.ceil(Math.PI / Math.acos(1 - 0.5 / Math.max(radius, 1)))));
+        int colour = currentColour();
+        double centreX = canvas.getxPos();
+        double centreY = canvas.getyPos();
+        float lastX = (float) (centreX + radius);
+        float lastY = (float) centreY;
+        for (int i = 1; i <= sides; i++) {
+            double angle = 2 * Math.PI * i / sides;
+            float x = (float) (centreX + Math.cos(angle) * radius);
+            float y = (float) (centreY + Math.sin(angle) * radius);
+            displayList.add(lastX, lastY, x, y, colour, strokeWidth);
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    @Override
+    public void drawSegments(SegmentBatch batch) {
+        canvas.drawSegments(batch);
+        segmentsDrawn += batch.size();
+        if (!recording) return;
+        for (int i = 0; i < batch.size(); i++) {
+            displayList.add((float) batch.x0[i], (float) batch.y0[i], (float) batch.x1[i], (float) batch.y1[i],
+                    batch.rgb[i], batch.getStrokeWidth());
+        }
+    }
+
+    @Override
+    public void clear() {
+        canvas.clear();
+        if (recording) {
+            displayList.clearVisible();
+        }
+    }
+
+    @Override
+    public void drawOn() {
+        penDown = true;
+        canvas.drawOn();
+    }
+
+    @Override
+    public void drawOff() {
+        penDown = false;
+        canvas.drawOff();
+    }
+
+    @Override
+    public void setStroke(int width) {
+        strokeWidth = width;
+        canvas.setStroke(width);
+    }
+
+    private int currentColour() {
+        return canvas.getPenColour().getRGB() & 0xFFFFFF;
+    }
+
+    @Override public void about() { canvas.about(); }
+    @Override public void displayMessage(String message) { lastMessage = message; canvas.displayMessage(message); }
+    @Override public void left(int degrees) { canvas.left(degrees); }
+    @Override public void right(int degrees) { canvas.right(degrees); }
+    @Override public void reset() { canvas.reset(); }
+    @Override public Color getPenColour() { return canvas.getPenColour(); }
+    @Override public void setPenColour(Color color) { canvas.setPenColour(color); }
+    @Override public int getxPos() { return canvas.getxPos(); }
+    @Override public int getyPos() { return canvas.getyPos(); }
+    @Override public void setxPos(int x) { canvas.setxPos(x); }
+    @Override public void setyPos(int y) { canvas.setyPos(y); }
+    @Override public int getDirection() { return canvas.getDirection(); }
+    @Override public void pointTurtle(int degrees) { canvas.pointTurtle(degrees); }
+    @Override public void dance(int moves) { canvas.dance(moves); }
+    @Override public void cycleColours() { canvas.cycleColours(); }
+    @Override public void setTurtleSpeed(int speed) { canvas.setTurtleSpeed(speed); }
+    @Override public int getWidth() { return canvas.getWidth(); }
+    @Override public int getHeight() { return canvas.getHeight(); }
+    @Override public BufferedImage getBufferedImage() { return canvas.getBufferedImage(); }
+    @Override public void repaint() { canvas.repaint(); }
+}
@@ -0,0 +1,370 @@
+package turtlegraphicsapp;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Finished renders of command files, on disk, so loading a script that has not changed restores
+// the canvas instead of running every command again. Keyed by a SHA-256 of the script's bytes
+// together with everything else the result depends on: canvas size, turtle and pen state,
+// variables and procedures already defined, and whether the optimizer runs. An entry holds the
+// pixels, the turtle and pen at the end, the variables and procedures the script left behind,
+// which commands were rejected (they are left out of the history) and, when the handler records
+// it, the geometry for zoomed views.
+//
+// One file per entry, "<key>.tgr". The least recently used entries are deleted once the files
+// add up to more than the size cap; use is tracked by file modification time, so the order
+// survives restarts. Entries are written by a background thread.
+public class RenderCache {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final String SUFFIX = ".tgr";
+    private static final int MAGIC = 0x54475243;// "TGRC"
+    private static final int VERSION = 1;
+    private static final int HASH_BUFFER = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);// Key -> file size, oldest use first
+    private long usedBytes = 0;
+    private int hits = 0;
+    private int misses = 0;
+    private int evictions = 0;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RenderCacheWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // What a script left behind, see CommandHandler.captureRender
+    public static class Entry {
+        final int width;
+        final int height;
+        final CheckpointStore.TurtleState state;
+        final byte[] pixels;// Deflated ARGB ints, as in CheckpointStore
+        final int[] rejected;// Indices of the commands that were rejected
+        final Map<String, Double> variables;
+        final List<String> procedures;// "to ... end" lines
+        final float[] segments;// x0, y0, x1, y1 per visible segment; null if geometry was not recorded
+        final int[] runStart;// Style runs over segments, as in DisplayList
+        final int[] runColour;
+        final float[] runWidth;
+
+        Entry(int width, int height, CheckpointStore.TurtleState state, byte[] pixels, int[] rejected,
+              Map<String, Double> variables, List<String> procedures,
+              float[] segments, int[] runStart, int[] runColour, float[] runWidth) {
+            this.width = width;
+            this.height = height;
+            this.state = state;
+            this.pixels = pixels;
+            this.rejected = rejected;
+            this.variables = variables;
+            this.procedures = procedures;
+            this.segments = segments;
+            this.runStart = runStart;
+            this.runColour = runColour;
+            this.runWidth = runWidth;
+        }
+    }
+
+    public RenderCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory.toPath());
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                entries.put(file.getName().substring(0, file.getName().length() - SUFFIX.length()), file.length());
+                usedBytes += file.length();
+            }
+        }
+        evict();
+    }
+
+    // The key for running script (its bytes) from where handler is now
+    public static String key(byte[] script, CommandHandler handler, boolean optimize) {
+        MessageDigest digest = sha256();
+        digest.update(script);
+        return key(digest, handler, optimize);
+    }
+
+    // As key(byte[], ...), reading the script a buffer at a time instead of holding all of it
+    public static String key(File script, CommandHandler handler, boolean optimize) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[HASH_BUFFER];
+        try (FileInputStream in = new FileInputStream(script)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return key(digest, handler, optimize);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Adds what the script runs against to digest, which holds the script
+    private static String key(MessageDigest digest, CommandHandler handler, boolean optimize) {
+        CheckpointStore.TurtleState state = handler.getTurtleState();
+        StringBuilder context = new StringBuilder()
+                .append('\n').append(VERSION).append(' ').append(handler.getCanvasWidth()).append('x').append(handler.getCanvasHeight())
+                .append(' ').append(state.x).append(',').append(state.y).append(' ').append(state.direction)
+                .append(' ').append(state.penColor.getRGB()).append(' ').append(state.penWidth)
+                .append(' ').append(state.penDown).append(' ').append(state.firstDrawingCommandDone)
+                .append(' ').append(optimize);
+        for (Map.Entry<String, Double> variable : handler.getBlocks().getVariables().entrySet()) {
+            context.append('\n').append(variable.getKey()).append('=').append(variable.getValue());
+        }
+        for (String procedure : handler.getBlocks().getProcedureSources()) {
+            context.append('\n').append(procedure);
+        }
+        digest.update(context.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // The entry for key, or null. A damaged or vanished file counts as a miss.
+    public Entry get(String key) {
+        synchronized (this) {
+            if (!entries.containsKey(key)) {
+                misses++;
+                return null;
+            }
+        }
+        File file = fileFor(key);
+        try {
+            Entry entry = read(file);
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                entries.get(key);// Marks it most recently used
+                hits++;
+            }
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                remove(key);
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    // Writes the entry in the background
+    public void put(String key, Entry entry) {
+        writer.execute(() -> {
+            File file = fileFor(key);
+            File temporary = new File(directory, key + ".tmp");
+            try {
+                write(entry, temporary);
+                try {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                synchronized (this) {
+                    Long previous = entries.put(key, file.length());
+                    usedBytes += file.length() - (previous == null ? 0 : previous);
+                    evict();
+                }
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                temporary.delete();
+            }
+        });
+    }
+
+    // Waits for entries still being written, e.g. before exiting
+    public void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    // Oldest use first; keeps at least the newest entry even if it alone is over the cap
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && entries.size() > 1 && oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            usedBytes -= entry.getValue();
+            fileFor(entry.getKey()).delete();
+            oldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            usedBytes -= size;
+            fileFor(key).delete();
+        }
+    }
+
+    private static void write(Entry entry, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entry.width);
+            out.writeInt(entry.height);
+            CheckpointStore.TurtleState state = entry.state;
+            out.writeInt(state.x);
+            out.writeInt(state.y);
+            out.writeInt(state.direction);
+            out.writeInt(state.penColor.getRGB());
+            out.writeInt(state.penWidth);
+            out.writeBoolean(state.penDown);
+            out.writeBoolean(state.firstDrawingCommandDone);
+
+            out.writeInt(entry.rejected.length);
+            for (int index : entry.rejected) out.writeInt(index);
+            out.writeInt(entry.variables.size());
+            for (Map.Entry<String, Double> variable : entry.variables.entrySet()) {
+                writeString(out, variable.getKey());
+                out.writeDouble(variable.getValue());
+            }
+            out.writeInt(entry.procedures.size());
+            for (String procedure : entry.procedures) writeString(out, procedure);
+
+            out.writeBoolean(entry.segments != null);
+            if (entry.segments != null) {
+                out.writeInt(entry.runStart.length);
+                for (int i = 0; i < entry.runStart.length; i++) {
+                    out.writeInt(entry.runStart[i]);
+                    out.writeInt(entry.runColour[i]);
+                    out.writeFloat(entry.runWidth[i]);
+                }
+                out.writeInt(entry.segments.length);
+                for (float value : entry.segments) out.writeFloat(value);
+            }
+
+            out.writeInt(entry.pixels.length);
+            out.write(entry.pixels);
+        }
+    }
+
+    private static Entry read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a render cache entry: " + file);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            CheckpointStore.TurtleState state = new CheckpointStore.TurtleState(in.readInt(), in.readInt(), in.readInt(),
+                    new Color(in.readInt(), true), in.readInt(), in.readBoolean(), in.readBoolean());
+
+            int[] rejected = new int[count(in)];
+            for (int i = 0; i < rejected.length; i++) rejected[i] = in.readInt();
+            Map<String, Double> variables = new TreeMap<>();
+            for (int i = count(in); i > 0; i--) {
+                variables.put(readString(in), in.readDouble());
+            }
+            List<String> procedures = new ArrayList<>();
+            for (int i = count(in); i > 0; i--) {
+                procedures.add(readString(in));
+            }
+
+            float[] segments = null;
+            int[] runStart = null;
+            int[] runColour = null;
+            float[] runWidth = null;
+            if (in.readBoolean()) {
+                int runs = count(in);
+                runStart = new int[runs];
+                runColour = new int[runs];
+                runWidth = new float[runs];
+                for (int i = 0; i < runs; i++) {
+                    runStart[i] = in.readInt();
+                    runColour[i] = in.readInt();
+                    runWidth[i] = in.readFloat();
+                }
+                segments = new float[count(in)];
+                for (int i = 0; i < segments.length; i++) segments[i] = in.readFloat();
+            }
+
+            byte[] pixels = new byte[count(in)];
+            in.readFully(pixels);
+            return new Entry(width, height, state, pixels, rejected, variables, procedures,
+                    segments, runStart, runColour, runWidth);
+        }
+    }
+
+    private static int count(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) throw new EOFException("Bad count " + count);
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[count(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,101 @@
+package turtlegraphicsapp;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Renders many scripts at once, one RenderSession per script, on a fixed pool of worker threads
+// (one per core by default). Sessions share nothing, so throughput grows with the number of
+// workers until the cores or memory bandwidth run out. Keeps totals for all sessions so far.
+public class RenderService implements AutoCloseable {
+    private final BatchRenderer renderer;
+    private final ExecutorService workers;
+    private final int threads;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder segments = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicLong peakSessionMemory = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    public RenderService(BatchRenderer renderer, int threads) {
+        this.renderer = renderer;
+        this.threads = threads;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "RenderWorker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Future<BatchRenderer.Result> submit(File script, File output) {
+        return workers.submit(() -> {
+            try {
+                BatchRenderer.Result result = renderer.render(script, output);
+                completed.increment();
+                commands.add(result.commands);
+                segments.add(result.segments);
+                busyNanos.add(result.nanos);
+                peakSessionMemory.accumulateAndGet(result.peakMemory, Math::max);
+                return result;
+            } catch (Exception e) {
+                failed.increment();
+                throw e;
+            }
+        });
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    public long getSegments() {
+        return segments.sum();
+    }
+
+    public long getPeakSessionMemory() {
+        return peakSessionMemory.get();
+    }
+
+    // Commands per second of wall time since the service started, across all workers
+    public double getCommandsPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : commands.sum() * 1e9 / elapsed;
+    }
+
+    // Average number of workers busy running scripts since the service started
+    public double getParallelism() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : busyNanos.sum() / (double) elapsed;
+    }
+
+    // Finishes the work already submitted
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
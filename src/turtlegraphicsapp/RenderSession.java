@@ -0,0 +1,223 @@
+package turtlegraphicsapp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// One independent drawing: its own canvas, turtle, history and display list, with nothing shared
+// with other sessions, so any number of them can run at once on different threads. A session is
+// used by one thread at a time.
+//
+// The session's memory (canvas, recorded geometry, undo history and checkpoints) is checked
+// against its limit every CHECK_INTERVAL commands; going over it fails the session with an
+// IOException rather than risking an OutOfMemoryError that would take down every session.
+public class RenderSession implements Closeable {
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+    private static final int CHECK_INTERVAL = 256;
+    private static final long HISTORY_ENTRY_BYTES = 96;// One CommandState with its TurtleState, roughly
+    private static final long TILE_BYTES = (long) TiledCanvas.TILE * TiledCanvas.TILE * 4;
+
+    private final String name;
+    private final OffscreenCanvas canvas;
+    private final CommandHandler handler;
+    private final long memoryLimit;
+    private int commands = 0;
+    private int invalid = 0;
+    private int removed = 0;
+    private boolean optimize = false;
+    private long nanos = 0;
+    private long peakMemory = 0;
+
+    // recordGeometry keeps every segment for redrawing at another scale; history allows undo
+    public RenderSession(String name, int width, int height, BatchRenderer.Backend backend, long memoryLimit,
+                         boolean recordGeometry, boolean recordHistory) throws IOException {
+        this.name = name;
+        this.memoryLimit = memoryLimit;
+        if (backend == BatchRenderer.Backend.IMAGE && (long) width * height * 4 > memoryLimit) {
+            throw new IOException(name + ": a " + width + "x" + height + " canvas does not fit the session's "
+                    + megabytes(memoryLimit) + " memory limit; try --tiles mapped");
+        }
+        canvas = switch (backend) {
+            case IMAGE -> new OffscreenCanvas(width, height);
+            case TILED -> new TiledCanvas(width, height);
+            case MAPPED -> TiledCanvas.mapped(width, height, residentTiles(memoryLimit));
+        };
+        handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(recordHistory);
+        handler.setRecordGeometry(recordGeometry);
+    }
+
+    // Runs scripts through ScriptOptimizer first
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    public boolean execute(Instruction instruction) throws IOException {
+        boolean valid = handler.execute(instruction);
+        commands++;
+        if (!valid) {
+            invalid++;
+        }
+        if (commands % CHECK_INTERVAL == 0) {
+            checkMemory();
+        }
+        return valid;
+    }
+
+    // Runs a text or binary script, reporting rejected commands on stderr
+    public void runScript(File script) throws IOException {
+        long start = System.nanoTime();
+        try {
+            runCommands(script);
+        } finally {
+            nanos += System.nanoTime() - start;
+        }
+        checkMemory();
+    }
+
+    // Binary scripts stream from the file, so only text goes through the optimizer
+    private void runCommands(File script) throws IOException {
+        if (BinaryScript.isBinary(script)) {
+            BinaryScript.Reader reader = new BinaryScript.Reader(script);
+            int index = 0;
+            while (reader.hasNext()) {
+                index++;
+                if (!execute(reader.next())) {
+                    System.err.println(script.getName() + ": command " + index + ": " + canvas.getLastMessage());
+                }
+            }
+        } else if (optimize) {
+            runOptimized(script);
+        } else {
+            CommandCompiler.LineJoiner joiner = new CommandCompiler.LineJoiner();
+            try (BufferedReader reader = Files.newBufferedReader(script.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String command = joiner.add(line);
+                    if (command != null) {
+                        runLine(script, command, joiner.getStartLine());
+                    }
+                }
+            }
+            String unfinished = joiner.finish();
+            if (unfinished != null) {
+                runLine(script, unfinished, joiner.getStartLine());
+            }
+        }
+    }
+
+    private void runLine(File script, String command, int lineNumber) throws IOException {
+        if (!execute(CommandCompiler.compile(command, handler.getProcedureNames()))) {
+            System.err.println(script.getName() + ":" + lineNumber + ": " + canvas.getLastMessage());
+        }
+    }
+
+    // Reads the whole text script, runs it through ScriptOptimizer and reports errors against the
+    // original lines
+    private void runOptimized(File script) throws IOException {
+        List<Instruction> program = new ArrayList<>();
+        List<Integer> lineNumbers = new ArrayList<>();
+        CommandCompiler.LineJoiner joiner = new CommandCompiler.LineJoiner();
+        try (BufferedReader reader = Files.newBufferedReader(script.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = joiner.add(line);
+                if (command != null) {
+                    program.add(CommandCompiler.compileCalls(command));
+                    lineNumbers.add(joiner.getStartLine());
+                }
+            }
+        }
+        String unfinished = joiner.finish();
+        if (unfinished != null) {
+            program.add(CommandCompiler.compileCalls(unfinished));
+            lineNumbers.add(joiner.getStartLine());
+        }
+        CommandManager.checkCalls(program, handler.getProcedureNames());
+
+        ScriptOptimizer.Result optimized = handler.optimize(program);
+        removed += optimized.removed;
+        for (int i = 0; i < optimized.program.size(); i++) {
+            if (!execute(optimized.program.get(i))) {
+                System.err.println(script.getName() + ":" + lineNumbers.get(optimized.origins[i]) + ": " + canvas.getLastMessage());
+            }
+        }
+    }
+
+    // What the session holds on the heap right now
+    public long memoryBytes() {
+        long canvasBytes = canvas instanceof TiledCanvas tiled ? tiled.residentBytes()
+                : (long) canvas.getWidth() * canvas.getHeight() * 4;
+        return canvasBytes
+                + handler.getDisplayList().memoryBytes()
+                + handler.getCheckpoints().getUsedBytes()
+                + handler.getDrawHistorySize() * HISTORY_ENTRY_BYTES;
+    }
+
+    private void checkMemory() throws IOException {
+        long used = memoryBytes();
+        peakMemory = Math.max(peakMemory, used);
+        if (used > memoryLimit) {
+            throw new IOException(name + ": memory limit exceeded after " + commands + " commands ("
+                    + megabytes(used) + " used, limit " + megabytes(memoryLimit) + ")");
+        }
+    }
+
+    // Tiles a mapped canvas may keep on the heap: at most half the limit
+    static int residentTiles(long memoryLimit) {
+        return (int) Math.max(4, Math.min(TiledCanvas.DEFAULT_MAX_RESIDENT, memoryLimit / 2 / TILE_BYTES));
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public OffscreenCanvas getCanvas() {
+        return canvas;
+    }
+
+    public CommandHandler getHandler() {
+        return handler;
+    }
+
+    public int getCommands() {
+        return commands;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    // Commands the optimizer skipped; they are not counted in getCommands()
+    public int getRemoved() {
+        return removed;
+    }
+
+    // Time spent in runScript, reading and parsing included
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getSegmentsDrawn() {
+        return handler.getSegmentsDrawn();
+    }
+
+    public long getPeakMemory() {
+        return Math.max(peakMemory, memoryBytes());
+    }
+
+    @Override
+    public void close() {
+        canvas.dispose();
+    }
+}
@@ -0,0 +1,353 @@
+package turtlegraphicsapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Peephole pass over a compiled script, run just before the script executes. Machine-generated
+// scripts are full of steps that change nothing; this pass
+//  - merges consecutive turns into one, and drops turns that add up to a whole circle,
+//  - merges consecutive moves along one line: pen-up moves in any direction, pen-down moves
+//    only along the axes, where one long line covers exactly the pixels of the short ones,
+//  - drops colour changes that are overridden before anything is drawn, and colours, pen
+//    widths and pen up/down that are already in effect,
+//  - drops zero-length moves that draw nothing, and turns and pen-up moves made just before a
+//    reset or clear puts the turtle somewhere else.
+//
+// The result leaves the same pixels, turtle pose and pen as the original. To check that, the
+// pass follows the turtle's position, heading and pen from the state given to optimize(), with
+// the same rounding and bounds checks as CommandHandler. Steps it can't follow (dance, fractals,
+// L-systems, blocks ...) make the position or heading unknown, and merges that depend on them
+// stop until a clear makes them known again. Moves blocked at the edge are kept, so their errors still
+// show. Nothing is touched until the script's first drawing command has run, since that one
+// resets the pen.
+//
+// Off with -Dturtlegraphics.optimize=false, e.g. to debug a script line by line.
+public final class ScriptOptimizer {
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("turtlegraphics.optimize"));
+
+    // Set by CommandHandler: these run as drawing commands, and the first one resets the pen
+    private static boolean isDrawingCommand(Opcode opcode) {
+        return switch (opcode) {
+            case LEFT, RIGHT, FORWARD, REVERSE, RESET, PEN_COLOUR, DANCE, CIRCLE, SQUARE, TRIANGLE,
+                 TRIANGLE_SIDES, FRACTAL_TREE, LSYSTEM -> true;
+            default -> false;
+        };
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // The rewritten script; origins[i] is the index in the original of the (first) command that
+    // program[i] came from, e.g. to report errors against the original line
+    public static final class Result {
+        public final List<Instruction> program;
+        public final int[] origins;
+        public final int removed;
+
+        Result(List<Instruction> program, int[] origins, int removed) {
+            this.program = program;
+            this.origins = origins;
+            this.removed = removed;
+        }
+    }
+
+    public static Result optimize(List<Instruction> program, CheckpointStore.TurtleState start, int width, int height) {
+        return new ScriptOptimizer(start, width, height).run(program);
+    }
+
+    private final int width;
+    private final int height;
+    private final List<Instruction> out = new ArrayList<>();// Null where a step was dropped after being emitted
+    private final List<Integer> origins = new ArrayList<>();
+    private final List<Boolean> poseOnly = new ArrayList<>();// Only moves the turtle or lifts the pen
+
+    // What is known about the turtle after the steps emitted so far
+    private boolean positionKnown = true;
+    private int x;
+    private int y;
+    private boolean directionKnown = true;
+    private int direction;
+    private Boolean penDown;// Null when unknown
+    private Integer colour;// RGB, null when unknown
+    private Integer penWidth;
+    private boolean drawingStarted;
+    private int unusedColour = -1;// Index in out of a colour change nothing has drawn with yet
+
+    // Consecutive turns not yet emitted: the total is added to the heading
+    private int turnTotal;
+    private int turnCount;
+    private int turnOrigin;
+    private Instruction turnFirst;
+
+    // Consecutive moves along one line not yet emitted, and where they left the turtle
+    private int moveTotal;// Signed distance, reverse counting negative
+    private int moveCount;
+    private int moveOrigin;
+    private Instruction moveFirst;
+    private int moveStartX;
+    private int moveStartY;
+
+    private ScriptOptimizer(CheckpointStore.TurtleState start, int width, int height) {
+        this.width = width;
+        this.height = height;
+        x = start.x;
+        y = start.y;
+        direction = Math.floorMod(start.direction, 360);
+        penDown = start.penDown;
+        colour = start.penColor.getRGB() & 0xFFFFFF;
+        penWidth = start.penWidth;
+        drawingStarted = start.firstDrawingCommandDone;
+    }
+
+    private Result run(List<Instruction> program) {
+        for (int i = 0; i < program.size(); i++) {
+            Instruction instruction = program.get(i);
+            if (!drawingStarted) {
+                emit(instruction, i, false);
+                follow(instruction);
+                if (isDrawingCommand(instruction.opcode())) {
+                    drawingStarted = true;
+                    colour = null;// The first drawing command sets red after its own colour, if any
+                    penWidth = null;
+                    unusedColour = -1;
+                }
+                continue;
+            }
+            step(instruction, i);
+        }
+        flushTurn();
+        flushMove();
+
+        List<Instruction> optimized = new ArrayList<>(out.size());
+        int[] from = new int[out.size()];
+        for (int i = 0; i < out.size(); i++) {
+            if (out.get(i) != null) {
+                from[optimized.size()] = origins.get(i);
+                optimized.add(out.get(i));
+            }
+        }
+        int[] trimmed = new int[optimized.size()];
+        System.arraycopy(from, 0, trimmed, 0, trimmed.length);
+        return new Result(optimized, trimmed, program.size() - optimized.size());
+    }
+
+    private void step(Instruction instruction, int index) {
+        Opcode opcode = instruction.opcode();
+        switch (opcode) {
+            case LEFT, RIGHT -> {
+                flushMove();
+                if (turnCount == 0) {
+                    turnOrigin = index;
+                    turnFirst = instruction;
+                }
+                turnTotal = Math.floorMod(turnTotal + (opcode == Opcode.LEFT ? instruction.a() : -instruction.a()), 360);
+                turnCount++;
+            }
+            case FORWARD, REVERSE -> move(instruction, index);
+            case PENUP, PENDOWN -> {
+                boolean down = opcode == Opcode.PENDOWN;
+                if (penDown != null && penDown == down) return;// Already so
+                flushMove();
+                emit(instruction, index, true);
+                penDown = down;
+            }
+            case PEN_COLOUR -> {
+                if (colour != null && colour == instruction.a()) return;
+                // Turns and pen-up moves don't use the colour, so they may wait on either side of it
+                if (penDown == null || penDown) flushMove();
+                dropUnusedColour();
+                unusedColour = emit(instruction, index, false);
+                colour = instruction.a();
+            }
+            case PEN_WIDTH -> {
+                if (penWidth != null && penWidth == instruction.a()) return;
+                if (penDown == null || penDown) flushMove();
+                emit(instruction, index, false);
+                penWidth = instruction.a();
+            }
+            case CYCLE_COLOURS -> {
+                flushTurn();
+                flushMove();
+                dropUnusedColour();// Replaced by the next colour in the cycle
+                emit(instruction, index, false);
+                colour = null;
+            }
+            case RESET, CLEAR -> {
+                // The turtle is moved and the pen put down, so recent turns and pen-up moves are wasted
+                turnTotal = 0;
+                turnCount = 0;
+                if (penDown != null && !penDown) moveCount = 0;
+                flushMove();
+                for (int i = out.size() - 1; i >= 0 && (out.get(i) == null || poseOnly.get(i)
+                        || out.get(i).opcode() == Opcode.PEN_COLOUR || out.get(i).opcode() == Opcode.PEN_WIDTH); i--) {
+                    if (out.get(i) != null && poseOnly.get(i)) out.set(i, null);
+                }
+                emit(instruction, index, false);
+                follow(instruction);
+            }
+            default -> {
+                flushTurn();
+                flushMove();
+                emit(instruction, index, false);
+                follow(instruction);
+            }
+        }
+    }
+
+    private void move(Instruction instruction, int index) {
+        flushTurn();
+        int distance = instruction.opcode() == Opcode.REVERSE ? -instruction.a() : instruction.a();
+        if (distance == 0 && penDown != null && !penDown) return;// Moves nowhere and draws nothing
+
+        boolean canFollow = positionKnown && directionKnown && penDown != null;
+        if (canFollow && moveCount > 0) {
+            int total = moveTotal + distance;
+            // Pen down: one line along an axis, and a zero-length move only adds the dot at the
+            // line's end, which a one-pixel line already covers
+            boolean sameWay = !penDown || (long) moveTotal * distance >= 0 && direction % 90 == 0
+                    && (moveTotal != 0 && distance != 0 || penWidth != null && penWidth == 1);
+            int[] step = moveTo(x, y, distance);
+            int[] merged = moveTo(moveStartX, moveStartY, total);
+            if (sameWay && step != null && merged != null && merged[0] == step[0] && merged[1] == step[1]) {
+                moveTotal = total;
+                moveCount++;
+                x = step[0];
+                y = step[1];
+                return;
+            }
+        }
+        flushMove();
+
+        int[] step = canFollow ? moveTo(x, y, distance) : null;
+        if (step == null) {
+            // Blocked at the edge, or we don't know: run it as it is
+            emit(instruction, index, false);
+            follow(instruction);
+            return;
+        }
+        moveStartX = x;
+        moveStartY = y;
+        moveTotal = distance;
+        moveCount = 1;
+        moveOrigin = index;
+        moveFirst = instruction;
+        x = step[0];
+        y = step[1];
+    }
+
+    // Where handleMove leaves the turtle, or null if the move is blocked at the edge
+    private int[] moveTo(int fromX, int fromY, int distance) {
+        double radians = Math.toRadians(direction);
+        int length = Math.abs(distance);
+        int dx = (int) Math.round(Math.cos(radians) * length);
+        int dy = (int) Math.round(Math.sin(radians) * length);
+        int checkX = fromX + (distance < 0 ? -dx : dx);
+        int checkY = fromY + (distance < 0 ? -dy : dy);
+        if (checkX < 0 || checkY < 0 || checkX > width || checkY > height) {
+            return null;
+        }
+        // The canvas itself moves by the signed distance, which can round differently
+        return new int[] {fromX + (int) Math.round(Math.cos(radians) * distance),
+                fromY + (int) Math.round(Math.sin(radians) * distance)};
+    }
+
+    private void flushTurn() {
+        if (turnCount == 0) return;
+        if (turnTotal != 0) {
+            Instruction turn = turnCount == 1 ? turnFirst
+                    : turnTotal <= 180 ? Instruction.decoded(Opcode.LEFT, turnTotal, 0, 0)
+                    : Instruction.decoded(Opcode.RIGHT, 360 - turnTotal, 0, 0);
+            emit(turn, turnOrigin, true);
+        }
+        direction = Math.floorMod(direction + turnTotal, 360);
+        turnTotal = 0;
+        turnCount = 0;
+    }
+
+    private void flushMove() {
+        if (moveCount == 0) return;
+        moveCount = 0;
+        if (moveTotal == 0 && !penDown) return;// Back where it started
+        Instruction move = moveFirst.opcode() == (moveTotal < 0 ? Opcode.REVERSE : Opcode.FORWARD)
+                && Math.abs(moveTotal) == moveFirst.a() ? moveFirst
+                : Instruction.decoded(moveTotal < 0 ? Opcode.REVERSE : Opcode.FORWARD, Math.abs(moveTotal), 0, 0);
+        emit(move, moveOrigin, !penDown);
+        if (penDown) unusedColour = -1;
+    }
+
+    private void dropUnusedColour() {
+        if (unusedColour >= 0) {
+            out.set(unusedColour, null);
+            unusedColour = -1;
+        }
+    }
+
+    private int emit(Instruction instruction, int origin, boolean onlyMovesTurtle) {
+        out.add(instruction);
+        origins.add(origin);
+        poseOnly.add(onlyMovesTurtle);
+        return out.size() - 1;
+    }
+
+    // Updates what is known after a step that was emitted as it is
+    private void follow(Instruction instruction) {
+        switch (instruction.opcode()) {
+            case LEFT -> direction = Math.floorMod(direction + instruction.a(), 360);
+            case RIGHT -> direction = Math.floorMod(direction - instruction.a(), 360);
+            case FORWARD, REVERSE -> {
+                int distance = instruction.opcode() == Opcode.REVERSE ? -instruction.a() : instruction.a();
+                int[] step = positionKnown && directionKnown ? moveTo(x, y, distance) : null;
+                if (step != null) {
+                    x = step[0];
+                    y = step[1];
+                } else if (!directionKnown) {
+                    positionKnown = false;
+                }
+                unusedColour = -1;
+            }
+            case PENUP -> penDown = false;
+            case PENDOWN -> penDown = true;
+            case PEN_COLOUR -> colour = instruction.a();
+            case PEN_WIDTH -> penWidth = instruction.a();
+            case CYCLE_COLOURS -> colour = null;
+            case CLEAR -> {
+                // CommandHandler puts the turtle at the left middle, facing 180
+                positionKnown = true;
+                directionKnown = true;
+                x = 30;
+                y = height / 2;
+                direction = 180;
+                penDown = true;
+                colour = null;
+                penWidth = null;
+                unusedColour = -1;
+            }
+            case RESET -> {
+                positionKnown = false;// Where depends on the canvas
+                directionKnown = false;
+                penDown = true;
+                colour = null;
+                penWidth = null;
+                unusedColour = -1;
+            }
+            case CIRCLE, PLAYBACK, FRAME_RATE, ABOUT, FRACTAL_CANCEL, SAVE_IMAGE, SAVE_COMMANDS, DEFINE, MAKE, INVALID -> {
+                if (instruction.opcode() == Opcode.CIRCLE) unusedColour = -1;
+            }
+            case SQUARE -> {
+                direction = 180;// handleSquare returns to the start, then faces 180
+                directionKnown = true;
+                unusedColour = -1;
+            }
+            default -> {
+                // Dance, triangles, fractals, L-systems, loading: too much to follow
+                positionKnown = false;
+                directionKnown = false;
+                penDown = null;
+                colour = null;
+                penWidth = null;
+                unusedColour = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+
+// A fixed-size buffer of line segments (double-precision endpoints plus an RGB colour each)
+// that a TurtleCanvas draws in one go instead of as individual turtle moves.
+public class SegmentBatch {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    final double[] x0;
+    final double[] y0;
+    final double[] x1;
+    final double[] y1;
+    final int[] rgb;
+    private int size = 0;
+    private int strokeWidth = 1;
+
+    public SegmentBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SegmentBatch(int capacity) {
+        x0 = new double[capacity];
+        y0 = new double[capacity];
+        x1 = new double[capacity];
+        y1 = new double[capacity];
+        rgb = new int[capacity];
+    }
+
+    public void add(double fromX, double fromY, double toX, double toY, int colour) {
+        x0[size] = fromX;
+        y0[size] = fromY;
+        x1[size] = toX;
+        y1[size] = toY;
+        rgb[size] = colour;
+        size++;
+    }
+
+    public boolean isFull() {
+        return size == rgb.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    public void setStrokeWidth(int strokeWidth) {
+        this.strokeWidth = strokeWidth;
+    }
+
+    // Draws every segment, only switching colour when it changes. Leaves g's colour and stroke changed.
+    public void drawTo(Graphics2D g) {
+        g.setStroke(new BasicStroke(strokeWidth));
+        int current = -1;
+        for (int i = 0; i < size; i++) {
+            if (rgb[i] != current) {
+                current = rgb[i];
+                g.setColor(new Color(current));
+            }
+            g.drawLine((int) Math.round(x0[i]), (int) Math.round(y0[i]),
+                    (int) Math.round(x1[i]), (int) Math.round(y1[i]));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package turtlegraphicsapp;
+
+import java.util.Arrays;
+
+// Spatial index over the segments in a DisplayList, so a zoomed view only visits segments that
+// intersect it. Segments are added incrementally by sync(), from the snapshot being painted. It is a loose quadtree: each node
+// owns a square cell but accepts segments reaching up to half a cell beyond it, so short
+// segments crossing a cell boundary still sink to small nodes instead of piling up near the
+// root. The root grows outwards when drawings leave it.
+public class SegmentQuadTree {
+    private static final int MAX_ITEMS = 32;// Per leaf before it splits
+    private static final int MAX_DEPTH = 20;
+    private static final float DETAIL_PIXELS = 2;// Cells smaller than this on screen collapse
+    private static final float DENSE_PIXELS = 8;// Cells up to this size collapse when crowded
+
+    private DisplayList.Snapshot displayList;// Set by sync()
+    private Node root;
+    private int indexed = 0;// Segments [0, indexed) are in the tree
+    private int indexedGeneration = -1;
+
+    public SegmentQuadTree(float initialSize) {
+        this.root = new Node(0, 0, initialSize, 0);
+    }
+
+    // Receives query results
+    public interface Visitor {
+        void segment(int index);
+
+        // A whole subtree too small to resolve on screen, collapsed to its cell (x, y, size)
+        void point(float x, float y, float size, int sampleSegment);
+    }
+
+    private static final class Node {
+        final float minX;
+        final float minY;
+        final float size;
+        final int depth;
+        Node[] children;
+        int[] items = new int[4];
+        int count = 0;
+        int total = 0;// Items in this subtree
+        // The newest segment in this subtree, used for its colour when collapsed. Being the newest,
+        // it is still visible after a clear whenever anything in the subtree is
+        int sample = -1;
+
+        Node(float minX, float minY, float size, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.size = size;
+            this.depth = depth;
+        }
+
+        // Loose bounds: the cell widened by half its size on every side
+        boolean contains(float x0, float y0, float x1, float y1) {
+            float slack = size / 2;
+            return x0 >= minX - slack && y0 >= minY - slack && x1 <= minX + size + slack && y1 <= minY + size + slack;
+        }
+
+        void add(int index) {
+            if (count == items.length) {
+                items = Arrays.copyOf(items, count * 2);
+            }
+            items[count++] = index;
+        }
+    }
+
+    // Indexes any segments added since the last call; rebuilds if the list was truncated (undo).
+    // Queries then read that snapshot until the next sync.
+    public void sync(DisplayList.Snapshot snapshot) {
+        displayList = snapshot;
+        int size = snapshot.size();
+        if (snapshot.getGeneration() != indexedGeneration || size < indexed) {
+            root = new Node(root.minX, root.minY, root.size, 0);
+            indexed = 0;
+            indexedGeneration = snapshot.getGeneration();
+        }
+        for (int i = indexed; i < size; i++) {
+            insert(i);
+        }
+        indexed = size;
+    }
+
+    private void insert(int index) {
+        float x0 = Math.min(displayList.getX0(index), displayList.getX1(index));
+        float y0 = Math.min(displayList.getY0(index), displayList.getY1(index));
+        float x1 = Math.max(displayList.getX0(index), displayList.getX1(index));
+        float y1 = Math.max(displayList.getY0(index), displayList.getY1(index));
+
+        // Grow until the root's own cell holds the segment; its loose margin alone is not
+        // enough, since nothing below the root could take the segment then
+        while ((x0 < root.minX || y0 < root.minY || x1 > root.minX + root.size || y1 > root.minY + root.size)
+                && root.size < 1e9f) {
+            growToward(x0, y0);
+        }
+
+        Node node = root;
+        while (true) {
+            node.total++;
+            node.sample = index;// Indexes only grow
+
+            if (node.children == null) {
+                node.add(index);
+                if (node.count > MAX_ITEMS && node.depth < MAX_DEPTH) {
+                    split(node);
+                }
+                return;
+            }
+            Node child = childContaining(node, x0, y0, x1, y1);
+            if (child == null) {
+                node.add(index);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    // Doubles the root so it extends towards (x, y); the old root becomes one quadrant
+    private void growToward(float x, float y) {
+        Node old = root;
+        float minX = x < old.minX ? old.minX - old.size : old.minX;
+        float minY = y < old.minY ? old.minY - old.size : old.minY;
+        Node grown = new Node(minX, minY, old.size * 2, 0);
+        grown.children = new Node[4];
+        for (int q = 0; q < 4; q++) {
+            float childX = minX + (q & 1) * old.size;
+            float childY = minY + (q >> 1) * old.size;
+            grown.children[q] = (childX == old.minX && childY == old.minY) ? old : new Node(childX, childY, old.size, 1);
+        }
+        grown.total = old.total;
+        grown.sample = old.sample;
+        root = grown;
+    }
+
+    private void split(Node node) {
+        float half = node.size / 2;
+        node.children = new Node[4];
+        for (int q = 0; q < 4; q++) {
+            node.children[q] = new Node(node.minX + (q & 1) * half, node.minY + (q >> 1) * half, half, node.depth + 1);
+        }
+        int[] old = node.items;
+        int oldCount = node.count;
+        node.items = new int[4];
+        node.count = 0;
+        for (int i = 0; i < oldCount; i++) {
+            int index = old[i];
+            float x0 = Math.min(displayList.getX0(index), displayList.getX1(index));
+            float y0 = Math.min(displayList.getY0(index), displayList.getY1(index));
+            float x1 = Math.max(displayList.getX0(index), displayList.getX1(index));
+            float y1 = Math.max(displayList.getY0(index), displayList.getY1(index));
+            Node child = childContaining(node, x0, y0, x1, y1);
+            if (child == null) {
+                node.add(index);
+            } else {
+                child.add(index);
+                child.total++;
+                child.sample = Math.max(child.sample, index);
+            }
+        }
+    }
+
+    // The child whose cell holds the segment's centre, if the segment fits its loose bounds
+    private static Node childContaining(Node node, float x0, float y0, float x1, float y1) {
+        float half = node.size / 2;
+        int q = ((x0 + x1) / 2 >= node.minX + half ? 1 : 0) + ((y0 + y1) / 2 >= node.minY + half ? 2 : 0);
+        Node child = node.children[q];
+        return child.contains(x0, y0, x1, y1) ? child : null;
+    }
+
+    // Visits the visible segments intersecting the canvas-space rectangle, drawn at scale pixels
+    // per canvas unit. A subtree is reported once as a point instead when its cell is under a
+    // couple of pixels across, or is a few pixels across but holds more segments than it
+    // covers pixels, since that detail could not be told apart on screen anyway.
+    public void query(float minX, float minY, float maxX, float maxY, float scale, Visitor visitor) {
+        int visibleFrom = displayList.getVisibleFrom();
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            float slack = node.size / 2;
+            if (node.total == 0 || node.minX - slack > maxX || node.minY - slack > maxY
+                    || node.minX + node.size + slack < minX || node.minY + node.size + slack < minY) {
+                continue;
+            }
+            float pixels = node.size * scale;
+            if (pixels < DETAIL_PIXELS || (pixels <= DENSE_PIXELS && node.total >= pixels * pixels)) {
+                if (node.sample >= visibleFrom) {
+                    visitor.point(node.minX, node.minY, node.size, node.sample);
+                }
+                continue;
+            }
+            for (int i = 0; i < node.count; i++) {
+                int index = node.items[i];
+                if (index < visibleFrom) continue;
+                float x0 = displayList.getX0(index);
+                float y0 = displayList.getY0(index);
+                float x1 = displayList.getX1(index);
+                float y1 = displayList.getY1(index);
+                if (Math.max(x0, x1) >= minX && Math.min(x0, x1) <= maxX
+                        && Math.max(y0, y1) >= minY && Math.min(y0, y1) <= maxY) {
+                    visitor.segment(index);
+                }
+            }
+            if (node.children != null) {
+                if (top + 4 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                for (Node child : node.children) stack[top++] = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package turtlegraphicsapp;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Small previews of recent images and command files for the toolbar dropdowns. get() never
+// blocks: it answers from memory or returns null and has the thumbnail made on a background
+// pool, then calls back on the event thread so the list can repaint.
+//
+// Images are decoded with source subsampling, so a 4000x3000 PNG is read at a fraction of its
+// pixels rather than in full. Scripts are run against a canvas of the main canvas's size whose
+// pixels are only a thumbnail, so drawing costs next to nothing; a script still running after
+// SCRIPT_BUDGET_NANOS is shown as far as it got.
+//
+// Thumbnails are kept twice: the last MAX_IN_MEMORY in memory, and as small PNGs on disk, named
+// by a hash of the file's path, size and modification time (and the canvas size for scripts), so
+// an edited file gets a new one. The disk cache drops the least recently used over its size cap.
+public class ThumbnailCache {
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 48;
+    public static final int MAX_IN_MEMORY = 256;// 12 KB each
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    private static final long SCRIPT_BUDGET_NANOS = 1_000_000_000L;
+    private static final String SUFFIX = ".png";
+
+    private final File directory;// Null keeps thumbnails in memory only
+    private final long maxBytes;
+    private final Supplier<Dimension> canvasSize;// Scripts are drawn as if on the main canvas
+    private final Map<String, Thumbnail> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Thumbnail> eldest) {
+            return size() > MAX_IN_MEMORY;
+        }
+    };
+    private final Set<String> pending = new HashSet<>();// Paths queued or being made
+    private final Map<String, Long> onDisk = new LinkedHashMap<>(16, 0.75f, true);// File name -> size
+    private long usedBytes = 0;
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger made = new AtomicInteger();
+    private final AtomicInteger fromDisk = new AtomicInteger();
+
+    // The thumbnail for one version of a file; image is null if it has none
+    private record Thumbnail(long modified, long length, BufferedImage image) {
+    }
+
+    public ThumbnailCache(File directory, long maxBytes, Supplier<Dimension> canvasSize) {
+        this.maxBytes = maxBytes;
+        this.canvasSize = canvasSize;
+        File usable = directory;
+        if (usable != null) {
+            try {
+                Files.createDirectories(usable.toPath());
+                File[] files = usable.listFiles((dir, name) -> name.endsWith(SUFFIX));
+                if (files != null) {
+                    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                    for (File file : files) {
+                        onDisk.put(file.getName(), file.length());
+                        usedBytes += file.length();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                usable = null;
+            }
+        }
+        this.directory = usable;
+        evict();
+
+        // Newest request first: when the user scrolls, the rows now on screen matter most
+        AtomicInteger threads = new AtomicInteger();
+        int size = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<>() {
+            @Override
+            public boolean offer(Runnable task) {
+                return offerFirst(task);
+            }
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "ThumbnailLoader-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    // The thumbnail of path if it is ready, otherwise null; ready is then run on the event thread
+    // once it is. Call on the event thread.
+    public BufferedImage get(String path, Runnable ready) {
+        File file = new File(path);
+        long modified = file.lastModified();
+        long length = file.length();
+        synchronized (this) {
+            Thumbnail thumbnail = memory.get(path);
+            if (thumbnail != null && thumbnail.modified() == modified && thumbnail.length() == length) {
+                return thumbnail.image();// Null if the file could not be previewed
+            }
+            if (!pending.add(path)) {
+                return null;
+            }
+        }
+        pool.execute(() -> {
+            BufferedImage image = null;
+            try {
+                image = load(file, modified, length);
+            } catch (IOException | RuntimeException e) {
+                // Unreadable or gone: no preview, the name is still shown
+            }
+            BufferedImage result = image;
+            synchronized (this) {
+                pending.remove(path);
+                memory.put(path, new Thumbnail(modified, length, result));
+            }
+            if (result != null) {
+                SwingUtilities.invokeLater(ready);
+            }
+        });
+        return null;
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // Thumbnails made by decoding or running a file, and ones read back from disk
+    public int getMade() {
+        return made.get();
+    }
+
+    public int getFromDisk() {
+        return fromDisk.get();
+    }
+
+    public synchronized int getInMemory() {
+        return memory.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private BufferedImage load(File file, long modified, long length) throws IOException {
+        if (!file.isFile()) return null;
+        boolean script = isScript(file);
+        Dimension canvas = script ? canvasSize.get() : null;
+        String name = directory == null ? null : diskName(file, modified, length, canvas);
+        if (name != null) {
+            BufferedImage stored = readFromDisk(name);
+            if (stored != null) {
+                fromDisk.incrementAndGet();
+                return stored;
+            }
+        }
+
+        BufferedImage image = script ? renderScript(file, canvas) : decodeImage(file);
+        if (image == null) return null;
+        made.incrementAndGet();
+        if (name != null) {
+            writeToDisk(name, image);
+        }
+        return image;
+    }
+
+    static boolean isScript(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".txt") || BinaryScript.isBinary(file);
+    }
+
+    // Reads about every step-th pixel of every step-th row, step chosen so the result is still at
+    // least thumbnail size, then scales that down
+    static BufferedImage decodeImage(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int step = (int) Math.max(1, Math.min((double) width / WIDTH, (double) height / HEIGHT));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return fit(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Runs the script headless, drawing into a thumbnail-sized image; save, load and playback
+    // commands are skipped. The script is read as it runs, so only as much of a huge one as fits
+    // in the time budget is ever read, and it is never held in memory whole.
+    static BufferedImage renderScript(File file, Dimension canvas) throws IOException {
+        ThumbnailCanvas thumbnail = new ThumbnailCanvas(Math.max(1, canvas.width), Math.max(1, canvas.height));
+        CommandHandler handler = new CommandHandler(thumbnail, null, null);
+        handler.setAnnounceCommands(false);
+        handler.setRecordHistory(false);
+        handler.setRecordGeometry(false);
+        long deadline = System.nanoTime() + SCRIPT_BUDGET_NANOS;
+        try {
+            if (BinaryScript.isBinary(file)) {
+                BinaryScript.Reader reader = new BinaryScript.Reader(file);// Mapped, not read onto the heap
+                while (reader.hasNext() && run(handler, reader.next(), deadline)) {
+                    // Until the script or the time runs out
+                }
+            } else {
+                CommandCompiler.LineJoiner joiner = new CommandCompiler.LineJoiner();
+                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                    String line;
+                    boolean more = true;
+                    while (more && (line = reader.readLine()) != null) {
+                        String command = joiner.add(line);
+                        more = System.nanoTime() <= deadline && (command == null
+                                || run(handler, CommandCompiler.compile(command, handler.getProcedureNames()), deadline));
+                    }
+                    String unfinished = more ? joiner.finish() : null;
+                    if (unfinished != null) {
+                        run(handler, CommandCompiler.compile(unfinished, handler.getProcedureNames()), deadline);
+                    }
+                }
+            }
+        } finally {
+            thumbnail.dispose();
+        }
+        return fit(thumbnail.getBufferedImage());
+    }
+
+    // Runs one command; false once the time budget is spent or the thumbnail is no longer wanted
+    private static boolean run(CommandHandler handler, Instruction instruction, long deadline) {
+        Opcode opcode = instruction.opcode();
+        if (!opcode.isFileCommand() && opcode != Opcode.PLAYBACK && opcode != Opcode.FRAME_RATE) {
+            handler.execute(instruction);
+        }
+        return System.nanoTime() <= deadline && !Thread.currentThread().isInterrupted();
+    }
+
+    // Scaled to fit WIDTH x HEIGHT, keeping its shape, centred on black like the canvas
+    static BufferedImage fit(BufferedImage source) {
+        BufferedImage thumbnail = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        double scale = Math.min((double) WIDTH / source.getWidth(), (double) HEIGHT / source.getHeight());
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, (WIDTH - width) / 2, (HEIGHT - height) / 2, width, height, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    private static String diskName(File file, long modified, long length, Dimension canvas) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String identity = file.getAbsolutePath() + '\n' + modified + '\n' + length + '\n' + WIDTH + 'x' + HEIGHT
+                + (canvas == null ? "" : "\n" + canvas.width + 'x' + canvas.height);
+        StringBuilder hex = new StringBuilder(64 + SUFFIX.length());
+        for (byte b : digest.digest(identity.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.append(SUFFIX).toString();
+    }
+
+    private BufferedImage readFromDisk(String name) {
+        synchronized (this) {
+            if (!onDisk.containsKey(name)) return null;
+        }
+        File file = new File(directory, name);
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) {
+                file.setLastModified(System.currentTimeMillis());
+                synchronized (this) {
+                    onDisk.get(name);// Marks it most recently used
+                }
+                return image;
+            }
+        } catch (IOException e) {
+            // Damaged: made again below
+        }
+        synchronized (this) {
+            Long size = onDisk.remove(name);
+            if (size != null) usedBytes -= size;
+        }
+        file.delete();
+        return null;
+    }
+
+    private void writeToDisk(String name, BufferedImage image) {
+        File file = new File(directory, name);
+        try {
+            if (!ImageIO.write(image, "png", file)) return;
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            file.delete();
+            return;
+        }
+        synchronized (this) {
+            Long previous = onDisk.put(name, file.length());
+            usedBytes += file.length() - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    // Oldest use first
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> oldest = onDisk.entrySet().iterator();
+        while (usedBytes > maxBytes && oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            usedBytes -= entry.getValue();
+            new File(directory, entry.getKey()).delete();
+            oldest.remove();
+        }
+    }
+
+    // Keeps the turtle at full canvas size but draws through a scaled Graphics2D into a
+    // thumbnail, so lines cost a few pixels each
+    private static final class ThumbnailCanvas extends OffscreenCanvas {
+        private final BufferedImage image;
+        private final Graphics2D g;
+
+        ThumbnailCanvas(int width, int height) {
+            super(width, height, null);
+            double scale = Math.min((double) WIDTH / width, (double) HEIGHT / height);
+            image = new BufferedImage(Math.max(1, (int) Math.round(width * scale)),
+                    Math.max(1, (int) Math.round(height * scale)), BufferedImage.TYPE_INT_RGB);
+            g = image.createGraphics();
+            g.scale(scale, scale);
+            clear();
+        }
+
+        @Override
+        public void clear() {
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setColor(getPenColour());
+        }
+
+        @Override
+        protected void drawLine(int x0, int y0, int x1, int y1) {
+            g.drawLine(x0, y0, x1, y1);
+        }
+
+        @Override
+        protected void drawOval(int x, int y, int width, int height) {
+            g.drawOval(x, y, width, height);
+        }
+
+        @Override
+        public void setPenColour(Color color) {
+            super.setPenColour(color);
+            if (g != null) g.setColor(color);
+        }
+
+        @Override
+        public void setStroke(int width) {
+            super.setStroke(width);
+            if (g != null) g.setStroke(new BasicStroke(width));
+        }
+
+        @Override
+        public void drawSegments(SegmentBatch batch) {
+            batch.drawTo(g);
+            g.setColor(getPenColour());
+            g.setStroke(new BasicStroke(getStroke()));
+        }
+
+        @Override
+        public BufferedImage getBufferedImage() {
+            return image;
+        }
+
+        @Override
+        public void dispose() {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// An OffscreenCanvas for renders far larger than the heap, e.g. 20000x20000 posters. The canvas
+// is cut into TILE x TILE tiles that are only allocated once something is drawn on them, so
+// blank areas cost nothing, and each primitive is drawn into just the tiles it crosses.
+//
+// With a backing file at most maxResident tiles are kept on the heap: the least recently drawn
+// tile is copied out to its slot in a memory-mapped file and read back when drawn on again, so
+// heap use stays bounded however large the canvas is. Without one, drawn tiles stay on the heap.
+//
+// There is no single BufferedImage: getBufferedImage() returns null, so CommandHandler keeps no
+// undo history for it, and rows() streams the pixels to PngWriter instead.
+public class TiledCanvas extends OffscreenCanvas {
+    public static final int TILE = 512;
+    public static final int DEFAULT_MAX_RESIDENT = 64;// 64 MB of tiles on the heap
+    private static final long TILE_BYTES = (long) TILE * TILE * 4;
+    private static final int SCRATCH_PIXELS = 4 * TILE * TILE;// Largest oval drawn in one piece, see drawOval
+
+    private final int columns;
+    private final int rowsOfTiles;
+    private Tile[] tiles;
+    private final FileChannel backing;// Null when tiles stay on the heap
+    private final Map<Integer, Tile> resident;// Tiles on the heap, least recently drawn first
+    private File deleteOnDispose;
+    private BasicStroke stroke;// Cached for the pen width
+
+    private static final class Tile {
+        final int index;
+        BufferedImage image;// Null while spilled to the backing file
+        int[] pixels;
+        Graphics2D g;
+        IntBuffer spilled;// This tile's slot in the backing file, once it has been written out
+        Color colour;// What g is currently set to
+        BasicStroke stroke;
+
+        Tile(int index) {
+            this.index = index;
+        }
+    }
+
+    public TiledCanvas(int width, int height) {
+        this(width, height, (FileChannel) null, Integer.MAX_VALUE);
+    }
+
+    // Keeps at most maxResident tiles on the heap and spills the rest to backingFile
+    public TiledCanvas(int width, int height, File backingFile, int maxResident) throws IOException {
+        this(width, height, FileChannel.open(backingFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), maxResident);
+    }
+
+    private TiledCanvas(int width, int height, FileChannel backing, int maxResident) {
+        super(width, height, null);
+        this.columns = (width + TILE - 1) / TILE;
+        this.rowsOfTiles = (height + TILE - 1) / TILE;
+        this.tiles = new Tile[columns * rowsOfTiles];
+        this.backing = backing;
+        this.resident = backing == null ? null : new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+                if (size() <= Math.max(1, maxResident)) return false;
+                spill(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    // A canvas spilling to a temporary file that is deleted again by dispose()
+    public static TiledCanvas mapped(int width, int height, int maxResident) throws IOException {
+        File file = File.createTempFile("turtle-tiles", ".bin");
+        file.deleteOnExit();
+        TiledCanvas canvas = new TiledCanvas(width, height, file, maxResident);
+        canvas.deleteOnDispose = file;
+        return canvas;
+    }
+
+    @Override
+    public void clear() {
+        for (Tile tile : tiles) {
+            if (tile != null && tile.g != null) tile.g.dispose();
+        }
+        tiles = new Tile[tiles.length];
+        if (resident != null) resident.clear();
+    }
+
+    @Override
+    protected void drawLine(int x0, int y0, int x1, int y1) {
+        drawLine(x0, y0, x1, y1, getPenColour(), strokeOf(getStroke()));
+    }
+
+    // Java2D subdivides curves differently where the clip cuts them, so an oval drawn tile by tile
+    // would be off by a pixel at tile edges. Ovals crossing several tiles are drawn once into a
+    // transparent scratch image clipped only by the canvas, as on a single image, and copied onto
+    // the tiles. Only ovals too large for the scratch image are drawn tile by tile.
+    @Override
+    protected void drawOval(int x, int y, int width, int height) {
+        BasicStroke stroke = strokeOf(getStroke());
+        int margin = marginOf(stroke);
+        Rectangle area = new Rectangle(x - margin, y - margin, width + 2 * margin + 1, height + 2 * margin + 1)
+                .intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        if (area.isEmpty()) return;
+
+        BufferedImage scratch = null;
+        if (area.x / TILE != (area.x + area.width - 1) / TILE || area.y / TILE != (area.y + area.height - 1) / TILE) {
+            if ((long) area.width * area.height <= SCRATCH_PIXELS) {
+                scratch = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = scratch.createGraphics();
+                g.translate(-area.x, -area.y);
+                g.setColor(getPenColour());
+                g.setStroke(stroke);
+                g.drawOval(x, y, width, height);
+                g.dispose();
+            }
+        }
+
+        double radius = width / 2.0;
+        double centreX = x + radius;
+        double centreY = y + radius;
+        double inner = Math.max(0, radius - margin);
+        for (int row = area.y / TILE; row <= (area.y + area.height - 1) / TILE; row++) {
+            for (int column = area.x / TILE; column <= (area.x + area.width - 1) / TILE; column++) {
+                // Skip tiles wholly inside the ring or wholly outside it
+                double left = column * TILE - centreX;
+                double top = row * TILE - centreY;
+                double nearX = Math.max(left, Math.min(0, left + TILE));
+                double nearY = Math.max(top, Math.min(0, top + TILE));
+                double farX = Math.max(Math.abs(left), Math.abs(left + TILE));
+                double farY = Math.max(Math.abs(top), Math.abs(top + TILE));
+                if (nearX * nearX + nearY * nearY > (radius + margin) * (radius + margin)) continue;
+                if (farX * farX + farY * farY < inner * inner) continue;
+                Graphics2D g = graphicsFor(row * columns + column, getPenColour(), stroke);
+                if (scratch != null) {
+                    g.drawImage(scratch, area.x, area.y, null);
+                } else {
+                    g.drawOval(x, y, width, height);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void drawSegments(SegmentBatch batch) {
+        BasicStroke stroke = strokeOf(batch.getStrokeWidth());
+        int current = -1;
+        Color colour = null;
+        for (int i = 0; i < batch.size(); i++) {
+            if (colour == null || batch.rgb[i] != current) {
+                current = batch.rgb[i];
+                colour = new Color(current);
+            }
+            drawLine((int) Math.round(batch.x0[i]), (int) Math.round(batch.y0[i]),
+                    (int) Math.round(batch.x1[i]), (int) Math.round(batch.y1[i]), colour, stroke);
+        }
+    }
+
+    // Draws the visible part of a display list scaled up, as DisplayList.renderImage would,
+    // e.g. to render a script recorded at screen size as a poster
+    public void draw(DisplayList displayList, double scale) {
+        DisplayList.Snapshot segments = displayList.snapshot();
+        int run = -1;
+        Color colour = null;
+        BasicStroke stroke = null;
+        for (int i = segments.getVisibleFrom(); i < segments.size(); i++) {
+            int segmentRun = segments.runOf(i);
+            if (segmentRun != run) {
+                run = segmentRun;
+                colour = new Color(segments.getColour(i));
+                stroke = new BasicStroke((float) Math.max(1, segments.getWidth(i) * scale));
+            }
+            drawLine((int) Math.round(segments.getX0(i) * scale), (int) Math.round(segments.getY0(i) * scale),
+                    (int) Math.round(segments.getX1(i) * scale), (int) Math.round(segments.getY1(i) * scale),
+                    colour, stroke);
+        }
+    }
+
+    // The canvas row by row, blank tiles as black. Must not be read while commands still draw.
+    public PngWriter.RowSource rows() {
+        return new PngWriter.RowSource() {
+            public int width() { return getWidth(); }
+            public int height() { return getHeight(); }
+            public boolean hasAlpha() { return false; }
+
+            public void getRow(int y, int[] argb) {
+                int offset = (y % TILE) * TILE;
+                for (int column = 0; column < columns; column++) {
+                    int x = column * TILE;
+                    int length = Math.min(TILE, getWidth() - x);
+                    Tile tile = tiles[(y / TILE) * columns + column];
+                    if (tile == null) {
+                        Arrays.fill(argb, x, x + length, 0);
+                    } else if (tile.pixels != null) {
+                        System.arraycopy(tile.pixels, offset, argb, x, length);
+                    } else {
+                        tile.spilled.get(offset, argb, x, length);
+                    }
+                }
+            }
+        };
+    }
+
+    public int getAllocatedTiles() {
+        int count = 0;
+        for (Tile tile : tiles) {
+            if (tile != null) count++;
+        }
+        return count;
+    }
+
+    // Heap held by tile pixels
+    public long residentBytes() {
+        long count = 0;
+        for (Tile tile : tiles) {
+            if (tile != null && tile.pixels != null) count++;
+        }
+        return count * TILE_BYTES;
+    }
+
+    @Override
+    public void dispose() {
+        for (Tile tile : tiles) {
+            if (tile != null && tile.g != null) tile.g.dispose();
+        }
+        if (backing != null) {
+            try {
+                backing.close();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+        if (deleteOnDispose != null) {
+            try {
+                Files.deleteIfExists(deleteOnDispose.toPath());
+            } catch (IOException e) {
+                // Left for deleteOnExit
+            }
+        }
+    }
+
+    private void drawLine(int x0, int y0, int x1, int y1, Color colour, BasicStroke stroke) {
+        int margin = marginOf(stroke);
+        int firstRow = firstTile((long) Math.min(y0, y1) - margin, rowsOfTiles);
+        int lastRow = lastTile((long) Math.max(y0, y1) + margin, rowsOfTiles);
+        int firstColumn = firstTile((long) Math.min(x0, x1) - margin, columns);
+        int lastColumn = lastTile((long) Math.max(x0, x1) + margin, columns);
+        boolean oneTile = firstRow == lastRow && firstColumn == lastColumn;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                // A long diagonal only crosses a few of the tiles in its bounding box
+                if (!oneTile && !new Rectangle(column * TILE - margin, row * TILE - margin, TILE + 2 * margin, TILE + 2 * margin)
+                        .intersectsLine(x0, y0, x1, y1)) continue;
+                graphicsFor(row * columns + column, colour, stroke).drawLine(x0, y0, x1, y1);
+            }
+        }
+    }
+
+    // The tile's Graphics2D in canvas coordinates, allocating or reloading the tile as needed
+    private Graphics2D graphicsFor(int index, Color colour, BasicStroke stroke) {
+        Tile tile = tiles[index];
+        if (tile == null) {
+            tile = new Tile(index);
+            tiles[index] = tile;
+        }
+        if (tile.g == null) {
+            load(tile);
+        }
+        if (resident != null) {
+            resident.put(index, tile);
+        }
+        if (tile.colour != colour) {
+            tile.g.setColor(colour);
+            tile.colour = colour;
+        }
+        if (tile.stroke != stroke) {
+            tile.g.setStroke(stroke);
+            tile.stroke = stroke;
+        }
+        return tile.g;
+    }
+
+    private void load(Tile tile) {
+        tile.image = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_RGB);
+        tile.pixels = ((DataBufferInt) tile.image.getRaster().getDataBuffer()).getData();
+        if (tile.spilled != null) {
+            tile.spilled.get(0, tile.pixels);
+        }
+        tile.g = tile.image.createGraphics();
+        tile.g.translate(-(tile.index % columns) * TILE, -(tile.index / columns) * TILE);
+        tile.colour = null;
+        tile.stroke = null;
+    }
+
+    private void spill(Tile tile) {
+        try {
+            if (tile.spilled == null) {
+                tile.spilled = backing.map(FileChannel.MapMode.READ_WRITE, tile.index * TILE_BYTES, TILE_BYTES).asIntBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map tile " + tile.index, e);
+        }
+        tile.spilled.put(0, tile.pixels);
+        tile.g.dispose();
+        tile.g = null;
+        tile.image = null;
+        tile.pixels = null;
+    }
+
+    private BasicStroke strokeOf(int width) {
+        if (stroke == null || stroke.getLineWidth() != width) {
+            stroke = new BasicStroke(width);
+        }
+        return stroke;
+    }
+
+    private static int marginOf(BasicStroke stroke) {
+        return (int) Math.ceil(stroke.getLineWidth() / 2) + 1;
+    }
+
+    private static int firstTile(long coordinate, int count) {
+        return (int) Math.max(0, Math.min(count, Math.floorDiv(coordinate, TILE)));
+    }
+
+    private static int lastTile(long coordinate, int count) {
+        return (int) Math.min(count - 1, Math.max(-1, Math.floorDiv(coordinate, TILE)));
+    }
+}
@@ -1,8 +1,10 @@
 package turtlegraphicsapp;
 
 import javax.swing.*;
+import javax.swing.plaf.basic.ComboPopup;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.List;
 
@@ -10,6 +12,7 @@ public class ToolbarPanel extends JPanel {
     public JButton saveImageBtn, loadImageBtn, saveCommandsBtn, loadCommandsBtn, helpBtn;
     public JComboBox<String> recentImagesDropdown, recentCommandsDropdown;
     private boolean isUpdatingDropdowns = false;
+    private ThumbnailCache thumbnails;// Null until set, then the lists show previews
 
     public ToolbarPanel(ActionListener actionListener, List<String> recentImages, List<String> recentCommands) {
         setLayout(new FlowLayout(FlowLayout.LEFT));
@@ -46,39 +49,14 @@ public class ToolbarPanel extends JPanel {
         recentImagesDropdown.setToolTipText("Recent Images");
         recentCommandsDropdown.setToolTipText("Recent Command Files");
 
-        recentImagesDropdown.setRenderer(new DefaultListCellRenderer() {
-            @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                          boolean isSelected, boolean cellHasFocus) {
-                String fileName = (value != null) ? new File((String)value).getName() : "";
-                return super.getListCellRendererComponent(
-                        list,
-                        fileName,
-                        index,
-                        isSelected,
-                        cellHasFocus
-                );
-            }
-        });
-
-        recentCommandsDropdown.setRenderer(new DefaultListCellRenderer() {
-            @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                          boolean isSelected, boolean cellHasFocus) {
-                String fileName = (value != null) ? new File((String)value).getName() : "";
-                return super.getListCellRendererComponent(
-                        list,
-                        fileName,
-                        index,
-                        isSelected,
-                        cellHasFocus
-                );
-            }
-        });
+        recentImagesDropdown.setRenderer(new RecentFileRenderer());
+        recentCommandsDropdown.setRenderer(new RecentFileRenderer());
 
         Dimension dropdownSize = new Dimension(150, 25);
         recentImagesDropdown.setPreferredSize(dropdownSize);
         recentCommandsDropdown.setPreferredSize(dropdownSize);
+        fixRowSize(recentImagesDropdown);
+        fixRowSize(recentCommandsDropdown);
 
         recentImagesDropdown.addItemListener(e -> {
             if (e.getStateChange() == ItemEvent.SELECTED) {
@@ -124,6 +102,40 @@ public class ToolbarPanel extends JPanel {
         add(helpBtn);
     }
 
+    // Shows a thumbnail beside each file in the dropdown lists, see ThumbnailCache
+    public void setThumbnails(ThumbnailCache thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    // Every row is as tall as a thumbnail. Fixed sizes also stop the list measuring all of its
+    // rows, which would ask for every thumbnail at once.
+    private static void fixRowSize(JComboBox<String> dropdown) {
+        Object popup = dropdown.getUI().getAccessibleChild(dropdown, 0);
+        if (popup instanceof ComboPopup comboPopup) {
+            comboPopup.getList().setFixedCellHeight(ThumbnailCache.HEIGHT + 4);
+            comboPopup.getList().setFixedCellWidth(dropdown.getPreferredSize().width);
+        }
+    }
+
+    // The file name; in the open list also its thumbnail, or a blank one until that is ready
+    private class RecentFileRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+        private final Icon placeholder = new ImageIcon(new BufferedImage(ThumbnailCache.WIDTH, ThumbnailCache.HEIGHT,
+                BufferedImage.TYPE_INT_ARGB));
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            String fileName = (value != null) ? new File((String)value).getName() : "";
+            super.getListCellRendererComponent(list, fileName, index, isSelected, cellHasFocus);
+            if (index >= 0 && thumbnails != null && value != null && !value.equals("No recent files")) {
+                BufferedImage thumbnail = thumbnails.get((String) value, list::repaint);
+                setIcon(thumbnail != null ? new ImageIcon(thumbnail) : placeholder);
+            }
+            return this;
+        }
+    }
+
     public void updateRecentImages(List<String> recentImages) {
         isUpdatingDropdowns = true;
         recentImagesDropdown.removeAllItems();
@@ -175,8 +187,16 @@ public class ToolbarPanel extends JPanel {
         - triangle <s1>,<s2>,<s3> : Any triangle
         - circle <radius> : Draw a circle
         - dance : Fun animated movement
-        - fractal tree/koch <depth> : Draw tree with branches/ draw snowflake
+        - fractal tree <depth> [animate] : Draw tree with branches (instant unless animate)
+        - fractal cancel : Stop a fractal, L-system or repeat that is still drawing
+        - lsystem <iterations> <angle> <step> <axiom> <rules> : e.g. lsystem 4 90 4 F F=F+F-F-F+F
+        - repeat <count> [ <commands> ] : e.g. repeat 36 [ circle 100 left 10 ]
+        - to <name> :size ... end : Define a procedure, then use it like a command: <name> 50
+        - make <name> <value> : Set a variable, use it as :name, e.g. forward :size * 2 + repcount
+        - playback instant | playback animated [steps] : Run commands at full speed or a few per frame
+        - framerate <fps> : How often the canvas is redrawn (default 60)
         - save : save image/commands
+        - save image [level 0-9] [filter none|sub|up|average|paeth|adaptive] : PNG compression settings
         - load : load image/commands
         
         🎨Color options:
@@ -0,0 +1,41 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// The turtle operations CommandHandler needs. Method names follow LBUGraphics so the
+// on-screen turtle (LBUGraphicsCanvas) and the offscreen one (OffscreenCanvas) are interchangeable.
+public interface TurtleCanvas {
+    void about();
+    void displayMessage(String message);
+
+    void drawOn();
+    void drawOff();
+    void forward(int distance);
+    void left(int degrees);
+    void right(int degrees);
+    void reset();
+    void clear();
+
+    Color getPenColour();
+    void setPenColour(Color color);
+    void setStroke(int width);
+
+    int getxPos();
+    int getyPos();
+    void setxPos(int x);
+    void setyPos(int y);
+    int getDirection();
+    void pointTurtle(int degrees);
+
+    void dance(int moves);
+    void circle(int radius);
+    void cycleColours();
+    void setTurtleSpeed(int speed);
+
+    int getWidth();
+    int getHeight();
+    BufferedImage getBufferedImage();// Null if the canvas keeps its pixels elsewhere (TiledCanvas)
+    void drawSegments(SegmentBatch batch);// Draws many segments at once; the turtle does not move
+    void repaint();
+}
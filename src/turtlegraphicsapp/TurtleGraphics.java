@@ -2,6 +2,7 @@ package turtlegraphicsapp;
 
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -16,22 +17,70 @@ public class TurtleGraphics extends LBUGraphics {
     private final CommandManager commandManager;
     private final ImageManager imageManager;
     private JFrame mainFrame;
-    private JTextArea commandTextArea;
+    private JList<String> historyList;
+    private final Viewport viewport;
+    private final DirtyRegionTracker dirtyRegions = new DirtyRegionTracker();
+    private final FrameScheduler scheduler = new FrameScheduler(FrameScheduler.DEFAULT_FRAME_RATE, this::paintDirtyRegions);
+    private CommandServer commandServer;// Null unless started with --listen
 
     public TurtleGraphics() {
         commandManager = new CommandManager(this);
         imageManager = new ImageManager(this);
-        commandHandler = new CommandHandler(this, commandManager, imageManager);
+        commandHandler = new CommandHandler(new LBUGraphicsCanvas(this, dirtyRegions), commandManager, imageManager);
+        commandHandler.setFrameScheduler(scheduler);
+        commandHandler.setMetrics(new CommandMetrics().register());
+        viewport = new Viewport(this, commandHandler.getDisplayList());
+        viewport.install();
         setupUI();
         drawOn();
+        scheduler.start();
         new Thread(this::listenForConsoleCommands, "ConsoleCommandThread").start();
 
-        toolbar.updateRecentCommands(commandManager.getRecentCommandFiles());
+        scheduler.submit(commandManager::showRecentCommands);
+        commandManager.startJournal(new File(System.getProperty("user.home"), ".turtlegraphics"));
+        commandManager.startRenderCache(new File(System.getProperty("user.home"), ".turtlegraphics/render-cache"),
+                Long.getLong("turtlegraphics.renderCache.mb", RenderCache.DEFAULT_MAX_BYTES >> 20) << 20);
+        toolbar.setThumbnails(new ThumbnailCache(new File(System.getProperty("user.home"), ".turtlegraphics/thumbnails"),
+                ThumbnailCache.DEFAULT_MAX_BYTES, () -> new Dimension(getWidth(), getHeight())));
     }
 
     @Override
     public void paintComponent(Graphics g) {
-        super.paintComponent(g);
+        if (viewport == null || viewport.isIdentity()) {
+            super.paintComponent(g);
+            return;
+        }
+        viewport.paint((Graphics2D) g, getWidth(), getHeight());
+    }
+
+    // LBUGraphics repaints the whole panel after every primitive; those calls are dropped while
+    // a tracked primitive runs, and paintDirtyRegions() paints just what it touched instead
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (dirtyRegions != null && dirtyRegions.isHeldBack()) {
+            return;
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
+    // Runs once per frame on the EDT, painting each dirty region separately rather than the
+    // single bounding box the RepaintManager would merge them into. Regions left when the
+    // frame's time is up are put back for the next frame.
+    private void paintDirtyRegions(long deadlineNanos) {
+        List<Rectangle> regions = dirtyRegions.drain(getWidth(), getHeight());
+        if (regions.isEmpty()) return;
+        if (!viewport.isIdentity()) {
+            repaint();// Regions are in canvas coordinates, which only match the screen at 1:1
+            return;
+        }
+        for (int i = 0; i < regions.size(); i++) {
+            Rectangle region = regions.get(i);
+            if (i > 0 && System.nanoTime() > deadlineNanos) {
+                dirtyRegions.add(region.x, region.y, region.x + region.width - 1, region.y + region.height - 1, 0);
+                continue;
+            }
+            paintImmediately(region);
+        }
     }
 
     @Override
@@ -62,14 +111,20 @@ public class TurtleGraphics extends LBUGraphics {
                     }
 
                     if (option == JOptionPane.YES_OPTION) {
-                        if (unsavedImage) imageManager.saveImage();
-                        if (unsavedCommands) commandManager.saveCommands();
+                        // Ask here on the EDT; the saves run on the executor thread, which owns the
+                        // canvas and history, and the exit is queued behind them
+                        File image = unsavedImage ? imageManager.chooseSaveFile(true) : null;
+                        File commands = unsavedCommands ? commandManager.chooseSaveFile() : null;
+                        if (image != null || commands != null) {
+                            if (image != null) scheduler.submit(() -> imageManager.saveImageTo(image));
+                            if (commands != null) scheduler.submit(() -> commandManager.saveCommandsTo(commands));
+                            scheduler.submit(() -> SwingUtilities.invokeLater(TurtleGraphics.this::exit));
+                            return;
+                        }
                     }
                     // If NO → do nothing and continue to exit
                 }
-
-                mainFrame.dispose();
-                System.exit(0);
+                exit();
             }
         });
 
@@ -95,6 +150,7 @@ public class TurtleGraphics extends LBUGraphics {
 
         setupImageSelectionPanel();
         setupColorSelectionPanel();
+        setupHistoryPanel();
 
         mainFrame.setSize(800, 450);
         mainFrame.setResizable(true);
@@ -224,45 +280,48 @@ public class TurtleGraphics extends LBUGraphics {
     private JButton createUndoButton() {
         JButton undoButton = new JButton("Undo");
         undoButton.addActionListener(e -> {
-            commandTextArea.setText("");
-            if (commandManager != null) {
-                if (!commandManager.getCommandHistory().isEmpty()) {
-                    commandManager.removeLastCommand();
-                    commandHandler.undoLastDrawCommand();
-
-                    updateCommandTextArea(commandManager.getCommandHistory());
-                } else {
-                    displayMessage("No commands to undo.");
+            scheduler.submit(() -> {
+                if (commandManager != null) {
+                    if (!commandManager.getCommandHistory().isEmpty()) {
+                        commandManager.removeLastCommand();
+                        commandHandler.undoLastDrawCommand();
+                    } else {
+                        displayMessage("No commands to undo.");
+                    }
                 }
-            }
+            });
         });
         return undoButton;
     }
     private JButton createClearAllButton() {
         JButton clearAllButton = new JButton("Clear All");
-        clearAllButton.addActionListener(e -> {
+        clearAllButton.addActionListener(e -> scheduler.submit(() -> {
             if (commandManager != null) {
                 commandManager.clearAllCommands();
+                commandHandler.clearDrawHistory();
 
                 clear();
                 reset();
                 drawOn();
-
-                updateCommandTextArea(commandManager.getCommandHistory());
             }
-        });
+        }));
         return clearAllButton;
     }
 
-    private void setupCommandTextArea() {
-        if (commandTextArea != null) return;
+    // A JList over the history model. The prototype value fixes every row's size, so the list
+    // never measures its rows and only renders the ones in view, however long the history gets.
+    private void setupHistoryPanel() {
+        CommandHistoryModel model = commandManager.getHistoryModel();
+        historyList = new JList<>(model);
+        historyList.setPrototypeCellValue("fractal tree 10 animate");
+        historyList.setVisibleRowCount(10);
+        model.setAfterFlush(() -> historyList.ensureIndexIsVisible(model.getSize() - 1));
 
-        commandTextArea = new JTextArea(10, 30);
-        commandTextArea.setEditable(false);
-        commandTextArea.setBorder(BorderFactory.createTitledBorder("Command History"));
+        JScrollPane scrollPane = new JScrollPane(historyList);
+        scrollPane.setBorder(BorderFactory.createTitledBorder("Command History"));
 
         JPanel innerPanel = new JPanel(new BorderLayout());
-        innerPanel.add(commandTextArea, BorderLayout.CENTER);
+        innerPanel.add(scrollPane, BorderLayout.CENTER);
 
         JButton undoButton = createUndoButton();
         JButton clearAllButton = createClearAllButton();
@@ -272,11 +331,7 @@ public class TurtleGraphics extends LBUGraphics {
         buttonPanel.add(clearAllButton);
         innerPanel.add(buttonPanel, BorderLayout.SOUTH);
 
-        JScrollPane scrollPane = new JScrollPane(innerPanel);
-
-        mainFrame.getContentPane().add(scrollPane, BorderLayout.EAST);
-        mainFrame.revalidate();
-        mainFrame.repaint();
+        mainFrame.getContentPane().add(innerPanel, BorderLayout.EAST);
     }
 
 
@@ -301,23 +356,64 @@ public class TurtleGraphics extends LBUGraphics {
         scanner.close();
     }
 
-    public void updateCommandTextArea(List<String> commands) {
-        setupCommandTextArea();
-        StringBuilder builder = new StringBuilder();
-        for (String command : commands) {
-            builder.append(command).append("\n");
+    @Override
+    public void processCommand(String command) {
+        processInstruction(CommandCompiler.compile(command, commandHandler.getProcedureNames()));
+    }
+
+    // Commands run in order on the frame scheduler's executor thread, whichever thread sends them.
+    // "fractal cancel" stops the drawing that is holding up the queue straight away, then queues
+    // like any other command so history and the journal are only touched on the executor.
+    public void processInstruction(Instruction instruction) {
+        if (instruction.opcode() == Opcode.FRACTAL_CANCEL) {
+            commandHandler.cancelRunning();
         }
-        SwingUtilities.invokeLater(() -> commandTextArea.setText(builder.toString()));
+        scheduler.submit(() -> runInstruction(instruction));
     }
 
-    @Override
-    public void processCommand(String command) {
-        boolean success = commandHandler.executeCommand(command, true);
-        if(success){
-            SwingUtilities.invokeLater(() -> updateCommandTextArea(commandManager.getCommandHistory()));
+    private boolean runInstruction(Instruction instruction) {
+        boolean valid = commandHandler.executeInstruction(instruction, true);
+        if (scheduler.getMode() == FrameScheduler.Mode.ANIMATED) {
+            scheduler.step();
+        }
+        return valid;
+    }
+
+    // Lets other processes send commands, see CommandServer. They run exactly like typed ones.
+    public void startCommandServer(String address) {
+        try {
+            commandServer = new CommandServer(CommandServer.parseAddress(address), scheduler,
+                    instruction -> runInstruction(instruction) ? null : commandHandler.getLastMessage(),
+                    commandHandler::cancelRunning, commandHandler.getProcedureNames());
+            displayMessage("Listening for commands on " + commandServer.getAddress());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(System.err);
+            displayMessage("Could not listen on " + address + ": " + e.getMessage());
         }
     }
 
+    // Runs on the EDT once any saves asked for on closing are queued
+    private void exit() {
+        imageManager.awaitPendingSaves(30);
+        commandManager.closeJournal();
+        stopCommandServer();
+        mainFrame.dispose();
+        System.exit(0);
+    }
+
+    private void stopCommandServer() {
+        if (commandServer == null) return;
+        try {
+            commandServer.close();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    public FrameScheduler getScheduler() {
+        return scheduler;
+    }
+
     public JFrame getMainFrame() {
         return mainFrame;
     }
@@ -334,6 +430,13 @@ public class TurtleGraphics extends LBUGraphics {
         return commandManager;
     }
 
+    public CommandHandler getCommandHandler() {
+        return commandHandler;
+    }
+
+    // Saving and loading read and change the canvas, history and recent-file lists, which belong
+    // to the executor thread. The managers show their dialogs here on the EDT and hand only the
+    // file operation to the executor.
     private class ToolbarActionListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             String command = e.getActionCommand();
@@ -350,10 +453,10 @@ public class TurtleGraphics extends LBUGraphics {
                 default -> {
                     if (command.startsWith("load_recent_image:")) {
                         String imagePath = command.split(":", 2)[1];
-                        imageManager.loadImageFromFile(new File(imagePath));
+                        scheduler.submit(() -> imageManager.loadImageFromFile(new File(imagePath)));
                     } else if (command.startsWith("load_recent_commands:")) {
                         String commandPath = command.split(":", 2)[1];
-                        commandManager.loadAndExecuteFile(new File(commandPath));
+                        scheduler.submit(() -> commandManager.loadAndExecuteFile(new File(commandPath)));
                     }
                 }
             }
@@ -0,0 +1,343 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Several named turtles drawing into one canvas at the same time. Each turtle has its own pose,
+// pen and CommandHandler, and runs its command streams on a pool of worker threads, so a swarm of
+// 64 turtles keeps every core busy instead of queueing behind one executor thread.
+//
+// Turtles don't write pixels as they go. Each line or circle is recorded into the TILE x TILE
+// tiles it crosses, under that tile's lock: one of STRIPES locks, handed out to neighbouring
+// tiles in turn, so turtles only wait for each other when they draw into the same small area at
+// the same moment. composite() then draws the changed tiles in parallel. Within a tile the
+// turtles are drawn in the order they were added, each in its own command order, so the picture
+// never depends on thread timing: where two turtles cross, the one added later is on top.
+//
+// Every recorded shape is kept (7 ints per tile it crosses) so a tile can be redrawn in that
+// order at any time. "clear" from a turtle erases only that turtle's drawing. There is no undo.
+public class TurtleSwarm implements AutoCloseable {
+    public static final int TILE = 64;
+    private static final int STRIPES = 64;// Power of two
+    private static final int TILES_PER_TASK = 16;
+    private static final int SCRATCH_PIXELS = 2048 * 2048;// Largest oval drawn in one piece, see drawOval
+    private static final int LINE = 0;
+    private static final int OVAL = 1;
+    private static final int OP_INTS = 7;// Kind, x0, y0, x1 (or width), y1 (or height), rgb, stroke width
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final Tile[] tiles;// Each slot guarded by its stripe
+    private final Object[] stripes = new Object[STRIPES];
+    private final List<Turtle> turtles = new ArrayList<>();// In compositing order, guarded by this
+    private final Map<String, Turtle> byName = new ConcurrentHashMap<>();
+    private volatile int turtleCount = 0;// Size for new tiles; older tiles grow when a new turtle draws on them
+    private final ExecutorService workers;
+    private final BufferedImage image;
+
+    // What each turtle has drawn on one tile, in command order
+    private static final class Tile {
+        int[][] ops;// Per turtle; replaced, never cleared, so a composite can read a copy unlocked
+        int[] sizes;
+        boolean dirty = true;
+
+        Tile(int turtles) {
+            ops = new int[turtles][];
+            sizes = new int[turtles];
+        }
+
+        void add(int turtle, int kind, int a, int b, int c, int d, int rgb, int stroke) {
+            if (turtle >= sizes.length) {
+                ops = Arrays.copyOf(ops, turtle + 1);
+                sizes = Arrays.copyOf(sizes, turtle + 1);
+            }
+            int[] list = ops[turtle];
+            int size = sizes[turtle];
+            if (list == null) {
+                list = ops[turtle] = new int[16 * OP_INTS];
+            } else if (size + OP_INTS > list.length) {
+                list = ops[turtle] = Arrays.copyOf(list, list.length * 2);
+            }
+            list[size] = kind;
+            list[size + 1] = a;
+            list[size + 2] = b;
+            list[size + 3] = c;
+            list[size + 4] = d;
+            list[size + 5] = rgb;
+            list[size + 6] = stroke;
+            sizes[turtle] = size + OP_INTS;
+            dirty = true;
+        }
+    }
+
+    // One turtle: the pose and pen are OffscreenCanvas's, the drawing goes to the swarm's tiles
+    private final class Turtle extends OffscreenCanvas {
+        final int index;
+        final CommandHandler handler;
+
+        Turtle(int index) {
+            super(TurtleSwarm.this.width, TurtleSwarm.this.height, null);
+            this.index = index;
+            handler = new CommandHandler(this, null, null);
+            handler.setAnnounceCommands(false);
+            handler.setRecordHistory(false);// Undo would need this turtle's pixels alone
+            handler.setRecordGeometry(false);
+        }
+
+        @Override
+        protected void drawLine(int x0, int y0, int x1, int y1) {
+            record(index, LINE, x0, y0, x1, y1, getPenColour().getRGB(), getStroke());
+        }
+
+        @Override
+        protected void drawOval(int x, int y, int width, int height) {
+            record(index, OVAL, x, y, width, height, getPenColour().getRGB(), getStroke());
+        }
+
+        @Override
+        public void drawSegments(SegmentBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                record(index, LINE, (int) Math.round(batch.x0[i]), (int) Math.round(batch.y0[i]),
+                        (int) Math.round(batch.x1[i]), (int) Math.round(batch.y1[i]), batch.rgb[i], batch.getStrokeWidth());
+            }
+        }
+
+        @Override
+        public void clear() {
+            erase(index);
+        }
+    }
+
+    public TurtleSwarm(int width, int height, int threads) {
+        this.width = width;
+        this.height = height;
+        this.columns = (width + TILE - 1) / TILE;
+        this.rows = (height + TILE - 1) / TILE;
+        this.tiles = new Tile[columns * rows];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(OffscreenCanvas.BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "SwarmWorker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Adds a turtle at the centre of the canvas; turtles added later are drawn on top
+    public synchronized CommandHandler addTurtle(String name) {
+        if (byName.containsKey(name)) {
+            throw new IllegalArgumentException("There is already a turtle named " + name);
+        }
+        Turtle turtle = new Turtle(turtles.size());
+        turtles.add(turtle);
+        turtleCount = turtles.size();
+        byName.put(name, turtle);
+        return turtle.handler;
+    }
+
+    // The turtle's pose and pen, and the last message it gave
+    public OffscreenCanvas getTurtle(String name) {
+        return turtleNamed(name);
+    }
+
+    public int getTurtleCount() {
+        return turtleCount;
+    }
+
+    // Runs commands as the named turtle on a worker thread and returns how many were rejected,
+    // reporting each on stderr. A turtle runs one stream at a time; different turtles run at once.
+    public Future<Integer> submit(String name, List<Instruction> commands) {
+        Turtle turtle = turtleNamed(name);
+        return workers.submit(() -> {
+            int invalid = 0;
+            synchronized (turtle) {
+                for (int i = 0; i < commands.size(); i++) {
+                    if (!turtle.handler.execute(commands.get(i))) {
+                        invalid++;
+                        System.err.println(name + ": command " + (i + 1) + ": " + turtle.getLastMessage());
+                    }
+                }
+            }
+            return invalid;
+        });
+    }
+
+    // Draws the tiles that changed since the last call, several at once, and returns the canvas.
+    // Turtles may still be drawing; each tile then shows what had been recorded when it was drawn.
+    // Must not be called from a command running on the swarm's workers.
+    public BufferedImage composite() throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int first = 0; first < tiles.length; first += TILES_PER_TASK) {
+            int from = first;
+            int to = Math.min(tiles.length, first + TILES_PER_TASK);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    drawTile(i);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> task : workers.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not composite the swarm", e.getCause());
+            }
+        }
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private Turtle turtleNamed(String name) {
+        Turtle turtle = byName.get(name);
+        if (turtle == null) {
+            throw new IllegalArgumentException("No turtle named " + name);
+        }
+        return turtle;
+    }
+
+    // Adds a shape to every tile it may touch, locking one tile at a time
+    private void record(int turtle, int kind, int a, int b, int c, int d, int rgb, int stroke) {
+        int margin = stroke / 2 + 2;
+        long left = kind == LINE ? Math.min(a, c) : a;
+        long top = kind == LINE ? Math.min(b, d) : b;
+        long right = kind == LINE ? Math.max(a, c) : (long) a + c;
+        long bottom = kind == LINE ? Math.max(b, d) : (long) b + d;
+        int firstColumn = firstTile(left - margin, columns);
+        int lastColumn = lastTile(right + margin, columns);
+        int firstRow = firstTile(top - margin, rows);
+        int lastRow = lastTile(bottom + margin, rows);
+        boolean oneTile = firstColumn == lastColumn && firstRow == lastRow;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                // A long diagonal only crosses a few of the tiles in its bounding box
+                if (kind == LINE && !oneTile && !new Rectangle(column * TILE - margin, row * TILE - margin,
+                        TILE + 2 * margin, TILE + 2 * margin).intersectsLine(a, b, c, d)) continue;
+                int index = row * columns + column;
+                synchronized (stripes[index & (STRIPES - 1)]) {
+                    Tile tile = tiles[index];
+                    if (tile == null) {
+                        tile = tiles[index] = new Tile(turtleCount);
+                    }
+                    tile.add(turtle, kind, a, b, c, d, rgb & 0xFFFFFF, stroke);
+                }
+            }
+        }
+    }
+
+    private void erase(int turtle) {
+        for (int index = 0; index < tiles.length; index++) {
+            synchronized (stripes[index & (STRIPES - 1)]) {
+                Tile tile = tiles[index];
+                if (tile != null && turtle < tile.sizes.length && tile.sizes[turtle] > 0) {
+                    tile.ops[turtle] = null;
+                    tile.sizes[turtle] = 0;
+                    tile.dirty = true;
+                }
+            }
+        }
+    }
+
+    // Redraws one tile from scratch, turtle by turtle, clipped to the tile. Tiles don't overlap,
+    // so several threads can draw into the one image at once.
+    private void drawTile(int index) {
+        int[][] ops;
+        int[] sizes;
+        synchronized (stripes[index & (STRIPES - 1)]) {
+            Tile tile = tiles[index];
+            if (tile == null || !tile.dirty) return;
+            tile.dirty = false;
+            ops = tile.ops.clone();
+            sizes = tile.sizes.clone();
+        }
+
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setClip((index % columns) * TILE, (index / columns) * TILE, TILE, TILE);
+            g.setColor(OffscreenCanvas.BACKGROUND);
+            g.fillRect((index % columns) * TILE, (index / columns) * TILE, TILE, TILE);
+            int colour = -1;
+            int stroke = -1;
+            for (int turtle = 0; turtle < ops.length; turtle++) {
+                int[] list = ops[turtle];
+                for (int i = 0; i < sizes[turtle]; i += OP_INTS) {
+                    if (list[i + 5] != colour) {
+                        colour = list[i + 5];
+                        g.setColor(new Color(colour));
+                    }
+                    if (list[i + 6] != stroke) {
+                        stroke = list[i + 6];
+                        g.setStroke(new BasicStroke(stroke));
+                    }
+                    if (list[i] == LINE) {
+                        g.drawLine(list[i + 1], list[i + 2], list[i + 3], list[i + 4]);
+                    } else {
+                        drawOval(g, list[i + 1], list[i + 2], list[i + 3], list[i + 4], colour, stroke);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Java2D subdivides curves differently where the clip cuts them, so an oval crossing tiles is
+    // drawn whole into a scratch image, as on a single canvas, and the tile's part copied from it
+    private void drawOval(Graphics2D g, int x, int y, int width, int height, int colour, int stroke) {
+        int margin = stroke / 2 + 2;
+        Rectangle area = new Rectangle(x - margin, y - margin, width + 2 * margin + 1, height + 2 * margin + 1)
+                .intersection(new Rectangle(0, 0, this.width, this.height));
+        if (area.isEmpty() || g.getClipBounds().contains(area) || (long) area.width * area.height > SCRATCH_PIXELS) {
+            g.drawOval(x, y, width, height);
+            return;
+        }
+        BufferedImage scratch = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D scratchGraphics = scratch.createGraphics();
+        scratchGraphics.translate(-area.x, -area.y);
+        scratchGraphics.setColor(new Color(colour));
+        scratchGraphics.setStroke(new BasicStroke(stroke));
+        scratchGraphics.drawOval(x, y, width, height);
+        scratchGraphics.dispose();
+        g.drawImage(scratch, area.x, area.y, null);
+    }
+
+    private static int firstTile(long coordinate, int count) {
+        return (int) Math.max(0, Math.min(count, Math.floorDiv(coordinate, TILE)));
+    }
+
+    private static int lastTile(long coordinate, int count) {
+        return (int) Math.min(count - 1, Math.max(-1, Math.floorDiv(coordinate, TILE)));
+    }
+}
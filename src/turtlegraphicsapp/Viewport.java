@@ -0,0 +1,203 @@
+package turtlegraphicsapp;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Zoom and pan for the main canvas. While the view is not at 1:1 the panel draws the display
+// list instead of the turtle's bitmap: a quadtree query picks out only the segments that cross
+// the visible area, and any part of the tree too small or too dense to resolve on screen is
+// filled as one block, so the cost of a frame follows what is on screen rather than the size of the drawing.
+//
+// Mouse wheel zooms about the cursor, dragging pans, double-click returns to 1:1.
+// Only recorded segments are shown when zoomed; loaded images and "dance" stay bitmap-only.
+public class Viewport extends MouseAdapter {
+    private static final double MIN_ZOOM = 0.05;
+    private static final double MAX_ZOOM = 500;
+    private static final double ZOOM_STEP = 1.25;// Per wheel notch
+
+    private final Component view;
+    private final DisplayList displayList;
+    private final SegmentQuadTree index;
+
+    private double zoom = 1;
+    private double offsetX = 0;// Screen = canvas * zoom + offset
+    private double offsetY = 0;
+    private int dragX;
+    private int dragY;
+
+    // Reused between frames
+    private int[] visible = new int[1024];
+    private int visibleCount = 0;
+    private float[] points = new float[1024];// x, y, size, colour bits per collapsed node
+    private int pointCount = 0;
+
+    // Last rendered frame, scrolled rather than redrawn while panning at a fixed zoom
+    private BufferedImage frame;
+    private double frameZoom;
+    private double frameOffsetX;
+    private double frameOffsetY;
+    private int frameSize = -1;
+    private int frameVisibleFrom = -1;
+    private int frameGeneration = -1;
+
+    public Viewport(Component view, DisplayList displayList) {
+        this.view = view;
+        this.displayList = displayList;
+        this.index = new SegmentQuadTree(Math.max(view.getWidth(), 1024));
+    }
+
+    public void install() {
+        view.addMouseListener(this);
+        view.addMouseMotionListener(this);
+        view.addMouseWheelListener(this);
+    }
+
+    // True while the view is at 1:1 with no pan, when the normal bitmap can be shown instead
+    public boolean isIdentity() {
+        return zoom == 1 && offsetX == 0 && offsetY == 0;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public void resetView() {
+        zoom = 1;
+        offsetX = 0;
+        offsetY = 0;
+        view.repaint();
+    }
+
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        double factor = Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation());
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        // Keep the canvas point under the cursor where it is
+        offsetX = e.getX() - (e.getX() - offsetX) * newZoom / zoom;
+        offsetY = e.getY() - (e.getY() - offsetY) * newZoom / zoom;
+        zoom = newZoom;
+        if (Math.abs(zoom - 1) < 1e-9 && Math.abs(offsetX) < 0.5 && Math.abs(offsetY) < 0.5) {
+            resetView();
+            return;
+        }
+        view.repaint();
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        dragX = e.getX();
+        dragY = e.getY();
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        offsetX += e.getX() - dragX;
+        offsetY += e.getY() - dragY;
+        dragX = e.getX();
+        dragY = e.getY();
+        view.repaint();
+    }
+
+    @Override
+    public void mouseClicked(MouseEvent e) {
+        if (e.getClickCount() == 2) {
+            resetView();
+        }
+    }
+
+    // Runs on the EDT while commands may still be drawing, so it works from one snapshot throughout
+    public void paint(Graphics2D g, int width, int height) {
+        DisplayList.Snapshot segments = displayList.snapshot();
+        index.sync(segments);
+        boolean reusable = frame != null && frame.getWidth() == width && frame.getHeight() == height
+                && frameZoom == zoom && frameSize == segments.size() && frameVisibleFrom == segments.getVisibleFrom()
+                && frameGeneration == segments.getGeneration()
+                && offsetX - frameOffsetX == Math.rint(offsetX - frameOffsetX)
+                && offsetY - frameOffsetY == Math.rint(offsetY - frameOffsetY);
+
+        if (!reusable) {
+            if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+                frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            Graphics2D fg = frame.createGraphics();
+            try {
+                renderArea(fg, segments, 0, 0, width, height);
+            } finally {
+                fg.dispose();
+            }
+        } else {
+            // Panning at the same zoom: scroll the last frame and draw only the strips it uncovers
+            int dx = (int) (offsetX - frameOffsetX);
+            int dy = (int) (offsetY - frameOffsetY);
+            if (dx != 0 || dy != 0) {
+                Graphics2D fg = frame.createGraphics();
+                try {
+                    fg.copyArea(0, 0, width, height, dx, dy);
+                    if (dx > 0) renderArea(fg, segments, 0, 0, Math.min(dx, width), height);
+                    if (dx < 0) renderArea(fg, segments, Math.max(width + dx, 0), 0, Math.min(-dx, width), height);
+                    if (dy > 0) renderArea(fg, segments, 0, 0, width, Math.min(dy, height));
+                    if (dy < 0) renderArea(fg, segments, 0, Math.max(height + dy, 0), width, Math.min(-dy, height));
+                } finally {
+                    fg.dispose();
+                }
+            }
+        }
+        frameZoom = zoom;
+        frameOffsetX = offsetX;
+        frameOffsetY = offsetY;
+        frameSize = segments.size();
+        frameVisibleFrom = segments.getVisibleFrom();
+        frameGeneration = segments.getGeneration();
+        g.drawImage(frame, 0, 0, null);
+    }
+
+    // Draws the screen rectangle (x, y, width, height) of the current view from the display list
+    private void renderArea(Graphics2D g, DisplayList.Snapshot segments, int x, int y, int width, int height) {
+        g.setClip(x, y, width, height);
+        g.setColor(Color.BLACK);
+        g.fillRect(x, y, width, height);
+        visibleCount = 0;
+        pointCount = 0;
+
+        // Area in canvas units, widened so thick strokes just outside it still show
+        float margin = 25;
+        float minX = (float) ((x - offsetX) / zoom) - margin;
+        float minY = (float) ((y - offsetY) / zoom) - margin;
+        float maxX = (float) ((x + width - offsetX) / zoom) + margin;
+        float maxY = (float) ((y + height - offsetY) / zoom) + margin;
+
+        index.query(minX, minY, maxX, maxY, (float) zoom, new SegmentQuadTree.Visitor() {
+            @Override
+            public void segment(int i) {
+                if (visibleCount == visible.length) {
+                    visible = Arrays.copyOf(visible, visibleCount * 2);
+                }
+                visible[visibleCount++] = i;
+            }
+
+            @Override
+            public void point(float x, float y, float size, int sampleSegment) {
+                if (pointCount * 4 + 4 > points.length) {
+                    points = Arrays.copyOf(points, points.length * 2);
+                }
+                points[pointCount * 4] = x;
+                points[pointCount * 4 + 1] = y;
+                points[pointCount * 4 + 2] = size;
+                points[pointCount * 4 + 3] = Float.intBitsToFloat(segments.getColour(sampleSegment));
+                pointCount++;
+            }
+        });
+
+        for (int i = 0; i < pointCount; i++) {
+            int size = (int) Math.max(1, Math.ceil(points[i * 4 + 2] * zoom));
+            g.setColor(new Color(Float.floatToRawIntBits(points[i * 4 + 3])));
+            g.fillRect((int) Math.floor(points[i * 4] * zoom + offsetX), (int) Math.floor(points[i * 4 + 1] * zoom + offsetY), size, size);
+        }
+
+        // Draw in the original order so overlapping colours come out as they were drawn
+        Arrays.sort(visible, 0, visibleCount);
+        segments.render(g, zoom, offsetX, offsetY, visible, visibleCount);
+    }
+}
@@ -0,0 +1,122 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryScriptTest {
+    private static final String[] SCRIPT = {
+            "forward 50", "reverse 400", "left 90", "right 360", "penwidth 3", "pen 0 0 0",
+            "pen 255 0 255", "circle 1", "triangle -30", "triangle 30 -40 -2000000000", "penup", "pendown",
+            "clear", "save image", "save image level 9 filter up", "save commands", "load image",
+            "load commands",
+            "lsystem 3 90 2 F F=F+F-F-F+F",
+            "make size 25",
+            "repeat 3 [ forward :size right 120 ]",
+            "to box :n repeat 4 [ forward :n right 90 ] end",
+            "box 20",
+    };
+
+    @TempDir
+    Path directory;
+
+    // Operands are zigzag varints, so negative ones take as few bytes as small positive ones
+    @Test
+    void readerGivesBackWhatWasWritten() throws IOException {
+        List<Instruction> program = compile(SCRIPT);
+        program.add(Instruction.decoded(Opcode.TRIANGLE_SIDES, Integer.MIN_VALUE, Integer.MAX_VALUE, -1));
+        File file = write(program);
+
+        BinaryScript.Reader reader = new BinaryScript.Reader(file);
+        assertEquals(program.size(), reader.count());
+        for (Instruction expected : program) {
+            assertTrue(reader.hasNext());
+            Instruction actual = reader.next();
+            assertEquals(expected.opcode(), actual.opcode(), expected.source());
+            assertEquals(expected.a(), actual.a(), expected.source());
+            assertEquals(expected.b(), actual.b(), expected.source());
+            assertEquals(expected.c(), actual.c(), expected.source());
+            // Decoded instructions get their text back, and compile to the same thing from it
+            assertEquals(expected.opcode(), CommandCompiler.compileCalls(actual.source()).opcode(), actual.source());
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    // Blocks, procedures, variables and L-systems keep their text, which compiles back to the
+    // same structure; checked by running both
+    @Test
+    void textCarryingCommandsRunAsWritten() throws IOException {
+        List<Instruction> program = compile("make size 25", "repeat 5 [ forward :size right 72 ]",
+                "to star :n repeat 5 [ forward :n right 144 ] end", "star 80", "right 30", "star 40",
+                "lsystem 3 60 4 F F=F+F--F+F");
+        File file = write(program);
+        BinaryScript.Reader reader = new BinaryScript.Reader(file);
+        List<Instruction> decoded = new ArrayList<>();
+        while (reader.hasNext()) {
+            decoded.add(reader.next());
+        }
+        for (int i = 0; i < program.size(); i++) {
+            assertEquals(program.get(i).source(), decoded.get(i).source());
+        }
+        assertArrayEquals(run(program), run(decoded));
+    }
+
+    @Test
+    void damagedFileIsRejected() throws IOException {
+        File file = write(compile(SCRIPT));
+        try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+            long position = damaged.length() - 10;
+            damaged.seek(position);
+            int b = damaged.read();
+            damaged.seek(position);
+            damaged.write(b ^ 0x04);
+        }
+        IOException e = assertThrows(IOException.class, () -> new BinaryScript.Reader(file));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+    }
+
+    private static List<Instruction> compile(String... lines) {
+        Set<String> procedures = new HashSet<>();
+        List<Instruction> program = new ArrayList<>();
+        for (String line : lines) {
+            Instruction instruction = CommandCompiler.compile(line, procedures);
+            assertNotEquals(Opcode.INVALID, instruction.opcode(), line);
+            program.add(instruction);
+        }
+        return program;
+    }
+
+    private File write(List<Instruction> program) throws IOException {
+        File file = directory.resolve("script" + BinaryScript.EXTENSION).toFile();
+        try (BinaryScript.Writer out = new BinaryScript.Writer(file)) {
+            for (Instruction instruction : program) {
+                out.write(instruction);
+            }
+        }
+        return file;
+    }
+
+    private static int[] run(List<Instruction> program) {
+        OffscreenCanvas canvas = CanvasFixture.canvas();
+        CommandHandler handler = CanvasFixture.handler(canvas);
+        for (Instruction instruction : program) {
+            assertTrue(handler.execute(instruction), instruction.source());
+        }
+        return CanvasFixture.render(canvas);
+    }
+}
@@ -0,0 +1,40 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockInterpreterTest {
+    // The same drawing written out one command per line, and as a procedure called in a repeat
+    @Test
+    void procedureInARepeatDrawsWhatTheFlatScriptDraws() {
+        int crosses = 500;
+        List<String> flat = new ArrayList<>(List.of("reset", "pen 0 0 255"));
+        for (int i = 1; i <= crosses; i++) {
+            int size = 10 + i % 100;
+            for (int side = 0; side < 4; side++) {
+                flat.add("forward " + size);
+                flat.add("reverse " + size);
+                flat.add("right 90");
+            }
+            flat.add("right 7");
+        }
+        List<String> compact = List.of("reset", "pen 0 0 255",
+                "to cross :size repeat 4 [ forward :size reverse :size right 90 ] end",
+                "repeat " + crosses + " [ cross 10 + repcount % 100 right 7 ]");
+        assertArrayEquals(render(flat), render(compact));
+    }
+
+    private static int[] render(List<String> script) {
+        OffscreenCanvas canvas = CanvasFixture.canvas();
+        CommandHandler handler = CanvasFixture.handler(canvas);
+        for (String line : script) {
+            assertTrue(handler.handleCommand(line), line + ": " + handler.getLastMessage());
+        }
+        return CanvasFixture.render(canvas);
+    }
+}
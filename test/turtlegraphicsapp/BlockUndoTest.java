@@ -0,0 +1,39 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockUndoTest {
+    @Test
+    void blockThatFailsPartWayLeavesNothingBehind() {
+        OffscreenCanvas canvas = CanvasFixture.canvas();
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        assertTrue(handler.execute(CommandCompiler.compile("forward 50")));
+        int[] before = CanvasFixture.render(canvas);
+        int segments = handler.getDisplayList().size();
+
+        // Draws one side, then stops on the missing variable
+        assertFalse(handler.execute(CommandCompiler.compile("repeat 3 [ make n 5 forward 40 right 90 forward :missing ]")));
+        assertTrue(canvas.getLastMessage().startsWith(":missing has no value"), canvas.getLastMessage());
+        assertArrayEquals(before, CanvasFixture.render(canvas));
+        assertEquals(segments, handler.getDisplayList().size());
+        assertFalse(handler.execute(CommandCompiler.compile("forward :n")), "Variable set by the failed block kept");
+    }
+
+    @Test
+    void undoAfterAFailedBlockUndoesTheCommandBeforeIt() {
+        OffscreenCanvas canvas = CanvasFixture.canvas();
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        assertTrue(handler.execute(CommandCompiler.compile("circle 40")));
+        int[] afterCircle = CanvasFixture.render(canvas);
+        assertTrue(handler.execute(CommandCompiler.compile("forward 60")));
+        assertFalse(handler.execute(CommandCompiler.compile("repeat 4 [ right 45 forward 30 forward :missing ]")));
+
+        handler.undoLastDrawCommand();
+        assertArrayEquals(afterCircle, CanvasFixture.render(canvas));
+    }
+}
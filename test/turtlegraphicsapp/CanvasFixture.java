@@ -0,0 +1,35 @@
+package turtlegraphicsapp;
+
+import java.util.Arrays;
+
+// An offscreen canvas the size of the app's, and what it looks like after a test has drawn on it
+final class CanvasFixture {
+    static final int WIDTH = 800;
+    static final int HEIGHT = 400;
+
+    private CanvasFixture() {
+    }
+
+    static OffscreenCanvas canvas() {
+        return new OffscreenCanvas(WIDTH, HEIGHT);
+    }
+
+    static CommandHandler handler(OffscreenCanvas canvas) {
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        handler.setAnnounceCommands(false);
+        return handler;
+    }
+
+    // Pixels, then the turtle's position, heading, pen colour, width and whether it is down
+    static int[] render(OffscreenCanvas canvas) {
+        int[] pixels = canvas.getBufferedImage().getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        int[] result = Arrays.copyOf(pixels, pixels.length + 6);
+        result[pixels.length] = canvas.getxPos();
+        result[pixels.length + 1] = canvas.getyPos();
+        result[pixels.length + 2] = canvas.getDirection();
+        result[pixels.length + 3] = canvas.getPenColour().getRGB();
+        result[pixels.length + 4] = canvas.getStroke();
+        result[pixels.length + 5] = canvas.isPenDown() ? 1 : 0;
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointStoreTest {
+    // Snapshots of the whole canvas taken every few cheap commands once cut throughput from
+    // millions of commands a second to thousands. However long the commands take on this
+    // machine, there is at most one snapshot per interval of run time, and they stay within the
+    // memory budget; UndoBenchmarks measures the throughput itself.
+    @Test
+    void cheapCommandsWithHistoryTakeFewSnapshots() {
+        Instruction[] program = {
+                CommandCompiler.compile("forward 1"),
+                CommandCompiler.compile("reverse 1"),
+                CommandCompiler.compile("right 1"),
+        };
+        CommandHandler handler = CanvasFixture.handler(CanvasFixture.canvas());
+        int commands = 600_000;
+        long start = System.nanoTime();
+        run(handler, program, commands);
+        long elapsed = System.nanoTime() - start;
+
+        CheckpointStore checkpoints = handler.getCheckpoints();
+        assertTrue(checkpoints.getCheckpointCount() <= elapsed / CheckpointStore.DEFAULT_INTERVAL_NANOS,
+                checkpoints.getCheckpointCount() + " checkpoints in " + elapsed / 1_000_000 + " ms of cheap commands");
+        assertTrue(checkpoints.getUsedBytes() <= CheckpointStore.DEFAULT_MEMORY_BUDGET,
+                checkpoints.getUsedBytes() + " bytes of checkpoints");
+    }
+
+    @Test
+    void undoAfterCheckpointsMatchesRunningOneCommandLess() {
+        OffscreenCanvas canvas = CanvasFixture.canvas();
+        CommandHandler handler = CanvasFixture.handler(canvas);
+        int steps = 20_000;
+        for (int i = 0; i < steps; i++) {
+            handler.execute(CommandCompiler.compile("circle " + (1 + i % 150)));
+            handler.execute(CommandCompiler.compile("right 7"));
+        }
+        handler.execute(CommandCompiler.compile("square 120"));
+        handler.undoLastDrawCommand();
+
+        OffscreenCanvas expected = CanvasFixture.canvas();
+        CommandHandler reference = CanvasFixture.handler(expected);
+        for (int i = 0; i < steps; i++) {
+            reference.execute(CommandCompiler.compile("circle " + (1 + i % 150)));
+            reference.execute(CommandCompiler.compile("right 7"));
+        }
+        assertArrayEquals(CanvasFixture.render(expected), CanvasFixture.render(canvas));
+        assertTrue(handler.getCheckpoints().getCheckpointHits() > 0, "Undo replayed from scratch");
+    }
+
+    private static void run(CommandHandler handler, Instruction[] program, int commands) {
+        for (int i = 0; i < commands; i++) {
+            handler.execute(program[i % program.length]);
+        }
+    }
+}
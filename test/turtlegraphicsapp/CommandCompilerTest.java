@@ -0,0 +1,65 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandCompilerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void misspeltCommandIsRejectedWhenCompiled() {
+        Instruction typo = CommandCompiler.compile("forwrd 50");
+        assertFalse(typo.isValid());
+        assertEquals("Unknown command: forwrd 50", typo.error());
+
+        Instruction nested = CommandCompiler.compile("repeat 4 [ forward 10 forwrd 50 ]");
+        assertFalse(nested.isValid());
+        assertEquals("Unknown command or procedure: forwrd", nested.error());
+    }
+
+    @Test
+    void definedProcedureMayBeCalled() {
+        Set<String> procedures = new HashSet<>();
+        assertFalse(CommandCompiler.compile("star 100", procedures).isValid());
+        assertTrue(CommandCompiler.compile("to star :size repeat 5 [ forward :size right 144 ] end", procedures).isValid());
+        assertTrue(CommandCompiler.compile("star 100", procedures).isValid());
+        assertTrue(CommandCompiler.compile("repeat 36 [ star 100 left 10 ]", procedures).isValid());
+    }
+
+    // A body may call a procedure defined after it, and a script may call one it defines further on
+    @Test
+    void scriptMayCallProceduresItDefinesLater() throws IOException {
+        Path script = directory.resolve("flower.txt");
+        Files.write(script, List.of(
+                "to flower repeat 6 [ petal right 60 ] end",
+                "flower",
+                "to petal repeat 2 [ forward 30 right 120 ] end",
+                "petl"));
+        List<Instruction> program = CommandManager.readScript(script.toFile());
+        assertEquals(4, program.size());
+        assertTrue(program.get(0).isValid());
+        assertTrue(program.get(1).isValid());
+        assertTrue(program.get(2).isValid());
+        assertEquals("Unknown command: petl", program.get(3).error());
+    }
+
+    @Test
+    void handlerKnowsProceduresItHasRun() {
+        CommandHandler handler = new CommandHandler(new OffscreenCanvas(200, 200), null, null);
+        assertTrue(handler.handleCommand("to side forward 20 right 90 end"));
+        assertTrue(handler.handleCommand("repeat 4 [ side ]"));
+        assertFalse(handler.handleCommand("sidee"));
+    }
+}
@@ -0,0 +1,105 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopenRecoversAppendsRemovalsAndClears() throws IOException {
+        CommandJournal journal = CommandJournal.open(directory.toFile());
+        journal.append("forward 50");
+        journal.append("left 90");
+        journal.clear();
+        journal.append("pen 120 30 255");
+        journal.append("circle 40");
+        journal.append("square 10");
+        journal.removeLast();
+        journal.close();
+
+        CommandJournal reopened = CommandJournal.open(directory.toFile());
+        assertEquals(List.of("pen 120 30 255", "circle 40"), reopened.getRecovered());
+        reopened.removeLast();
+        reopened.removeLast();
+        reopened.removeLast();// More undos than commands
+        reopened.append("right 45");
+        reopened.close();
+
+        assertEquals(List.of("right 45"), recover());
+        assertFalse(new File(directory.toFile(), "checkpoint.txt").exists(), "Checkpoint for a short journal");
+    }
+
+    // Enough records to fold the journal into a checkpoint several times over
+    @Test
+    void checkpointsHoldTheWholeHistory() throws IOException {
+        CommandJournal journal = CommandJournal.open(directory.toFile());
+        List<String> expected = new ArrayList<>();
+        String[] sample = {"forward 50", "left 90", "pen 120 30 255", "circle 40", "penwidth 3", "reverse 20"};
+        for (int i = 0; i < 60_000; i++) {
+            if (i == 20_000) {
+                journal.clear();
+                expected.clear();
+            } else if (i % 50 == 49) {
+                journal.removeLast();
+                expected.remove(expected.size() - 1);
+            } else {
+                journal.append(sample[i % sample.length] + " " + i);
+                expected.add(sample[i % sample.length] + " " + i);
+            }
+        }
+        journal.close();
+
+        File checkpoint = new File(directory.toFile(), "checkpoint.txt");
+        File log = new File(directory.toFile(), "journal.log");
+        assertTrue(checkpoint.exists(), "No checkpoint written");
+        assertTrue(log.length() <= Math.max(checkpoint.length(), CommandJournal.MIN_CHECKPOINT_BYTES),
+                "Journal of " + log.length() + " bytes next to a checkpoint of " + checkpoint.length());
+        assertEquals(expected, recover());
+
+        // Records after a checkpoint go to the new journal
+        CommandJournal reopened = CommandJournal.open(directory.toFile());
+        reopened.append("forward 1");
+        reopened.close();
+        expected.add("forward 1");
+        assertEquals(expected, recover());
+    }
+
+    // A crash mid-write leaves a line without its newline; it is ignored, and records written
+    // after the next start do not run on from it
+    @Test
+    void lineCutShortByACrashIsDropped() throws IOException {
+        CommandJournal journal = CommandJournal.open(directory.toFile());
+        journal.append("forward 50");
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory.toFile(), "journal.log"), "rw")) {
+            file.seek(file.length());
+            file.writeBytes("+forward 1");
+        }
+
+        CommandJournal reopened = CommandJournal.open(directory.toFile());
+        assertEquals(List.of("forward 50"), reopened.getRecovered());
+        reopened.append("left 90");
+        reopened.close();
+        assertEquals(List.of("forward 50", "left 90"), recover());
+    }
+
+    private List<String> recover() throws IOException {
+        CommandJournal journal = CommandJournal.open(directory.toFile());
+        List<String> recovered = journal.getRecovered();
+        journal.close();
+        return recovered;
+    }
+}
@@ -0,0 +1,57 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandQueueTest {
+    // Commands that may not wait (from the EDT) must not jump ahead of ones already queued
+    @Test
+    void commandsComeOutInTheOrderTheyWerePut() throws InterruptedException {
+        CommandQueue queue = new CommandQueue(4);
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            int n = i;
+            queue.put(() -> ran.add(n), i % 2 == 0 && i < 4);
+        }
+        assertEquals(6, queue.size());
+
+        Runnable[] batch = new Runnable[3];
+        while (queue.size() > 0) {
+            int count = queue.takeBatch(batch);
+            for (int i = 0; i < count; i++) {
+                batch[i].run();
+            }
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), ran);
+    }
+
+    @Test
+    void fullQueueHoldsBackProducersThatMayWait() throws InterruptedException {
+        CommandQueue queue = new CommandQueue(4);
+        List<Integer> ran = new ArrayList<>();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                int n = i;
+                queue.put(() -> ran.add(n), true);
+            }
+        });
+        producer.start();
+        Runnable[] batch = new Runnable[64];
+        while (ran.size() < 100) {
+            int count = queue.takeBatch(batch);
+            assertTrue(count <= queue.capacity(), count + " commands queued past the capacity");
+            for (int i = 0; i < count; i++) {
+                batch[i].run();
+            }
+        }
+        producer.join();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, ran.get(i));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandServerTest {
+    private static final CommandServer.Runner OK = instruction -> null;
+    private static final CommandServer.Runner VALID = instruction -> instruction.isValid() ? null : instruction.error();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void staleSocketFromAnEarlierRunIsReplaced() throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(directory.resolve("turtle.sock"));
+        try (ServerSocketChannel earlier = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            earlier.bind(address);
+        }
+        assertTrue(Files.exists(address.getPath()), "Closing a Unix-domain server leaves its file");
+
+        try (CommandServer server = new CommandServer(address, null, OK)) {
+            assertEquals(address, server.getAddress());
+        }
+    }
+
+    @Test
+    void socketSomeoneListensOnIsRefused() throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(directory.resolve("turtle.sock"));
+        try (CommandServer first = new CommandServer(address, null, OK)) {
+            IOException e = assertThrows(IOException.class, () -> new CommandServer(address, null, OK));
+            assertTrue(e.getMessage().contains("already listening"), e.getMessage());
+            assertTrue(Files.exists(address.getPath()));
+        }
+    }
+
+    @Test
+    void ordinaryFileIsRefusedAndKept() throws IOException {
+        Path path = directory.resolve("notes.txt");
+        Files.writeString(path, "keep me");
+        IOException e = assertThrows(IOException.class,
+                () -> new CommandServer(UnixDomainSocketAddress.of(path), null, OK));
+        assertTrue(e.getMessage().contains("not a socket"), e.getMessage());
+        assertEquals("keep me", Files.readString(path));
+    }
+
+    // More lines than one chunk, from two clients at once: each gets its own replies, in order
+    @Test
+    void repliesComeBackInTheOrderCommandsWereSent() throws Exception {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(directory.resolve("turtle.sock"));
+        try (CommandServer server = new CommandServer(address, null, VALID)) {
+            List<Thread> clients = new ArrayList<>();
+            List<Throwable> failures = new ArrayList<>();
+            for (int c = 0; c < 2; c++) {
+                int every = 5 + c * 2;
+                Thread client = new Thread(() -> {
+                    try {
+                        talk(server, every, 10_000);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                });
+                client.start();
+                clients.add(client);
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertEquals(List.of(), failures);
+        }
+    }
+
+    // Sends count numbered commands with every every-th one misspelt, and checks each reply
+    private static void talk(CommandServer server, int every, int count) throws IOException, InterruptedException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(server.getAddress());
+            Thread writer = new Thread(() -> {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < count; i++) {
+                    text.append(i % every == 0 ? "forwrd " + i : "forward " + i).append('\n');
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.start();
+            // Read straight from the channel: Channels streams would lock the writer out
+            StringBuilder replies = new StringBuilder();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            int lines = 0;
+            while (lines < count && channel.read(buffer) >= 0) {
+                buffer.flip();
+                String text = StandardCharsets.UTF_8.decode(buffer).toString();
+                lines += text.chars().filter(ch -> ch == '\n').count();
+                replies.append(text);
+                buffer.clear();
+            }
+            String[] received = replies.toString().split("\n");
+            assertEquals(count, received.length);
+            for (int i = 0; i < count; i++) {
+                assertEquals(i % every == 0 ? "error Unknown command: forwrd " + i : "ok", received[i], "reply " + i);
+            }
+            writer.join();
+        }
+    }
+}
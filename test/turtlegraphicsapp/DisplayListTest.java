@@ -0,0 +1,77 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DisplayListTest {
+    @Test
+    void snapshotKeepsItsSegmentsThroughTruncateAndLaterAdds() {
+        DisplayList list = new DisplayList();
+        for (int i = 0; i < 100_000; i++) {
+            list.add(i, i, i + 1, i + 1, 0xFF0000 + i % 3, 1);
+        }
+        DisplayList.Snapshot before = list.snapshot();
+
+        list.truncate(70_000, 0);
+        for (int i = 0; i < 50_000; i++) {
+            list.add(-1, -1, -2, -2, 0x00FF00, 2);
+        }
+
+        assertEquals(100_000, before.size());
+        assertEquals(99_999f, before.getX0(99_999));
+        assertEquals(80_000f, before.getX0(80_000));
+        assertEquals(0xFF0000 + 80_000 % 3, before.getColour(80_000));
+
+        DisplayList.Snapshot after = list.snapshot();
+        assertEquals(120_000, after.size());
+        assertEquals(-1f, after.getX0(80_000));
+        assertEquals(0x00FF00, after.getColour(80_000));
+        assertNotEquals(before.getGeneration(), after.getGeneration());
+    }
+
+    // The EDT paints the zoomed view from snapshots while the executor adds and undoes
+    @Test
+    void snapshotsReadWhileAnotherThreadAddsAndTruncates() throws InterruptedException {
+        DisplayList list = new DisplayList();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                while (!done.get()) {
+                    DisplayList.Snapshot snapshot = list.snapshot();
+                    snapshot.render(g, 0.001, 0, 0);
+                    for (int i = snapshot.getVisibleFrom(); i < snapshot.size(); i++) {
+                        // Every segment is written with x1 = x0 + 1 before it is published
+                        if (snapshot.getX1(i) != snapshot.getX0(i) + 1) {
+                            throw new AssertionError("Half-written segment " + i);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                g.dispose();
+            }
+        });
+        reader.start();
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 20_000; i++) {
+                list.add(i, round, i + 1, round, round, 1 + i % 2);
+            }
+            list.truncate(list.size() / 3, 0);
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,54 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LSystemTest {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 400;
+
+    @Test
+    void pathThatLeavesTheCanvasIsRefusedBeforeDrawing() {
+        OffscreenCanvas canvas = new OffscreenCanvas(WIDTH, HEIGHT);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+        int[] blank = canvas.getBufferedImage().getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+
+        // 81 steps of 10 from the centre reach well past the left edge
+        assertFalse(handler.execute(CommandCompiler.compile("lsystem 4 90 10 F F=F+F-F-F+F")));
+        assertTrue(canvas.getLastMessage().startsWith("L-system blocked"), canvas.getLastMessage());
+        assertEquals(WIDTH / 2, canvas.getxPos());
+        assertEquals(HEIGHT / 2, canvas.getyPos());
+        assertEquals(0, handler.getDisplayList().size());
+        assertTrue(Arrays.equals(blank, canvas.getBufferedImage().getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH)));
+
+        // Later moves still work
+        assertTrue(handler.execute(CommandCompiler.compile("forward 50")));
+    }
+
+    @Test
+    void pathThatFitsIsDrawnAndLeavesTheTurtleOnTheCanvas() {
+        OffscreenCanvas canvas = new OffscreenCanvas(WIDTH, HEIGHT);
+        CommandHandler handler = new CommandHandler(canvas, null, null);
+
+        assertTrue(handler.execute(CommandCompiler.compile("lsystem 4 90 4 F F=F+F-F-F+F")));
+        assertTrue(handler.getDisplayList().size() > 0);
+        assertTrue(canvas.getxPos() >= 0 && canvas.getxPos() <= WIDTH, "x " + canvas.getxPos());
+        assertTrue(canvas.getyPos() >= 0 && canvas.getyPos() <= HEIGHT, "y " + canvas.getyPos());
+    }
+
+    @Test
+    void boundsScaleWithTheStep() {
+        LSystem lsystem = LSystem.parse("lsystem 1 90 7 F F=F+F-F-F+F".split(" "));
+        double[] bounds = lsystem.measure(0);
+        // Heading 0 runs along +x: 3 unit steps long with a bump of 1 towards -y ("+" turns left)
+        assertEquals(0, bounds[0], 1e-9);
+        assertEquals(-1, bounds[1], 1e-9);
+        assertEquals(3, bounds[2], 1e-9);
+        assertEquals(0, bounds[3], 1e-9);
+    }
+}
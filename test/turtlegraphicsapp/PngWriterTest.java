@@ -0,0 +1,81 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class PngWriterTest {
+    // From one stripe to dozens; a stripe is about 256 KB of unfiltered rows
+    private static final int[][] SIZES = {{1, 1}, {800, 400}, {40, 5000}, {3000, 700}};
+
+    // Indexed colour up to 256 colours, truecolour past that, and truecolour with alpha
+    @Test
+    void decodesToTheSamePixelsForEveryPaletteAndFilter() throws IOException {
+        for (int[] size : SIZES) {
+            for (int colours : new int[] {2, 256, 257}) {
+                BufferedImage image = image(size[0], size[1], colours, BufferedImage.TYPE_INT_RGB);
+                for (PngWriter.Filter filter : PngWriter.Filter.values()) {
+                    roundTrip(image, new PngWriter(PngWriter.DEFAULT_LEVEL, filter),
+                            size[0] + "x" + size[1] + ", " + colours + " colours, " + filter);
+                }
+            }
+            BufferedImage translucent = image(size[0], size[1], 16, BufferedImage.TYPE_INT_ARGB);
+            roundTrip(translucent, new PngWriter(), size[0] + "x" + size[1] + " with alpha");
+        }
+    }
+
+    @Test
+    void decodesToTheSamePixelsAtEveryLevel() throws IOException {
+        BufferedImage image = image(800, 400, 6, BufferedImage.TYPE_INT_RGB);
+        for (int level = 0; level <= 9; level++) {
+            roundTrip(image, new PngWriter(level, PngWriter.Filter.PAETH), "level " + level);
+        }
+    }
+
+    private static void roundTrip(BufferedImage image, PngWriter writer, String name) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        writer.write(PngWriter.rowsOf(image), encoded);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encoded.toByteArray()));
+        assertNotNull(decoded, name);
+        assertEquals(image.getWidth(), decoded.getWidth(), name);
+        assertEquals(image.getHeight(), decoded.getHeight(), name);
+        assertArrayEquals(pixels(image), pixels(decoded), name);
+    }
+
+    // Runs of colours picked from a fixed set, so rows compress and filter differently
+    private static BufferedImage image(int width, int height, int colours, int type) {
+        Random random = new Random(width * 31L + height + colours);
+        int[] palette = new int[colours];
+        for (int i = 0; i < colours; i++) {
+            int alpha = type == BufferedImage.TYPE_INT_ARGB ? random.nextInt(256) : 0xFF;
+            palette[i] = alpha << 24 | (i * 97 & 0xFF) << 16 | (i >> 8) << 8 | (i * 31 & 0xFF);// All different
+        }
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; ) {
+            int colour = palette[random.nextInt(colours)];
+            for (int run = 1 + random.nextInt(20); run > 0 && i < argb.length; run--) {
+                argb[i++] = colour;
+            }
+        }
+        // Every colour at least once, so the palette really is that size
+        for (int i = 0; i < Math.min(colours, argb.length); i++) {
+            argb[i] = palette[i];
+        }
+        BufferedImage image = new BufferedImage(width, height, type);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
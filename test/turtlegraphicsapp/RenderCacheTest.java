@@ -0,0 +1,68 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RenderCacheTest {
+    @TempDir
+    Path directory;
+
+    // Several read buffers' worth, so the file is hashed in more than one piece
+    @Test
+    void keyOfAFileMatchesKeyOfItsBytes() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            lines.add(i % 2 == 0 ? "forward " + i % 90 : "right " + i % 360);
+        }
+        File script = Files.write(directory.resolve("long.txt"), lines).toFile();
+        CommandHandler handler = new CommandHandler(CanvasFixture.canvas(), null, null);
+        assertEquals(RenderCache.key(Files.readAllBytes(script.toPath()), handler, false),
+                RenderCache.key(script, handler, false));
+    }
+
+    @Test
+    void hitDrawsWhatRunningTheScriptDrew() throws IOException {
+        File script = Files.write(directory.resolve("star.txt"), List.of(
+                "to star :size repeat 5 [ forward :size right 144 ] end",
+                "pen 200 40 40",
+                "repeat 12 [ star 90 right 30 ]")).toFile();
+        RenderCache cache = new RenderCache(directory.resolve("cache").toFile(), RenderCache.DEFAULT_MAX_BYTES);
+
+        OffscreenCanvas ran = CanvasFixture.canvas();
+        CommandHandler runner = new CommandHandler(ran, null, null);
+        String key = RenderCache.key(script, runner, false);
+        assertNull(cache.get(key));
+        List<Instruction> program = CommandManager.readScript(script, runner.getProcedureNames());
+        for (Instruction instruction : program) {
+            runner.execute(instruction);
+        }
+        cache.put(key, runner.captureRender(new int[0]));
+        cache.flush();
+
+        OffscreenCanvas restored = CanvasFixture.canvas();
+        CommandHandler restorer = new CommandHandler(restored, null, null);
+        RenderCache.Entry entry = cache.get(RenderCache.key(script, restorer, false));
+        assertNotNull(entry);
+        restorer.restoreRender(entry, program);
+        assertArrayEquals(CanvasFixture.render(ran), CanvasFixture.render(restored));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // The same script from somewhere else on the canvas is a different render
+        restorer.execute(CommandCompiler.compile("forward 10"));
+        assertNull(cache.get(RenderCache.key(script, restorer, false)));
+        assertEquals(2, cache.getMisses());
+    }
+}
@@ -0,0 +1,103 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptOptimizerTest {
+    private static final String[] COLOURS = {"red", "green", "orange", "white", "pink", "cyan", "pen 10 200 90"};
+
+    // The sample scripts kept next to the sources must draw the same with and without the pass
+    @ParameterizedTest
+    @ValueSource(strings = {"c.txt", "c1.txt", "circ.txt", "cmd.txt"})
+    void sampleScriptsLeaveTheSameCanvas(String name) throws IOException {
+        File script = sample(name);
+        assertTrue(script.isFile(), "Missing sample " + script);
+        List<Instruction> program = CommandManager.readScript(script);
+        assertArrayEquals(run(program, false), run(program, true), name);
+    }
+
+    // Scripts like the machine-generated ones we load, where the pass has plenty to remove
+    @Test
+    void generatedScriptsLeaveTheSameCanvas() {
+        int before = 0;
+        int removed = 0;
+        for (int seed = 0; seed < 30; seed++) {
+            List<Instruction> program = generate(new Random(seed), 5000);
+            CommandHandler handler = CanvasFixture.handler(CanvasFixture.canvas());
+            before += program.size();
+            removed += handler.optimize(program).removed;
+            assertArrayEquals(run(program, false), run(program, true), "seed " + seed);
+        }
+        assertTrue(removed > before / 10, "Only " + removed + " of " + before + " steps removed");
+    }
+
+    // Runs of small turns, repeated colours, zero-length and pen-up moves, moves split into steps
+    private static List<Instruction> generate(Random random, int commands) {
+        List<String> lines = new ArrayList<>();
+        lines.add("penwidth " + (random.nextBoolean() ? 1 : 3));
+        while (lines.size() < commands) {
+            switch (random.nextInt(12)) {
+                case 0, 1 -> {
+                    // A turn split into small steps, sometimes coming back round
+                    for (int i = random.nextInt(4); i >= 0; i--) {
+                        lines.add((random.nextBoolean() ? "left " : "right ") + 15 * random.nextInt(7));
+                    }
+                }
+                case 2, 3 -> {
+                    // A straight line drawn in steps
+                    String step = (random.nextInt(4) == 0 ? "reverse " : "forward ") + random.nextInt(12);
+                    for (int i = random.nextInt(5); i >= 0; i--) lines.add(step);
+                }
+                case 4 -> lines.add(COLOURS[random.nextInt(COLOURS.length)]);
+                case 5 -> {
+                    lines.add("penup");
+                    for (int i = random.nextInt(3); i >= 0; i--) lines.add("forward " + random.nextInt(30));
+                    lines.add("pendown");
+                }
+                case 6 -> lines.add(random.nextBoolean() ? "forward 0" : "left 0");
+                case 7 -> lines.add(random.nextBoolean() ? "pendown" : "penwidth " + (1 + random.nextInt(2)));
+                case 8 -> lines.add(random.nextInt(3) == 0 ? "square " + random.nextInt(40) : "circle " + random.nextInt(30));
+                case 9 -> lines.add(switch (random.nextInt(12)) {
+                    case 0 -> "clear";
+                    case 1 -> "reset";
+                    case 2 -> "dance 3";
+                    case 3 -> "triangle " + random.nextInt(50);
+                    case 4 -> "fractal tree 3";
+                    default -> "cyclecolours";
+                });
+                case 10 -> lines.add("forward " + random.nextInt(400));// Often blocked at the edge
+                default -> lines.add((random.nextBoolean() ? "left " : "right ") + random.nextInt(360));
+            }
+        }
+        List<Instruction> program = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            program.add(CommandCompiler.compile(line));
+        }
+        return program;
+    }
+
+    private static File sample(String name) {
+        // Surefire runs from the app module; an IDE usually from the project root
+        File fromModule = new File(System.getProperty("basedir", "."), "../src/turtlegraphicsapp/" + name);
+        return fromModule.isFile() ? fromModule : new File("src/turtlegraphicsapp/" + name);
+    }
+
+    private static int[] run(List<Instruction> program, boolean optimize) {
+        OffscreenCanvas canvas = CanvasFixture.canvas();
+        CommandHandler handler = CanvasFixture.handler(canvas);
+        for (Instruction instruction : optimize ? handler.optimize(program).program : program) {
+            handler.execute(instruction);
+        }
+        return CanvasFixture.render(canvas);
+    }
+}
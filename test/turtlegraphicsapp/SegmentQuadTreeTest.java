@@ -0,0 +1,71 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentQuadTreeTest {
+    // Dense drawing over the spot where something was drawn before a clear must still show when
+    // zoomed out, where whole cells collapse to points
+    @Test
+    void newDrawingShowsAtLowZoomWhereClearedDrawingWas() {
+        DisplayList list = new DisplayList();
+        scribble(list, 0xFF0000);
+        list.clearVisible();
+        int visibleFrom = list.size();
+        scribble(list, 0x00FF00);
+
+        SegmentQuadTree tree = new SegmentQuadTree(1024);
+        tree.sync(list.snapshot());
+        List<Integer> shown = query(tree, 0.01f);
+        assertFalse(shown.isEmpty(), "New drawing collapsed away");
+        for (int index : shown) {
+            assertTrue(index >= visibleFrom, "Cleared segment " + index + " shown");
+        }
+    }
+
+    @Test
+    void clearedDrawingIsNotShownAtAnyZoom() {
+        DisplayList list = new DisplayList();
+        scribble(list, 0xFF0000);
+        SegmentQuadTree tree = new SegmentQuadTree(1024);
+        tree.sync(list.snapshot());
+        assertFalse(query(tree, 0.01f).isEmpty());
+
+        list.clearVisible();
+        tree.sync(list.snapshot());
+        assertEquals(List.of(), query(tree, 0.01f));
+        assertEquals(List.of(), query(tree, 4));
+    }
+
+    // Many short segments packed into a small area, so cells are crowded
+    private static void scribble(DisplayList list, int rgb) {
+        for (int i = 0; i < 20_000; i++) {
+            float x = 100 + i % 100;
+            float y = 100 + (i / 100) % 100;
+            list.add(x, y, x + 1, y + 1, rgb, 1);
+        }
+    }
+
+    // Segments and the sample segments of collapsed points, over the whole drawing
+    private static List<Integer> query(SegmentQuadTree tree, float scale) {
+        List<Integer> shown = new ArrayList<>();
+        tree.query(0, 0, 1024, 1024, scale, new SegmentQuadTree.Visitor() {
+            @Override
+            public void segment(int index) {
+                shown.add(index);
+            }
+
+            @Override
+            public void point(float x, float y, float size, int sampleSegment) {
+                shown.add(sampleSegment);
+            }
+        });
+        return shown;
+    }
+}
@@ -0,0 +1,28 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TiledCanvasTest {
+    // Undo restores checkpoints of a single image, which a tiled canvas does not have, so asking
+    // for history must not make drawing or undo fail
+    @Test
+    void handlerKeepsNoHistoryForATiledCanvas() {
+        TiledCanvas canvas = new TiledCanvas(2000, 1500);
+        try {
+            CommandHandler handler = new CommandHandler(canvas, null, null);
+            handler.setAnnounceCommands(false);
+            handler.setRecordHistory(true);
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(handler.handleCommand(i % 2 == 0 ? "circle " + (1 + i % 300) : "right 7"));
+            }
+            handler.undoLastDrawCommand();
+            assertEquals(0, handler.getCheckpoints().getCheckpointCount());
+            assertTrue(canvas.getAllocatedTiles() > 0);
+        } finally {
+            canvas.dispose();
+        }
+    }
+}
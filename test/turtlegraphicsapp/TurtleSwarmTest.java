@@ -0,0 +1,109 @@
+package turtlegraphicsapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TurtleSwarmTest {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 400;
+
+    // Where two turtles cross, the one added later is on top, whichever ran first
+    @Test
+    void laterTurtleIsOnTopWhicheverRunsFirst() throws Exception {
+        // A turtle's first drawing command resets its pen, so each turns before choosing one
+        List<Instruction> red = program("left 180", "pen 255 0 0", "penwidth 5", "forward 100", "reverse 200");
+        List<Instruction> green = program("right 90", "pen 0 255 0", "penwidth 5", "forward 100", "reverse 200");
+        for (boolean greenFirst : new boolean[] {false, true}) {
+            try (TurtleSwarm swarm = new TurtleSwarm(WIDTH, HEIGHT, 2)) {
+                swarm.addTurtle("centre");// Never moves
+                swarm.addTurtle("red");
+                swarm.addTurtle("green");
+                if (greenFirst) {
+                    swarm.submit("green", green).get();
+                    swarm.submit("red", red).get();
+                } else {
+                    swarm.submit("red", red).get();
+                    swarm.submit("green", green).get();
+                }
+                OffscreenCanvas centre = swarm.getTurtle("centre");
+                OffscreenCanvas redEnd = swarm.getTurtle("red");
+                BufferedImage image = swarm.composite();
+                assertEquals(0x00FF00, image.getRGB(centre.getxPos(), centre.getyPos()) & 0xFFFFFF,
+                        greenFirst ? "green ran first" : "red ran first");
+                assertEquals(0xFF0000, image.getRGB(redEnd.getxPos(), redEnd.getyPos()) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    void sameImageWithAnyNumberOfThreads() throws Exception {
+        List<List<Instruction>> programs = new ArrayList<>();
+        Random random = new Random(7);
+        for (int t = 0; t < 16; t++) {
+            List<String> commands = new ArrayList<>(List.of("penup", "right " + random.nextInt(360),
+                    "forward " + random.nextInt(120), "pendown",
+                    "pen " + random.nextInt(256) + " " + random.nextInt(256) + " " + random.nextInt(256)));
+            for (int i = 0; i < 300; i++) {
+                int length = 1 + random.nextInt(30);
+                commands.add("right " + random.nextInt(360));
+                commands.add(i % 25 == 0 ? "circle " + length : "forward " + length);
+                commands.add("reverse " + length);
+            }
+            programs.add(program(commands.toArray(new String[0])));
+        }
+        int[] single = run(programs, 1);
+        assertArrayEquals(single, run(programs, 4));
+        assertArrayEquals(single, run(programs, 8));
+    }
+
+    @Test
+    void clearErasesOnlyThatTurtle() throws Exception {
+        try (TurtleSwarm swarm = new TurtleSwarm(WIDTH, HEIGHT, 2)) {
+            swarm.addTurtle("kept");
+            swarm.addTurtle("cleared");
+            swarm.submit("kept", program("forward 100")).get();
+            int[] before = pixels(swarm.composite());
+            swarm.submit("cleared", program("right 90", "pen 0 0 255", "forward 100")).get();
+            swarm.submit("cleared", program("clear")).get();
+            assertArrayEquals(before, pixels(swarm.composite()));
+        }
+    }
+
+    private static int[] run(List<List<Instruction>> programs, int threads) throws InterruptedException, ExecutionException {
+        try (TurtleSwarm swarm = new TurtleSwarm(WIDTH, HEIGHT, threads)) {
+            for (int t = 0; t < programs.size(); t++) {
+                swarm.addTurtle("turtle" + t);
+            }
+            // Submitted last first, so the work runs in a different order from the compositing
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = programs.size() - 1; t >= 0; t--) {
+                results.add(swarm.submit("turtle" + t, programs.get(t)));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(0, result.get());
+            }
+            return pixels(swarm.composite());
+        }
+    }
+
+    private static List<Instruction> program(String... commands) {
+        List<Instruction> program = new ArrayList<>();
+        for (String command : commands) {
+            program.add(CommandCompiler.compile(command));
+        }
+        return program;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+}